@@ -45,7 +45,9 @@ public class V1_0_3__change_osm_layer_names implements JdbcMigration {
         }
     }
 
-    private void updateLayer(OskariLayer layer, String uiName) throws JSONException{
+    private void updateLayer(OskariLayer listed, String uiName) throws JSONException{
+        // layers listed with findAll() are shared so modify a separately loaded copy
+        OskariLayer layer = LAYER_SERVICE.find(listed.getId());
         String[] locales = PropertyUtil.getSupportedLanguages();
         JSONObject locale = new JSONObject();
         JSONObject layerName = new JSONObject();
@@ -3,6 +3,7 @@ package fi.nls.oskari.control.admin;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.CacheStats;
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
@@ -35,6 +36,7 @@ public class CacheHandler extends RestActionHandler {
             JSONHelper.putValue(json, "limit", cache.getLimit());
             JSONHelper.putValue(json, "expiration", (cache.getExpiration() / 1000));
             JSONHelper.putValue(json, "lastFlush", (cache.getLastFlush() / 1000));
+            JSONHelper.putValue(json, "stats", getStats(cache.getStatistics()));
             list.put(json);
         }
         JSONHelper.putValue(response, "caches", list);
@@ -43,6 +45,19 @@ public class CacheHandler extends RestActionHandler {
     }
 
 
+    protected static JSONObject getStats(CacheStats stats) {
+        final JSONObject json = new JSONObject();
+        JSONHelper.putValue(json, "hits", stats.getHitCount());
+        JSONHelper.putValue(json, "misses", stats.getMissCount());
+        JSONHelper.putValue(json, "hitRate", stats.getHitRate());
+        JSONHelper.putValue(json, "evictions", stats.getEvictionCount());
+        JSONHelper.putValue(json, "expirations", stats.getExpirationCount());
+        JSONHelper.putValue(json, "loads", stats.getLoadCount());
+        JSONHelper.putValue(json, "loadFailures", stats.getLoadFailureCount());
+        JSONHelper.putValue(json, "avgLoadTimeMs", stats.getAverageLoadTime());
+        return json;
+    }
+
     @Override
     public void preProcess(ActionParameters params) throws ActionException {
         if (!params.getUser().isAdmin()) {
@@ -9,6 +9,7 @@ import com.codahale.metrics.jvm.ThreadStatesGaugeSet;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
@@ -69,6 +70,13 @@ public class MetricsHandler extends RestActionHandler {
             LOG.error(e, "Error writing thread state metrics");
         }
 
+        // in-memory caches
+        final JSONObject caches = new JSONObject();
+        for (String name : CacheManager.getCacheNames()) {
+            JSONHelper.putValue(caches, name, CacheHandler.getStats(CacheManager.getCache(name).getStatistics()));
+        }
+        JSONHelper.putValue(metricsJSON, "caches", caches);
+
         ResponseHelper.writeResponse(params, metricsJSON);
     }
 
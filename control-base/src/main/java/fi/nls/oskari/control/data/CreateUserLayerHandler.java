@@ -1,7 +1,9 @@
 package fi.nls.oskari.control.data;
 
+import com.codahale.metrics.MetricRegistry;
 import fi.mml.map.mapwindow.util.OskariLayerWorker;
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.control.ActionControl;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionHandler;
 import fi.nls.oskari.control.ActionParameters;
@@ -33,6 +35,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -55,6 +58,8 @@ public class CreateUserLayerHandler extends ActionHandler {
     private static final String USERLAYER_DEFAULT_SOURCE_EPSG = "userlayer.default.source.epsg";
     private static final int MAX_FILES_IN_ZIP = 100;
     private static final int MAX_BASE_FILENAME_LENGHT = 24;
+    private static final boolean GATHER_METRICS = PropertyUtil.getOptional("CreateUserLayer.metrics", true);
+    private static final String METRICS_PREFIX = "Oskari.CreateUserLayer";
     final long userlayerMaxFileSizeMb = PropertyUtil.getOptional(USERLAYER_MAX_FILE_SIZE_MB, 10);
     final String defaultSourceEpsg = PropertyUtil.get(USERLAYER_DEFAULT_SOURCE_EPSG, null);
     private final UserLayerDataService userlayerService = new UserLayerDataService();
@@ -174,6 +179,7 @@ public class CreateUserLayerHandler extends ActionHandler {
 
         final String target_epsg = params.getHttpParam(PARAM_EPSG_KEY, "EPSG:3067");
         final String source_epsg = params.getHttpParam(PARAM_SOURCE_EPSG_KEY, defaultSourceEpsg);
+        final long start = System.currentTimeMillis();
         try {
 
             // Only 1st file item is handled
@@ -201,21 +207,12 @@ public class CreateUserLayerHandler extends ActionHandler {
             } else if (file.getName().toUpperCase().indexOf(IMPORT_MIF) > -1) {
                 geojsonWorker = new MIFGeoJsonCollection();
             }
-            // Parse import data to geojson
-            String status = geojsonWorker.parseGeoJSON(file, source_epsg, target_epsg);
-            if (status != null) {
-                throw new ActionException(status);
-            }
-
-
-            // Store geojson via Mybatis
-            UserLayer ulayer = userlayerService.storeUserData(geojsonWorker, user, loadItem.getFparams());
-
-            // Store failed
-            if (ulayer == null) {
-                log.error("Couldn't store user data into database or no features in the input data");
-                throw new ActionException("unable_to_store_data");
-            }
+            // Parse import data and store features via Mybatis while reading, fails with parser status or
+            // unable_to_store_data if there are no features or storing fails
+            UserLayer ulayer = userlayerService.storeUserData(geojsonWorker, file, source_epsg, target_epsg,
+                    user, loadItem.getFparams());
+            recordImport(loadItem.getFileitem().getSize(), ulayer.getFeatures_count(),
+                    System.currentTimeMillis() - start);
 
             // workaround because of IE iframe submit json download functionality
             //params.getResponse().setContentType("application/json;charset=utf-8");
@@ -244,6 +241,17 @@ public class CreateUserLayerHandler extends ActionHandler {
 
     }
 
+    private void recordImport(final long uploadSize, final int featureCount, final long elapsed) {
+        log.info("Imported user layer:", featureCount, "features from", uploadSize, "bytes in", elapsed, "ms");
+        if (!GATHER_METRICS) {
+            return;
+        }
+        final MetricRegistry metrics = ActionControl.getMetrics();
+        metrics.histogram(METRICS_PREFIX + ".uploadSize").update(uploadSize);
+        metrics.histogram(METRICS_PREFIX + ".features").update(featureCount);
+        metrics.timer(METRICS_PREFIX + ".import").update(elapsed, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * unzip and write shp files as temp filesz
      *
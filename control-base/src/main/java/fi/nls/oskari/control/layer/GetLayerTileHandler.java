@@ -13,12 +13,24 @@ import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.util.ServiceFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.net.HttpURLConnection;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 import static fi.nls.oskari.control.ActionConstants.KEY_ID;
@@ -30,11 +42,19 @@ public class GetLayerTileHandler extends ActionHandler {
     private static final String LEGEND = "legend";
     private static final String NAME = "name";
     private static final List<String> RESERVED_PARAMETERS = Arrays.asList(new String[]{KEY_ID, ActionControl.PARAM_ROUTE, LEGEND});
-    private static final int TIMEOUT_CONNECTION = PropertyUtil.getOptional("GetLayerTile.timeout.connection", 1000);
-    private static final int TIMEOUT_READ = PropertyUtil.getOptional("GetLayerTile.timeout.read", 5000);
     private static final boolean GATHER_METRICS = PropertyUtil.getOptional("GetLayerTile.metrics", true);
     private static final String METRICS_PREFIX = "Oskari.GetLayerTile";
     private PermissionHelper permissionHelper;
+    private LayerTileCache tileCache;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_EXPIRES = "Expires";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final List<String> PASSTHROUGH_HEADERS = Arrays.asList(
+            HEADER_ETAG, HEADER_CACHE_CONTROL, HEADER_LAST_MODIFIED, HEADER_EXPIRES);
 
     // WMTS rest layers params
     private static final String KEY_STYLE = "STYLE";
@@ -48,6 +68,12 @@ public class GetLayerTileHandler extends ActionHandler {
      */
     public void init() {
         permissionHelper = new PermissionHelper(ServiceFactory.getMapLayerService(),ServiceFactory.getPermissionsService());
+        tileCache = new LayerTileCache();
+    }
+
+    @Override
+    public void teardown() {
+        TileProxyClient.shutdown();
     }
 
     /**
@@ -70,50 +96,39 @@ public class GetLayerTileHandler extends ActionHandler {
             actionTimer = timer.time();
         }
 
-        String httpMethod = params.getRequest().getMethod();
-        String url;
-        String postParams = null;
-        boolean doOutPut = httpMethod.equals("POST");
-        if (doOutPut) {
-            url = layer.getUrl();
-            postParams = IOHelper.getParams(getUrlParams(params.getRequest()));
-        } else {
-            url = getURL(params, layer);
-        }
-        // TODO: we should handle redirects here or in IOHelper or start using a lib that handles 301/302 properly
-        HttpURLConnection con = getConnection(url, layer);
-
         try {
-            con.setRequestMethod(httpMethod);
-            con.setDoOutput(doOutPut);
-            con.setConnectTimeout(TIMEOUT_CONNECTION);
-            con.setReadTimeout(TIMEOUT_READ);
-            con.setDoInput(true);
-            con.setFollowRedirects(true);
-            con.setUseCaches(false);
-            con.connect();
-
-            if (doOutPut) {
-                IOHelper.writeToConnection(con, postParams);
+            final HttpRequestBase request;
+            String cacheKey = null;
+            if ("POST".equals(params.getRequest().getMethod())) {
+                final HttpPost post = new HttpPost(layer.getUrl());
+                post.setEntity(new StringEntity(IOHelper.getParams(getUrlParams(params.getRequest())),
+                        ContentType.APPLICATION_FORM_URLENCODED));
+                request = post;
+            } else {
+                request = new HttpGet(getURL(params, layer));
+                if (tileCache.isEnabled(layer)) {
+                    cacheKey = LayerTileCache.getKey(layerId, getTileParams(params.getRequest()));
+                }
             }
+            setupBasicAuth(request, layer);
+            LOG.debug("Getting layer tile from url:", request.getURI());
 
-            final int responseCode = con.getResponseCode();
-            final String contentType = con.getContentType().toLowerCase();
-            if(responseCode != HttpURLConnection.HTTP_OK || !contentType.startsWith("image/")) {
-                LOG.warn("URL", url, "returned HTTP response code", responseCode,
-                        "with message", con.getResponseMessage(), "and content-type:", contentType);
-                String msg = IOHelper.readString(con);
-                LOG.info("Response was:", msg);
-                throw new ActionParamsException("Problematic response from actual service");
+            final LayerTileCache.Tile cached = cacheKey != null ? tileCache.get(cacheKey) : null;
+            if (cached != null && cached.isFresh()) {
+                markCacheMetric("hit");
+                writeTile(params, cached);
+                return;
             }
-
-            // read the image tile
-            final byte[] presponse = IOHelper.readBytes(con);
-            final HttpServletResponse response = params.getResponse();
-            response.setContentType(contentType);
-            response.getOutputStream().write(presponse, 0, presponse.length);
-            response.getOutputStream().flush();
-            response.getOutputStream().close();
+            if (cached != null) {
+                // revalidate stale tile
+                setHeader(request, HEADER_IF_NONE_MATCH, cached.getEtag());
+                setHeader(request, HEADER_IF_MODIFIED_SINCE, cached.getLastModified());
+            } else if (cacheKey == null) {
+                // let the browser revalidate its own copy with the service
+                setHeader(request, HEADER_IF_NONE_MATCH, params.getRequest().getHeader(HEADER_IF_NONE_MATCH));
+                setHeader(request, HEADER_IF_MODIFIED_SINCE, params.getRequest().getHeader(HEADER_IF_MODIFIED_SINCE));
+            }
+            proxy(params, request, cacheKey, cached);
         } catch(ActionException e) {
             // just throw it as is if we already handled it
             throw e;
@@ -123,12 +138,123 @@ public class GetLayerTileHandler extends ActionHandler {
             if(actionTimer != null) {
                 actionTimer.stop();
             }
-            if(con != null) {
-                con.disconnect();
+        }
+    }
+
+    private void proxy(final ActionParameters params, final HttpRequestBase request,
+                       final String cacheKey, final LayerTileCache.Tile cached) throws Exception {
+        final HttpServletResponse response = params.getResponse();
+        try (CloseableHttpResponse upstream = TileProxyClient.getClient().execute(request)) {
+            final int responseCode = upstream.getStatusLine().getStatusCode();
+            final HttpEntity entity = upstream.getEntity();
+            if (responseCode == HttpServletResponse.SC_NOT_MODIFIED) {
+                if (cached != null) {
+                    markCacheMetric("revalidated");
+                    final LayerTileCache.Tile tile = cached.revalidated(getExpires(upstream));
+                    tileCache.put(cacheKey, tile);
+                    writeTile(params, tile);
+                } else {
+                    copyHeaders(upstream, response);
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                }
+                return;
+            }
+            final String contentType = entity == null || entity.getContentType() == null ?
+                    "" : entity.getContentType().getValue().toLowerCase();
+            if (responseCode != HttpServletResponse.SC_OK || !contentType.startsWith("image/")) {
+                LOG.warn("URL", request.getURI(), "returned HTTP response code", responseCode,
+                        "with message", upstream.getStatusLine().getReasonPhrase(), "and content-type:", contentType);
+                LOG.info("Response was:", entity == null ? null : EntityUtils.toString(entity));
+                throw new ActionParamsException("Problematic response from actual service");
+            }
+
+            final String cacheControl = getHeader(upstream, HEADER_CACHE_CONTROL);
+            if (cacheKey != null && LayerTileCache.isStorable(cacheControl)) {
+                markCacheMetric("miss");
+                final LayerTileCache.Tile tile = new LayerTileCache.Tile(EntityUtils.toByteArray(entity), contentType,
+                        getHeader(upstream, HEADER_ETAG), getHeader(upstream, HEADER_LAST_MODIFIED), getExpires(upstream));
+                tileCache.put(cacheKey, tile);
+                writeTile(params, tile);
+                return;
+            }
+
+            // stream the tile to the client as we receive it
+            response.setContentType(contentType);
+            copyHeaders(upstream, response);
+            if (entity.getContentLength() >= 0) {
+                response.setContentLength((int) entity.getContentLength());
+            }
+            final OutputStream out = response.getOutputStream();
+            entity.writeTo(out);
+            out.flush();
+        }
+    }
+
+    private void writeTile(final ActionParameters params, final LayerTileCache.Tile tile) throws IOException {
+        final HttpServletResponse response = params.getResponse();
+        if (tile.getEtag() != null) {
+            response.setHeader(HEADER_ETAG, tile.getEtag());
+        }
+        if (tile.getLastModified() != null) {
+            response.setHeader(HEADER_LAST_MODIFIED, tile.getLastModified());
+        }
+        if (tile.getEtag() != null && tile.getEtag().equals(params.getRequest().getHeader(HEADER_IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(tile.getContentType());
+        response.setContentLength(tile.getData().length);
+        final OutputStream out = response.getOutputStream();
+        out.write(tile.getData());
+        out.flush();
+    }
+
+    private long getExpires(final HttpResponse upstream) {
+        long expires = -1;
+        final String expiresHeader = getHeader(upstream, HEADER_EXPIRES);
+        if (expiresHeader != null) {
+            final Date date = DateUtils.parseDate(expiresHeader);
+            if (date != null) {
+                expires = date.getTime();
+            }
+        }
+        return tileCache.getExpires(getHeader(upstream, HEADER_CACHE_CONTROL), expires);
+    }
+
+    private static void copyHeaders(final HttpResponse upstream, final HttpServletResponse response) {
+        for (String name : PASSTHROUGH_HEADERS) {
+            final String value = getHeader(upstream, name);
+            if (value != null) {
+                response.setHeader(name, value);
             }
         }
     }
 
+    private static String getHeader(final HttpResponse upstream, final String name) {
+        final Header header = upstream.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static void setHeader(final HttpRequestBase request, final String name, final String value) {
+        if (value != null && !value.isEmpty()) {
+            request.setHeader(name, value);
+        }
+    }
+
+    private static void setupBasicAuth(final HttpRequestBase request, final OskariLayer layer) {
+        final String username = layer.getUsername();
+        if (username != null && !username.isEmpty()) {
+            final String encoded = IOHelper.encode64(username + ':' + layer.getPassword());
+            request.setHeader(IOHelper.HEADER_AUTHORIZATION, "Basic " + encoded.replaceAll("\r", "").replaceAll("\n", ""));
+        }
+    }
+
+    private static void markCacheMetric(final String name) {
+        if (GATHER_METRICS) {
+            ActionControl.getMetrics().meter(METRICS_PREFIX + ".cache." + name).mark();
+        }
+    }
+
     private String getURL(final ActionParameters params, final OskariLayer layer) {
         if (params.getHttpParam(LEGEND, false)) {
             return this.getLegendURL(layer, params.getHttpParam(LayerJSONFormatterWMS.KEY_STYLE, null));
@@ -159,6 +285,18 @@ public class GetLayerTileHandler extends ActionHandler {
         return IOHelper.constructUrl(layer.getUrl(),urlParams);
     }
 
+    /**
+     * Parameters identifying a tile for caching. Includes the legend flag so legends and tiles don't mix.
+     */
+    private Map<String, String> getTileParams(HttpServletRequest httpRequest) {
+        Map<String, String> tileParams = getUrlParams(httpRequest);
+        String legend = httpRequest.getParameter(LEGEND);
+        if (legend != null) {
+            tileParams.put(LEGEND, legend);
+        }
+        return tileParams;
+    }
+
     private Map<String, String> getUrlParams(HttpServletRequest httpRequest) {
         Enumeration<String> paramNames = httpRequest.getParameterNames();
         Map<String, String> urlParams = new HashMap<>();
@@ -198,22 +336,4 @@ public class GetLayerTileHandler extends ActionHandler {
         return lurl;
 
     }
-    /**
-     * Creates connection
-     * @param url URL (with params) to call
-     * @param layer layer
-     * @return connection
-     * @throws ActionException
-     */
-    private HttpURLConnection getConnection(final String url, final OskariLayer layer)
-            throws ActionException {
-        try {
-            final String username = layer.getUsername();
-            final String password = layer.getPassword();
-            LOG.debug("Getting layer tile from url:", url);
-            return IOHelper.getConnection(url, username, password);
-        } catch (Exception e) {
-            throw new ActionException("Couldn't get connection to service", e);
-        }
-    }
 }
@@ -8,8 +8,6 @@ import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.ResponseHelper;
-import org.json.JSONArray;
-import org.json.JSONObject;
 
 import static fi.nls.oskari.control.ActionConstants.*;
 
@@ -26,15 +24,12 @@ public class GetMapLayersHandler extends ActionHandler {
 
         final String lang = params.getHttpParam(PARAM_LANGUAGE, params.getLocale().getLanguage());
         final boolean isSecure = params.getHttpParam(PARAM_SECURE, params.getRequest().isSecure());
+        final String srs = params.getHttpParam(PARAM_SRS);
 
         log.debug("Getting layers");
-        final JSONObject layers = OskariLayerWorker.getListOfAllMapLayers(params.getUser(), lang, params.getHttpParam(PARAM_SRS), isSecure);
-        JSONArray list = layers.optJSONArray(OskariLayerWorker.KEY_LAYERS);
-        // transform WKT for layers now that we know SRS
-        for(int i = 0; i < list.length(); ++i) {
-            OskariLayerWorker.transformWKTGeom(list.optJSONObject(i), params.getHttpParam(PARAM_SRS));
-        }
+        // layers are streamed to the client as they are rendered, WKT is transformed now that we know SRS
+        ResponseHelper.streamJSON(params,
+                gen -> OskariLayerWorker.writeListOfAllMapLayers(gen, params.getUser(), lang, srs, isSecure));
         log.debug("Got layers");
-        ResponseHelper.writeResponse(params, layers);
     }
 }
@@ -0,0 +1,288 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded local cache for proxied layer tiles. Tiles are kept in memory and optionally on disk.
+ * Stale tiles are not dropped immediately but revalidated with the service using ETag/Last-Modified.
+ *
+ * Caching is enabled per layer with layer option "tileCache": true when the cache itself has been
+ * enabled with properties:
+ * - GetLayerTile.cache.enabled=true (defaults to false)
+ * - GetLayerTile.cache.maxAge=[seconds] freshness for tiles that the service doesn't give a max-age for (defaults to 3600)
+ * - GetLayerTile.cache.dir=[path] directory for storing tiles on disk (memory only if not set)
+ * - GetLayerTile.cache.disk.limit=[n] max number of tiles on disk (defaults to 10000)
+ * Memory cache size can be configured with oskari.cache.limit.GetLayerTile.tiles (defaults to 1000).
+ */
+public class LayerTileCache {
+
+    private static final Logger LOG = LogFactory.getLogger(LayerTileCache.class);
+
+    public static final String PROPERTY_ENABLED = "GetLayerTile.cache.enabled";
+    public static final String PROPERTY_MAX_AGE = "GetLayerTile.cache.maxAge";
+    public static final String PROPERTY_DIR = "GetLayerTile.cache.dir";
+    public static final String PROPERTY_DISK_LIMIT = "GetLayerTile.cache.disk.limit";
+    public static final String LAYER_OPTION = "tileCache";
+    public static final String CACHE_NAME = "GetLayerTile.tiles";
+    private static final String FILE_SUFFIX = ".tile";
+
+    /**
+     * Cached tile with the validators needed for revalidating it
+     */
+    public static class Tile {
+        private final byte[] data;
+        private final String contentType;
+        private final String etag;
+        private final String lastModified;
+        private final long expires;
+
+        public Tile(byte[] data, String contentType, String etag, String lastModified, long expires) {
+            this.data = data;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        /**
+         * @return copy of the tile with new expiration time after a successful revalidation
+         */
+        public Tile revalidated(long newExpires) {
+            return new Tile(data, contentType, etag, lastModified, newExpires);
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+    }
+
+    private final boolean enabled;
+    private final long defaultMaxAge;
+    private final File dir;
+    private final int diskLimit;
+    private final Cache<Tile> memory;
+    // files on disk in write order, oldest are removed when over limit
+    private final Queue<File> diskFiles = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger diskCount = new AtomicInteger();
+
+    public LayerTileCache() {
+        this(PropertyUtil.getOptional(PROPERTY_ENABLED, false),
+                PropertyUtil.getOptional(PROPERTY_MAX_AGE, 3600) * 1000L,
+                PropertyUtil.getOptional(PROPERTY_DIR),
+                PropertyUtil.getOptional(PROPERTY_DISK_LIMIT, 10000));
+    }
+
+    LayerTileCache(boolean enabled, long defaultMaxAge, String dir, int diskLimit) {
+        this.enabled = enabled;
+        this.defaultMaxAge = defaultMaxAge;
+        this.diskLimit = diskLimit;
+        this.memory = CacheManager.getCache(CACHE_NAME);
+        // freshness is tracked per tile, keep stale tiles around for revalidation
+        memory.setExpiration(Math.max(defaultMaxAge * 24, 24L * 60L * 60L * 1000L));
+        this.dir = enabled && dir != null && !dir.isEmpty() ? new File(dir) : null;
+        if (this.dir != null) {
+            initDisk();
+        }
+    }
+
+    private void initDisk() {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOG.warn("Couldn't create tile cache directory", dir.getAbsolutePath());
+            return;
+        }
+        final File[] files = dir.listFiles((d, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            diskFiles.add(file);
+            diskCount.incrementAndGet();
+        }
+        trimDisk();
+        LOG.info("Tile cache directory", dir.getAbsolutePath(), "has", diskCount.get(), "tiles");
+    }
+
+    /**
+     * @return true if tiles of the layer should be cached
+     */
+    public boolean isEnabled(final OskariLayer layer) {
+        return enabled && layer != null && JSONHelper.getBooleanFromJSON(layer.getOptions(), LAYER_OPTION, false);
+    }
+
+    /**
+     * Creates a cache key from layer id and tile parameters. Parameter names are case insensitive and the
+     * order of parameters doesn't matter.
+     * @param layerId layer id
+     * @param params request parameters identifying the tile
+     */
+    public static String getKey(final String layerId, final Map<String, String> params) {
+        final Map<String, String> normalized = new TreeMap<>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            normalized.put(param.getKey().toUpperCase(), param.getValue());
+        }
+        final StringBuilder key = new StringBuilder(layerId);
+        for (Map.Entry<String, String> param : normalized.entrySet()) {
+            key.append('|').append(param.getKey()).append('=').append(param.getValue());
+        }
+        return layerId + "_" + DigestUtils.sha1Hex(key.toString());
+    }
+
+    /**
+     * Returns the tile from memory or disk. The tile might be stale and need revalidation.
+     * @return null if not cached
+     */
+    public Tile get(final String key) {
+        Tile tile = memory.get(key);
+        if (tile != null || dir == null) {
+            return tile;
+        }
+        tile = readFromDisk(key);
+        if (tile != null) {
+            memory.put(key, tile);
+        }
+        return tile;
+    }
+
+    public void put(final String key, final Tile tile) {
+        memory.put(key, tile);
+        if (dir != null) {
+            writeToDisk(key, tile);
+        }
+    }
+
+    /**
+     * Calculates expiration time for a tile from Cache-Control and Expires headers.
+     * @return timestamp in milliseconds, current time if the response shouldn't be reused without revalidation
+     */
+    public long getExpires(final String cacheControl, final long expiresHeader) {
+        final long now = System.currentTimeMillis();
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("must-revalidate")) {
+                    return now;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000L;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        if (expiresHeader > 0) {
+            return expiresHeader;
+        }
+        return now + defaultMaxAge;
+    }
+
+    /**
+     * @return true if the response can be stored at all
+     */
+    public static boolean isStorable(final String cacheControl) {
+        return cacheControl == null || !cacheControl.toLowerCase().contains("no-store");
+    }
+
+    public long getDiskSize() {
+        return diskCount.get();
+    }
+
+    private File getFile(final String key) {
+        return new File(dir, key + FILE_SUFFIX);
+    }
+
+    private Tile readFromDisk(final String key) {
+        final File file = getFile(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final String contentType = in.readUTF();
+            final String etag = in.readUTF();
+            final String lastModified = in.readUTF();
+            final long expires = in.readLong();
+            final byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Tile(data, contentType, etag.isEmpty() ? null : etag,
+                    lastModified.isEmpty() ? null : lastModified, expires);
+        } catch (IOException e) {
+            LOG.debug(e, "Couldn't read cached tile", file.getAbsolutePath());
+            return null;
+        }
+    }
+
+    private void writeToDisk(final String key, final Tile tile) {
+        final File file = getFile(key);
+        final boolean existed = file.isFile();
+        // write to temp file and rename so readers never see partially written tiles
+        final File temp = new File(dir, key + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeUTF(tile.getContentType());
+            out.writeUTF(tile.getEtag() == null ? "" : tile.getEtag());
+            out.writeUTF(tile.getLastModified() == null ? "" : tile.getLastModified());
+            out.writeLong(tile.getExpires());
+            out.writeInt(tile.getData().length);
+            out.write(tile.getData());
+        } catch (IOException e) {
+            LOG.warn(e, "Couldn't write tile to cache directory");
+            temp.delete();
+            return;
+        }
+        if (existed) {
+            file.delete();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        if (!existed) {
+            diskFiles.add(file);
+            diskCount.incrementAndGet();
+            trimDisk();
+        }
+    }
+
+    private void trimDisk() {
+        while (diskCount.get() > diskLimit) {
+            final File oldest = diskFiles.poll();
+            if (oldest == null) {
+                return;
+            }
+            diskCount.decrementAndGet();
+            oldest.delete();
+        }
+    }
+}
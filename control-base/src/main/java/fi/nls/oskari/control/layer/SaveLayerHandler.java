@@ -9,6 +9,7 @@ import fi.mml.portti.domain.permissions.Permissions;
 import fi.mml.portti.service.db.permissions.PermissionsService;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.domain.map.InspireTheme;
@@ -153,6 +154,8 @@ public class SaveLayerHandler extends ActionHandler {
                     // Remove old redis data of WFSLayer_xx, new wfs conf data is inserted automatically
                     JedisManager.delAll(WFSLayerConfiguration.KEY + Integer.toString(ml.getId()));
                     JedisManager.delAll(WFSLayerConfiguration.IMAGE_KEY + Integer.toString(ml.getId()));
+                    // drop cached configuration and parsed styles on transport nodes
+                    JedisNearCache.publishInvalidation(WFSLayerConfiguration.KEY + Integer.toString(ml.getId()));
                 }
 
                 //update maplayer projections - removes old ones and insert new ones
@@ -0,0 +1,117 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContextBuilder;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared HTTP client with a keep-alive connection pool for proxying layer tiles so that
+ * consecutive tile requests to the same service reuse connections instead of doing a TCP/TLS
+ * handshake for each tile.
+ *
+ * Configured with properties:
+ * - GetLayerTile.timeout.connection=[ms] (defaults to 1000)
+ * - GetLayerTile.timeout.read=[ms] (defaults to 5000)
+ * - GetLayerTile.connections.max=[n] max open connections in total (defaults to 200)
+ * - GetLayerTile.connections.route=[n] max open connections per service host (defaults to 20)
+ * Honors oskari.trustAllCerts and oskari.trustAllHosts like IOHelper.
+ */
+public class TileProxyClient {
+
+    private static final Logger LOG = LogFactory.getLogger(TileProxyClient.class);
+
+    public static final String PROPERTY_MAX_CONNECTIONS = "GetLayerTile.connections.max";
+    public static final String PROPERTY_MAX_ROUTE_CONNECTIONS = "GetLayerTile.connections.route";
+    private static final int TIMEOUT_CONNECTION = PropertyUtil.getOptional("GetLayerTile.timeout.connection", 1000);
+    private static final int TIMEOUT_READ = PropertyUtil.getOptional("GetLayerTile.timeout.read", 5000);
+    // idle connections are closed after this so we don't try to reuse connections the service has already closed
+    private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+    private static volatile CloseableHttpClient client;
+
+    private TileProxyClient() {}
+
+    public static CloseableHttpClient getClient() {
+        if (client == null) {
+            synchronized (TileProxyClient.class) {
+                if (client == null) {
+                    client = createClient();
+                }
+            }
+        }
+        return client;
+    }
+
+    private static CloseableHttpClient createClient() {
+        final PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(getSocketFactories());
+        pool.setMaxTotal(PropertyUtil.getOptional(PROPERTY_MAX_CONNECTIONS, 200));
+        pool.setDefaultMaxPerRoute(PropertyUtil.getOptional(PROPERTY_MAX_ROUTE_CONNECTIONS, 20));
+        pool.setValidateAfterInactivity(2000);
+
+        final RequestConfig config = RequestConfig.custom()
+                .setConnectTimeout(TIMEOUT_CONNECTION)
+                .setConnectionRequestTimeout(TIMEOUT_CONNECTION)
+                .setSocketTimeout(TIMEOUT_READ)
+                .build();
+        LOG.info("Creating tile proxy client with max", pool.getMaxTotal(), "connections");
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(config)
+                // tiles are served as is, don't let the client decompress responses
+                .disableContentCompression()
+                .disableCookieManagement()
+                .evictIdleConnections(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .evictExpiredConnections()
+                .build();
+    }
+
+    private static Registry<ConnectionSocketFactory> getSocketFactories() {
+        final boolean trustAllCerts = "true".equals(PropertyUtil.getOptional("oskari.trustAllCerts"));
+        final boolean trustAllHosts = "true".equals(PropertyUtil.getOptional("oskari.trustAllHosts"));
+        SSLConnectionSocketFactory ssl = SSLConnectionSocketFactory.getSocketFactory();
+        if (trustAllCerts || trustAllHosts) {
+            try {
+                final SSLContext context = trustAllCerts ?
+                        new SSLContextBuilder().loadTrustMaterial(null, (chain, authType) -> true).build() :
+                        SSLContext.getDefault();
+                final HostnameVerifier verifier = trustAllHosts ?
+                        NoopHostnameVerifier.INSTANCE : SSLConnectionSocketFactory.getDefaultHostnameVerifier();
+                ssl = new SSLConnectionSocketFactory(context, verifier);
+            } catch (Exception e) {
+                LOG.error(e, "Couldn't setup SSL for tile proxy, using defaults");
+            }
+        }
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", ssl)
+                .build();
+    }
+
+    public static void shutdown() {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOG.warn(e, "Error closing tile proxy client");
+        }
+        client = null;
+    }
+}
@@ -0,0 +1,86 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.cache.CacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LayerTileCacheTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tilecache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        CacheManager.getCache(LayerTileCache.CACHE_NAME).flush(true);
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testKeyIsNormalized() {
+        final Map<String, String> params1 = new HashMap<>();
+        params1.put("BBOX", "0,0,1,1");
+        params1.put("layers", "test");
+        final Map<String, String> params2 = new HashMap<>();
+        params2.put("LAYERS", "test");
+        params2.put("bbox", "0,0,1,1");
+        assertEquals("Param order and name case shouldn't matter",
+                LayerTileCache.getKey("1", params1), LayerTileCache.getKey("1", params2));
+        assertNotEquals("Layer id should be part of the key",
+                LayerTileCache.getKey("1", params1), LayerTileCache.getKey("2", params1));
+        assertTrue(LayerTileCache.getKey("1", params1).startsWith("1_"));
+    }
+
+    @Test
+    public void testExpires() {
+        final LayerTileCache cache = new LayerTileCache(true, 1000, null, 10);
+        final long now = System.currentTimeMillis();
+        assertTrue("max-age should be used", cache.getExpires("public, max-age=60", -1) >= now + 60000);
+        assertTrue("no-cache requires revalidation", cache.getExpires("no-cache", -1) <= System.currentTimeMillis());
+        assertEquals("Expires header should be used without max-age", now + 5000, cache.getExpires(null, now + 5000));
+        assertTrue("Default max age should be used without headers", cache.getExpires(null, -1) >= now + 1000);
+        assertFalse(LayerTileCache.isStorable("private, no-store"));
+        assertTrue(LayerTileCache.isStorable(null));
+    }
+
+    @Test
+    public void testDiskCache() {
+        final LayerTileCache cache = new LayerTileCache(true, 1000, dir.getAbsolutePath(), 2);
+        final byte[] data = new byte[]{1, 2, 3};
+        cache.put("1_a", new LayerTileCache.Tile(data, "image/png", "\"etag\"", null, 123L));
+        cache.put("1_b", new LayerTileCache.Tile(data, "image/png", null, null, 123L));
+        // drop memory cache so the tile is read from disk
+        CacheManager.getCache(LayerTileCache.CACHE_NAME).flush(true);
+
+        final LayerTileCache.Tile tile = cache.get("1_a");
+        assertNotNull(tile);
+        assertArrayEquals(data, tile.getData());
+        assertEquals("image/png", tile.getContentType());
+        assertEquals("\"etag\"", tile.getEtag());
+        assertNull(tile.getLastModified());
+        assertEquals(123L, tile.getExpires());
+        assertFalse(tile.isFresh());
+
+        cache.put("1_c", new LayerTileCache.Tile(data, "image/png", null, null, 123L));
+        assertEquals("Disk cache should be bounded", 2, cache.getDiskSize());
+        CacheManager.getCache(LayerTileCache.CACHE_NAME).flush(true);
+        assertNull("Oldest tile should have been removed", cache.get("1_a"));
+    }
+}
@@ -1,5 +1,8 @@
 package fi.nls.oskari.control.statistics;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.control.ActionException;
@@ -10,9 +13,12 @@ import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.plugins.*;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.util.ResponseHelper;
-import org.json.JSONException;
 import org.json.JSONObject;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -40,6 +46,7 @@ public class GetIndicatorDataHandler extends ActionHandler {
      * In the future it might make sense to inject the pluginManager references to different controllers using DI.
      */
     private static final StatisticalDatasourcePluginManager pluginManager = StatisticalDatasourcePluginManager.getInstance();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
 
     @Override
     public void handleAction(ActionParameters ap) throws ActionException {
@@ -47,26 +54,40 @@ public class GetIndicatorDataHandler extends ActionHandler {
         final String indicatorId = ap.getRequiredParam(PARAM_INDICATOR_ID);
         final long layerId = new Long(ap.getRequiredParam(PARAM_LAYER_ID));
         final String selectors = ap.getRequiredParam(PARAM_SELECTORS);
-        JSONObject response = getIndicatorDataJSON(ap.getUser(), pluginId, indicatorId, layerId, selectors);
-        ResponseHelper.writeResponse(ap, response);
-    }
 
-    public JSONObject getIndicatorDataJSON(User user, long pluginId, String indicatorId,
-            Long layerId, String selectorsStr)
-            throws ActionException {
-        final String cacheKey = CACHE_KEY_PREFIX + pluginId + ":" + indicatorId + ":" + layerId + ":" + selectorsStr;
-        final String cachedData = JedisManager.get(cacheKey);
-        StatisticalDatasourcePlugin plugin = pluginManager.getPlugin(pluginId);
+        final StatisticalDatasourcePlugin plugin = pluginManager.getPlugin(pluginId);
+        final String cacheKey = CACHE_KEY_PREFIX + pluginId + ":" + indicatorId + ":" + layerId + ":" + selectors;
         if (plugin.canCache()) {
+            final String cachedData = JedisManager.get(cacheKey);
             if (cachedData != null && !cachedData.isEmpty()) {
-                try {
-                    return new JSONObject(cachedData);
-                } catch (JSONException e) {
-                    // Failed serializing. Skipping the cache.
-                }
+                // cached value is the serialized response, no need to parse it
+                ResponseHelper.writeResponse(ap, HttpServletResponse.SC_OK, ResponseHelper.CONTENT_TYPE_JSON_UTF8,
+                        cachedData.getBytes(StandardCharsets.UTF_8));
+                return;
             }
         }
-        JSONObject response;
+        final Map<String, IndicatorValue> values = getIndicatorValues(ap.getUser(), plugin, indicatorId, layerId, selectors);
+        if (!plugin.canCache()) {
+            ResponseHelper.streamJSON(ap, gen -> writeJSON(gen, values));
+            return;
+        }
+        // serialized once for both the cache and the response
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(baos, JsonEncoding.UTF8)) {
+            writeJSON(gen, values);
+        } catch (IOException e) {
+            throw new ActionException("Something went wrong in serializing indicator data.", e);
+        }
+        // Note that there is an another layer of caches in the plugins doing the web queries.
+        // Two layers are necessary, because deserialization and conversion to the internal data model
+        // is a pretty heavy operation.
+        JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, new String(baos.toByteArray(), StandardCharsets.UTF_8));
+        ResponseHelper.writeResponse(ap, HttpServletResponse.SC_OK, ResponseHelper.CONTENT_TYPE_JSON_UTF8, baos);
+    }
+
+    private Map<String, IndicatorValue> getIndicatorValues(User user, StatisticalDatasourcePlugin plugin,
+            String indicatorId, Long layerId, String selectorsStr)
+            throws ActionException {
         try {
 
             // TODO: Might be faster to store the indicator id to indicator map in a proper map.
@@ -96,28 +117,20 @@ public class GetIndicatorDataHandler extends ActionHandler {
                 StatisticalIndicatorDataDimension selector = new StatisticalIndicatorDataDimension(key, value);
                 selectors.addDimension(selector);
             }
-            Map<String, IndicatorValue> values = plugin.getIndicatorValues(indicator, selectors, layer);
-            response = toJSON(values);
+            return plugin.getIndicatorValues(indicator, selectors, layer);
         } catch (Exception e) {
             if(e instanceof ActionException) {
                 throw (ActionException)e;
             }
             throw new ActionException("Something went wrong in serializing indicator data.", e);
         }
-        // Note that there is an another layer of caches in the plugins doing the web queries.
-        // Two layers are necessary, because deserialization and conversion to the internal data model
-        // is a pretty heavy operation.
-        if (plugin.canCache() && response != null) {
-            JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString());
-        }
-        return response;
     }
 
-    private JSONObject toJSON(Map<String, IndicatorValue> values) throws JSONException {
-        JSONObject json = new JSONObject();
+    private void writeJSON(JsonGenerator gen, Map<String, IndicatorValue> values) throws IOException {
+        gen.writeStartObject();
         for (Entry<String, IndicatorValue> entry : values.entrySet()) {
-            entry.getValue().putToJSONObject(json, entry.getKey());
+            entry.getValue().writeTo(gen, entry.getKey());
         }
-        return json;
+        gen.writeEndObject();
     }
 }
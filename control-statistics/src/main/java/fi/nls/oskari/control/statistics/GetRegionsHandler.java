@@ -2,6 +2,7 @@ package fi.nls.oskari.control.statistics;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.control.statistics.db.RegionSet;
 import fi.nls.oskari.control.statistics.xml.Region;
@@ -13,7 +14,6 @@ import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.ResponseHelper;
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
@@ -38,6 +38,8 @@ public class GetRegionsHandler extends ActionHandler {
     private final static String CACHE_KEY_PREFIX = "oskari:stats:regionset:";
 
     private static final String KEY_REGIONS = "regions";
+    // the cached response objects are shared, don't modify them
+    private static final JedisNearCache<JSONObject> CACHE = JedisNearCache.getNearCache(CACHE_KEY_PREFIX, JSONObject::new);
 
     private RegionSetService service;
 
@@ -56,8 +58,9 @@ public class GetRegionsHandler extends ActionHandler {
     public void handleAction(ActionParameters ap) throws ActionException {
         final int layerId = ap.getRequiredParamInt("regionset");
         final String srs = ap.getRequiredParam(ActionConstants.PARAM_SRS);
-        JSONObject response = getRegionInfoJSON(layerId, srs);
-        ResponseHelper.writeResponse(ap, response);
+        final JSONObject response = getRegionInfoJSON(layerId, srs);
+        // region geometries make this large, write it without creating a String presentation of the (shared) response
+        ResponseHelper.streamJSON(ap, gen -> JSONHelper.writeJSON(gen, response));
     }
 
     /**
@@ -77,13 +80,9 @@ public class GetRegionsHandler extends ActionHandler {
 
     public JSONObject requestRegionInfoJSON(long id, RegionSet regionset, final String srs) throws ActionException {
         final String cacheKey = CACHE_KEY_PREFIX + id + ":" + srs;
-        final String cachedData = JedisManager.get(cacheKey);
-        if (cachedData != null && !cachedData.isEmpty()) {
-            try {
-                return new JSONObject(cachedData);
-            } catch (JSONException e) {
-                // Failed serializing. Skipping the cache.
-            }
+        final JSONObject cachedData = CACHE.get(cacheKey);
+        if (cachedData != null) {
+            return cachedData;
         }
         final JSONObject response = new JSONObject();
         final JSONArray regions = new JSONArray();
@@ -104,7 +103,7 @@ public class GetRegionsHandler extends ActionHandler {
             throw new ActionException("Regionset provider returned unexpected response.", e);
         }
 
-        JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString());
+        CACHE.put(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString(), response);
         return response;
     }
 
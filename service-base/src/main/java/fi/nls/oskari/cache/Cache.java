@@ -4,30 +4,84 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.PropertyUtil;
 
-import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentNavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Simple generic in memory cache
+ * Generic bounded in memory cache.
+ *
+ * Each entry expires individually (expire after write and optionally expire after access) instead of
+ * the whole cache being cleared periodically. When the cache is full the least frequently hit entry
+ * among the least recently used ones is evicted so popular items survive bursts of one-off keys.
+ *
+ * If a loader is set with setLoader() missing values are loaded on get() and entries older than
+ * refreshAfter are reloaded in the background while the old value is still being served (refresh-ahead).
+ *
+ * Hit/miss/eviction/load statistics are available with getStatistics().
  */
 public class Cache<T> {
 
     private static final Logger log = LogFactory.getLogger(Cache.class);
 
-    // the items are sorted by key.compare(key) -> we should map the String to a "CacheKey" which compares insertion time
-    private final ConcurrentNavigableMap<String,T> items = new ConcurrentSkipListMap<String, T>();
-    private final Queue<String> keys = new ConcurrentLinkedQueue<String>();
+    public final static String PROPERTY_LIMIT_PREFIX = "oskari.cache.limit.";
+    public final static String PROPERTY_EXPIRATION_PREFIX = "oskari.cache.expiration.";
+
+    // how many of the least recently used items to consider on eviction
+    private static final int MAX_EVICTION_PROBES = 8;
+    // cap for the per entry hit counter used in eviction decisions
+    private static final int MAX_FREQUENCY = 15;
+
+    private static ExecutorService refreshExecutor;
+
+    /**
+     * Loads a value for a key that is missing from the cache or needs refreshing.
+     */
+    public interface Loader<T> {
+        T load(String key) throws Exception;
+    }
+
+    // access ordered map: iteration starts from the least recently used entry
+    private final LinkedHashMap<String, CacheEntry<T>> items = new LinkedHashMap<>(16, 0.75f, true);
+    // keys currently being refreshed in background so we don't schedule the same refresh many times
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
     private volatile int limit = 1000;
     private volatile long expiration = 30L * 60L * 1000L;
+    private volatile long expireAfterAccess = -1;
+    private volatile long refreshAfter = -1;
     private volatile long lastFlush = currentTime();
+    private volatile Loader<T> loader;
     private String name;
-    public final static String PROPERTY_LIMIT_PREFIX = "oskari.cache.limit.";
     private boolean cacheSizeConfigured = false;
+    private boolean cacheExpirationConfigured = false;
     private boolean cacheMissDebugEnabled = false;
 
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expirationCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong loadFailureCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    private static class CacheEntry<T> {
+        final T value;
+        final long written;
+        volatile long accessed;
+        volatile int frequency;
+
+        CacheEntry(T value, long now) {
+            this.value = value;
+            this.written = now;
+            this.accessed = now;
+        }
+    }
+
     public void setCacheMissDebugEnabled(boolean enabled) {
         cacheMissDebugEnabled = enabled;
     }
@@ -44,12 +98,22 @@ public class Cache<T> {
             cacheSizeConfigured = true;
             limit = configuredLimit;
         }
+        int configuredExpiration = PropertyUtil.getOptional(getExpirationPropertyName(), -1);
+        if(configuredExpiration != -1) {
+            cacheExpirationConfigured = true;
+            // configured in seconds
+            expiration = configuredExpiration * 1000L;
+        }
     }
 
     private String getLimitPropertyName() {
         return PROPERTY_LIMIT_PREFIX + getName();
     }
 
+    private String getExpirationPropertyName() {
+        return PROPERTY_EXPIRATION_PREFIX + getName();
+    }
+
     public int getLimit() {
         return limit;
     }
@@ -68,19 +132,67 @@ public class Cache<T> {
     }
 
     /**
-     * Time between flushes to keep cached values
+     * Time to keep a cached value after it has been written
      * @return
      */
     public long getExpiration() {
         return expiration;
     }
 
+    /**
+     * Time to hold items in cache after they have been written. Defaults to 30 minutes.
+     * @param expiration in milliseconds
+     */
+    public void setExpiration(long expiration) {
+        if(cacheExpirationConfigured) {
+            log.info("Trying to set cache expiration, but it's configured by user so ignoring automatic change.",
+                    "Expiration is", this.expiration, "- Change expiration with property: ", getExpirationPropertyName());
+            return;
+        }
+        this.expiration = expiration;
+    }
+
+    public long getExpireAfterAccess() {
+        return expireAfterAccess;
+    }
+
+    /**
+     * Items that haven't been read for this long are removed. Disabled by default (-1).
+     * @param expireAfterAccess in milliseconds
+     */
+    public void setExpireAfterAccess(long expireAfterAccess) {
+        this.expireAfterAccess = expireAfterAccess;
+    }
+
+    public long getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    /**
+     * Items older than this are reloaded in the background with the loader when they are read.
+     * Only used if a loader has been set. Disabled by default (-1).
+     * @param refreshAfter in milliseconds
+     */
+    public void setRefreshAfter(long refreshAfter) {
+        this.refreshAfter = refreshAfter;
+    }
+
+    /**
+     * Loader used for missing values and refresh-ahead.
+     * @param loader
+     */
+    public void setLoader(Loader<T> loader) {
+        this.loader = loader;
+    }
+
     /**
      * Returns number of cached items
      * @return
      */
     public long getSize() {
-        return items.size();
+        synchronized (items) {
+            return items.size();
+        }
     }
 
     /**
@@ -88,76 +200,230 @@ public class Cache<T> {
      * @return
      */
     public Set<String> getKeys() {
-        return items.keySet();
+        synchronized (items) {
+            return new LinkedHashSet<>(items.keySet());
+        }
     }
 
     /**
-     * Time to hold items in cache. Defaults to 30 minutes.
-     * @param expiration in milliseconds
+     * Time of the last sweep for expired items (or forced flush)
+     * @return
      */
-    public void setExpiration(long expiration) {
-        this.expiration = expiration;
-    }
-
     public long getLastFlush() {
         return lastFlush;
     }
 
     public T get(final String name) {
-        flush(false);
-        T value = items.get(name);
-
-        if(cacheMissDebugEnabled && value == null) {
+        final long now = currentTime();
+        CacheEntry<T> entry;
+        synchronized (items) {
+            entry = items.get(name);
+            if(entry != null && isExpired(entry, now)) {
+                items.remove(name);
+                expirationCount.incrementAndGet();
+                entry = null;
+            }
+        }
+        if(entry != null) {
+            hitCount.incrementAndGet();
+            entry.accessed = now;
+            if(entry.frequency < MAX_FREQUENCY) {
+                entry.frequency++;
+            }
+            if(loader != null && refreshAfter > 0 && entry.written + refreshAfter < now) {
+                scheduleRefresh(name);
+            }
+            return entry.value;
+        }
+        missCount.incrementAndGet();
+        if(cacheMissDebugEnabled) {
             log.debug("Cache", getName(), "miss for name", name);
         }
+        if(loader == null) {
+            return null;
+        }
+        final T value = load(name);
+        if(value != null) {
+            put(name, value);
+        }
         return value;
     }
 
     public T remove(final String name) {
-        flush(false);
-        T value = items.remove(name);
-        keys.remove(name);
-        return value;
+        synchronized (items) {
+            CacheEntry<T> entry = items.remove(name);
+            if(entry == null) {
+                return null;
+            }
+            return entry.value;
+        }
     }
 
+    /**
+     * Adds an item to the cache.
+     * @return true if an item had to be evicted because the cache was full
+     */
     public boolean put(final String name, final T item) {
-        flush(false);
         if(item == null) {
             // can't save null value
             return false;
         }
-        final boolean overflowing = (items.size() >= limit);
-        if(overflowing) {
-            // limit reached - remove oldest object
-            log.warn("Cache", getName(), "overflowing! Limit is", limit);
-            log.info("Configure larger limit for cache by setting the property:", getLimitPropertyName());
-            final String key = keys.poll();
-            if(key != null) {
-                items.remove(key);
+        final long now = currentTime();
+        boolean overflowing = false;
+        synchronized (items) {
+            if(!items.containsKey(name) && items.size() >= limit) {
+                overflowing = true;
+                evict(now);
             }
+            items.put(name, new CacheEntry<>(item, now));
+        }
+        if(overflowing) {
+            log.debug("Cache", getName(), "overflowing! Limit is", limit,
+                    "- Configure larger limit for cache by setting the property:", getLimitPropertyName());
+        }
+        if(isTimeToFlush(now)) {
+            flush(false);
         }
-        items.put(name, item);
-        keys.add(name);
         return overflowing;
     }
 
+    /**
+     * Removes expired items from the cache. With force all items are removed.
+     * @param force true to remove all items
+     * @return true if items were checked/removed
+     */
     public boolean flush(final boolean force) {
         final long now = currentTime();
-        if(force || isTimeToFlush(now)) {
-            // flushCache
-            log.debug("Flushing cache! Cache:", getName(), "Forced: ", force);
-            items.clear();
-            keys.clear();
+        if(!force && !isTimeToFlush(now)) {
+            return false;
+        }
+        synchronized (items) {
+            if(force) {
+                log.debug("Flushing cache! Cache:", getName());
+                items.clear();
+            } else {
+                Iterator<CacheEntry<T>> it = items.values().iterator();
+                while(it.hasNext()) {
+                    if(isExpired(it.next(), now)) {
+                        it.remove();
+                        expirationCount.incrementAndGet();
+                    }
+                }
+            }
             lastFlush = now;
-            return true;
         }
-        return false;
+        return true;
     }
 
+    /**
+     * Sweep for expired items is done on put() when expiration time has passed since the last sweep.
+     * Expired items are never returned by get() regardless of the sweep.
+     */
     public boolean isTimeToFlush(long now) {
         return (lastFlush + expiration < now);
     }
 
+    /**
+     * Returns a snapshot of the cache statistics
+     */
+    public CacheStats getStatistics() {
+        return new CacheStats(hitCount.get(), missCount.get(), evictionCount.get(), expirationCount.get(),
+                loadCount.get(), loadFailureCount.get(), totalLoadTime.get());
+    }
+
+    private boolean isExpired(CacheEntry<T> entry, long now) {
+        if(entry.written + expiration < now) {
+            return true;
+        }
+        return expireAfterAccess > 0 && entry.accessed + expireAfterAccess < now;
+    }
+
+    /**
+     * Called with lock held. Removes one item: an expired one if found, otherwise the least frequently
+     * hit item among the least recently used ones. Probed items that survive have their frequency halved
+     * so items that were popular a long time ago eventually become candidates again.
+     */
+    private void evict(long now) {
+        Iterator<Map.Entry<String, CacheEntry<T>>> it = items.entrySet().iterator();
+        List<CacheEntry<T>> probed = new ArrayList<>(MAX_EVICTION_PROBES);
+        String victim = null;
+        int victimFrequency = Integer.MAX_VALUE;
+        while(it.hasNext() && probed.size() < MAX_EVICTION_PROBES) {
+            Map.Entry<String, CacheEntry<T>> candidate = it.next();
+            if(isExpired(candidate.getValue(), now)) {
+                it.remove();
+                expirationCount.incrementAndGet();
+                return;
+            }
+            probed.add(candidate.getValue());
+            if(candidate.getValue().frequency < victimFrequency) {
+                victim = candidate.getKey();
+                victimFrequency = candidate.getValue().frequency;
+            }
+        }
+        if(victim == null) {
+            return;
+        }
+        for(CacheEntry<T> entry : probed) {
+            entry.frequency = entry.frequency / 2;
+        }
+        items.remove(victim);
+        evictionCount.incrementAndGet();
+    }
+
+    private T load(final String key) {
+        final Loader<T> currentLoader = loader;
+        if(currentLoader == null) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        try {
+            T value = currentLoader.load(key);
+            loadCount.incrementAndGet();
+            return value;
+        } catch (Exception e) {
+            loadFailureCount.incrementAndGet();
+            log.warn(e, "Loading value for", key, "failed in cache", getName());
+            return null;
+        } finally {
+            totalLoadTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void scheduleRefresh(final String key) {
+        if(!refreshing.add(key)) {
+            // already refreshing
+            return;
+        }
+        try {
+            getRefreshExecutor().execute(() -> {
+                try {
+                    T value = load(key);
+                    if(value != null) {
+                        put(key, value);
+                    }
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (Exception e) {
+            // queue full -> just serve the old value and try again later
+            refreshing.remove(key);
+        }
+    }
+
+    private static synchronized ExecutorService getRefreshExecutor() {
+        if(refreshExecutor == null) {
+            refreshExecutor = new ThreadPoolExecutor(1, 2, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(1000), r -> {
+                        Thread t = new Thread(r, "oskari-cache-refresh");
+                        t.setDaemon(true);
+                        return t;
+                    });
+        }
+        return refreshExecutor;
+    }
+
     private static long currentTime() {
         return System.nanoTime() / 1000000L;
     }
@@ -7,6 +7,8 @@ import java.util.concurrent.ConcurrentMap;
 /**
  * Generic cache factory for Oskari.
  * TODO: make Cache implementation parametrizable via PropertyUtil. Same as logger and UserService.
+ * Size and expiration can be configured per cache with properties:
+ * oskari.cache.limit.[cache name]=1000 and oskari.cache.expiration.[cache name]=[seconds]
  * Usage:
  * <pre>
  * {@code
@@ -45,7 +47,11 @@ public class CacheManager {
         // create a new one
         final Cache<T> cache = new Cache<T>();
         cache.setName(name);
-        CACHE_STORE.put(name, cache);
+        final Cache previous = CACHE_STORE.putIfAbsent(name, cache);
+        if (previous != null) {
+            // another thread created the cache at the same time
+            return previous;
+        }
         return cache;
     }
 
@@ -65,8 +71,7 @@ public class CacheManager {
             return false;
         }
         cache.setName(name);
-        CACHE_STORE.put(name, cache);
-        return true;
+        return CACHE_STORE.putIfAbsent(name, cache) == null;
     }
 
 }
@@ -0,0 +1,89 @@
+package fi.nls.oskari.cache;
+
+/**
+ * Immutable snapshot of statistics for a Cache.
+ */
+public class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long loadCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+
+    public CacheStats(long hitCount, long missCount, long evictionCount, long expirationCount,
+                      long loadCount, long loadFailureCount, long totalLoadTime) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.loadCount = loadCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * @return ratio of hits to all requests or 1.0 if there hasn't been any requests
+     */
+    public double getHitRate() {
+        long requests = getRequestCount();
+        if(requests == 0) {
+            return 1.0;
+        }
+        return (double) hitCount / requests;
+    }
+
+    /**
+     * @return number of items removed because the cache was full
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of items removed because they expired
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * @return total time spent loading values in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * @return average time spent loading a value in milliseconds
+     */
+    public double getAverageLoadTime() {
+        long loads = loadCount + loadFailureCount;
+        if(loads == 0) {
+            return 0;
+        }
+        return totalLoadTime / 1000000.0 / loads;
+    }
+}
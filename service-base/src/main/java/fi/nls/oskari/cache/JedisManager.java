@@ -6,9 +6,14 @@ import fi.nls.oskari.service.ServiceRuntimeException;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -487,6 +492,165 @@ public class JedisManager {
         return null;
     }
 
+    /**
+     * Commands to run in a single pipeline
+     */
+    public interface PipelineCommands {
+        void apply(Pipeline pipeline);
+    }
+
+    /**
+     * Thread-safe MGET for Redis. Gets multiple values with a single round trip.
+     *
+     * @param keys
+     * @return values in the same order as keys, null for missing keys. Empty list on error.
+     */
+    public static List<String> mget(String... keys) {
+        if(keys.length == 0) {
+            return Collections.emptyList();
+        }
+        Jedis jedis = instance.getJedis();
+        if(jedis == null) return Collections.emptyList();
+
+        try {
+            return jedis.mget(keys);
+        } catch(JedisConnectionException e) {
+            log.error("Failed to mget", keys.length, "keys returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+            return Collections.emptyList();
+        } catch (Exception e) {
+            log.error("Getting", keys.length, "keys from Redis failed:", e.getMessage());
+            return Collections.emptyList();
+        } finally {
+            instance.returnJedis(jedis);
+        }
+    }
+
+    /**
+     * Thread-safe byte[] MGET for Redis. Gets multiple values with a single round trip.
+     *
+     * @param keys
+     * @return values in the same order as keys, null for missing keys. Empty list on error.
+     */
+    public static List<byte[]> mget(byte[]... keys) {
+        if(keys.length == 0) {
+            return Collections.emptyList();
+        }
+        Jedis jedis = instance.getJedis();
+        if(jedis == null) return Collections.emptyList();
+
+        try {
+            return jedis.mget(keys);
+        } catch(JedisConnectionException e) {
+            log.error("Failed to mget", keys.length, "keys returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+            return Collections.emptyList();
+        } catch (Exception e) {
+            log.error("Getting", keys.length, "keys from Redis failed:", e.getMessage());
+            return Collections.emptyList();
+        } finally {
+            instance.returnJedis(jedis);
+        }
+    }
+
+    /**
+     * Thread-safe SETEX for multiple values with a single round trip (MSET doesn't support expiration).
+     *
+     * @param values key -> value
+     * @param seconds expiration for all values
+     * @return true if values were written
+     */
+    public static boolean msetex(final Map<String, String> values, final int seconds) {
+        if(values.isEmpty()) {
+            return true;
+        }
+        return pipelined(pipeline -> {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                pipeline.setex(entry.getKey(), seconds, entry.getValue());
+            }
+        }) != null;
+    }
+
+    /**
+     * Thread-safe byte[] SETEX for multiple values with a single round trip.
+     *
+     * @param keys
+     * @param values in the same order as keys
+     * @param seconds expiration for all values
+     * @return true if values were written
+     */
+    public static boolean msetex(final List<byte[]> keys, final List<byte[]> values, final int seconds) {
+        if(keys.size() != values.size()) {
+            throw new IllegalArgumentException("Keys and values should have same size");
+        }
+        if(keys.isEmpty()) {
+            return true;
+        }
+        return pipelined(pipeline -> {
+            for (int i = 0; i < keys.size(); i++) {
+                pipeline.setex(keys.get(i), seconds, values.get(i));
+            }
+        }) != null;
+    }
+
+    /**
+     * Removes and returns all elements of a list with a single round trip.
+     * The read and delete are done in a transaction so no elements pushed in between are lost.
+     *
+     * @param key the list key
+     * @return list elements from head to tail, empty list if key doesn't exist or on error
+     */
+    public static List<String> drainList(final String key) {
+        Jedis jedis = instance.getJedis();
+        if(jedis == null) return Collections.emptyList();
+
+        try {
+            Transaction transaction = jedis.multi();
+            Response<List<String>> values = transaction.lrange(key, 0, -1);
+            transaction.del(key);
+            transaction.exec();
+            return values.get();
+        } catch(JedisConnectionException e) {
+            log.error("Failed to drain list", key, "returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+        } catch (Exception e) {
+            log.error("Draining list", key, "failed miserably");
+        } finally {
+            instance.returnJedis(jedis);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Runs a group of commands in a pipeline using a single connection and round trip.
+     *
+     * @param commands
+     * @return replies for the commands in order or null on error
+     */
+    public static List<Object> pipelined(final PipelineCommands commands) {
+        Jedis jedis = instance.getJedis();
+        if(jedis == null) return null;
+
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            commands.apply(pipeline);
+            return pipeline.syncAndReturnAll();
+        } catch(JedisConnectionException e) {
+            log.error("Failed to run pipeline returning broken connection...");
+            pool.returnBrokenResource(jedis);
+            log.error("Broken connection closed");
+            return null;
+        } catch (Exception e) {
+            log.error("Running pipeline on Redis failed:", e.getMessage());
+            return null;
+        } finally {
+            instance.returnJedis(jedis);
+        }
+    }
+
     /**
      * Thread-safe PUBLISH
      *
@@ -0,0 +1,376 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Optional node local (L1) cache in front of Redis for small, frequently read keys.
+ * Values are cached as already deserialized objects so a hit costs neither a Redis round trip
+ * nor JSON parsing.
+ *
+ * Writes done through put() are written to Redis and an invalidation message is published on
+ * CHANNEL so other nodes drop their local copy. Code writing the same keys directly with JedisManager
+ * (possibly in another webapp) should call publishInvalidation() after the write.
+ *
+ * Enabled with property redis.nearcache.enabled=true. When disabled get() reads and parses the value
+ * from Redis on each call like before. Size and TTL of the local cache can be configured with
+ * oskari.cache.limit.[name] and oskari.cache.expiration.[name] where name is JedisNearCache.[cache name].
+ *
+ * Other node local caches derived from Redis values can follow the same invalidations with
+ * addInvalidationListener().
+ *
+ * Usage:
+ * <pre>
+ * {@code
+ *  private static final JedisNearCache<MyObject> CACHE = JedisNearCache.getNearCache("MyObject", json -> MyObject.parse(json));
+ *  MyObject obj = CACHE.get(KEY + id);
+ * }
+ * </pre>
+ */
+public class JedisNearCache<T> {
+
+    private final static Logger log = LogFactory.getLogger(JedisNearCache.class);
+
+    public static final String CHANNEL = "oskari_nearcache_invalidate";
+    public static final String PROPERTY_ENABLED = "redis.nearcache.enabled";
+    public static final String CACHE_NAME_PREFIX = "JedisNearCache.";
+    // key ending with this in an invalidation message removes all keys starting with the rest of the key
+    public static final String WILDCARD = "*";
+    private static final String SEPARATOR = "|";
+    private static final long DEFAULT_LOCAL_EXPIRATION = 60L * 1000L;
+    private static final long SUBSCRIBE_RETRY_INTERVAL = 30L * 1000L;
+
+    private static final String NODE_ID = UUID.randomUUID().toString();
+    private static final Map<String, JedisNearCache> NEAR_CACHES = new ConcurrentHashMap<>();
+    private static final List<InvalidationListener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static final Backend JEDIS_BACKEND = new JedisBackend();
+    // local values are only used while we are listening to invalidation messages
+    private static volatile boolean listening = false;
+    private static volatile long lastSubscribeAttempt = 0;
+
+    /**
+     * Parses the value stored in Redis to the cached object
+     */
+    public interface Parser<T> {
+        T parse(String value) throws Exception;
+    }
+
+    /**
+     * Notified when keys are invalidated on any node
+     */
+    public interface InvalidationListener {
+        /**
+         * @param key invalidated Redis key, ending with WILDCARD when all keys with a prefix are invalidated.
+         *            WILDCARD alone means that all keys should be considered invalid.
+         */
+        void invalidated(String key);
+    }
+
+    /**
+     * The Redis operations used by the near cache. Allows testing against a stand-in.
+     */
+    public interface Backend {
+        String get(String key, boolean throwException);
+        String setex(String key, int seconds, String value);
+        Long del(String... keys);
+        Long publish(String channel, String message);
+    }
+
+    private final String name;
+    private final Parser<T> parser;
+    private final Backend backend;
+    private final String nodeId;
+    private final Cache<T> local;
+    private final boolean enabled;
+    private final boolean requireSubscription;
+
+    JedisNearCache(String name, Parser<T> parser, Backend backend, String nodeId, boolean enabled) {
+        this(name, parser, backend, nodeId, enabled, false);
+    }
+
+    private JedisNearCache(String name, Parser<T> parser, Backend backend, String nodeId, boolean enabled, boolean requireSubscription) {
+        this.name = name;
+        this.parser = parser;
+        this.backend = backend;
+        this.nodeId = nodeId;
+        this.enabled = enabled;
+        this.requireSubscription = requireSubscription;
+        this.local = new Cache<>();
+        local.setExpiration(DEFAULT_LOCAL_EXPIRATION);
+    }
+
+    /**
+     * Returns a near cache matching name or creates one if it doesn't exist.
+     * @param name name of the cache
+     * @param parser used to create objects from values read from Redis
+     */
+    public static <T> JedisNearCache<T> getNearCache(final String name, final Parser<T> parser) {
+        final JedisNearCache existing = NEAR_CACHES.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final boolean enabled = PropertyUtil.getOptional(PROPERTY_ENABLED, false);
+        final JedisNearCache<T> cache = new JedisNearCache<>(name, parser, JEDIS_BACKEND, NODE_ID, enabled, true);
+        final JedisNearCache previous = NEAR_CACHES.putIfAbsent(name, cache);
+        if (previous != null) {
+            return previous;
+        }
+        // register the local cache so statistics are available with the other caches
+        CacheManager.addCache(CACHE_NAME_PREFIX + name, cache.local);
+        return cache;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Cache<T> getLocalCache() {
+        return local;
+    }
+
+    /**
+     * Returns the value for key from local cache or from Redis if not cached locally.
+     * @param key Redis key
+     * @return parsed value or null if not found or if parsing failed
+     */
+    public T get(final String key) {
+        return get(key, false);
+    }
+
+    /**
+     * Returns the value for key from local cache or from Redis if not cached locally.
+     * @param key Redis key
+     * @param throwException throws runtime exception if Redis communication fails
+     * @return parsed value or null if not found or if parsing failed
+     */
+    public T get(final String key, final boolean throwException) {
+        final boolean useLocal = isLocalCacheUsable();
+        if (useLocal) {
+            final T value = local.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        final String json = backend.get(key, throwException);
+        if (json == null) {
+            return null;
+        }
+        final T value = parse(key, json);
+        if (useLocal && value != null) {
+            local.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Writes the value to Redis, caches the object locally and invalidates the key on other nodes.
+     * @param key Redis key
+     * @param seconds Redis expiration
+     * @param serialized value to write to Redis
+     * @param value object matching serialized value
+     */
+    public void put(final String key, final int seconds, final String serialized, final T value) {
+        backend.setex(key, seconds, serialized);
+        if (!enabled) {
+            return;
+        }
+        if (value == null || !isLocalCacheUsable()) {
+            local.remove(key);
+        } else {
+            local.put(key, value);
+        }
+        invalidateRemote(key);
+    }
+
+    /**
+     * Removes the key from Redis and from local caches on all nodes.
+     * @param key Redis key
+     */
+    public void remove(final String key) {
+        backend.del(key);
+        if (!enabled) {
+            return;
+        }
+        local.remove(key);
+        invalidateRemote(key);
+    }
+
+    private boolean isLocalCacheUsable() {
+        if (!enabled) {
+            return false;
+        }
+        if (!requireSubscription) {
+            return true;
+        }
+        subscribe();
+        return listening;
+    }
+
+    private void invalidateRemote(final String key) {
+        backend.publish(CHANNEL, nodeId + SEPARATOR + key);
+        notifyListeners(key);
+    }
+
+    private T parse(final String key, final String json) {
+        try {
+            return parser.parse(json);
+        } catch (Exception e) {
+            log.warn(e, "Couldn't parse value for key", key, "in near cache", name);
+            return null;
+        }
+    }
+
+    /**
+     * Handles invalidation message from CHANNEL
+     * @param message [sender node id]|[key]
+     */
+    void onInvalidation(final String message) {
+        final int index = message.indexOf(SEPARATOR);
+        if (index == -1) {
+            return;
+        }
+        if (message.substring(0, index).equals(nodeId)) {
+            // our own message, local cache has already been updated
+            return;
+        }
+        final String key = message.substring(index + 1);
+        if (!key.endsWith(WILDCARD)) {
+            local.remove(key);
+            return;
+        }
+        final String prefix = key.substring(0, key.length() - WILDCARD.length());
+        for (String cached : local.getKeys()) {
+            if (cached.startsWith(prefix)) {
+                local.remove(cached);
+            }
+        }
+    }
+
+    /**
+     * Notifies near caches on all nodes that the values for keys have changed in Redis.
+     * Use a key ending with WILDCARD to invalidate all keys with a prefix.
+     * @param keys Redis keys that have been modified
+     */
+    public static void publishInvalidation(final String... keys) {
+        for (String key : keys) {
+            for (JedisNearCache cache : NEAR_CACHES.values()) {
+                cache.onInvalidation(SEPARATOR + key);
+            }
+            notifyListeners(key);
+            JedisManager.publish(CHANNEL, NODE_ID + SEPARATOR + key);
+        }
+    }
+
+    /**
+     * Registers a listener for invalidations published on this node and, when near caching is enabled,
+     * on other nodes. Without near caching only invalidations published on this node are seen.
+     */
+    public static void addInvalidationListener(final InvalidationListener listener) {
+        LISTENERS.add(listener);
+        if (PropertyUtil.getOptional(PROPERTY_ENABLED, false)) {
+            subscribe();
+        }
+    }
+
+    public static void removeInvalidationListener(final InvalidationListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    private static void notifyListeners(final String key) {
+        for (InvalidationListener listener : LISTENERS) {
+            try {
+                listener.invalidated(key);
+            } catch (Exception e) {
+                log.warn(e, "Invalidation listener failed for key", key);
+            }
+        }
+    }
+
+    /**
+     * Notifies listeners about an invalidation message published by another node
+     * @param message [sender node id]|[key]
+     */
+    static void onRemoteInvalidation(final String message) {
+        final int index = message.indexOf(SEPARATOR);
+        if (index == -1 || message.substring(0, index).equals(NODE_ID)) {
+            return;
+        }
+        notifyListeners(message.substring(index + 1));
+    }
+
+    private static void subscribe() {
+        if (listening) {
+            return;
+        }
+        synchronized (NEAR_CACHES) {
+            final long now = System.currentTimeMillis();
+            if (listening || lastSubscribeAttempt + SUBSCRIBE_RETRY_INTERVAL > now) {
+                return;
+            }
+            lastSubscribeAttempt = now;
+            JedisManager.subscribe(new NearCacheSubscriber(), CHANNEL);
+        }
+    }
+
+    /**
+     * Drops invalidated keys from all near caches on this node
+     */
+    static class NearCacheSubscriber extends JedisSubscriber {
+        @Override
+        public void onMessage(String channel, String message) {
+            if (!CHANNEL.equals(channel) || message == null) {
+                return;
+            }
+            for (JedisNearCache cache : NEAR_CACHES.values()) {
+                cache.onInvalidation(message);
+            }
+            onRemoteInvalidation(message);
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            super.onSubscribe(channel, subscribedChannels);
+            listening = true;
+        }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) {
+            // we might miss invalidations from now on so stop using the local values
+            listening = false;
+            for (JedisNearCache cache : NEAR_CACHES.values()) {
+                cache.local.flush(true);
+            }
+            notifyListeners(WILDCARD);
+            log.warn("Stopped listening to near cache invalidations, local caching disabled until resubscribed");
+        }
+    }
+
+    static class JedisBackend implements Backend {
+        public String get(String key, boolean throwException) {
+            return JedisManager.get(key, throwException);
+        }
+
+        public String setex(String key, int seconds, String value) {
+            return JedisManager.setex(key, seconds, value);
+        }
+
+        public Long del(String... keys) {
+            return JedisManager.del(keys);
+        }
+
+        public Long publish(String channel, String message) {
+            return JedisManager.publish(channel, message);
+        }
+    }
+}
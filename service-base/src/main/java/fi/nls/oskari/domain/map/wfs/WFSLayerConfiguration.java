@@ -1,6 +1,7 @@
 package fi.nls.oskari.domain.map.wfs;
 
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.JSONHelper;
@@ -694,10 +695,12 @@ public class WFSLayerConfiguration {
         final String json = getAsJSON();
         log.debug("Writing WFS to Redis:", key, "->", json);
 		JedisManager.setex(key, JedisManager.EXPIRY_TIME_DAY, json); // expire in 1 day
+        JedisNearCache.publishInvalidation(key);
 	}
 
 	public void destroy() {
 		JedisManager.del(KEY + this.layerId);
+        JedisNearCache.publishInvalidation(KEY + this.layerId);
 	}
 
     private String getLayerFriendlyName() {
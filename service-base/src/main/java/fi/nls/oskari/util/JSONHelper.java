@@ -1,12 +1,18 @@
 package fi.nls.oskari.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONString;
 import org.json.JSONTokener;
 
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.*;
 
 
@@ -473,4 +479,75 @@ public class JSONHelper {
         }
         return result;
     }
+
+    /**
+     * Writes the value to the generator without serializing it to a String first.
+     * Handles the same values as JSONObject.toString(): JSONObject, JSONArray, JSONString, Map, Collection,
+     * arrays, numbers, booleans and null/JSONObject.NULL. Other values are written as strings.
+     * @param gen generator to write to
+     * @param value value to write
+     * @throws IOException if writing fails
+     */
+    public static void writeJSON(final JsonGenerator gen, final Object value) throws IOException {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            gen.writeNull();
+        } else if (value instanceof String) {
+            gen.writeString((String) value);
+        } else if (value instanceof JSONObject) {
+            final JSONObject json = (JSONObject) value;
+            gen.writeStartObject();
+            final Iterator keys = json.keys();
+            while (keys.hasNext()) {
+                final String key = (String) keys.next();
+                gen.writeFieldName(key);
+                writeJSON(gen, json.opt(key));
+            }
+            gen.writeEndObject();
+        } else if (value instanceof JSONArray) {
+            final JSONArray array = (JSONArray) value;
+            gen.writeStartArray();
+            for (int i = 0; i < array.length(); ++i) {
+                writeJSON(gen, array.opt(i));
+            }
+            gen.writeEndArray();
+        } else if (value instanceof Boolean) {
+            gen.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            gen.writeNumber(((Number) value).longValue());
+        } else if (value instanceof BigDecimal) {
+            gen.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            gen.writeNumber((BigInteger) value);
+        } else if (value instanceof Number) {
+            final double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                // not valid JSON, JSONObject refuses to serialize these as well
+                throw new IOException("Non-finite number: " + number);
+            }
+            gen.writeNumber(number);
+        } else if (value instanceof JSONString) {
+            gen.writeRawValue(((JSONString) value).toJSONString());
+        } else if (value instanceof Map) {
+            gen.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                gen.writeFieldName(String.valueOf(entry.getKey()));
+                writeJSON(gen, entry.getValue());
+            }
+            gen.writeEndObject();
+        } else if (value instanceof Collection) {
+            gen.writeStartArray();
+            for (Object item : (Collection<?>) value) {
+                writeJSON(gen, item);
+            }
+            gen.writeEndArray();
+        } else if (value.getClass().isArray()) {
+            gen.writeStartArray();
+            for (int i = 0; i < Array.getLength(value); ++i) {
+                writeJSON(gen, Array.get(value, i));
+            }
+            gen.writeEndArray();
+        } else {
+            gen.writeString(value.toString());
+        }
+    }
 }
@@ -4,143 +4,427 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages workers for different kind of jobs
+ *
+ * Jobs are queued by type (see getJobType()) and workers take the next job from the types in proportion
+ * to their weights. Adding a job with the same key as a queued job replaces the queued job in its place
+ * in the queue so bursts of requests for the same thing don't pile up. The queue can be bounded with
+ * a rejection policy for jobs that don't fit in.
  */
 public class JobQueue
 {
 	private static final Logger log = LogFactory.getLogger(JobQueue.class);
-			
+
+    /**
+     * What to do when a job is added to a full queue
+     */
+    public enum RejectionPolicy {
+        /** throw RejectedExecutionException from add() */
+        ABORT,
+        /** drop the added job */
+        DISCARD,
+        /** drop the job that has been queued for the longest time */
+        DISCARD_OLDEST;
+
+        /**
+         * @param value name of the policy, case is ignored
+         * @return matching policy, DISCARD_OLDEST if value is empty or not a policy
+         */
+        public static RejectionPolicy parse(String value) {
+            if (value == null || value.trim().isEmpty()) {
+                return DISCARD_OLDEST;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                log.warn("Unknown job queue rejection policy:", value, "- Using", DISCARD_OLDEST);
+                return DISCARD_OLDEST;
+            }
+        }
+    }
+
+    public static final int DEFAULT_WEIGHT = 1;
+    // virtual time added for a served job is STRIDE / weight
+    private static final long STRIDE = 1 << 20;
+
     private final int nWorkers;
     private final Worker[] workers;
-    private final Map<String, Job> jobs;
-    private final LinkedList<Job> queue;
+    private final int capacity;
+    private final RejectionPolicy rejectionPolicy;
 
-    private long maxQueueLength = 0;
-    private long maxJobLength = 0;
-    private long minJobLength = Long.MAX_VALUE;
-    private long jobCount = 0;
-    private long avgRuntime = 0;
-    private String firstCrashedJob = null;
-    private long crashedJobCount = 0;
+    // running jobs by key
+    private final Map<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+    // queued jobs by key
+    private final Map<String, Slot> queued = new ConcurrentHashMap<String, Slot>();
+    private final Map<String, TypeQueue> queues = new ConcurrentHashMap<String, TypeQueue>();
+    private final Map<String, Integer> weights = new ConcurrentHashMap<String, Integer>();
+    // one permit per slot in queues
+    private final Semaphore available = new Semaphore(0);
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong virtualTime = new AtomicLong();
+
+    private final AtomicLong maxQueueLength = new AtomicLong();
+    private final AtomicLong jobCount = new AtomicLong();
+    private final AtomicLong supersededCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong crashedJobCount = new AtomicLong();
+    private final AtomicReference<String> firstCrashedJob = new AtomicReference<String>();
+    private final LatencyHistogram runtimes = new LatencyHistogram();
+    private final LatencyHistogram waitTimes = new LatencyHistogram();
 
     /**
-     * Initializes a queue and workers
-     * 
+     * Queued job, the job is replaced when superseded and cleared when removed
+     */
+    private static class Slot {
+        final String key;
+        final long sequence;
+        final AtomicReference<Job> job;
+        volatile long queuedAt = System.nanoTime();
+
+        Slot(String key, long sequence, Job job) {
+            this.key = key;
+            this.sequence = sequence;
+            this.job = new AtomicReference<Job>(job);
+        }
+    }
+
+    private static class TypeQueue {
+        final ConcurrentLinkedQueue<Slot> slots = new ConcurrentLinkedQueue<Slot>();
+        final AtomicLong pass = new AtomicLong();
+    }
+
+    /**
+     * Initializes an unbounded queue and workers
+     *
      * @param nWorkers
      */
     public JobQueue(int nWorkers)
     {
+        this(nWorkers, Integer.MAX_VALUE, RejectionPolicy.DISCARD_OLDEST);
+    }
+
+    /**
+     * Initializes a queue and workers
+     *
+     * @param nWorkers number of worker threads
+     * @param capacity max number of queued jobs, jobs replacing a queued one with the same key always fit
+     * @param rejectionPolicy what to do with jobs that don't fit in the queue
+     */
+    public JobQueue(int nWorkers, int capacity, RejectionPolicy rejectionPolicy)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
         this.nWorkers = nWorkers;
-        queue = new LinkedList<Job>();
+        this.capacity = capacity;
+        this.rejectionPolicy = rejectionPolicy == null ? RejectionPolicy.ABORT : rejectionPolicy;
         workers = new Worker[this.nWorkers];
-        jobs = new HashMap<String, Job>();
 
         for (int i = 0; i < this.nWorkers; i++) {
         	workers[i] = new Worker();
         	workers[i].start();
         }
     }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * Sets the share of workers jobs of the type get when there are jobs of multiple types queued.
+     * Types without a weight get DEFAULT_WEIGHT.
+     *
+     * @param type job type as returned by getJobType()
+     * @param weight positive weight
+     */
+    public void setJobTypeWeight(String type, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        weights.put(type, weight);
+    }
+
+    public int getJobTypeWeight(String type) {
+        final Integer weight = weights.get(type);
+        return weight == null ? DEFAULT_WEIGHT : weight;
+    }
+
+    /**
+     * Type of the job for fair scheduling between different kinds of jobs
+     *
+     * @param job
+     * @return type, defaults to the class name of the job
+     */
+    protected String getJobType(Job job) {
+        return job.getClass().getSimpleName();
+    }
+
     public long getMaxQueueLength() {
-        return maxQueueLength;
+        return maxQueueLength.get();
     }
 
     public long getMaxJobLength() {
-        return maxJobLength;
+        return runtimes.getMax();
     }
 
     public long getMinJobLength() {
-        return minJobLength;
+        return runtimes.getMin();
     }
 
     public long getJobCount() {
-        return jobCount;
+        return jobCount.get();
     }
 
     public long getAvgRuntime() {
-        return avgRuntime;
+        return runtimes.getMean();
+    }
+
+    /**
+     * Run times of finished jobs in ms
+     */
+    public LatencyHistogram getRuntimes() {
+        return runtimes;
+    }
+
+    /**
+     * Time in ms the jobs spent in queue before a worker started them
+     */
+    public LatencyHistogram getWaitTimes() {
+        return waitTimes;
     }
+
+    /**
+     * Number of queued jobs replaced by a newer job with the same key
+     */
+    public long getSupersededJobCount() {
+        return supersededCount.get();
+    }
+
+    /**
+     * Number of jobs dropped or refused because the queue was full
+     */
+    public long getRejectedJobCount() {
+        return rejectedCount.get();
+    }
+
     public long getQueueSize() {
-        return queue.size();
+        return size.get();
     }
 
     public String getFirstCrashedJob() {
-        return firstCrashedJob;
+        return firstCrashedJob.get();
     }
 
     public long getCrashedJobCount() {
-        return crashedJobCount;
+        return crashedJobCount.get();
     }
 
     public List<String> getQueuedJobNames() {
-        List<String> names = new ArrayList<String>(queue.size());
-        for(Job j : queue) {
-            names.add(j.getKey());
+        List<String> names = new ArrayList<String>(size.get());
+        for(TypeQueue q : queues.values()) {
+            for(Slot slot : q.slots) {
+                if(slot.job.get() != null) {
+                    names.add(slot.key);
+                }
+            }
         }
         return names;
     }
 
     public void cleanup(boolean force) {
-        for(Job j : queue) {
-            if(force) {
-                remove(j);
+        if(!force) {
+            return;
+        }
+        for(Slot slot : queued.values()) {
+            final Job job = slot.job.get();
+            if(job != null) {
+                remove(job);
             }
         }
     }
 
     /**
-     * Adds a new job into queue and notifies workers
-     * 
+     * Adds a new job into queue and notifies workers. A queued job with the same key is replaced
+     * and a running one terminated once the new job has been accepted, so a rejected job doesn't
+     * leave the client without both results.
+     *
      * @param job
+     * @throws RejectedExecutionException if the queue is full and rejection policy is ABORT
      */
     public void add(Job job) {
-        // removed previous job with same key
-        remove(job);
-    	String key = job.getKey();
-    	jobs.put(key, job);
-        synchronized(queue) {
-            queue.addLast(job);
-            queue.notify();
+    	final String key = job.getKey();
+        final Job running = jobs.get(key);
+        if(supersede(key, job)) {
+            terminate(running);
+            return;
         }
-        if(maxQueueLength < queue.size()) {
-            maxQueueLength = queue.size();
+        if(!reserve(job)) {
+            return;
         }
+        final String type = getJobType(job);
+        final Slot slot = new Slot(key, sequence.incrementAndGet(), job);
+        while(queued.putIfAbsent(key, slot) != null) {
+            // another thread queued the same key at the same time
+            if(supersede(key, job)) {
+                size.decrementAndGet();
+                terminate(running);
+                return;
+            }
+        }
+        final TypeQueue q = queues.computeIfAbsent(type, t -> new TypeQueue());
+        if(q.slots.isEmpty()) {
+            // idle types don't get to catch up on the time they weren't competing
+            q.pass.accumulateAndGet(virtualTime.get(), Math::max);
+        }
+        q.slots.add(slot);
+        available.release();
+        maxQueueLength.accumulateAndGet(size.get(), Math::max);
+        terminate(running);
         log.debug("Added", key);
     }
 
-    public void addJobCount() {
-        jobCount++;
+    private void terminate(Job running) {
+        if(running != null) {
+            running.terminate();
+        }
     }
 
-    public void setupTimingStatistics(long runTimeMS) {
-        if(runTimeMS > maxJobLength) {
-            maxJobLength = runTimeMS;
+    /**
+     * Replaces a queued job with the same key
+     *
+     * @return true if the job took the place of a queued job
+     */
+    private boolean supersede(String key, Job job) {
+        Slot slot;
+        while((slot = queued.get(key)) != null) {
+            final Job previous = slot.job.get();
+            if(previous != null && slot.job.compareAndSet(previous, job)) {
+                slot.queuedAt = System.nanoTime();
+                previous.terminate();
+                supersededCount.incrementAndGet();
+                log.debug("Replaced queued", key);
+                return true;
+            }
+            if(previous == null) {
+                // slot was taken by a worker or removed
+                queued.remove(key, slot);
+            }
         }
-        if(runTimeMS < minJobLength) {
-            minJobLength = runTimeMS;
+        return false;
+    }
+
+    /**
+     * Reserves a place for a new job
+     *
+     * @return false if the job was discarded
+     */
+    private boolean reserve(Job job) {
+        while(true) {
+            final int current = size.get();
+            if(current < capacity) {
+                if(size.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            switch (rejectionPolicy) {
+                case DISCARD_OLDEST:
+                    final Slot oldest = findOldest();
+                    if(oldest == null) {
+                        // places are reserved by jobs that are being added
+                        Thread.yield();
+                    } else {
+                        final Job dropped = oldest.job.get();
+                        if(dropped != null && clear(oldest, dropped)) {
+                            dropped.terminate();
+                            rejectedCount.incrementAndGet();
+                            log.debug("Queue full, dropped", oldest.key);
+                        }
+                    }
+                    // retry with the freed place
+                    continue;
+                case DISCARD:
+                    rejectedCount.incrementAndGet();
+                    job.terminate();
+                    log.debug("Queue full, discarded", job.getKey());
+                    return false;
+                default:
+                    rejectedCount.incrementAndGet();
+                    throw new RejectedExecutionException("Job queue is full, rejected " + job.getKey());
+            }
         }
-        if(avgRuntime == 0) {
-            avgRuntime = runTimeMS;
+    }
+
+    private Slot findOldest() {
+        Slot oldest = null;
+        for(TypeQueue q : queues.values()) {
+            for(Slot slot : q.slots) {
+                if(slot.job.get() == null) {
+                    continue;
+                }
+                if(oldest == null || slot.sequence < oldest.sequence) {
+                    oldest = slot;
+                }
+                // slots of a type are in order so the first live one is the oldest of the type
+                break;
+            }
         }
-        else {
-            avgRuntime = ((avgRuntime * (jobCount -1)) + runTimeMS) / jobCount;
+        return oldest;
+    }
+
+    /**
+     * Empties a slot, the slot stays in the type queue until a worker skips it
+     *
+     * @return true if the job was still queued in the slot
+     */
+    private boolean clear(Slot slot, Job job) {
+        if(!slot.job.compareAndSet(job, null)) {
+            return false;
         }
+        queued.remove(slot.key, slot);
+        size.decrementAndGet();
+        return true;
+    }
+
+    public void addJobCount() {
+        jobCount.incrementAndGet();
+    }
+
+    public void setupTimingStatistics(long runTimeMS) {
+        runtimes.update(runTimeMS);
     }
 
     /**
      * Removes a job from queue and terminates a running job
-     * 
+     *
      * @param job
      */
     public void remove(Job job) {
     	String key = job.getKey();
+        final Slot slot = queued.get(key);
+        if(slot != null) {
+            final Job queuedJob = slot.job.get();
+            if(queuedJob != null && clear(slot, queuedJob)) {
+                queuedJob.terminate();
+            }
+        }
     	Job processedJob = jobs.get(key);
 		if(processedJob != null)
 			processedJob.terminate();
-        synchronized(queue) {
-        	queue.remove(job);
-        }
         log.debug("Removed", key);
     }
 
@@ -162,30 +446,80 @@ public class JobQueue
             log.debug(value, "Stacktrace");
         }
     }
-    
+
+    /**
+     * Takes the next job, waits for one if the queue is empty
+     */
+    private Job take() throws InterruptedException {
+        while(true) {
+            available.acquire();
+            Slot slot;
+            // the permit guarantees a slot for this worker, it may just be in a queue already passed
+            while((slot = poll()) == null) {
+                Thread.yield();
+            }
+            final Job job = slot.job.getAndSet(null);
+            if(job == null) {
+                // removed, superseded slots keep their place with the newer job
+                continue;
+            }
+            queued.remove(slot.key, slot);
+            size.decrementAndGet();
+            // mark running before the key can be queued again so a newer job can terminate this one
+            jobs.put(slot.key, job);
+            waitTimes.update((System.nanoTime() - slot.queuedAt) / 1000000L);
+            return job;
+        }
+    }
+
+    /**
+     * Polls the type with the least virtual time spent in relation to its weight
+     */
+    private Slot poll() {
+        while(true) {
+            String type = null;
+            TypeQueue next = null;
+            for(Map.Entry<String, TypeQueue> entry : queues.entrySet()) {
+                final TypeQueue q = entry.getValue();
+                if(!q.slots.isEmpty() && (next == null || q.pass.get() < next.pass.get())) {
+                    type = entry.getKey();
+                    next = q;
+                }
+            }
+            if(next == null) {
+                return null;
+            }
+            final Slot slot = next.slots.poll();
+            if(slot == null) {
+                // emptied by another worker, pick again
+                continue;
+            }
+            final long pass = next.pass.getAndAdd(STRIDE / getJobTypeWeight(type));
+            virtualTime.accumulateAndGet(pass, Math::max);
+            return slot;
+        }
+    }
+
     /**
      * Defines a worker thread for queue's job
      */
-    private class Worker extends Thread { 
-    	
+    private class Worker extends Thread {
+
     	/**
     	 * Processes queues jobs
-    	 * 
+    	 *
     	 * Waits for the queue to have some jobs.
-    	 * Always takes the first job available, runs it and removes it from queue.
-    	 * 
+    	 * Always takes the next job available, runs it and removes it from queue.
+    	 *
     	 */
         public void run() {
             Job r;
 
             while (true) {
-                synchronized(queue) {
-                    while (queue.isEmpty()) {
-                        try {
-                            queue.wait();
-                        } catch (InterruptedException ignored) { }
-                    }
-                    r = queue.removeFirst();
+                try {
+                    r = take();
+                } catch (InterruptedException ignored) {
+                    continue;
                 }
                 final long startTime = System.nanoTime();
                 addJobCount();
@@ -199,11 +533,9 @@ public class JobQueue
                     notified = true;
                 }
                 catch (OutOfMemoryError e) {
-                    crashedJobCount++;
+                    crashedJobCount.incrementAndGet();
                     log.error("OutOfMemory while running job:", r.getKey(), "- message", e.getMessage());
-                    if(firstCrashedJob == null) {
-                        firstCrashedJob = r.getKey();
-                    }
+                    firstCrashedJob.compareAndSet(null, r.getKey());
                     onJobFailed(r, e);
                     notified = true;
                     throw e;
@@ -213,7 +545,8 @@ public class JobQueue
                         onJobFailed(r, null);
                     }
                     r.teardown();
-                    jobs.remove(r.getKey());
+                    // a newer job with the same key may already be running
+                    jobs.remove(r.getKey(), r);
                     log.debug("Finished", r.getKey());
                     final long runTimeMS = (System.nanoTime() - startTime) / 1000000L;
                     setupTimingStatistics(runTimeMS);
@@ -221,4 +554,4 @@ public class JobQueue
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+package fi.nls.oskari.worker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram for durations in milliseconds. Values below 32 are counted exactly, larger
+ * values in 16 buckets per power of two so percentiles are within 6.25% of the recorded values.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int EXACT = SUB_COUNT << 1;
+    private static final int MAX_BIT = 62;
+    private static final int BUCKET_COUNT = EXACT + (MAX_BIT - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Records a duration
+     *
+     * @param value duration in ms, negative values are counted as 0
+     */
+    public void update(long value) {
+        final long v = Math.max(0, value);
+        buckets.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        min.accumulateAndGet(v, Math::min);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return smallest recorded value or 0 if nothing has been recorded
+     */
+    public long getMin() {
+        final long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return rounded down average or 0 if nothing has been recorded
+     */
+    public long getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * Value below which the given fraction of the recorded values fall
+     *
+     * @param quantile for example 0.95 for 95th percentile
+     * @return upper bound of the bucket containing the percentile, 0 if nothing has been recorded
+     */
+    public long getPercentile(double quantile) {
+        long n = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            n += buckets.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    static int index(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        final int bit = Math.min(MAX_BIT, 63 - Long.numberOfLeadingZeros(value));
+        final int shift = bit - SUB_BITS;
+        final int sub = (int) Math.min(SUB_COUNT - 1, (value >>> shift) - SUB_COUNT);
+        return EXACT + (bit - SUB_BITS - 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        final int bit = (index - EXACT) / SUB_COUNT + SUB_BITS + 1;
+        final int sub = (index - EXACT) % SUB_COUNT;
+        final int shift = bit - SUB_BITS;
+        return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+    }
+}
@@ -79,4 +79,49 @@ public class CacheTest {
         assertTrue("Cache lastFlush + expiration + 10 should be cleared for flush", cache.isTimeToFlush(last + expiration + 10));
     }
 
+    @Test
+    public void testEntryExpiration() throws Exception {
+        final Cache<String> cache = CacheManager.getCache("EntryExpiration");
+        cache.setExpiration(20);
+        cache.put("first", "value");
+        Thread.sleep(30);
+        cache.put("second", "value");
+        assertNull("First entry should have expired", cache.get("first"));
+        assertEquals("Second entry should still be cached", "value", cache.get("second"));
+        assertEquals("Expiration should be counted", 1, cache.getStatistics().getExpirationCount());
+    }
+
+    @Test
+    public void testFrequentlyUsedSurvivesEviction() {
+        final Cache<String> cache = CacheManager.getCache("FrequencyEviction");
+        cache.setLimit(3);
+        cache.put("hot", "value");
+        cache.put("cold1", "value");
+        cache.put("cold2", "value");
+        cache.get("hot");
+        cache.get("hot");
+        // access order would keep hot last, make it the least recently used
+        cache.get("cold1");
+        cache.get("cold2");
+        assertTrue("Should overflow", cache.put("new", "value"));
+        assertNotNull("Frequently used item should remain", cache.get("hot"));
+        assertNull("Least used item should have been evicted", cache.get("cold1"));
+        assertEquals("Cache size should be 3", 3, cache.getSize());
+        assertEquals("One eviction", 1, cache.getStatistics().getEvictionCount());
+    }
+
+    @Test
+    public void testStatisticsAndLoader() {
+        final Cache<String> cache = CacheManager.getCache("StatisticsAndLoader");
+        assertNull("Nothing cached", cache.get("key"));
+        cache.setLoader(key -> "loaded_" + key);
+        assertEquals("Value should be loaded", "loaded_key", cache.get("key"));
+        assertEquals("Value should be cached", "loaded_key", cache.get("key"));
+        CacheStats stats = cache.getStatistics();
+        assertEquals("Hits", 1, stats.getHitCount());
+        assertEquals("Misses", 2, stats.getMissCount());
+        assertEquals("Loads", 1, stats.getLoadCount());
+        assertEquals("Hit rate", 1.0 / 3, stats.getHitRate(), 0.0001);
+    }
+
 }
@@ -5,8 +5,12 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 @Ignore
@@ -63,4 +67,23 @@ public class JedisManagerTest {
         Long res = JedisManager.publish("test", "test message");
         assertTrue(res == 1);
     }
+
+    @Test
+    public void testBatchOperations() {
+        Map<String, String> values = new HashMap<>();
+        values.put("batch1", "one");
+        values.put("batch2", "two");
+        assertTrue("Should write values", JedisManager.msetex(values, 60));
+
+        List<String> result = JedisManager.mget("batch1", "missing", "batch2");
+        assertEquals(Arrays.asList("one", null, "two"), result);
+    }
+
+    @Test
+    public void testDrainList() {
+        JedisManager.del("drainlist");
+        JedisManager.pushToList("drainlist", "a", "b", "c");
+        assertEquals(Arrays.asList("a", "b", "c"), JedisManager.drainList("drainlist"));
+        assertTrue("List should be empty", JedisManager.drainList("drainlist").isEmpty());
+    }
 }
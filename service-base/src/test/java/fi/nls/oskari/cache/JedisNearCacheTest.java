@@ -0,0 +1,109 @@
+package fi.nls.oskari.cache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests near cache with an in-memory stand-in for Redis shared by two "nodes".
+ */
+public class JedisNearCacheTest {
+
+    private InMemoryRedis redis;
+    private JedisNearCache<StringBuilder> node1;
+    private JedisNearCache<StringBuilder> node2;
+
+    @Before
+    public void setUp() {
+        redis = new InMemoryRedis();
+        node1 = new JedisNearCache<>("test", StringBuilder::new, redis, "node1", true);
+        node2 = new JedisNearCache<>("test", StringBuilder::new, redis, "node2", true);
+        redis.subscribers.add(node1);
+        redis.subscribers.add(node2);
+    }
+
+    @Test
+    public void testHitDoesNotReadRedis() {
+        redis.setex("key", 10, "value");
+        StringBuilder first = node1.get("key");
+        StringBuilder second = node1.get("key");
+        assertEquals("value", first.toString());
+        assertSame("Second read should return the already parsed object", first, second);
+        assertEquals("Redis should be read only once", 1, redis.reads);
+    }
+
+    @Test
+    public void testPutInvalidatesOtherNodes() {
+        redis.setex("key", 10, "value");
+        assertEquals("value", node1.get("key").toString());
+        assertEquals("value", node2.get("key").toString());
+
+        node1.put("key", 10, "updated", new StringBuilder("updated"));
+        assertEquals("Writing node should see new value", "updated", node1.get("key").toString());
+        assertEquals("Other node should re-read new value", "updated", node2.get("key").toString());
+    }
+
+    @Test
+    public void testRemoveAndWildcardInvalidation() {
+        redis.setex("prefix_1", 10, "one");
+        redis.setex("prefix_2", 10, "two");
+        node2.get("prefix_1");
+        node2.get("prefix_2");
+
+        node1.remove("prefix_1");
+        assertNull("Removed key should not be served from local cache", node2.get("prefix_1"));
+
+        redis.setex("prefix_2", 10, "changed");
+        node2.onInvalidation("other|prefix_" + JedisNearCache.WILDCARD);
+        assertEquals("Wildcard should invalidate keys with prefix", "changed", node2.get("prefix_2").toString());
+    }
+
+    @Test
+    public void testDisabledAlwaysReadsRedis() {
+        JedisNearCache<StringBuilder> disabled = new JedisNearCache<>("disabled", StringBuilder::new, redis, "node3", false);
+        redis.setex("key", 10, "value");
+        disabled.get("key");
+        disabled.get("key");
+        assertEquals("Redis should be read on each call", 2, redis.reads);
+        assertEquals("Nothing should be cached locally", 0, disabled.getLocalCache().getSize());
+    }
+
+    static class InMemoryRedis implements JedisNearCache.Backend {
+        final Map<String, String> values = new ConcurrentHashMap<>();
+        final List<JedisNearCache> subscribers = new ArrayList<>();
+        int reads = 0;
+
+        public String get(String key, boolean throwException) {
+            reads++;
+            return values.get(key);
+        }
+
+        public String setex(String key, int seconds, String value) {
+            values.put(key, value);
+            return "OK";
+        }
+
+        public Long del(String... keys) {
+            long count = 0;
+            for (String key : keys) {
+                if (values.remove(key) != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public Long publish(String channel, String message) {
+            for (JedisNearCache cache : subscribers) {
+                cache.onInvalidation(message);
+            }
+            return (long) subscribers.size();
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package fi.nls.oskari.util;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.json.JSONObject;
 import org.junit.Test;
 
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
 import static org.junit.Assert.*;
 
 /**
@@ -183,4 +189,27 @@ public class JSONHelperTest {
         assertTrue("Result should have key 'test'", JSONHelper.getStringFromJSON(result, "test", "").equals("jee"));
         assertTrue("Result should have key 'moi'", JSONHelper.getStringFromJSON(result, "moi", "").equals("moi"));
     }
+
+    @Test
+    public void testWriteJSON() throws Exception {
+        JSONObject input = JSONHelper.createJSONObject(
+                "{\"str\": \"quote \\\" and </script>\", \"int\": 3, \"double\": 2.5, \"bool\": true, " +
+                        "\"nil\": null, \"arr\": [1, \"a\", {\"nested\": []}], \"obj\": {}}");
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = new JsonFactory().createGenerator(out)) {
+            JSONHelper.writeJSON(gen, input);
+        }
+        JSONObject written = JSONHelper.createJSONObject(out.toString());
+        assertTrue("Written JSON should match the original", JSONHelper.isEqual(input, written));
+        assertTrue("Null should be written", written.has("nil") && written.isNull("nil"));
+    }
+
+    @Test
+    public void testWriteJSONCollections() throws Exception {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = new JsonFactory().createGenerator(out)) {
+            JSONHelper.writeJSON(gen, Collections.singletonMap("list", Arrays.asList(1L, "two", new int[] {3})));
+        }
+        assertEquals("{\"list\":[1,\"two\",[3]]}", out.toString());
+    }
 }
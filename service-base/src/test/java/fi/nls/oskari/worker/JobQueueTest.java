@@ -2,7 +2,15 @@ package fi.nls.oskari.worker;
 
 import org.junit.Test;
 
-import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
 
 public class JobQueueTest {
 	private class TestJob extends AbstractJob<String> {
@@ -58,4 +66,212 @@ public class JobQueueTest {
 		assertTrue("Should run", job3.isStarted() == true);
 	}
 
+	/**
+	 * Keeps the worker busy until released
+	 */
+	private class BlockingJob extends AbstractJob<String> {
+		private final CountDownLatch started = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public String run() throws Exception {
+			started.countDown();
+			release.await();
+			return null;
+		}
+
+		@Override
+		public String getKey() {
+			return "blocking";
+		}
+	}
+
+	private class RecordingJob extends AbstractJob<String> {
+		private final String key;
+		private final List<String> executed;
+		private final CountDownLatch done;
+
+		RecordingJob(String key, List<String> executed, CountDownLatch done) {
+			this.key = key;
+			this.executed = executed;
+			this.done = done;
+		}
+
+		@Override
+		public String run() {
+			executed.add(key);
+			done.countDown();
+			return null;
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+	}
+
+	private class OtherJob extends RecordingJob {
+		OtherJob(String key, List<String> executed, CountDownLatch done) {
+			super(key, executed, done);
+		}
+	}
+
+	private BlockingJob block(JobQueue jobs) throws InterruptedException {
+		BlockingJob blocker = new BlockingJob();
+		jobs.add(blocker);
+		assertTrue("Worker should start", blocker.started.await(5, TimeUnit.SECONDS));
+		return blocker;
+	}
+
+	@Test
+	public void testSupersede() throws InterruptedException {
+		JobQueue jobs = new JobQueue(1);
+		BlockingJob blocker = block(jobs);
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(2);
+
+		RecordingJob first = new RecordingJob("a", executed, done);
+		jobs.add(first);
+		jobs.add(new RecordingJob("b", executed, done));
+		RecordingJob second = new RecordingJob("a", executed, done);
+		jobs.add(second);
+		assertEquals(2, jobs.getQueueSize());
+		assertEquals("Newer job keeps the place in queue", Arrays.asList("a", "b"), jobs.getQueuedJobNames());
+		assertFalse("Replaced job should be terminated", first.goNext());
+		assertTrue(second.goNext());
+		assertEquals(1, jobs.getSupersededJobCount());
+
+		blocker.release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("a", "b"), executed);
+		assertEquals(0, jobs.getQueueSize());
+	}
+
+	@Test
+	public void testRemoveQueued() throws InterruptedException {
+		JobQueue jobs = new JobQueue(1);
+		BlockingJob blocker = block(jobs);
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(1);
+		RecordingJob removed = new RecordingJob("a", executed, done);
+		jobs.add(removed);
+		jobs.remove(removed);
+		assertEquals(0, jobs.getQueueSize());
+		assertFalse(removed.goNext());
+		jobs.add(new RecordingJob("b", executed, done));
+
+		blocker.release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("b"), executed);
+	}
+
+	@Test
+	public void testCapacityAbort() throws InterruptedException {
+		JobQueue jobs = new JobQueue(1, 2, JobQueue.RejectionPolicy.ABORT);
+		BlockingJob blocker = block(jobs);
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		jobs.add(new RecordingJob("a", executed, new CountDownLatch(1)));
+		jobs.add(new RecordingJob("b", executed, new CountDownLatch(1)));
+		// replacing a queued job always fits
+		jobs.add(new RecordingJob("b", executed, new CountDownLatch(1)));
+		try {
+			jobs.add(new RecordingJob("c", executed, new CountDownLatch(1)));
+			fail("Full queue should reject");
+		} catch (RejectedExecutionException expected) {
+		}
+		assertEquals(1, jobs.getRejectedJobCount());
+		assertEquals(2, jobs.getMaxQueueLength());
+		blocker.release.countDown();
+	}
+
+	@Test
+	public void testRejectedJobDoesntTerminateRunning() throws InterruptedException {
+		JobQueue jobs = new JobQueue(1, 1, JobQueue.RejectionPolicy.ABORT);
+		BlockingJob blocker = block(jobs);
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		RecordingJob queued = new RecordingJob("a", executed, new CountDownLatch(1));
+		jobs.add(queued);
+		try {
+			jobs.add(new RecordingJob(blocker.getKey(), executed, new CountDownLatch(1)));
+			fail("Full queue should reject");
+		} catch (RejectedExecutionException expected) {
+		}
+		assertTrue("Running job should be kept when the new one is rejected", blocker.goNext());
+
+		jobs.remove(queued);
+		jobs.add(new RecordingJob(blocker.getKey(), executed, new CountDownLatch(1)));
+		assertFalse("Running job should be terminated when the new one is queued", blocker.goNext());
+		blocker.release.countDown();
+	}
+
+	@Test
+	public void testParseRejectionPolicy() {
+		assertEquals(JobQueue.RejectionPolicy.ABORT, JobQueue.RejectionPolicy.parse("abort"));
+		assertEquals(JobQueue.RejectionPolicy.DISCARD, JobQueue.RejectionPolicy.parse(" Discard "));
+		assertEquals(JobQueue.RejectionPolicy.DISCARD_OLDEST, JobQueue.RejectionPolicy.parse(null));
+		assertEquals(JobQueue.RejectionPolicy.DISCARD_OLDEST, JobQueue.RejectionPolicy.parse("unknown"));
+	}
+
+	@Test
+	public void testCapacityDiscardOldest() throws InterruptedException {
+		JobQueue jobs = new JobQueue(1, 2, JobQueue.RejectionPolicy.DISCARD_OLDEST);
+		BlockingJob blocker = block(jobs);
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(2);
+		RecordingJob oldest = new RecordingJob("a", executed, done);
+		jobs.add(oldest);
+		jobs.add(new RecordingJob("b", executed, done));
+		jobs.add(new RecordingJob("c", executed, done));
+		assertFalse("Oldest job should be dropped", oldest.goNext());
+		assertEquals(Arrays.asList("b", "c"), jobs.getQueuedJobNames());
+
+		blocker.release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList("b", "c"), executed);
+		assertEquals(1, jobs.getRejectedJobCount());
+	}
+
+	@Test
+	public void testWeightedTypes() throws InterruptedException {
+		JobQueue jobs = new JobQueue(1);
+		jobs.setJobTypeWeight(RecordingJob.class.getSimpleName(), 3);
+		BlockingJob blocker = block(jobs);
+		List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+		CountDownLatch done = new CountDownLatch(12);
+		for (int i = 0; i < 6; i++) {
+			jobs.add(new OtherJob("other" + i, executed, done));
+		}
+		for (int i = 0; i < 6; i++) {
+			jobs.add(new RecordingJob("heavy" + i, executed, done));
+		}
+		blocker.release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		int heavy = 0;
+		for (String key : executed.subList(0, 8)) {
+			if (key.startsWith("heavy")) {
+				heavy++;
+			}
+		}
+		assertEquals("Three heavy jobs for each other job: " + executed, 6, heavy);
+	}
+
+	@Test
+	public void testStatistics() throws InterruptedException {
+		JobQueue jobs = new JobQueue(1);
+		BlockingJob blocker = block(jobs);
+		blocker.release.countDown();
+		CountDownLatch done = new CountDownLatch(1);
+		jobs.add(new RecordingJob("a", new ArrayList<String>(), done));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		// statistics are updated after the job has run
+		long waited = 0;
+		while (jobs.getRuntimes().getCount() < 2 && waited++ < 100) {
+			Thread.sleep(50);
+		}
+		assertEquals(2, jobs.getJobCount());
+		assertEquals(2, jobs.getRuntimes().getCount());
+		assertEquals(2, jobs.getWaitTimes().getCount());
+		assertTrue(jobs.getMaxJobLength() >= jobs.getMinJobLength());
+	}
 }
@@ -0,0 +1,58 @@
+package fi.nls.oskari.worker;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.update(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1, histogram.getMin());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500, histogram.getMean());
+        assertWithin(500, histogram.getPercentile(0.5));
+        assertWithin(950, histogram.getPercentile(0.95));
+        assertWithin(990, histogram.getPercentile(0.99));
+        assertEquals(1000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.update(-5);
+        histogram.update(3);
+        histogram.update(31);
+        assertEquals(0, histogram.getPercentile(0.1));
+        assertEquals(3, histogram.getPercentile(0.5));
+        assertEquals(31, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] {0, 31, 32, 63, 64, 1000, 123456789L, Long.MAX_VALUE}) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.index(value));
+            assertTrue("Bucket of " + value + " should contain it", upper >= value);
+            assertTrue("Bucket of " + value + " should be narrow", upper - value <= value / 16);
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("Expected about " + expected + ", was " + actual, Math.abs(expected - actual) <= expected / 16);
+    }
+}
@@ -2,15 +2,21 @@ package fi.nls.oskari.util;
 
 import java.io.ByteArrayOutputStream;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Convenience methods for writing a response.
@@ -21,6 +27,20 @@ public class ResponseHelper {
 
     private static final Logger LOG = LogFactory.getLogger(ResponseHelper.class);
 
+    // generators are created per response, the factory is thread safe
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    // streamed responses are compressed for clients accepting gzip unless the container/proxy already does it
+    public static final String PROPERTY_GZIP = "oskari.response.gzip";
+    private static final int GZIP_BUFFER_SIZE = 8192;
+
+    /**
+     * Writes JSON content to a generator. Used to stream large responses straight to the client
+     * without building the whole JSONObject and its String presentation in memory.
+     */
+    public interface JSONWriter {
+        void write(JsonGenerator gen) throws IOException, ActionException;
+    }
+
     /**
      * Writes out the given response
      *
@@ -40,6 +60,63 @@ public class ResponseHelper {
         }
     }
 
+    /**
+     * Streams JSON written by the writer to the response output stream as UTF-8, compressed with gzip when
+     * enabled with oskari.response.gzip=true and the client accepts it.
+     * If the writer fails before anything has been sent to the client the response is reset and the
+     * exception is thrown so the error is written as usual. After that the response can only be cut short.
+     *
+     * @param params reference to ActionParams
+     * @param writer writes the response content
+     * @throws ActionException if writing fails before the response has been committed
+     */
+    public static final void streamJSON(ActionParameters params, JSONWriter writer) throws ActionException {
+        final HttpServletResponse resp = params.getResponse();
+        resp.setCharacterEncoding("UTF-8");
+        resp.setContentType(CONTENT_TYPE_JSON_UTF8);
+        final boolean gzipEnabled = PropertyUtil.getOptional(PROPERTY_GZIP, false);
+        final boolean gzip = gzipEnabled && acceptsGzip(params.getRequest());
+        if (gzipEnabled) {
+            resp.setHeader("Vary", "Accept-Encoding");
+        }
+        if (gzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+        }
+        try {
+            OutputStream out = resp.getOutputStream();
+            if (gzip) {
+                out = new GZIPOutputStream(out, GZIP_BUFFER_SIZE);
+            }
+            // the generator is only closed on success: closing it would end any open arrays/objects
+            // and close the response stream, sending a failed response as valid JSON
+            final JsonGenerator gen = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writer.write(gen);
+            gen.close();
+            out.close();
+        } catch (ActionException | IOException | RuntimeException e) {
+            if (resp.isCommitted()) {
+                LOG.warn(e, "Streaming response failed after it was partially sent");
+                return;
+            }
+            // discards anything buffered so far (like the gzip header) with the headers set above
+            resp.reset();
+            if (e instanceof ActionException) {
+                throw (ActionException) e;
+            }
+            throw new ActionException("Couldn't write response", e);
+        }
+    }
+
+    private static boolean acceptsGzip(final HttpServletRequest req) {
+        if (req == null) {
+            return false;
+        }
+        final String accepted = req.getHeader("Accept-Encoding");
+        return accepted != null && accepted.toLowerCase().contains("gzip");
+    }
+
     /**
      * Writes out the given response as JSON
      *
@@ -0,0 +1,263 @@
+package fi.nls.oskari.util;
+
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ResponseHelperTest {
+
+    private static final Logger log = LogFactory.getLogger(ResponseHelperTest.class);
+
+    private static final int LAYER_COUNT = 1000;
+
+    @After
+    public void teardown() {
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testStreamJSON() throws Exception {
+        final JSONObject expected = createLayerList();
+        final FirstByteOutputStream out = new FirstByteOutputStream();
+        final ActionParameters params = createParams(out, null);
+
+        ResponseHelper.streamJSON(params, gen -> JSONHelper.writeJSON(gen, expected));
+
+        verify(params.getResponse()).setContentType(ResponseHelper.CONTENT_TYPE_JSON_UTF8);
+        verify(params.getResponse(), never()).setHeader(eq("Content-Encoding"), anyString());
+        final JSONObject written = JSONHelper.createJSONObject(new String(out.baos.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue("Streamed JSON should match the original", JSONHelper.isEqual(expected, written));
+    }
+
+    @Test
+    public void testStreamJSONGzip() throws Exception {
+        PropertyUtil.addProperty(ResponseHelper.PROPERTY_GZIP, "true", true);
+        final JSONObject expected = createLayerList();
+        final FirstByteOutputStream out = new FirstByteOutputStream();
+        final ActionParameters params = createParams(out, "gzip, deflate");
+
+        ResponseHelper.streamJSON(params, gen -> JSONHelper.writeJSON(gen, expected));
+
+        verify(params.getResponse()).setHeader("Content-Encoding", "gzip");
+        final ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.baos.toByteArray()))) {
+            IOHelper.copy(in, unzipped);
+        }
+        final JSONObject written = JSONHelper.createJSONObject(new String(unzipped.toByteArray(), StandardCharsets.UTF_8));
+        assertTrue("Unzipped JSON should match the original", JSONHelper.isEqual(expected, written));
+    }
+
+    @Test
+    public void testGzipNotAccepted() throws Exception {
+        PropertyUtil.addProperty(ResponseHelper.PROPERTY_GZIP, "true", true);
+        final FirstByteOutputStream out = new FirstByteOutputStream();
+        final ActionParameters params = createParams(out, null);
+
+        ResponseHelper.streamJSON(params, gen -> gen.writeString("plain"));
+
+        verify(params.getResponse(), never()).setHeader(eq("Content-Encoding"), anyString());
+        assertEquals("\"plain\"", new String(out.baos.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testErrorBeforeCommit() throws Exception {
+        final FirstByteOutputStream out = new FirstByteOutputStream();
+        final ActionParameters params = createParams(out, null);
+        try {
+            ResponseHelper.streamJSON(params, gen -> {
+                gen.writeStartObject();
+                gen.writeArrayFieldStart("layers");
+                throw new ActionException("Failed");
+            });
+            fail("Exception should be passed to the caller when nothing has been sent");
+        } catch (ActionException e) {
+            assertEquals("Failed", e.getMessage());
+        }
+        verify(params.getResponse()).reset();
+        assertEquals("Failed response shouldn't be completed as valid JSON", 0, out.baos.size());
+        assertFalse("Response stream shouldn't be closed", out.closed);
+    }
+
+    /**
+     * Compares rendering 1000 layers to a JSONObject written with toString() (like GetMapLayers used to)
+     * to rendering and streaming one layer at a time. Results are logged.
+     */
+    @Test
+    public void testStreamingCost() throws Exception {
+        // warm up both paths
+        for (int i = 0; i < 5; i++) {
+            writeTree(createParams(new FirstByteOutputStream(), null));
+            writeStream(createParams(new FirstByteOutputStream(), null));
+        }
+        FirstByteOutputStream out = new FirstByteOutputStream();
+        final long treeBytes = allocatedBytes();
+        long start = System.nanoTime();
+        writeTree(createParams(out, null));
+        final long treeFirstByte = (out.firstWrite - start) / 1000;
+        final long treeTotal = (System.nanoTime() - start) / 1000;
+        final long treeAllocated = allocatedBytes() - treeBytes;
+        final int size = out.baos.size();
+
+        out = new FirstByteOutputStream();
+        final long streamBytes = allocatedBytes();
+        start = System.nanoTime();
+        writeStream(createParams(out, null));
+        final long streamFirstByte = (out.firstWrite - start) / 1000;
+        final long streamTotal = (System.nanoTime() - start) / 1000;
+        final long streamAllocated = allocatedBytes() - streamBytes;
+
+        log.info("Response for", LAYER_COUNT, "layers,", size, "bytes");
+        log.info("JSONObject.toString() - first byte:", treeFirstByte, "us, total:", treeTotal,
+                "us, allocated:", treeAllocated, "bytes");
+        log.info("Streamed - first byte:", streamFirstByte, "us, total:", streamTotal,
+                "us, allocated:", streamAllocated, "bytes");
+        assertTrue("Streaming should start writing before everything is rendered", streamFirstByte < streamTotal);
+    }
+
+    private void writeTree(final ActionParameters params) {
+        ResponseHelper.writeResponse(params, createLayerList());
+    }
+
+    private void writeStream(final ActionParameters params) throws ActionException {
+        ResponseHelper.streamJSON(params, gen -> {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("layers");
+            for (int i = 0; i < LAYER_COUNT; i++) {
+                JSONHelper.writeJSON(gen, createLayer(i));
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        });
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static JSONObject createLayerList() {
+        final JSONArray layers = new JSONArray();
+        for (int i = 0; i < LAYER_COUNT; i++) {
+            layers.put(createLayer(i));
+        }
+        return JSONHelper.createJSONObject("layers", layers);
+    }
+
+    /**
+     * Roughly what LayerJSONFormatter produces for a WMS layer
+     */
+    private static JSONObject createLayer(final int id) {
+        final JSONObject layer = new JSONObject();
+        JSONHelper.putValue(layer, "id", id);
+        JSONHelper.putValue(layer, "type", "wmslayer");
+        JSONHelper.putValue(layer, "name", "Layer \"" + id + "\" äö");
+        JSONHelper.putValue(layer, "subtitle", "Subtitle for layer " + id);
+        JSONHelper.putValue(layer, "wmsName", "namespace:layer_" + id);
+        JSONHelper.putValue(layer, "wmsUrl", "https://example.com/geoserver/wms?layer=" + id);
+        JSONHelper.putValue(layer, "opacity", 100);
+        JSONHelper.putValue(layer, "minScale", 5669294.4);
+        JSONHelper.putValue(layer, "maxScale", 1.0);
+        JSONHelper.putValue(layer, "realtime", false);
+        JSONHelper.putValue(layer, "geom", "POLYGON((20 60, 30 60, 30 70, 20 70, 20 60))");
+        final JSONArray styles = new JSONArray();
+        for (int i = 0; i < 3; i++) {
+            final JSONObject style = new JSONObject();
+            JSONHelper.putValue(style, "name", "style" + i);
+            JSONHelper.putValue(style, "title", "Style " + i);
+            styles.put(style);
+        }
+        JSONHelper.putValue(layer, "styles", styles);
+        final JSONObject permissions = new JSONObject();
+        JSONHelper.putValue(permissions, "publish", "publication_permission_ok");
+        JSONHelper.putValue(layer, "permissions", permissions);
+        return layer;
+    }
+
+    private static ActionParameters createParams(final FirstByteOutputStream out, final String acceptEncoding)
+            throws IOException {
+        final HttpServletRequest req = mock(HttpServletRequest.class);
+        doReturn(acceptEncoding).when(req).getHeader("Accept-Encoding");
+        final HttpServletResponse resp = mock(HttpServletResponse.class);
+        doReturn(out).when(resp).getOutputStream();
+        doReturn(new PrintWriter(new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                out.write(new String(cbuf, off, len).getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void flush() {}
+
+            @Override
+            public void close() {}
+        })).when(resp).getWriter();
+        final ActionParameters params = new ActionParameters();
+        params.setRequest(req);
+        params.setResponse(resp);
+        return params;
+    }
+
+    /**
+     * Collects the response and records when the first byte was written
+     */
+    private static class FirstByteOutputStream extends ServletOutputStream {
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        private long firstWrite = -1;
+        private boolean closed = false;
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // Ignore
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (firstWrite == -1) {
+                firstWrite = System.nanoTime();
+            }
+            baos.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (firstWrite == -1) {
+                firstWrite = System.nanoTime();
+            }
+            baos.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+}
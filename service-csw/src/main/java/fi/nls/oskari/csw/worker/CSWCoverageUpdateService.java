@@ -10,6 +10,7 @@ import fi.nls.oskari.db.DatasourceHelper;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.layer.LayerCoverageCache;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.map.layer.OskariLayerServiceIbatisImpl;
 import fi.nls.oskari.util.PropertyUtil;
@@ -57,6 +58,7 @@ public class CSWCoverageUpdateService extends ScheduledJob {
             return;
         }
         final OskariLayerMetadataDao dao = new OskariLayerMetadataDao(dataSource);
+        boolean coverageUpdated = false;
         for (String metadataId : metadataIdSet) {
             final CSWIsoRecord csw = getMetadata(cswService, metadataId);
             final Geometry geom = getGeometry(csw);
@@ -71,6 +73,15 @@ public class CSWCoverageUpdateService extends ScheduledJob {
             dto.wkt = geom.getEnvelope().toText();
             dto.json = csw.toJSON().toString();
             dao.saveMetadata(dto);
+            coverageUpdated = true;
+            // transform the new coverage to map projections now instead of on layer listing
+            for (OskariLayer layer : layerService.findByMetadataId(metadataId)) {
+                LayerCoverageCache.precompute(layer);
+            }
+        }
+        if(coverageUpdated) {
+            // cached layers still have the old coverage geometry
+            OskariLayerServiceIbatisImpl.invalidateCatalog();
         }
         log.info("Done with the CSW coverage update service call");
     }
@@ -3,6 +3,7 @@ package fi.nls.oskari.fe.engine;
 import fi.nls.oskari.fe.input.InputProcessor;
 import fi.nls.oskari.fe.input.format.gml.recipe.ParserRecipe;
 import fi.nls.oskari.fe.output.OutputProcessor;
+import fi.nls.oskari.fe.output.QueuedOutputProcessor;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
@@ -11,6 +12,7 @@ public class BasicFeatureEngine implements FeatureEngine {
 
     private InputProcessor inputProcessor;
     private OutputProcessor outputProcessor;
+    private int queueSize = 0;
 
     ParserRecipe recipe;
 
@@ -25,8 +27,15 @@ public class BasicFeatureEngine implements FeatureEngine {
 
             try {
 
-                recipe.setInputOutput(inputProcessor, outputProcessor);
-                recipe.parse();
+                if (queueSize > 0) {
+                    QueuedOutputProcessor.process(output -> {
+                        recipe.setInputOutput(inputProcessor, output);
+                        recipe.parse();
+                    }, outputProcessor, queueSize);
+                } else {
+                    recipe.setInputOutput(inputProcessor, outputProcessor);
+                    recipe.parse();
+                }
 
             } finally {
                 inputProcessor.close();
@@ -47,6 +56,10 @@ public class BasicFeatureEngine implements FeatureEngine {
         this.outputProcessor = outputProcessor;
     }
 
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
     public void setRecipe(ParserRecipe recipe) {
         this.recipe = recipe;
     }
@@ -4,12 +4,36 @@ import fi.nls.oskari.fe.input.format.gml.recipe.GroovyParserRecipe;
 import fi.nls.oskari.fe.input.format.gml.recipe.ParserRecipe;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.fe.input.XMLInputProcessor;
+import fi.nls.oskari.fe.input.format.gml.StaxGMLInputProcessor;
+import fi.nls.oskari.fe.output.NullOutputProcessor;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.GroovyCodeSource;
 
+import javax.xml.stream.XMLStreamException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
 
 public class FEEngineManager {
 
@@ -24,21 +48,21 @@ public class FEEngineManager {
      * "/resource/path/to/response/groovy.groovy"1
      */
 
-    static Map<String, Class<GroovyParserRecipe>> recipeClazzes = new ConcurrentHashMap<String, Class<GroovyParserRecipe>>();
+    static final String RECIPE_SUFFIX = ".groovy";
 
-    static GroovyClassLoader gcl = new GroovyClassLoader();
+    // compiled recipe classes, the future is added before compiling so each recipe is compiled only once
+    static final Map<String, Future<Class<GroovyParserRecipe>>> recipeClazzes = new ConcurrentHashMap<String, Future<Class<GroovyParserRecipe>>>();
 
     public static FeatureEngine getEngineForRecipe(String recipePath)
             throws InstantiationException, IllegalAccessException,
             ClassNotFoundException {
 
-        if (recipePath.endsWith(".groovy")) {
+        if (recipePath.endsWith(RECIPE_SUFFIX)) {
             return getGroovyEngineForRecipe(recipePath);
         } else {
             return getBasicEngineForRecipe(recipePath);
         }
     }
-
     private static FeatureEngine getBasicEngineForRecipe(String recipePath)
             throws IllegalAccessException, InstantiationException,
             ClassNotFoundException {
@@ -56,45 +80,177 @@ public class FEEngineManager {
     static FeatureEngine getGroovyEngineForRecipe(String recipePath)
             throws InstantiationException, IllegalAccessException {
 
-        Class<GroovyParserRecipe> recipeClazz = recipeClazzes.get(recipePath);
-        if (recipeClazzes.get(recipePath) == null) {
-
-            synchronized (gcl) {
-                try {
-                    log.debug("[fe] Groovy recipe compiling " + recipePath
-                            + " / " + recipePath);
-
-                    InputStreamReader reader = new InputStreamReader(
-                            FEEngineManager.class
-                                    .getResourceAsStream(recipePath));
-
-                    GroovyCodeSource codeSource = new GroovyCodeSource(reader,
-                            recipePath, ".");
+        final Future<Class<GroovyParserRecipe>> compiled = recipeClazzes.get(recipePath);
+        final long start = System.currentTimeMillis();
+        final Class<GroovyParserRecipe> recipeClazz = getRecipeClass(recipePath);
+        if (compiled == null || !compiled.isDone()) {
+            log.info("[fe] Groovy recipe", recipePath, "wasn't precompiled, request waited",
+                    System.currentTimeMillis() - start, "ms for compilation");
+        }
 
-                    recipeClazz = (Class<GroovyParserRecipe>) gcl.parseClass(
-                            codeSource, true);
+        GroovyFeatureEngine engine = new GroovyFeatureEngine();
+        engine.setRecipe(recipeClazz.newInstance());
 
-                    recipeClazzes.put(recipePath, recipeClazz);
+        return engine;
 
-                    log.debug("[fe] Groovy caching recipe", recipePath);
+    }
 
-                } catch (RuntimeException e) {
+    /**
+     * Returns the compiled recipe class. Compiles the recipe if it hasn't been compiled yet or waits
+     * for the compilation if it's in progress in another thread.
+     */
+    static Class<GroovyParserRecipe> getRecipeClass(final String recipePath)
+            throws InstantiationException {
+        Future<Class<GroovyParserRecipe>> recipe = recipeClazzes.get(recipePath);
+        if (recipe == null) {
+            final FutureTask<Class<GroovyParserRecipe>> task = new FutureTask<Class<GroovyParserRecipe>>(
+                    () -> compile(recipePath));
+            recipe = recipeClazzes.putIfAbsent(recipePath, task);
+            if (recipe == null) {
+                recipe = task;
+                task.run();
+            }
+        }
+        try {
+            return recipe.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InstantiationException("Interrupted while compiling recipe " + recipePath);
+        } catch (ExecutionException e) {
+            // allow trying again
+            recipeClazzes.remove(recipePath, recipe);
+            log.debug(e.getCause(), "[fe] Groovy recipe setup FAILURE");
+            InstantiationException ex = new InstantiationException("Groovy recipe setup failed for " + recipePath);
+            ex.initCause(e.getCause());
+            throw ex;
+        }
+    }
 
-                    log.debug(e, "[fe] Groovy recipe setup FAILURE");
+    @SuppressWarnings("unchecked")
+    private static Class<GroovyParserRecipe> compile(final String recipePath) throws IOException {
+        log.debug("[fe] Groovy recipe compiling", recipePath);
+        InputStream in = FEEngineManager.class.getResourceAsStream(recipePath);
+        if (in == null) {
+            throw new IOException("Recipe not found " + recipePath);
+        }
+        // recipes don't depend on each other so each gets its own loader and they can be compiled in parallel
+        GroovyClassLoader gcl = new GroovyClassLoader(FEEngineManager.class.getClassLoader());
+        try {
+            GroovyCodeSource codeSource = new GroovyCodeSource(
+                    new InputStreamReader(in, StandardCharsets.UTF_8), recipePath, ".");
+            return (Class<GroovyParserRecipe>) gcl.parseClass(codeSource, true);
+        } finally {
+            in.close();
+        }
+    }
 
-                } finally {
+    /**
+     * Compiles the recipes in parallel
+     *
+     * @param recipePaths classpath resource paths of the recipes
+     * @return compile time in ms for each recipe that was compiled successfully
+     */
+    public static Map<String, Long> precompile(final Collection<String> recipePaths) {
+        final Map<String, Long> timings = new ConcurrentHashMap<String, Long>();
+        if (recipePaths.isEmpty()) {
+            return timings;
+        }
+        final long start = System.currentTimeMillis();
+        final int threads = Math.min(recipePaths.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (final String recipePath : recipePaths) {
+                tasks.add(executor.submit(() -> {
+                    long recipeStart = System.currentTimeMillis();
+                    try {
+                        getRecipeClass(recipePath);
+                        timings.put(recipePath, System.currentTimeMillis() - recipeStart);
+                    } catch (InstantiationException e) {
+                        log.warn("[fe] Groovy recipe precompile failed for", recipePath, ":", log.getCauseMessages(e));
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn(e.getCause(), "[fe] Groovy recipe precompile failed");
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("[fe] Precompiled", timings.size(), "/", recipePaths.size(), "Groovy recipes in",
+                System.currentTimeMillis() - start, "ms with", threads, "threads");
+        log.debug("[fe] Recipe compile times (ms):", timings);
+        return timings;
+    }
 
-                    log.debug("[fe] Groovy recipe setup finalized");
+    /**
+     * Runs the recipe once over the sample so the first request doesn't pay for compiling and
+     * loading the classes used in parsing.
+     *
+     * @param recipePath recipe to warm up
+     * @param sample     GML the recipe can parse
+     * @return number of features parsed from the sample
+     */
+    public static int warmUp(final String recipePath, final InputStream sample)
+            throws IOException, XMLStreamException {
+        final long start = System.currentTimeMillis();
+        FeatureEngine engine;
+        try {
+            engine = getEngineForRecipe(recipePath);
+        } catch (Exception e) {
+            throw new IOException("Recipe setup failed for " + recipePath, e);
+        }
+        final XMLInputProcessor inputProcessor = new StaxGMLInputProcessor();
+        final NullOutputProcessor outputProcessor = new NullOutputProcessor();
+        inputProcessor.setInput(sample);
+        engine.setInputProcessor(inputProcessor);
+        engine.setOutputProcessor(outputProcessor);
+        engine.process();
+        log.info("[fe] Warmed up", recipePath, "with", outputProcessor.getFeatureCount(), "features in",
+                System.currentTimeMillis() - start, "ms");
+        return outputProcessor.getFeatureCount();
+    }
 
+    /**
+     * Lists the Groovy recipes bundled in the same jar (or classes directory) as the feature engine
+     *
+     * @param root resource directory to look in, e.g. "fi/nls/oskari"
+     * @return resource paths of the recipes as used in layer configuration
+     */
+    public static List<String> findRecipes(final String root) {
+        final List<String> recipes = new ArrayList<String>();
+        try {
+            final URL location = FEEngineManager.class.getProtectionDomain().getCodeSource().getLocation();
+            final File file = new File(location.toURI());
+            if (file.isDirectory()) {
+                final Path base = file.toPath();
+                final Path dir = base.resolve(root);
+                if (Files.isDirectory(dir)) {
+                    try (Stream<Path> paths = Files.walk(dir)) {
+                        paths.filter(p -> p.toString().endsWith(RECIPE_SUFFIX))
+                                .forEach(p -> recipes.add("/" + base.relativize(p).toString().replace(File.separatorChar, '/')));
+                    }
+                }
+            } else {
+                try (JarFile jar = new JarFile(file)) {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        String name = entries.nextElement().getName();
+                        if (name.startsWith(root) && name.endsWith(RECIPE_SUFFIX)) {
+                            recipes.add("/" + name);
+                        }
+                    }
                 }
             }
+        } catch (Exception e) {
+            log.warn("[fe] Couldn't list Groovy recipes:", log.getCauseMessages(e));
         }
-
-        GroovyFeatureEngine engine = new GroovyFeatureEngine();
-        engine.setRecipe(recipeClazz.newInstance());
-
-        return engine;
-
+        Collections.sort(recipes);
+        return recipes;
     }
 
 }
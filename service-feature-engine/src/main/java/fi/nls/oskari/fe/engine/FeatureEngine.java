@@ -13,6 +13,12 @@ public interface FeatureEngine {
 
 	public void setOutputProcessor(OutputProcessor outputProcessor);
 	public ParserRecipe getRecipe();
+
+	/**
+	 * Parse on a separate thread passing the features to the output processor through a bounded queue
+	 * @param queueSize max number of parsed features waiting for output, 0 to parse on the calling thread
+	 */
+	public void setQueueSize(int queueSize);
 	
 	public void process() throws IOException, XMLStreamException;
 }
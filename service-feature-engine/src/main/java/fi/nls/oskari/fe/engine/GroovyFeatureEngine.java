@@ -3,6 +3,7 @@ package fi.nls.oskari.fe.engine;
 import fi.nls.oskari.fe.input.InputProcessor;
 import fi.nls.oskari.fe.input.format.gml.recipe.GroovyParserRecipe;
 import fi.nls.oskari.fe.output.OutputProcessor;
+import fi.nls.oskari.fe.output.QueuedOutputProcessor;
 
 import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
@@ -12,6 +13,7 @@ public class GroovyFeatureEngine implements FeatureEngine {
 
     private InputProcessor inputProcessor;
     private OutputProcessor outputProcessor;
+    private int queueSize = 0;
 
     GroovyParserRecipe recipe;
 
@@ -26,8 +28,15 @@ public class GroovyFeatureEngine implements FeatureEngine {
 
             try {
 
-                recipe.setInputOutput(inputProcessor, outputProcessor);
-                recipe.parse();
+                if (queueSize > 0) {
+                    QueuedOutputProcessor.process(output -> {
+                        recipe.setInputOutput(inputProcessor, output);
+                        recipe.parse();
+                    }, outputProcessor, queueSize);
+                } else {
+                    recipe.setInputOutput(inputProcessor, outputProcessor);
+                    recipe.parse();
+                }
 
             } finally {
                 inputProcessor.close();
@@ -48,6 +57,10 @@ public class GroovyFeatureEngine implements FeatureEngine {
         this.outputProcessor = outputProcessor;
     }
 
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
     public void setRecipe(GroovyParserRecipe recipe) {
         this.recipe = recipe;
     }
@@ -0,0 +1,67 @@
+package fi.nls.oskari.fe.output;
+
+import com.vividsolutions.jts.geom.Geometry;
+import fi.nls.oskari.fe.iri.Resource;
+import fi.nls.oskari.fe.schema.XSDDatatype;
+import org.apache.commons.lang3.tuple.Pair;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Discards the output, only counts the features. Used for warming up recipes.
+ */
+public class NullOutputProcessor implements OutputProcessor {
+
+    private int featureCount = 0;
+
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    public void begin() throws IOException {
+    }
+
+    public void edge(Resource subject, Resource predicate, Resource value) throws IOException {
+    }
+
+    public void end() throws IOException {
+    }
+
+    public void flush() throws IOException {
+    }
+
+    public void prefix(String prefix, String ns) throws IOException {
+    }
+
+    public void type(Resource type,
+            List<Pair<Resource, XSDDatatype>> simpleProperties,
+            List<Pair<Resource, Object>> linkProperties,
+            List<Pair<Resource, String>> geometryProperties)
+            throws IOException {
+    }
+
+    public void vertex(Resource iri, Resource type,
+            List<Pair<Resource, Object>> simpleProperties,
+            List<Pair<Resource, Object>> linkProperties)
+            throws IOException {
+        featureCount++;
+    }
+
+    public void vertex(Resource iri, Resource type,
+            List<Pair<Resource, Object>> simpleProperties,
+            List<Pair<Resource, Object>> linkProperties,
+            List<Pair<Resource, Geometry>> geometryProperties)
+            throws IOException {
+        featureCount++;
+    }
+
+    public void merge(List<JSONObject> list, Resource href) throws IOException {
+    }
+
+    public void equalizePropertyArraySize(Map<String, Integer> multiElemmap,
+            Map<String, Resource> resmap) throws IOException {
+    }
+}
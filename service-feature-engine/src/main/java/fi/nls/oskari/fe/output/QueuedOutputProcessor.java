@@ -0,0 +1,217 @@
+package fi.nls.oskari.fe.output;
+
+import com.vividsolutions.jts.geom.Geometry;
+import fi.nls.oskari.fe.iri.Resource;
+import fi.nls.oskari.fe.schema.XSDDatatype;
+import org.apache.commons.lang3.tuple.Pair;
+import org.json.JSONObject;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the parser on a separate thread and hands the parsed features to the actual output processor
+ * through a bounded queue. The output processor is called on the thread calling process() so it can
+ * send features onwards while the rest of the response is still being parsed. The parser blocks when
+ * the queue is full so the amount of parsed features waiting for output stays bounded.
+ *
+ * begin(), flush() and end() are not queued, the engine calls them directly on the actual output processor.
+ */
+public class QueuedOutputProcessor implements OutputProcessor {
+
+    /**
+     * Parses the input writing to the given output processor
+     */
+    public interface Parser {
+        void parse(OutputProcessor output) throws IOException, XMLStreamException;
+    }
+
+    private interface Event {
+        void apply(OutputProcessor output) throws IOException;
+    }
+
+    private static final Event END = output -> {};
+
+    private static final ExecutorService PARSERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fe-parser-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final BlockingQueue<Event> queue;
+    // set when the consumer gave up so the parser doesn't block on a full queue
+    private volatile boolean closed = false;
+
+    QueuedOutputProcessor(int capacity) {
+        this.queue = new ArrayBlockingQueue<Event>(capacity);
+    }
+
+    /**
+     * Parses on a separate thread and passes the results to output on the calling thread.
+     *
+     * @param parser   parser writing to the queue
+     * @param output   actual output processor
+     * @param capacity max number of parsed events waiting for output
+     */
+    public static void process(final Parser parser, final OutputProcessor output, final int capacity)
+            throws IOException, XMLStreamException {
+        final QueuedOutputProcessor queued = new QueuedOutputProcessor(capacity);
+        final Future<Void> parsing = PARSERS.submit(() -> {
+            try {
+                parser.parse(queued);
+            } finally {
+                queued.finish();
+            }
+            return null;
+        });
+        try {
+            queued.drainTo(output);
+        } catch (IOException e) {
+            parsing.cancel(true);
+            throw e;
+        } catch (RuntimeException e) {
+            parsing.cancel(true);
+            throw e;
+        } finally {
+            queued.closed = true;
+            queued.queue.clear();
+        }
+        try {
+            parsing.get();
+        } catch (InterruptedException e) {
+            parsing.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof XMLStreamException) {
+                throw (XMLStreamException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    void drainTo(OutputProcessor output) throws IOException {
+        try {
+            Event event = queue.take();
+            while (event != END) {
+                event.apply(output);
+                event = queue.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for features");
+        }
+    }
+
+    private void finish() {
+        try {
+            add(END);
+        } catch (IOException e) {
+            // consumer is no longer reading the queue
+        }
+    }
+
+    private void add(Event event) throws IOException {
+        try {
+            while (!queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    throw new IOException("Output closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing features");
+        }
+    }
+
+    // recipes reuse the lists after the call so they are copied before queueing
+    private static <T> List<T> copy(List<T> list) {
+        return list == null ? null : new ArrayList<T>(list);
+    }
+
+    public void begin() throws IOException {
+    }
+
+    public void end() throws IOException {
+    }
+
+    public void flush() throws IOException {
+    }
+
+    public void edge(final Resource subject, final Resource predicate,
+            final Resource value) throws IOException {
+        add(output -> output.edge(subject, predicate, value));
+    }
+
+    public void prefix(final String prefix, final String ns) throws IOException {
+        add(output -> output.prefix(prefix, ns));
+    }
+
+    public void type(final Resource type,
+            final List<Pair<Resource, XSDDatatype>> simpleProperties,
+            final List<Pair<Resource, Object>> linkProperties,
+            final List<Pair<Resource, String>> geometryProperties)
+            throws IOException {
+        final List<Pair<Resource, XSDDatatype>> simple = copy(simpleProperties);
+        final List<Pair<Resource, Object>> links = copy(linkProperties);
+        final List<Pair<Resource, String>> geometries = copy(geometryProperties);
+        add(output -> output.type(type, simple, links, geometries));
+    }
+
+    public void vertex(final Resource iri, final Resource type,
+            final List<Pair<Resource, Object>> simpleProperties,
+            final List<Pair<Resource, Object>> linkProperties)
+            throws IOException {
+        final List<Pair<Resource, Object>> simple = copy(simpleProperties);
+        final List<Pair<Resource, Object>> links = copy(linkProperties);
+        add(output -> output.vertex(iri, type, simple, links));
+    }
+
+    public void vertex(final Resource iri, final Resource type,
+            final List<Pair<Resource, Object>> simpleProperties,
+            final List<Pair<Resource, Object>> linkProperties,
+            final List<Pair<Resource, Geometry>> geometryProperties)
+            throws IOException {
+        final List<Pair<Resource, Object>> simple = copy(simpleProperties);
+        final List<Pair<Resource, Object>> links = copy(linkProperties);
+        final List<Pair<Resource, Geometry>> geometries = copy(geometryProperties);
+        add(output -> output.vertex(iri, type, simple, links, geometries));
+    }
+
+    public void merge(final List<JSONObject> list, final Resource href) throws IOException {
+        final List<JSONObject> features = copy(list);
+        add(output -> output.merge(features, href));
+    }
+
+    public void equalizePropertyArraySize(final Map<String, Integer> multiElemmap,
+            final Map<String, Resource> resmap) throws IOException {
+        final Map<String, Integer> sizes = new HashMap<String, Integer>(multiElemmap);
+        final Map<String, Resource> resources = new HashMap<String, Resource>(resmap);
+        add(output -> output.equalizePropertyArraySize(sizes, resources));
+    }
+}
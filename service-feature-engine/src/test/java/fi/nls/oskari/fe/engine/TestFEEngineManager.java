@@ -0,0 +1,68 @@
+package fi.nls.oskari.fe.engine;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TestFEEngineManager {
+
+    static final String GN_RECIPE = "/fi/nls/oskari/fe/input/format/gml/gn/ELF_generic_GN.groovy";
+
+    @Test
+    public void testFindRecipes() {
+        List<String> recipes = FEEngineManager.findRecipes("fi/nls/oskari");
+        assertTrue("Bundled recipes should be found", recipes.contains(GN_RECIPE));
+        for (String recipe : recipes) {
+            assertNotNull("Recipe path should be usable as is", FEEngineManager.class.getResourceAsStream(recipe));
+        }
+    }
+
+    @Test
+    public void testPrecompile() {
+        List<String> recipes = FEEngineManager.findRecipes("fi/nls/oskari");
+        Map<String, Long> timings = FEEngineManager.precompile(recipes);
+        assertEquals("All bundled recipes should compile", recipes.size(), timings.size());
+    }
+
+    @Test
+    public void testRecipeIsCompiledOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Class<?>>> results = new ArrayList<Future<Class<?>>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit((Callable<Class<?>>) () -> FEEngineManager.getRecipeClass(GN_RECIPE)));
+            }
+            Class<?> first = results.get(0).get();
+            for (Future<Class<?>> result : results) {
+                assertSame("Concurrent jobs should get the same class", first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = InstantiationException.class)
+    public void testMissingRecipe() throws Exception {
+        FEEngineManager.getEngineForRecipe("/fi/nls/oskari/missing.groovy");
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        InputStream sample = getClass().getResourceAsStream(
+                "/fi/nls/oskari/eu/elf/geographicalnames/geonorge_no-ELF-GN-wfs.xml");
+        try {
+            assertTrue(FEEngineManager.warmUp(GN_RECIPE, sample) > 0);
+        } finally {
+            sample.close();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package fi.nls.oskari.fe.engine;
+
+import com.vividsolutions.jts.geom.Geometry;
+import fi.nls.oskari.eu.elf.recipe.administrativeunits.ELF_MasterLoD0_AdministrativeUnit_nls_fi_wfs_Parser;
+import fi.nls.oskari.eu.elf.recipe.buildings.ELF_MasterLoD0_Building_nls_fi_wfs_Parser;
+import fi.nls.oskari.eu.elf.recipe.roadtransportnetwork.ELF_MasterLoD1_RoadLink_Parser;
+import fi.nls.oskari.eu.inspire.recipe.administrativeunits.INSPIRE_AU_AdministrativeBoundary_Parser;
+import fi.nls.oskari.fe.input.XMLInputProcessor;
+import fi.nls.oskari.fe.input.format.gml.StaxGMLInputProcessor;
+import fi.nls.oskari.fe.input.format.gml.recipe.ParserRecipe;
+import fi.nls.oskari.fe.iri.Resource;
+import fi.nls.oskari.fe.output.AbstractOutputProcessor;
+import fi.nls.oskari.fe.schema.XSDDatatype;
+import org.apache.commons.lang3.tuple.Pair;
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares parsing the bundled GML samples on the calling thread to parsing through the bounded queue.
+ * Logs time to first feature and peak heap seen while the features are output for each mode.
+ */
+public class TestQueuedFeatureEngine {
+
+    static final Logger logger = Logger.getLogger(TestQueuedFeatureEngine.class);
+
+    private static final int QUEUE_SIZE = 16;
+
+    /**
+     * Keeps the parsed features like the transport output processor does, or only counts them when streaming
+     */
+    static class MeasuringOutputProcessor extends AbstractOutputProcessor {
+        final boolean keep;
+        final List<List<Pair<Resource, Object>>> features = new ArrayList<List<Pair<Resource, Object>>>();
+        final long start = System.nanoTime();
+        long firstFeature = -1;
+        long peakHeap = 0;
+        int count = 0;
+        boolean ended = false;
+
+        MeasuringOutputProcessor(boolean keep) {
+            this.keep = keep;
+        }
+
+        public void begin() throws IOException {
+        }
+
+        public void edge(Resource subject, Resource predicate, Resource value) throws IOException {
+        }
+
+        public void end() throws IOException {
+            ended = true;
+        }
+
+        public void flush() throws IOException {
+        }
+
+        public void type(Resource type, List<Pair<Resource, XSDDatatype>> simpleProperties,
+                         List<Pair<Resource, Object>> linkProperties,
+                         List<Pair<Resource, String>> geometryProperties) throws IOException {
+        }
+
+        public void vertex(Resource iri, Resource type, List<Pair<Resource, Object>> simpleProperties,
+                           List<Pair<Resource, Object>> linkProperties) throws IOException {
+        }
+
+        public void vertex(Resource iri, Resource type, List<Pair<Resource, Object>> simpleProperties,
+                           List<Pair<Resource, Object>> linkProperties,
+                           List<Pair<Resource, Geometry>> geometryProperties) throws IOException {
+            if (count == 0) {
+                firstFeature = System.nanoTime() - start;
+            }
+            count++;
+            if (keep) {
+                features.add(simpleProperties);
+            }
+            final Runtime runtime = Runtime.getRuntime();
+            peakHeap = Math.max(peakHeap, runtime.totalMemory() - runtime.freeMemory());
+        }
+
+        public void merge(List<JSONObject> list, Resource href) throws IOException {
+        }
+
+        public void equalizePropertyArraySize(Map<String, Integer> multiElemmap, Map<String, Resource> resmap) throws IOException {
+        }
+    }
+
+    private MeasuringOutputProcessor process(String sample, ParserRecipe recipe, int queueSize, boolean keep)
+            throws IOException, XMLStreamException {
+        BasicFeatureEngine engine = new BasicFeatureEngine();
+        engine.setRecipe(recipe);
+        engine.setQueueSize(queueSize);
+
+        XMLInputProcessor inputProcessor = new StaxGMLInputProcessor();
+        MeasuringOutputProcessor outputProcessor = new MeasuringOutputProcessor(keep);
+
+        System.gc();
+        InputStream inp = getClass().getResourceAsStream(sample);
+        try {
+            inputProcessor.setInput(inp);
+            engine.setInputProcessor(inputProcessor);
+            engine.setOutputProcessor(outputProcessor);
+            engine.process();
+        } finally {
+            inp.close();
+        }
+        logger.info(sample + " queue: " + queueSize + " keep: " + keep
+                + " features: " + outputProcessor.count
+                + " first feature: " + (outputProcessor.firstFeature / 1000) + "us"
+                + " total: " + ((System.nanoTime() - outputProcessor.start) / 1000) + "us"
+                + " peak heap: " + (outputProcessor.peakHeap / 1024) + "kB");
+        return outputProcessor;
+    }
+
+    private void compare(String sample, Class<? extends ParserRecipe> recipe) throws Exception {
+        MeasuringOutputProcessor direct = process(sample, recipe.newInstance(), 0, true);
+        MeasuringOutputProcessor queued = process(sample, recipe.newInstance(), QUEUE_SIZE, true);
+        MeasuringOutputProcessor streamed = process(sample, recipe.newInstance(), QUEUE_SIZE, false);
+
+        assertTrue("Sample should have features", direct.count > 0);
+        assertEquals(direct.count, queued.count);
+        assertEquals(direct.count, streamed.count);
+        assertTrue(queued.ended);
+        // properties are copied before queueing since recipes reuse the lists
+        for (int i = 0; i < direct.count; i++) {
+            assertEquals(direct.features.get(i).size(), queued.features.get(i).size());
+        }
+    }
+
+    @Test
+    public void test_ELF_RoadLink() throws Exception {
+        compare("/fi/nls/oskari/eu/elf/roadtransportnetwork/nls_fi-ELF-TN-wfs.xml",
+                ELF_MasterLoD1_RoadLink_Parser.class);
+    }
+
+    @Test
+    public void test_ELF_Building() throws Exception {
+        compare("/fi/nls/oskari/eu/elf/buildings/nls_fi-ELF-BU-wfs.xml",
+                ELF_MasterLoD0_Building_nls_fi_wfs_Parser.class);
+    }
+
+    @Test
+    public void test_ELF_AdministrativeUnit() throws Exception {
+        compare("/fi/nls/oskari/eu/elf/administrativeunits/geonorge_no-ELF-AU-wfs.xml",
+                ELF_MasterLoD0_AdministrativeUnit_nls_fi_wfs_Parser.class);
+    }
+
+    @Test
+    public void test_INSPIRE_AdministrativeBoundary() throws Exception {
+        compare("/fi/nls/oskari/eu/inspire/administrativeunits/ign_es-INSPIRE-AU-AdministrativeBoundary.xml",
+                INSPIRE_AU_AdministrativeBoundary_Parser.class);
+    }
+
+    @Test
+    public void testOutputFailureStopsParsing() throws Exception {
+        MeasuringOutputProcessor failing = new MeasuringOutputProcessor(false) {
+            public void vertex(Resource iri, Resource type, List<Pair<Resource, Object>> simpleProperties,
+                               List<Pair<Resource, Object>> linkProperties,
+                               List<Pair<Resource, Geometry>> geometryProperties) throws IOException {
+                throw new IOException("failed");
+            }
+        };
+        BasicFeatureEngine engine = new BasicFeatureEngine();
+        engine.setRecipe(new ELF_MasterLoD0_Building_nls_fi_wfs_Parser());
+        engine.setQueueSize(1);
+        XMLInputProcessor inputProcessor = new StaxGMLInputProcessor();
+        InputStream inp = getClass().getResourceAsStream("/fi/nls/oskari/eu/elf/buildings/nls_fi-ELF-BU-wfs.xml");
+        try {
+            inputProcessor.setInput(inp);
+            engine.setInputProcessor(inputProcessor);
+            engine.setOutputProcessor(failing);
+            engine.process();
+            fail("Output failure should be thrown");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        } finally {
+            inp.close();
+        }
+        assertTrue("Output should be ended", failing.ended);
+    }
+}
@@ -7,6 +7,7 @@ import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.domain.map.InspireTheme;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.layer.OskariLayerServiceIbatisImpl;
 import fi.nls.oskari.service.ServiceRuntimeException;
 
 import java.sql.SQLException;
@@ -129,6 +130,7 @@ public class InspireThemeServiceIbatisImpl extends InspireThemeService {
         // update caches
         ID_CACHE.remove(Integer.toString(id));
         findLayerMappings();
+        OskariLayerServiceIbatisImpl.invalidateCatalog();
     }
 
     public List<Integer> findMaplayersByTheme(int id) {
@@ -139,6 +141,7 @@ public class InspireThemeServiceIbatisImpl extends InspireThemeService {
     public void update(final InspireTheme theme) {
         ID_CACHE.put(Integer.toString(theme.getId()), theme);
         super.update(theme);
+        OskariLayerServiceIbatisImpl.invalidateCatalog();
     }
 
     @Override
@@ -146,6 +149,7 @@ public class InspireThemeServiceIbatisImpl extends InspireThemeService {
         final int id = super.insert(theme);
         theme.setId(id);
         ID_CACHE.put(Integer.toString(theme.getId()), theme);
+        OskariLayerServiceIbatisImpl.invalidateCatalog();
         return id;
     }
 
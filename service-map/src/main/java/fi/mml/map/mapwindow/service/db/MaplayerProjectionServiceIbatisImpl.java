@@ -3,6 +3,7 @@ package fi.mml.map.mapwindow.service.db;
 import com.ibatis.sqlmap.client.SqlMapClient;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.layer.OskariLayerServiceIbatisImpl;
 import fi.nls.oskari.service.db.BaseIbatisService;
 
 import java.sql.SQLException;
@@ -51,6 +52,8 @@ public class MaplayerProjectionServiceIbatisImpl extends BaseIbatisService imple
             client.insert(getNameSpace() + ".insertList", map);
 
             client.commitTransaction();
+            // layer listing is filtered by supported projections
+            OskariLayerServiceIbatisImpl.invalidateCatalog();
 
         } catch (Exception e) {
             throw new RuntimeException("Failed to set map projections", e);
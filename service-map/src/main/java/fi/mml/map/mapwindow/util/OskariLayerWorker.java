@@ -1,5 +1,6 @@
 package fi.mml.map.mapwindow.util;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import fi.mml.portti.domain.permissions.Permissions;
 import fi.mml.portti.service.db.permissions.PermissionsService;
 import fi.mml.portti.service.db.permissions.PermissionsServiceIbatisImpl;
@@ -8,7 +9,7 @@ import fi.nls.oskari.domain.User;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
-import fi.nls.oskari.map.geometry.WKTHelper;
+import fi.nls.oskari.map.layer.LayerCoverageCache;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import fi.nls.oskari.map.layer.OskariLayerServiceIbatisImpl;
 import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
@@ -18,6 +19,7 @@ import fi.nls.oskari.util.PropertyUtil;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -39,7 +41,14 @@ public class OskariLayerWorker {
     private static PermissionsService permissionsService = new PermissionsServiceIbatisImpl();
 
     private final static LayerJSONFormatter FORMATTER = new LayerJSONFormatter();
-    
+
+    /**
+     * Receives the JSON of each permitted layer
+     */
+    private interface LayerJSONConsumer<E extends Exception> {
+        void accept(JSONObject layerJson) throws E;
+    }
+
     public static JSONObject getListOfAllMapLayers(final User user, final String lang, final String crs) {
         return getListOfAllMapLayers(user, lang, crs, false);
     }
@@ -56,6 +65,51 @@ public class OskariLayerWorker {
         return getListOfMapLayers(layers, user, lang, isPublished, isSecure);
     }
 
+    /**
+     * Streaming variant of getListOfAllMapLayers(). Writes {"layers": [...]} to the generator one layer at a time
+     * so the JSON for all layers is never in memory at once. Layer coverages are transformed to the given
+     * projection like transformWKTGeom() does.
+     *
+     * @param gen      generator to write to
+     * @param user     User
+     * @param lang     Language
+     * @param crs      projection of the map, used to filter layers and for coverages
+     * @param isSecure true to modify urls for easier proxy forwarding/false to keep as is
+     * @throws IOException if writing fails
+     */
+    public static void writeListOfAllMapLayers(final JsonGenerator gen, final User user, final String lang,
+                                               final String crs, final boolean isSecure) throws IOException {
+        long start = System.currentTimeMillis();
+        final List<OskariLayer> layers = mapLayerService.findAll(crs);
+        log.debug("Layers loaded in", System.currentTimeMillis() - start, "ms");
+        writeListOfMapLayers(gen, layers, user, lang, false, isSecure, crs);
+    }
+
+    /**
+     * Streaming variant of getListOfMapLayers(). Writes {"layers": [...]} to the generator one layer at a time.
+     *
+     * @param gen         generator to write to
+     * @param layers      list of layers to render
+     * @param user        User
+     * @param lang        Language
+     * @param isPublished Determines the permission type used for the layers (view/published view)
+     * @param isSecure    true to modify urls for easier proxy forwarding/false to keep as is
+     * @param mapSRS      projection to transform coverages to, coverages are removed if null
+     * @throws IOException if writing fails
+     */
+    public static void writeListOfMapLayers(final JsonGenerator gen, final List<OskariLayer> layers, final User user,
+                                            final String lang, final boolean isPublished, final boolean isSecure,
+                                            final String mapSRS) throws IOException {
+        gen.writeStartObject();
+        gen.writeArrayFieldStart(KEY_LAYERS);
+        processLayers(layers, user, lang, isPublished, isSecure, layerJson -> {
+            transformWKTGeom(layerJson, mapSRS);
+            JSONHelper.writeJSON(gen, layerJson);
+        });
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
     /**
      * Gets all the selected map layers
      *
@@ -96,10 +150,24 @@ public class OskariLayerWorker {
      */
     public static JSONObject getListOfMapLayers(final List<OskariLayer> layers, final User user,
                                                 final String lang, final boolean isPublished, final boolean isSecure) {
+        final JSONArray layersList = new JSONArray();
+        processLayers(layers, user, lang, isPublished, isSecure, layersList::put);
+        final JSONObject result = new JSONObject();
+        JSONHelper.putValue(result, KEY_LAYERS, layersList);
+        return result;
+    }
+
+    /**
+     * Creates JSON for the layers the user is permitted to view and passes them to the consumer in order
+     */
+    private static <E extends Exception> void processLayers(final List<OskariLayer> layers, final User user,
+                                                            final String lang, final boolean isPublished,
+                                                            final boolean isSecure,
+                                                            final LayerJSONConsumer<E> consumer) throws E {
 
         final String permissionType = getPermissionType(isPublished);
         long start = System.currentTimeMillis();
-        final List<String> resources = permissionsService.getResourcesWithGrantedPermissions(
+        final Set<String> resources = permissionsService.getPermittedResources(
                 Permissions.RESOURCE_TYPE_MAP_LAYER, user, permissionType);
         log.debug("View permissions loaded in", System.currentTimeMillis() - start, "ms");
 
@@ -117,17 +185,17 @@ public class OskariLayerWorker {
 
         final Set<String> additionalPermissions = permissionsService.getAdditionalPermissions();
     	log.debug("Loading dynamic permissions ", additionalPermissions);
-        final Map<String, List<String>> dynamicPermissions = new HashMap<String, List<String>>();
+        final Map<String, Set<String>> dynamicPermissions = new HashMap<String, Set<String>>();
         for (String permissionId : additionalPermissions) {
-            final List<String> permissions = permissionsService
-                    .getResourcesWithGrantedPermissions(
+            final Set<String> permissions = permissionsService
+                    .getPermittedResources(
                             Permissions.RESOURCE_TYPE_MAP_LAYER, user,
                             permissionId);
             dynamicPermissions.put(permissionId,permissions);
             log.debug("Got " + permissions.size() + " permissions of type " + permissionId);
         }
 
-        final JSONArray layersList = new JSONArray();
+        int count = 0;
         start = System.currentTimeMillis();
         for (OskariLayer layer : layers) {
             final String permissionKey = layer.getType()+ "+" + layer.getUrl() + "+" + layer.getName();
@@ -136,8 +204,9 @@ public class OskariLayerWorker {
                 // sublayers can pass through since their parentId != -1
                 continue;
             }
+            JSONObject layerJson = null;
             try {
-                final JSONObject layerJson = FORMATTER.getJSON(layer, lang, isSecure);
+                layerJson = FORMATTER.getJSON(layer, lang, isSecure);
                 //log.debug("Generated JSON");
                 if (layerJson != null) {
                     //log.debug("Generating permissions JSON");
@@ -150,21 +219,20 @@ public class OskariLayerWorker {
                     else {
                         FORMATTER.removeAdminInfo(layerJson);
                     }
-
-                    //log.debug("Adding layer to list");
-                    layersList.put(layerJson);
                 }
             }
             catch(Exception ex) {
                 log.error(ex);
+                continue;
+            }
+            if (layerJson != null) {
+                // outside the try-block so write errors are passed to the caller
+                consumer.accept(layerJson);
+                count++;
             }
         }
         log.debug("Created JSON in", System.currentTimeMillis() - start, "ms");
-        log.debug("Returning", layersList.length(), "/", layers.size(),"layers");
-
-        final JSONObject result = new JSONObject();
-        JSONHelper.putValue(result, KEY_LAYERS, layersList);
-        return result;
+        log.debug("Returning", count, "/", layers.size(),"layers");
     }
 
     /**
@@ -233,8 +301,8 @@ public class OskariLayerWorker {
             return;
         }
         try {
-            // WTK is saved as EPSG:4326 in database
-            final String transformed = WKTHelper.transformLayerCoverage(wktWGS84, mapSRS);
+            // WTK is saved as EPSG:4326 in database, transformed coverages are computed when layers are saved
+            final String transformed = LayerCoverageCache.getCoverage(layerJSON.optString("id"), wktWGS84, mapSRS);
             // value will be removed if transform failed, that's ok since client can't handle it if it's in unknown projection
             JSONHelper.putValue(layerJSON, "geom", transformed);
         } catch (Exception ex) {
@@ -268,7 +336,7 @@ public class OskariLayerWorker {
      * @param dynamicPermissions 
      */
     public static JSONObject getPermissions(final User user, final String layerPermissionKey,
-                                             final Set<String> permissionsList, final Set<String> downloadPermissionsList, final Set<String> editAccessList, Map<String, List<String>> dynamicPermissions) {
+                                             final Set<String> permissionsList, final Set<String> downloadPermissionsList, final Set<String> editAccessList, Map<String, ? extends Collection<String>> dynamicPermissions) {
 
         final JSONObject permission = new JSONObject();
         if (user.isAdmin()) {
@@ -293,7 +361,7 @@ public class OskariLayerWorker {
         }
 		if (dynamicPermissions != null) {
 			for (String permissionType : dynamicPermissions.keySet()) {
-				List<String> permissionList = dynamicPermissions
+				Collection<String> permissionList = dynamicPermissions
 						.get(permissionType);
 				if (permissionList != null
 						&& permissionList.contains(layerPermissionKey)) {
@@ -14,6 +14,12 @@ import fi.nls.oskari.util.PropertyUtil;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -82,13 +88,26 @@ public class AnalysisDataService {
             // list and the payload
             // and remove the fields parameter from call
             List<String> fields = new ArrayList<String>();
-            final String wfst = transformationService.wpsFeatureCollectionToWfst(featureset, analysis.getUuid(),
-                    analysis.getId(), fields, analysislayer.getFieldtypeMap(), geometryProperty, params.getResponsePrefix());
-            log.debug("Produced WFS-T:\n" + wfst);
-
-            final String response = IOHelper.httpRequestAction(wfsURL, wfst,
-                    wpsUser, wpsUserPass, null, null, "application/xml");
-            log.debug("Posted WFS-T, got", response);
+            // WFS-T is written to the connection while the features are read
+            final long start = System.currentTimeMillis();
+            final HttpURLConnection con = IOHelper.getConnection(wfsURL, wpsUser, wpsUserPass);
+            // same as the previous IOHelper.httpRequestAction() post: storing large results may take a while and
+            // the WFS is the analysis backend configured by the admin
+            con.setReadTimeout(0);
+            IOHelper.trustAllCerts(con);
+            IOHelper.trustAllHosts(con);
+            con.setRequestMethod("POST");
+            con.setDoOutput(true);
+            con.setChunkedStreamingMode(0);
+            IOHelper.setContentType(con, "application/xml; charset=UTF-8");
+            final int count;
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(con.getOutputStream(), StandardCharsets.UTF_8))) {
+                count = transformationService.wpsFeatureCollectionToWfst(new StringReader(featureset), out,
+                        analysis.getUuid(), analysis.getId(), fields, analysislayer.getFieldtypeMap(),
+                        geometryProperty, params.getResponsePrefix());
+            }
+            final String response = IOHelper.readString(con);
+            log.debug("Posted WFS-T with", count, "features in", System.currentTimeMillis() - start, "ms, got", response);
 
             // If exceptions, return null
             // Check, if exception result set
@@ -8,12 +8,17 @@ import fi.nls.oskari.map.analysis.domain.AnalysisMethodParams;
 import fi.nls.oskari.map.analysis.domain.DifferenceMethodParams;
 import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.IOHelper;
-import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.PropertyUtil;
+import com.vividsolutions.jts.geom.Geometry;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.geojson.feature.FeatureJSON;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.w3c.dom.Document;
 
 import javax.xml.transform.Transformer;
@@ -33,7 +38,6 @@ public class AnalysisWebProcessingService {
     private static final String GEOSERVER_WPS_URL = "geoserver.wps.url";
     private static final String GEOJSON_LAYER2 = "layer2";
     private static final String GEOJSON_GEOMETRY = "geometry";
-    private static final String GEOJSON_PROPERTIES = "properties";
     private static final String DELTA_FIELD_NAME = "Muutos_t2-t1";
     private static final Double NON_AUTHORIZED = -111111111.0D;
 
@@ -161,9 +165,9 @@ public class AnalysisWebProcessingService {
 
     /**
      *  Build new feature collection with delta values
-     *  1. Loop WFS 2.0.0 response geojson (join of two feature collections)
-     *  2. process new geojson with delta values (fieldA1 - fieldB1)
-     *  3. encode geojson to gml feature collection (xml)
+     *  1. Loop WFS 2.0.0 response geojson (join of two feature collections) one feature at a time
+     *  2. build new features with delta values (fieldA1 - fieldB1)
+     *  3. encode features to gml feature collection (xml)
      *  @param lay1 {String} name of dataset 1
      *  @param lay2 {String} name of dataset 2
      * @param keyA1 {String} name of join property
@@ -171,13 +175,10 @@ public class AnalysisWebProcessingService {
      * @param fieldB1 {String}  field name of 2nd feature collection
      * @param nodata {String} No data value; if fieldA1 value is nodata value, then delta is 0
      * @param rawJson {String} WFS 2.0.0 response geojson
-     * @return gml feature collection (xml)
+     * @return gml feature collection (xml), empty collection if the join has no features
      */
     public String processDifferenceValueFS(String lay1, String lay2, String keyA1, String fieldA1, String fieldB1, String nodata, String rawJson) {
 
-
-        String featureSet = null;
-        FeatureCollection fc = null;
         double dnodata = Double.NaN;
         try {
             if (nodata != null) dnodata = Double.parseDouble(nodata);
@@ -186,77 +187,90 @@ public class AnalysisWebProcessingService {
                     e);
 
         }
+        final String fieldT1 = "t1__" + lay1.replace(":","_") + "__" + fieldA1;
+        final String fieldT2 = "t2__" + lay2.replace(":","_") + "__" + fieldB1;
 
+        FeatureIterator<SimpleFeature> it = null;
         try {
-            final JSONObject geoJson = JSONHelper.createJSONObject(rawJson);
-            FeatureJSON fjs = new FeatureJSON();
-            JSONArray newfeas = new JSONArray();
-
-            JSONArray geofeas = geoJson.getJSONArray("features");
-
-            // Loop json features and fix to user_layer_data structure
-            for (int i = 0; i < geofeas.length(); i++) {
-
-                JSONObject geofea = geofeas.optJSONObject(i);
-                if (geofea == null) continue;
-                if (!geofea.has(GEOJSON_GEOMETRY)) continue;
-                if (!geofea.has(GEOJSON_PROPERTIES)) continue;
-                JSONObject properties = geofea.getJSONObject(GEOJSON_PROPERTIES);
-                if (!properties.has(fieldA1)) continue;
+            // features are read from the response one at a time instead of building a JSON tree of it
+            it = new FeatureJSON().streamFeatureCollection(new StringReader(rawJson));
+            final List<SimpleFeature> features = new ArrayList<>();
+            SimpleFeatureBuilder builder = null;
+            while (it.hasNext()) {
+                final SimpleFeature feature = it.next();
+                final SimpleFeatureType sourceType = feature.getFeatureType();
+                if (sourceType.getDescriptor(fieldA1) == null) continue;
                 // layer2 is alias name of joined feature to feature
-                if (!properties.has(GEOJSON_LAYER2)) continue;
-                final Object valueA = properties.get(fieldA1);
-                final String layer2fea = properties.optString(GEOJSON_LAYER2);
-                double delta = this.findValueDifference(valueA, layer2fea, fieldB1, dnodata);
+                if (sourceType.getDescriptor(GEOJSON_LAYER2) == null) continue;
+                final Object valueA = feature.getAttribute(fieldA1);
+                final Object layer2fea = feature.getAttribute(GEOJSON_LAYER2);
+                double delta = this.findValueDifference(valueA,
+                        layer2fea == null ? "" : layer2fea.toString(), fieldB1, dnodata);
                 double valueB = valueToDouble(valueA);
                 if(delta != NON_AUTHORIZED){
                     valueB = valueB - delta;
                     delta = -delta;
                 }
-
-                JSONObject newproperties = new JSONObject();
-                newproperties.put(keyA1, properties.get(keyA1));
-                newproperties.put("t1__" + lay1.replace(":","_") + "__" + fieldA1, valueA);
-                newproperties.put("t2__" + lay2.replace(":","_") + "__" + fieldB1, valueB);
-
-                newproperties.put(DELTA_FIELD_NAME, delta);
-                geofea.remove(GEOJSON_PROPERTIES);
-                geofea.put(GEOJSON_PROPERTIES, newproperties);
-                newfeas.put(geofea);
-
+                if (builder == null) {
+                    builder = new SimpleFeatureBuilder(
+                            createDifferenceType(sourceType, keyA1, fieldT1, fieldT2, feature.getAttribute(keyA1)));
+                }
+                builder.set(GEOJSON_GEOMETRY, feature.getDefaultGeometry());
+                builder.set(keyA1, feature.getAttribute(keyA1));
+                builder.set(fieldT1, valueA == null ? null : valueToDouble(valueA));
+                builder.set(fieldT2, valueB);
+                builder.set(DELTA_FIELD_NAME, delta);
+                features.add(builder.buildFeature(feature.getID()));
             }
-            // update geojson
-            geoJson.remove("features");
-            geoJson.put("features", newfeas);
-
-            // to FeatureCollection
-            String tempjs = JSONHelper.getStringFromJSON(geoJson, null);
-            fc = fjs.readFeatureCollection(new ByteArrayInputStream(
-                    tempjs.getBytes("utf-8")));
+            if (builder == null) {
+                log.debug("No features to process value differences for");
+                builder = new SimpleFeatureBuilder(createDifferenceType(null, keyA1, fieldT1, fieldT2, null));
+            }
+            final FeatureCollection fc = new ListFeatureCollection(builder.getFeatureType(), features);
 
             org.geotools.xml.Configuration configuration = new org.geotools.gml3.GMLConfiguration();
             org.geotools.xml.Encoder encoder = new org.geotools.xml.Encoder(configuration);
 
             //output stream to serialize to
-            OutputStream xml = new ByteArrayOutputStream();
-
-
-            try {
-                encoder.encode(fc, org.geotools.gml3.GML._FeatureCollection, xml);
-                xml.close();
-                featureSet = xml.toString();
-
-            } catch (IOException e) {
-                log.debug("GML encoding failed");
-            }
+            final ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            encoder.encode(fc, org.geotools.gml3.GML._FeatureCollection, xml);
+            return xml.toString("UTF-8");
 
         } catch (Exception e) {
             log.debug("Unable to process value differences",
                     e);
             return null;
+        } finally {
+            if (it != null) {
+                it.close();
+            }
         }
+    }
 
-        return featureSet;
+    /**
+     * Feature type for the difference features: geometry, join property, both values and the delta
+     * @param sourceType type of the joined features, null if there are none
+     */
+    private SimpleFeatureType createDifferenceType(final SimpleFeatureType sourceType, final String keyA1,
+                                                   final String fieldT1, final String fieldT2, final Object key) {
+        final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        GeometryDescriptor geom = null;
+        if (sourceType != null) {
+            typeBuilder.setName(sourceType.getName());
+            if (sourceType.getCoordinateReferenceSystem() != null) {
+                typeBuilder.setCRS(sourceType.getCoordinateReferenceSystem());
+            }
+            geom = sourceType.getGeometryDescriptor();
+        } else {
+            typeBuilder.setName("feature");
+        }
+        typeBuilder.add(GEOJSON_GEOMETRY, geom != null ? geom.getType().getBinding() : Geometry.class);
+        typeBuilder.add(keyA1, key != null ? key.getClass() : String.class);
+        // values are compared as numbers so t1 is stored as a number like t2 and the delta
+        typeBuilder.add(fieldT1, Double.class);
+        typeBuilder.add(fieldT2, Double.class);
+        typeBuilder.add(DELTA_FIELD_NAME, Double.class);
+        return typeBuilder.buildFeatureType();
     }
 
     /**
@@ -298,15 +312,11 @@ public class AnalysisWebProcessingService {
         double dA1 = 0d;
 
         try {
-            if (valueA1 instanceof String) {
-                String temp = String.valueOf(valueA1);
-                dA1 = Double.parseDouble(temp);
-            }
-            if (valueA1 instanceof Integer) {
-                dA1 = ((Integer) valueA1).doubleValue();
-            } else {
-
-                dA1 = (Double) valueA1;
+            // GeoJSON numbers are read as Long or Double
+            if (valueA1 instanceof Number) {
+                dA1 = ((Number) valueA1).doubleValue();
+            } else if (valueA1 instanceof String) {
+                dA1 = Double.parseDouble((String) valueA1);
             }
         } catch (Exception e) {
 
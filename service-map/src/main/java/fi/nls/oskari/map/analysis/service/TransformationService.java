@@ -10,16 +10,28 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
 
+import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
 import javax.xml.transform.stream.StreamResult;
 import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.*;
 
 public class TransformationService {
@@ -30,138 +42,338 @@ public class TransformationService {
 
     private static final Logger log = LogFactory
             .getLogger(TransformationService.class);
-    private static final String WFSTTEMPLATESTART = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
-            + "<wfs:Transaction xmlns:wfs=\"http://www.opengis.net/wfs\" service=\"WFS\" version=\"1.1.0\" xsi:schemaLocation=\"http://www.opengis.net/wfs http://schemas.opengis.net/wfs/1.1.0/wfs.xsd\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:gml=\"http://www.opengis.net/gml\" xmlns:cgf=\"http://www.opengis.net/cite/geometry\" >\n";
-
-    private static final String WFSTTEMPLATEEND = "</wfs:Transaction>\n";
-
-    private static final String WFSTINSERTSTART = "   <wfs:Insert>\n"
-            + "       <feature:analysis_data xmlns:feature=\"http://www.oskari.org\">\n";
-
-    private static final String WFSTINSERTEND = "       </feature:analysis_data>\n"
-            + "   </wfs:Insert>\n";
 
+    private static final XMLInputFactory XML_INPUT = createInputFactory();
+    private static final XMLOutputFactory XML_OUTPUT = XMLOutputFactory.newInstance();
 
+    /**
+     * Converts WPS response features to a WFS-T insert transaction for analysis_data
+     *
+     * @see #wpsFeatureCollectionToWfst(Reader, Writer, String, long, List, Map, String, String)
+     * @return WFS-T transaction
+     */
     public String wpsFeatureCollectionToWfst(final  String wps , String uuid, long analysis_id,
             List<String> fields, Map<String,String> fieldTypes, String geometryProperty, String ns_prefix)
             throws ServiceException {
+        final StringWriter out = new StringWriter();
+        wpsFeatureCollectionToWfst(new StringReader(wps), out, uuid, analysis_id, fields, fieldTypes,
+                geometryProperty, ns_prefix);
+        return out.toString();
+    }
 
-        final Document wpsDoc = createDoc(wps);
-        StringBuilder sb = new StringBuilder(WFSTTEMPLATESTART);
-        List<String> cols = new ArrayList<String>();
-        List<String> geomcols = new ArrayList<String>();
-        geomcols.add(ns_prefix+":" + geometryProperty);
-        geomcols.add(ns_prefix+":geometry");  //  default geometry
-
-        String geomcol = "";
-        Boolean members_case = false;
-        int ncount = 0;
-        int tcount = 0;
-
-        // iterate through wpsDoc's gml:featureMember elements or gml:featureMembers
-        // NodeList featureMembers =
-        // wpsDoc.getDocumentElement().getChildNodes();
-        NodeList featureMembers = wpsDoc
-                .getElementsByTagName("gml:featureMember");
-        if (featureMembers.getLength() == 0) {
-            featureMembers = wpsDoc
-                    .getElementsByTagName("gml:featureMembers");
-            if (featureMembers.getLength() > 0) members_case = true;
-        }
-        if(members_case){
-            // select features as featureMembers
-            featureMembers = wpsDoc.getElementsByTagName( featureMembers.item(0).getFirstChild().getNodeName());
+    /**
+     * Reads the WPS response (gml:featureMember or gml:featureMembers) one feature at a time and writes a
+     * wfs:Insert for each one so neither the response nor the transaction is kept in memory as a document.
+     * The first 8 non-hidden properties of a feature are written as t1..t8 (text) and n1..n8 (numeric) and
+     * the column mapping (for example "t1=name") is added to fields.
+     *
+     * @param wps              WPS response (gml feature collection)
+     * @param out              WFS-T transaction is written here
+     * @param uuid             owner of the analysis
+     * @param analysis_id      analysis the features are inserted to
+     * @param fields           column mapping is added here
+     * @param fieldTypes       field types like in WFS DescribeFeatureType
+     * @param geometryProperty name of the geometry property without prefix
+     * @param ns_prefix        prefix of the feature properties in the WPS response
+     * @return number of features written
+     * @throws ServiceException if the response can't be read or the transaction written
+     */
+    public int wpsFeatureCollectionToWfst(final Reader wps, final Writer out, String uuid, long analysis_id,
+            List<String> fields, Map<String,String> fieldTypes, String geometryProperty, String ns_prefix)
+            throws ServiceException {
+
+        final WfstFields wfstFields = new WfstFields(fields, fieldTypes, ns_prefix, geometryProperty);
+        XMLEventReader reader = null;
+        XMLStreamWriter writer = null;
+        int count = 0;
+        try {
+            reader = XML_INPUT.createXMLEventReader(wps);
+            writer = XML_OUTPUT.createXMLStreamWriter(out);
+            writeTransactionStart(writer);
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (!event.isStartElement()) {
+                    continue;
+                }
+                final String name = getName(event.asStartElement().getName());
+                if ("gml:featureMember".equals(name)) {
+                    // we trust that featureMember only has one feature...
+                    count += writeMembers(reader, writer, wfstFields, uuid, analysis_id, true);
+                } else if ("gml:featureMembers".equals(name)) {
+                    // gml:featureMembers case - all features under one element
+                    count += writeMembers(reader, writer, wfstFields, uuid, analysis_id, false);
+                }
+            }
+            writer.writeEndElement();
+            writer.writeCharacters("\n");
+            writer.writeEndDocument();
+            writer.flush();
+        } catch (XMLStreamException ex) {
+            throw new ServiceException("Unable to transform WPS response to WFS-T", ex);
+        } finally {
+            close(reader, writer);
         }
-        for (int i = 0; i < featureMembers.getLength(); i++) {
-            // we're only interested in featureMembers... or features
-            if (!"gml:featureMember".equals(featureMembers.item(i)
-                    .getNodeName()) &&  !members_case ) {
+        return count;
+    }
+
+    private int writeMembers(final XMLEventReader reader, final XMLStreamWriter writer, final WfstFields wfstFields,
+                             final String uuid, final long analysis_id, final boolean single) throws XMLStreamException {
+        int count = 0;
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isEndElement()) {
+                break;
+            }
+            if (!event.isStartElement()) {
+                continue;
+            }
+            // featureMember: the feature is the first child element in feature namespace
+            final String name = getName(event.asStartElement().getName());
+            if (single && (count > 0 || !name.startsWith(wfstFields.prefix))) {
+                skipElement(reader);
                 continue;
             }
+            writeFeature(reader, writer, wfstFields, uuid, analysis_id);
+            count++;
+        }
+        return count;
+    }
 
-            NodeList meh = featureMembers.item(i).getChildNodes();
-            NodeList features = null;
-            if (members_case) {
-                // gml:featureMembers case - all features under one element
-                features = meh;
-            } else {
-                // get features, i.e. all child elements in feature namespace
-                // we trust that featureMember only has one feature...
-                // find the child feature...
-                for (int j = 0; j < meh.getLength(); j++) {
-                    if (meh.item(j).getNodeName().indexOf(ns_prefix + ":") == 0) {
-                        features = meh.item(j).getChildNodes();
-                        break;
-                    }
-                }
+    private void writeFeature(final XMLEventReader reader, final XMLStreamWriter writer, final WfstFields wfstFields,
+                              final String uuid, final long analysis_id) throws XMLStreamException {
+        List<XMLEvent> geometry = null;
+        final List<String> textFeatures = new ArrayList<String>();
+        final List<Double> numericFeatures = new ArrayList<Double>();
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isEndElement()) {
+                break;
             }
-            Node geometry = null;
-            List<String> textFeatures = new ArrayList<String>();
-            List<Double> numericFeatures = new ArrayList<Double>();
-            if ( ncount == 0) {
-                ncount = 1;
-                tcount = 1;
+            if (!event.isStartElement()) {
+                continue;
             }
-            for (int j = 0; j < features.getLength(); j++) {
-                Node feature = features.item(j);
-
-                // it's a feature, check if it's geometry
-                if (geomcols.contains(feature.getNodeName())) {
-                    // geometry, store aside for now
-                    geomcol = feature.getNodeName();
-                    geometry = feature;
-                } else if (feature.getNodeName().indexOf(ns_prefix+":") == 0) {
+            final String name = getName(event.asStartElement().getName());
+            if (wfstFields.geomcols.contains(name)) {
+                // geometry, store aside for now, it's written first
+                geometry = readElement(reader, event);
+            } else if (name.startsWith(wfstFields.prefix)
                     // only parse 8 first text ( numeric results invalid behavior later use only text)
                     //TODO: fix management of Date dateTime types later
-                    // (excluding geometry)
-                    if (textFeatures.size() < 8 && numericFeatures.size() < 8 && this.isHiddenField(feature) == false) {
-                        // get node value
-                        String strVal = feature.getTextContent();
-                        Double dblVal = null;
-                        String col = this.stripNamespace(feature.getNodeName());
-                        dblVal = this.getFieldAsNumeric(col, strVal, fieldTypes);
-
-                        if (null != dblVal) {
-                            numericFeatures.add(dblVal);
-                            if (!cols.contains(col)) {
-                                String colmap = "n" + Integer.toString(ncount)
-                                        + "=" + col;
-                                cols.add(col);
-                                fields.add(colmap);
-                                ncount++;
-                            }
-                        } else {
-                            textFeatures.add(strVal);
-                            if (!cols.contains(col)) {
-                                String colmap = "t" + Integer.toString(tcount)
-                                        + "=" + col;
-                                cols.add(col);
-                                fields.add(colmap);
-                                tcount++;
-                            }
-                        }
-                    }
+                    && textFeatures.size() < 8 && numericFeatures.size() < 8 && !isHiddenField(name)) {
+                final String strVal = readText(reader);
+                final String col = this.stripNamespace(name);
+                final Double dblVal = this.getFieldAsNumeric(col, strVal, wfstFields.fieldTypes);
+                if (null != dblVal) {
+                    numericFeatures.add(dblVal);
+                } else {
+                    textFeatures.add(strVal);
                 }
+                wfstFields.map(col, dblVal != null);
+            } else {
+                skipElement(reader);
+            }
+        }
+        writeInsertElement(writer, geometry, textFeatures, numericFeatures, uuid, analysis_id);
+    }
+
+    private static void writeTransactionStart(final XMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeCharacters("\n");
+        writer.writeStartElement("wfs:Transaction");
+        writer.writeNamespace("wfs", "http://www.opengis.net/wfs");
+        writer.writeAttribute("service", "WFS");
+        writer.writeAttribute("version", "1.1.0");
+        writer.writeAttribute("xsi:schemaLocation",
+                "http://www.opengis.net/wfs http://schemas.opengis.net/wfs/1.1.0/wfs.xsd");
+        writer.writeNamespace("xsi", "http://www.w3.org/2001/XMLSchema-instance");
+        writer.writeNamespace("ogc", "http://www.opengis.net/ogc");
+        writer.writeNamespace("gml", "http://www.opengis.net/gml");
+        writer.writeNamespace("cgf", "http://www.opengis.net/cite/geometry");
+        writer.writeCharacters("\n");
+    }
 
+    private static void writeInsertElement(final XMLStreamWriter writer, final List<XMLEvent> geometry,
+                                           final List<String> textFeatures, final List<Double> numericFeatures,
+                                           final String uuid, final long analysis_id) throws XMLStreamException {
+        // build wfs:Insert element
+        writer.writeStartElement("wfs:Insert");
+        writer.writeStartElement("feature:analysis_data");
+        writer.writeNamespace("feature", "http://www.oskari.org");
+        // add geometry node
+        if (geometry != null) {
+            writeEvents(writer, geometry, "feature:geometry");
+        }
+        // add text feature nodes (1-based)
+        for (int j = 0; j < textFeatures.size(); j++) {
+            writeElement(writer, "feature:t" + (j + 1), textFeatures.get(j));
+        }
+        // add numeric feature nodes (1-based)
+        for (int j = 0; j < numericFeatures.size(); j++) {
+            writeElement(writer, "feature:n" + (j + 1), numericFeatures.get(j).toString());
+        }
+        writeElement(writer, "feature:analysis_id", Long.toString(analysis_id));
+        writeElement(writer, "feature:uuid", uuid);
+        writer.writeEndElement();
+        writer.writeEndElement();
+        writer.writeCharacters("\n");
+    }
+
+    private static void writeElement(final XMLStreamWriter writer, final String name, final String value)
+            throws XMLStreamException {
+        writer.writeStartElement(name);
+        if (value != null) {
+            writer.writeCharacters(value);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes buffered events of an element, the element itself is renamed
+     */
+    private static void writeEvents(final XMLStreamWriter writer, final List<XMLEvent> events, final String name)
+            throws XMLStreamException {
+        int depth = 0;
+        for (XMLEvent event : events) {
+            if (event.isStartElement()) {
+                final StartElement start = event.asStartElement();
+                writer.writeStartElement(depth == 0 ? name : getName(start.getName()));
+                depth++;
+                final Iterator<?> namespaces = start.getNamespaces();
+                while (namespaces.hasNext()) {
+                    final Namespace ns = (Namespace) namespaces.next();
+                    writer.writeNamespace(ns.getPrefix(), ns.getNamespaceURI());
+                }
+                final Iterator<?> attributes = start.getAttributes();
+                while (attributes.hasNext()) {
+                    final Attribute attr = (Attribute) attributes.next();
+                    writer.writeAttribute(getName(attr.getName()), attr.getValue());
+                }
+            } else if (event.isEndElement()) {
+                writer.writeEndElement();
+                depth--;
+            } else if (event.isCharacters()) {
+                writer.writeCharacters(event.asCharacters().getData());
             }
-            buildWfsInsertElement(sb, geometry, geomcol, textFeatures, numericFeatures, uuid, analysis_id);
         }
-        sb.append(WFSTTEMPLATEEND);
-        return sb.toString();
     }
 
-    private static String nodeToString(Node node) throws ServiceException {
+    /**
+     * @return events of the element from start to end
+     */
+    private static List<XMLEvent> readElement(final XMLEventReader reader, final XMLEvent start)
+            throws XMLStreamException {
+        final List<XMLEvent> events = new ArrayList<XMLEvent>();
+        events.add(start);
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Same as Node.getTextContent(): text of the element and its descendants
+     */
+    private static String readText(final XMLEventReader reader) throws XMLStreamException {
+        final StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            } else if (event.isCharacters()) {
+                text.append(event.asCharacters().getData());
+            }
+        }
+        return text.toString();
+    }
+
+    private static void skipElement(final XMLEventReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Input is read without namespace processing (like the DOM parsing before) so names are what's in the document
+     * for example "gml:featureMember" and undeclared prefixes in WPS responses don't fail the parsing.
+     */
+    private static String getName(final QName name) {
+        if (name.getPrefix() == null || name.getPrefix().isEmpty()) {
+            return name.getLocalPart();
+        }
+        return name.getPrefix() + ":" + name.getLocalPart();
+    }
+
+    private static void close(final XMLEventReader reader, final XMLStreamWriter writer) {
         try {
-            StringWriter sw = new StringWriter();
-            Transformer t = TransformerFactory.newInstance().newTransformer();
-            t.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            t.setOutputProperty(OutputKeys.INDENT, "yes");
-            t.transform(new DOMSource(node), new StreamResult(sw));
-            return sw.toString();
-        } catch (Exception ex) {
-            throw new ServiceException("Unable to write XML node to string");
+            if (reader != null) {
+                reader.close();
+            }
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (XMLStreamException ignored) {
         }
     }
+
+    private static XMLInputFactory createInputFactory() {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Column mapping of the analysis_data fields, collected while features are written
+     */
+    private static class WfstFields {
+        private final List<String> fields;
+        private final Map<String, String> fieldTypes;
+        private final String prefix;
+        private final Set<String> geomcols = new HashSet<String>();
+        private final List<String> cols = new ArrayList<String>();
+        private int ncount = 1;
+        private int tcount = 1;
+
+        WfstFields(List<String> fields, Map<String, String> fieldTypes, String ns_prefix, String geometryProperty) {
+            this.fields = fields;
+            this.fieldTypes = fieldTypes;
+            this.prefix = ns_prefix + ":";
+            geomcols.add(ns_prefix + ":" + geometryProperty);
+            geomcols.add(ns_prefix + ":geometry");  //  default geometry
+        }
+
+        void map(final String col, final boolean numeric) {
+            if (cols.contains(col)) {
+                return;
+            }
+            cols.add(col);
+            if (numeric) {
+                fields.add("n" + Integer.toString(ncount) + "=" + col);
+                ncount++;
+            } else {
+                fields.add("t" + Integer.toString(tcount) + "=" + col);
+                tcount++;
+            }
+        }
+    }
+
     private Document createDoc(final String content) throws ServiceException {
         try {
             final DocumentBuilderFactory dbf = DocumentBuilderFactory
@@ -184,9 +396,9 @@ public class TransformationService {
         return splitted[0];
     }
 
-    private boolean isHiddenField(Node feature)
+    private boolean isHiddenField(String name)
     {
-        String[] acol = feature.getNodeName().split(":");
+        String[] acol = name.split(":");
         if (acol.length > 1) return HIDDEN_FIELDS.contains(acol[1]);
 
         return false;
@@ -402,32 +614,4 @@ public class TransformationService {
             return null;
         }
     }
-    public void buildWfsInsertElement(StringBuilder sb, Node geometry, String geomcol, List<String> textFeatures, List<Double> numericFeatures, String uuid, long analysis_id ) throws ServiceException
-    {
-    // build wfs:Insert element
-    sb.append(WFSTINSERTSTART);
-    // add geometry node
-    sb.append(nodeToString(geometry).replace(geomcol,
-                                             "feature:geometry"));
-    // add text feature nodes (1-based)
-    for (int j = 0; j < textFeatures.size(); j++) {
-        sb
-                .append("         <feature:t" + (j + 1) + ">"
-                        + textFeatures.get(j) + "</feature:t" + (j + 1)
-                        + ">\n");
-    }
-    // add numeric feature nodes (1-based)
-    for (int j = 0; j < numericFeatures.size(); j++) {
-        sb.append("         <feature:n" + (j + 1) + ">"
-                + numericFeatures.get(j) + "</feature:n" + (j + 1)
-                + ">\n");
-    }
-
-    sb.append("         <feature:analysis_id>"
-            + Long.toString(analysis_id) + "</feature:analysis_id>\n");
-
-    sb.append("         <feature:uuid>" + uuid + "</feature:uuid>\n");
-
-    sb.append(WFSTINSERTEND);
-    }
 }
@@ -0,0 +1,281 @@
+package fi.nls.oskari.map.geometry;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache for decoded coordinate reference systems and the transforms between them.
+ * Decoding goes through the EPSG authority lookup and finding a transform builds the operation chain
+ * so both are done once per code/axis order and CRS pair instead of per request or per feature.
+ *
+ * Use decode() and findMathTransform() like the CRS methods of GeoTools, they throw the same exceptions.
+ * Both the CRS objects and the transforms are immutable and safe to share between threads.
+ *
+ * Projections listed in properties are decoded on startup (see warmUp()):
+ * - oskari.native.srs=EPSG:3067
+ * - oskari.supported.srs=EPSG:4326,EPSG:3857
+ * - oskari.crs.cache.transforms.max=1000 max number of cached transforms
+ */
+public class CRSCache {
+
+    private static final Logger log = LogFactory.getLogger(CRSCache.class);
+
+    public static final String PROPERTY_NATIVE_SRS = "oskari.native.srs";
+    public static final String PROPERTY_SUPPORTED_SRS = "oskari.supported.srs";
+
+    // transforms for CRSs parsed from user data (shapefile .prj etc) are not worth keeping forever
+    private static final int MAX_TRANSFORMS = PropertyUtil.getOptional("oskari.crs.cache.transforms.max", 1000);
+
+    private static final Map<CRSKey, CoordinateReferenceSystem> crsCache = new ConcurrentHashMap<>();
+    private static final Map<TransformKey, MathTransform> transformCache = new ConcurrentHashMap<>();
+
+    private static final AtomicLong crsHits = new AtomicLong();
+    private static final AtomicLong crsMisses = new AtomicLong();
+    private static final AtomicLong transformHits = new AtomicLong();
+    private static final AtomicLong transformMisses = new AtomicLong();
+
+    private CRSCache() {}
+
+    /**
+     * Same as CRS.decode(srs)
+     *
+     * @param srs for example "EPSG:3067"
+     * @return CRS with the axis order of the authority
+     */
+    public static CoordinateReferenceSystem decode(final String srs) throws FactoryException {
+        return decode(srs, false);
+    }
+
+    /**
+     * Same as CRS.decode(srs, longitudeFirst)
+     *
+     * @param srs for example "EPSG:4326"
+     * @param longitudeFirst true to force x/east axis first
+     * @return CRS
+     */
+    public static CoordinateReferenceSystem decode(final String srs, final boolean longitudeFirst) throws FactoryException {
+        if (srs == null) {
+            throw new FactoryException("SRS is null");
+        }
+        final CRSKey key = new CRSKey(srs, longitudeFirst);
+        CoordinateReferenceSystem crs = crsCache.get(key);
+        if (crs != null) {
+            crsHits.incrementAndGet();
+            return crs;
+        }
+        crsMisses.incrementAndGet();
+        // failed lookups aren't cached so the exception is thrown every time like with CRS.decode()
+        crs = CRS.decode(srs, longitudeFirst);
+        final CoordinateReferenceSystem existing = crsCache.putIfAbsent(key, crs);
+        return existing != null ? existing : crs;
+    }
+
+    /**
+     * Same as CRS.findMathTransform(source, target, lenient)
+     *
+     * @param source
+     * @param target
+     * @param lenient true to allow transforms without datum shift information
+     * @return transform from source to target
+     */
+    public static MathTransform findMathTransform(final CoordinateReferenceSystem source,
+                                                  final CoordinateReferenceSystem target,
+                                                  final boolean lenient) throws FactoryException {
+        if (source == null || target == null) {
+            throw new FactoryException("Source and target CRS are required");
+        }
+        final TransformKey key = new TransformKey(source, target, lenient);
+        MathTransform transform = transformCache.get(key);
+        if (transform != null) {
+            transformHits.incrementAndGet();
+            return transform;
+        }
+        transformMisses.incrementAndGet();
+        transform = CRS.findMathTransform(source, target, lenient);
+        if (transformCache.size() < MAX_TRANSFORMS) {
+            final MathTransform existing = transformCache.putIfAbsent(key, transform);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return transform;
+    }
+
+    /**
+     * Transform between projection codes with the x/east axis first in both
+     *
+     * @param sourceSRS
+     * @param targetSRS
+     * @param lenient
+     * @return transform from source to target
+     */
+    public static MathTransform findMathTransform(final String sourceSRS, final String targetSRS,
+                                                  final boolean lenient) throws FactoryException {
+        return findMathTransform(decode(sourceSRS, true), decode(targetSRS, true), lenient);
+    }
+
+    /**
+     * Decodes the native and supported projections in both axis orders and finds the transforms between
+     * them so the first requests don't pay for the EPSG lookups. Failures are logged and skipped.
+     */
+    public static void warmUp() {
+        final Set<String> codes = getConfiguredSRS();
+        warmUp(codes.toArray(new String[codes.size()]));
+    }
+
+    /**
+     * @return native projection followed by the supported projections configured in properties
+     */
+    public static Set<String> getConfiguredSRS() {
+        final Set<String> codes = new LinkedHashSet<>();
+        final String nativeSrs = PropertyUtil.getOptional(PROPERTY_NATIVE_SRS);
+        if (nativeSrs != null && !nativeSrs.trim().isEmpty()) {
+            codes.add(nativeSrs.trim());
+        }
+        for (String srs : PropertyUtil.getCommaSeparatedList(PROPERTY_SUPPORTED_SRS)) {
+            if (!srs.trim().isEmpty()) {
+                codes.add(srs.trim());
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * Decodes the given projections in both axis orders and finds the transforms between them
+     *
+     * @param codes for example "EPSG:3067", "EPSG:4326"
+     */
+    public static void warmUp(final String... codes) {
+        final long start = System.currentTimeMillis();
+        final Set<String> decoded = new LinkedHashSet<>();
+        for (String srs : codes) {
+            try {
+                decode(srs, false);
+                decode(srs, true);
+                decoded.add(srs);
+            } catch (Exception e) {
+                log.warn("Couldn't decode CRS on startup:", srs, "-", e.getMessage());
+            }
+        }
+        for (String source : decoded) {
+            for (String target : decoded) {
+                if (source.equals(target)) {
+                    continue;
+                }
+                for (boolean lenient : new boolean[] {true, false}) {
+                    try {
+                        findMathTransform(source, target, lenient);
+                    } catch (Exception e) {
+                        log.debug("Couldn't find transform from", source, "to", target, "lenient:", lenient,
+                                "-", e.getMessage());
+                    }
+                }
+            }
+        }
+        log.info("Decoded projections", decoded, "in", System.currentTimeMillis() - start, "ms");
+    }
+
+    public static long getCRSHitCount() {
+        return crsHits.get();
+    }
+
+    public static long getCRSMissCount() {
+        return crsMisses.get();
+    }
+
+    public static long getTransformHitCount() {
+        return transformHits.get();
+    }
+
+    public static long getTransformMissCount() {
+        return transformMisses.get();
+    }
+
+    public static int getCRSCacheSize() {
+        return crsCache.size();
+    }
+
+    public static int getTransformCacheSize() {
+        return transformCache.size();
+    }
+
+    /**
+     * Empties the cache and resets counters
+     */
+    public static void clear() {
+        crsCache.clear();
+        transformCache.clear();
+        crsHits.set(0);
+        crsMisses.set(0);
+        transformHits.set(0);
+        transformMisses.set(0);
+    }
+
+    private static class CRSKey {
+        private final String srs;
+        private final boolean longitudeFirst;
+
+        CRSKey(String srs, boolean longitudeFirst) {
+            this.srs = srs;
+            this.longitudeFirst = longitudeFirst;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CRSKey)) {
+                return false;
+            }
+            final CRSKey other = (CRSKey) o;
+            return longitudeFirst == other.longitudeFirst && srs.equals(other.srs);
+        }
+
+        @Override
+        public int hashCode() {
+            return srs.hashCode() * 2 + (longitudeFirst ? 1 : 0);
+        }
+    }
+
+    /**
+     * CRSs from the cache are the same instances so equals() is usually an identity check
+     */
+    private static class TransformKey {
+        private final CoordinateReferenceSystem source;
+        private final CoordinateReferenceSystem target;
+        private final boolean lenient;
+        private final int hash;
+
+        TransformKey(CoordinateReferenceSystem source, CoordinateReferenceSystem target, boolean lenient) {
+            this.source = source;
+            this.target = target;
+            this.lenient = lenient;
+            this.hash = (source.hashCode() * 31 + target.hashCode()) * 2 + (lenient ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TransformKey)) {
+                return false;
+            }
+            final TransformKey other = (TransformKey) o;
+            return lenient == other.lenient
+                    && (source == other.source || source.equals(other.source))
+                    && (target == other.target || target.equals(other.target));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
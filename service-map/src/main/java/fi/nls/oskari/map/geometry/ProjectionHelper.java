@@ -41,8 +41,8 @@ public class ProjectionHelper implements PointTransformer {
     public static Point transformPoint(final Point point, final String sourceSRS, final String targetSRS) {
         try {
             // use always lon coordinate 1st order
-            CoordinateReferenceSystem sourceCrs = CRS.decode(sourceSRS, true);
-            CoordinateReferenceSystem targetCrs = CRS.decode(targetSRS, true);
+            CoordinateReferenceSystem sourceCrs = CRSCache.decode(sourceSRS, true);
+            CoordinateReferenceSystem targetCrs = CRSCache.decode(targetSRS, true);
             return transformPoint(point, sourceCrs, targetCrs);
 
         } catch (Exception e) {
@@ -65,7 +65,7 @@ public class ProjectionHelper implements PointTransformer {
     public static Point transformPoint(final double lon, final double lat, final CoordinateReferenceSystem sourceCrs, final String targetSRS) {
         try {
             // use always lon coordinate 1st order
-            CoordinateReferenceSystem targetCrs = CRS.decode(targetSRS, true);
+            CoordinateReferenceSystem targetCrs = CRSCache.decode(targetSRS, true);
             return transformPoint(new Point(lon, lat), sourceCrs, targetCrs);
 
         } catch (Exception e) {
@@ -97,7 +97,7 @@ public class ProjectionHelper implements PointTransformer {
             // When using a CoordinateReferenceSystem that has been parsed from WKT you will often need to “relax” the accuracy
             // by setting the lenient parameter to true when searching with findMathTransform.
             boolean lenient = false;
-            MathTransform mathTransform = CRS.findMathTransform(sourceCrs, targetCrs, lenient);
+            MathTransform mathTransform = CRSCache.findMathTransform(sourceCrs, targetCrs, lenient);
             DirectPosition2D srcDirectPosition2D = new DirectPosition2D(sourceCrs, point.getLon(), point.getLat());
             // Just in case that sourceCrs axis order is not forced as lon 1st
             if (isFirstAxisNorth(sourceCrs)) {
@@ -135,7 +135,7 @@ public class ProjectionHelper implements PointTransformer {
             return null;
         }
         try {
-            CoordinateReferenceSystem sourceCRS = CRS.decode(crs);
+            CoordinateReferenceSystem sourceCRS = CRSCache.decode(crs);
             crs = CRS.lookupIdentifier(sourceCRS, true);
             return crs;
         } catch (Exception e) {
@@ -182,7 +182,7 @@ public class ProjectionHelper implements PointTransformer {
             return null;
         }
         try {
-            return CRS.decode(longSyntaxEpsg(crs), true);
+            return CRSCache.decode(longSyntaxEpsg(crs), true);
         } catch (Exception e) {
             log.debug("EPSG geotools crs decoding failed - long crs name", e);
         }
@@ -213,9 +213,9 @@ public class ProjectionHelper implements PointTransformer {
      */
     public static JSONObject transformGeometry(JSONObject geometry, final String sourceSRS, final String targetSRS, boolean sourceLon1st, boolean targetLon1st) {
         try {
-            CoordinateReferenceSystem sourceCRS = CRS.decode(sourceSRS, sourceLon1st);
-            CoordinateReferenceSystem targetCRS = CRS.decode(targetSRS, targetLon1st);
-            MathTransform transform = CRS.findMathTransform(sourceCRS, targetCRS, true);
+            CoordinateReferenceSystem sourceCRS = CRSCache.decode(sourceSRS, sourceLon1st);
+            CoordinateReferenceSystem targetCRS = CRSCache.decode(targetSRS, targetLon1st);
+            MathTransform transform = CRSCache.findMathTransform(sourceCRS, targetCRS, true);
             // Bug in geotools --> it put geojson srid value as z-value into coordinates
             // Workaround remove srid in geojson
             if(geometry.has("srid")){
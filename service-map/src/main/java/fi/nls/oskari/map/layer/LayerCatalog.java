@@ -0,0 +1,164 @@
+package fi.nls.oskari.map.layer;
+
+import fi.nls.oskari.domain.map.InspireTheme;
+import fi.nls.oskari.domain.map.LayerGroup;
+import fi.nls.oskari.domain.map.OskariLayer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Immutable snapshot of the map layer catalog: the layer rows as returned by the findAll SQL,
+ * inspire theme links, supported projections for each layer and the layer groups and inspire themes
+ * referenced by the layers. Loaded with a few bulk queries so listing all layers doesn't need queries per layer.
+ *
+ * The layer tree built from the rows is kept per projection so it's only built once per snapshot.
+ * The OskariLayer objects in the tree are shared between callers and must not be modified.
+ */
+public class LayerCatalog {
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_SRS = "srs_name";
+
+    private final List<Map<String, Object>> layers;
+    private final Map<Integer, List<Integer>> themeLinks;
+    private final Map<Integer, Set<String>> projections;
+    private final Map<Integer, LayerGroup> groups = new HashMap<>();
+    private final Map<Integer, InspireTheme> themes = new HashMap<>();
+    // key is the projection, empty string when layers are listed without one
+    private final Map<String, List<OskariLayer>> trees = new ConcurrentHashMap<>();
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * @param layers layer rows ordered so that parents are listed before sublayers
+     * @param themeLinks rows with keys maplayerid and themeid
+     * @param projections rows with keys maplayerid and name
+     */
+    public LayerCatalog(List<Map<String, Object>> layers,
+                        List<Map<String, Object>> themeLinks,
+                        List<Map<String, Object>> projections) {
+        this(layers, themeLinks, projections,
+                Collections.<LayerGroup>emptyList(), Collections.<InspireTheme>emptyList());
+    }
+
+    /**
+     * @param layers layer rows ordered so that parents are listed before sublayers
+     * @param themeLinks rows with keys maplayerid and themeid
+     * @param projections rows with keys maplayerid and name
+     * @param groups all layer groups
+     * @param themes all inspire themes
+     */
+    public LayerCatalog(List<Map<String, Object>> layers,
+                        List<Map<String, Object>> themeLinks,
+                        List<Map<String, Object>> projections,
+                        Collection<LayerGroup> groups,
+                        Collection<InspireTheme> themes) {
+        final List<Map<String, Object>> rows = new ArrayList<>(layers.size());
+        for (Map<String, Object> layer : layers) {
+            rows.add(Collections.unmodifiableMap(caseInsensitive(layer)));
+        }
+        this.layers = Collections.unmodifiableList(rows);
+
+        final Map<Integer, List<Integer>> links = new HashMap<>();
+        for (Map<String, Object> link : themeLinks) {
+            final Map<String, Object> row = caseInsensitive(link);
+            links.computeIfAbsent((Integer) row.get("maplayerid"), k -> new ArrayList<>())
+                    .add((Integer) row.get("themeid"));
+        }
+        this.themeLinks = links;
+
+        final Map<Integer, Set<String>> crs = new HashMap<>();
+        for (Map<String, Object> projection : projections) {
+            final Map<String, Object> row = caseInsensitive(projection);
+            crs.computeIfAbsent((Integer) row.get("maplayerid"), k -> new HashSet<>())
+                    .add((String) row.get("name"));
+        }
+        this.projections = crs;
+
+        for (LayerGroup group : groups) {
+            this.groups.put(group.getId(), group);
+        }
+        for (InspireTheme theme : themes) {
+            this.themes.put(theme.getId(), theme);
+        }
+    }
+
+    /**
+     * @param maxAge milliseconds
+     * @return true if the snapshot is older than maxAge
+     */
+    public boolean isExpired(long maxAge) {
+        return System.currentTimeMillis() - created > maxAge;
+    }
+
+    public int getSize() {
+        return layers.size();
+    }
+
+    /**
+     * Returns layer rows in the same order and format as the findAll SQL.
+     * @param crs when given only layers supporting the projection are returned and their srs_name is set to crs
+     * @return unmodifiable layer rows
+     */
+    public List<Map<String, Object>> getLayers(String crs) {
+        if (crs == null) {
+            return layers;
+        }
+        final List<Map<String, Object>> result = new ArrayList<>();
+        for (Map<String, Object> layer : layers) {
+            final Set<String> supported = projections.get(layer.get(KEY_ID));
+            if (supported == null || !supported.contains(crs)) {
+                continue;
+            }
+            final Map<String, Object> row = caseInsensitive(layer);
+            row.put(KEY_SRS, crs);
+            result.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * @return ids of inspire themes linked to the layer, empty list if none
+     */
+    public List<Integer> getThemeIds(int layerId) {
+        final List<Integer> ids = themeLinks.get(layerId);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * @return layer group with the id or null if it wasn't loaded with the snapshot
+     */
+    public LayerGroup getGroup(int id) {
+        return groups.get(id);
+    }
+
+    /**
+     * @return inspire theme with the id or null if it wasn't loaded with the snapshot
+     */
+    public InspireTheme getTheme(int id) {
+        return themes.get(id);
+    }
+
+    /**
+     * Returns the layer tree for the projection, building it from getLayers(crs) on first call.
+     * @param crs projection or null for all layers
+     * @param builder maps layer rows to top level layers with sublayers attached
+     * @return new list of the shared layer objects
+     */
+    public List<OskariLayer> getTree(final String crs, final Function<List<Map<String, Object>>, List<OskariLayer>> builder) {
+        final List<OskariLayer> tree = trees.computeIfAbsent(crs == null ? "" : crs,
+                key -> Collections.unmodifiableList(builder.apply(getLayers(crs))));
+        return new ArrayList<>(tree);
+    }
+
+    // this will make the keys case insensitive (needed for hsqldb compatibility...)
+    private static Map<String, Object> caseInsensitive(Map<String, Object> data) {
+        final Map<String, Object> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        result.putAll(data);
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+package fi.nls.oskari.map.layer;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
+import fi.nls.oskari.map.geometry.WKTHelper;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coverage geometries of layers (WKT in EPSG:4326 from the metadata table) transformed to map projections.
+ * Coverages are transformed when a layer is saved or its coverage is updated for the projections configured
+ * with oskari.native.srs and oskari.supported.srs so listing layers doesn't need to parse or transform WKT.
+ * Other projections are transformed on first use.
+ *
+ * Each entry remembers the WKT it was transformed from so coverages updated on another node are
+ * transformed again instead of serving the old one.
+ *
+ * Coverages can be simplified with layer.coverage.simplify=[tolerance as a fraction of the coverage size],
+ * for example 0.001. Defaults to 0 (not simplified).
+ */
+public class LayerCoverageCache {
+
+    private static final Logger log = LogFactory.getLogger(LayerCoverageCache.class);
+
+    private static final double SIMPLIFY = PropertyUtil.getOptional("layer.coverage.simplify", 0d);
+
+    private static final Map<String, Map<String, Coverage>> coverages = new ConcurrentHashMap<>();
+
+    private static class Coverage {
+        final String source;
+        final String wkt;
+
+        Coverage(String source, String wkt) {
+            this.source = source;
+            this.wkt = wkt;
+        }
+    }
+
+    private LayerCoverageCache() {}
+
+    /**
+     * @param layerId id of the layer
+     * @param wkt     coverage in EPSG:4326
+     * @param srs     map projection
+     * @return coverage in the map projection or null if it can't be transformed
+     */
+    public static String getCoverage(final String layerId, final String wkt, final String srs) {
+        if (wkt == null || wkt.isEmpty() || srs == null || srs.isEmpty()) {
+            return null;
+        }
+        final Map<String, Coverage> layerCoverages = coverages.computeIfAbsent(layerId, k -> new ConcurrentHashMap<>());
+        Coverage coverage = layerCoverages.get(srs);
+        if (coverage != null && (coverage.source == wkt || coverage.source.equals(wkt))) {
+            return coverage.wkt;
+        }
+        final String transformed = transform(wkt, srs);
+        // failures aren't cached so unknown projections requested by clients don't pile up
+        if (transformed != null) {
+            layerCoverages.put(srs, new Coverage(wkt, transformed));
+        }
+        return transformed;
+    }
+
+    /**
+     * Transforms the coverage of the layer to the configured projections and the projection of the layer
+     *
+     * @param layer saved layer with the coverage from the database
+     */
+    public static void precompute(final OskariLayer layer) {
+        if (layer == null) {
+            return;
+        }
+        final Set<String> projections = new LinkedHashSet<>(CRSCache.getConfiguredSRS());
+        if (layer.getSrs_name() != null) {
+            projections.add(layer.getSrs_name());
+        }
+        precompute(Integer.toString(layer.getId()), layer.getGeometry(), projections);
+    }
+
+    /**
+     * Replaces the cached coverages of the layer with the given coverage transformed to the projections
+     *
+     * @param layerId     id of the layer
+     * @param wkt         coverage in EPSG:4326
+     * @param projections map projections to transform to
+     */
+    public static void precompute(final String layerId, final String wkt, final Set<String> projections) {
+        remove(layerId);
+        if (wkt == null || wkt.isEmpty()) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        for (String srs : projections) {
+            getCoverage(layerId, wkt, srs);
+        }
+        log.debug("Transformed coverage of layer", layerId, "to", projections, "in",
+                System.currentTimeMillis() - start, "ms");
+    }
+
+    /**
+     * Drops the cached coverages of a layer
+     *
+     * @param layerId id of the layer
+     */
+    public static void remove(final String layerId) {
+        coverages.remove(layerId);
+    }
+
+    static String transform(final String wkt, final String srs) {
+        final Geometry geom = WKTHelper.parseWKT(wkt);
+        if (geom == null) {
+            return null;
+        }
+        // input axis orientation is / must be x=lon y=lat
+        Geometry transformed = WKTHelper.transform(geom, WKTHelper.CRS_EPSG_4326, WKTHelper.getCRS(srs));
+        if (transformed == null) {
+            return null;
+        }
+        if (SIMPLIFY > 0) {
+            final Envelope env = transformed.getEnvelopeInternal();
+            final double tolerance = Math.max(env.getWidth(), env.getHeight()) * SIMPLIFY;
+            transformed = TopologyPreservingSimplifier.simplify(transformed, tolerance);
+        }
+        // output is x=lon y=lat always in every projection
+        return WKTHelper.getWKT(transformed);
+    }
+}
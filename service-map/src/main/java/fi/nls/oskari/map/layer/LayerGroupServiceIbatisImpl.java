@@ -93,10 +93,12 @@ public class LayerGroupServiceIbatisImpl extends BaseIbatisService<LayerGroup> i
     public void delete(int id) {
         ID_CACHE.remove(id);
         super.delete(id);
+        OskariLayerServiceIbatisImpl.invalidateCatalog();
     }
 
     public void update(final LayerGroup group) {
         ID_CACHE.put(group.getId(), group);
         super.update(group);
+        OskariLayerServiceIbatisImpl.invalidateCatalog();
     }
 }
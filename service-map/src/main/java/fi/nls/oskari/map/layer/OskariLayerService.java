@@ -11,6 +11,10 @@ public abstract class OskariLayerService extends OskariComponent {
     public abstract OskariLayer find(int id);
     public abstract OskariLayer find(final String idStr);
     public abstract List<OskariLayer> find(final List<String> idList, final String crs);
+    /**
+     * The returned layers may be shared with other callers and must not be modified.
+     * Use find(id) to get a layer for modification.
+     */
     public abstract List<OskariLayer> findAll();
     public abstract List<OskariLayer> findAll(final String crs);
     public abstract List<OskariLayer> findByUrlAndName(final String url, final String name);
@@ -7,6 +7,7 @@ import fi.mml.map.mapwindow.service.db.InspireThemeService;
 import fi.mml.map.mapwindow.service.db.InspireThemeServiceIbatisImpl;
 import fi.mml.map.mapwindow.util.OskariLayerWorker;
 import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.domain.map.InspireTheme;
 import fi.nls.oskari.domain.map.LayerGroup;
 import fi.nls.oskari.domain.map.OskariLayer;
@@ -40,6 +41,16 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
     private static LayerGroupService layerGroupService = new LayerGroupServiceIbatisImpl();
     private static InspireThemeService inspireThemeService = new InspireThemeServiceIbatisImpl();
 
+    // snapshot of all layers used by findAll(), reloaded after max age to pick up changes made on other nodes
+    public static final String PROPERTY_CATALOG_ENABLED = "layer.catalog.enabled";
+    public static final String PROPERTY_CATALOG_MAX_AGE = "layer.catalog.maxAge";
+    private static final boolean CATALOG_ENABLED = PropertyUtil.getOptional(PROPERTY_CATALOG_ENABLED, true);
+    private static final long CATALOG_MAX_AGE = PropertyUtil.getOptional(PROPERTY_CATALOG_MAX_AGE, 300) * 1000L;
+    private static volatile LayerCatalog catalog;
+    // published when the catalog is invalidated so other nodes drop their snapshots as well
+    public static final String CATALOG_INVALIDATION_KEY = "OskariLayer.catalog";
+    private static boolean catalogListenerAdded = false;
+
     // map different layer types
     private static Map<String, Class<OskariLayer>> typeMapping =
             Collections.singletonMap(OskariLayer.TYPE_WMS, OskariLayer.class);
@@ -109,6 +120,14 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
     }
 
     private OskariLayer mapData(Map<String, Object> data) {
+        return mapData(data, null);
+    }
+
+    /**
+     * @param catalog when given layer groups and inspire themes are read from the catalog instead of
+     *                layerGroupService and inspireThemeService
+     */
+    private OskariLayer mapData(Map<String, Object> data, final LayerCatalog catalog) {
         if(data == null) {
             return null;
         }
@@ -181,7 +200,7 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
                 try {
                     // populate layer group
                     // first run (~700 layers) with this lasts ~1800ms, second run ~300ms (cached)
-                    final LayerGroup group = layerGroupService.find(result.getGroupId());
+                    final LayerGroup group = getGroup(catalog, result.getGroupId());
                     result.addGroup(group);
                 } catch (Exception ex) {
                     LOG.error("Couldn't get organisation for layer", result.getId());
@@ -193,7 +212,8 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
             // without it getting themes makes the query 10 x slower
             // populate inspirethemes
             try {
-                final List<InspireTheme> themes = inspireThemeService.findByMaplayerId(result.getId());
+                final List<InspireTheme> themes = catalog == null ?
+                        inspireThemeService.findByMaplayerId(result.getId()) : getThemes(catalog, result.getId());
                 result.addInspireThemes(themes);
             } catch (Exception ex) {
                 LOG.error("Couldn't get inspirethemes for layer", result.getId());
@@ -204,11 +224,37 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
         return result;
     }
 
+    private LayerGroup getGroup(final LayerCatalog catalog, final int groupId) {
+        final LayerGroup group = catalog == null ? null : catalog.getGroup(groupId);
+        if(group != null) {
+            return group;
+        }
+        return layerGroupService.find(groupId);
+    }
+
+    private List<InspireTheme> getThemes(final LayerCatalog catalog, final int layerId) {
+        final List<InspireTheme> themes = new ArrayList<>();
+        for(Integer id : catalog.getThemeIds(layerId)) {
+            InspireTheme theme = catalog.getTheme(id);
+            if(theme == null) {
+                theme = inspireThemeService.find(id);
+            }
+            if(theme != null) {
+                themes.add(theme);
+            }
+        }
+        return themes;
+    }
+
     private List<OskariLayer> mapDataList(final List<Map<String,Object>> list) {
+        return mapDataList(list, null);
+    }
+
+    private List<OskariLayer> mapDataList(final List<Map<String,Object>> list, final LayerCatalog catalog) {
         final List<OskariLayer> layers = new ArrayList<OskariLayer>();
         final Map<Integer, OskariLayer> collections = new HashMap<Integer, OskariLayer>(20);
         for(Map<String, Object> map : list) {
-            final OskariLayer layer = mapData(map);
+            final OskariLayer layer = mapData(map, catalog);
             if(layer != null) {
                 // collect parents so we can map sublayers more easily
                 if(layer.isCollection()) {
@@ -327,6 +373,12 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
     public List<OskariLayer> findAll(String crs) {
         long start = System.currentTimeMillis();
         String crsIn = crsSupported ? crs : null;
+        final LayerCatalog snapshot = getCatalog();
+        if(snapshot != null) {
+            final List<OskariLayer> layers = snapshot.getTree(crsIn, rows -> mapDataList(rows, snapshot));
+            LOG.debug("Listing all layers from catalog:", System.currentTimeMillis() - start, "ms");
+            return layers;
+        }
         List<Map<String,Object>> result = queryForList(getNameSpace() + ".findAll", crsIn);
         LOG.debug("Find all layers:", System.currentTimeMillis() - start, "ms");
         start = System.currentTimeMillis();
@@ -339,6 +391,62 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
        return this.findAll(null);
     }
 
+    /**
+     * Returns the layer catalog snapshot, loading it if it hasn't been loaded or has expired.
+     * @return null if the catalog is disabled or couldn't be loaded
+     */
+    private LayerCatalog getCatalog() {
+        if(!CATALOG_ENABLED) {
+            return null;
+        }
+        LayerCatalog current = catalog;
+        if(current != null && !current.isExpired(CATALOG_MAX_AGE)) {
+            return current;
+        }
+        synchronized (OskariLayerServiceIbatisImpl.class) {
+            if(!catalogListenerAdded) {
+                JedisNearCache.addInvalidationListener(OskariLayerServiceIbatisImpl::onInvalidation);
+                catalogListenerAdded = true;
+            }
+            current = catalog;
+            if(current != null && !current.isExpired(CATALOG_MAX_AGE)) {
+                return current;
+            }
+            try {
+                final long start = System.currentTimeMillis();
+                final SqlMapClient sqlClient = getSqlMapClient();
+                current = new LayerCatalog(
+                        sqlClient.queryForList(getNameSpace() + ".findAll", null),
+                        sqlClient.queryForList(getNameSpace() + ".findAllThemeLinks"),
+                        sqlClient.queryForList(getNameSpace() + ".findAllProjections"),
+                        layerGroupService.findAll(),
+                        inspireThemeService.findAll());
+                catalog = current;
+                LOG.debug("Loaded layer catalog with", current.getSize(), "layers:",
+                        System.currentTimeMillis() - start, "ms");
+                return current;
+            } catch (Exception e) {
+                LOG.error(e, "Couldn't load layer catalog");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the layer catalog snapshot on all nodes so the next findAll() reloads it. Call after modifying layers,
+     * their inspire theme links or supported projections, layer groups or inspire themes.
+     */
+    public static void invalidateCatalog() {
+        catalog = null;
+        JedisNearCache.publishInvalidation(CATALOG_INVALIDATION_KEY);
+    }
+
+    private static void onInvalidation(final String key) {
+        if(CATALOG_INVALIDATION_KEY.equals(key) || JedisNearCache.WILDCARD.equals(key)) {
+            catalog = null;
+        }
+    }
+
     public void update(final OskariLayer layer) {
         try {
             getSqlMapClient().update(getNameSpace() + ".update", layer);
@@ -346,7 +454,10 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
             inspireThemeService.updateLayerThemes(layer.getId(), layer.getInspireThemes());
         } catch (Exception e) {
             throw new RuntimeException("Failed to update", e);
+        } finally {
+            invalidateCatalog();
         }
+        updateCoverage(layer.getId());
     }
 
     public synchronized int insert(final OskariLayer layer) {
@@ -361,10 +472,12 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
             client.commitTransaction();
             // link to inspire theme(s)
             inspireThemeService.updateLayerThemes(id, layer.getInspireThemes());
+            updateCoverage(id);
             return id;
         } catch (Exception e) {
             throw new RuntimeException("Failed to insert", e);
         } finally {
+            invalidateCatalog();
             if (client != null) {
                 try {
                     client.endTransaction();
@@ -378,6 +491,23 @@ public class OskariLayerServiceIbatisImpl extends OskariLayerService {
             client.delete(getNameSpace() + ".delete", id);
         } catch (Exception e) {
             LOG.error(e, "Couldn't delete with id:", id);
+        } finally {
+            invalidateCatalog();
+            LayerCoverageCache.remove(Integer.toString(id));
+        }
+    }
+
+    /**
+     * Transforms the coverage of a saved layer to map projections so layer listings don't need to.
+     * The coverage is read from the database since it's joined from the metadata table.
+     *
+     * @param id layer id
+     */
+    private void updateCoverage(final int id) {
+        try {
+            LayerCoverageCache.precompute(find(id));
+        } catch (Exception e) {
+            LOG.warn(e, "Couldn't transform coverage for layer:", id);
         }
     }
 
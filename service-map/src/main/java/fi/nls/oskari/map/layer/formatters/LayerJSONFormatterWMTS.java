@@ -29,11 +29,12 @@ public class LayerJSONFormatterWMTS extends LayerJSONFormatter {
         final JSONObject layerJson = getBaseJSON(layer, lang, isSecure);
 
         // Use capabities in 1st hand for to get matrix id
+        // layers listed from the layer catalog are shared so they aren't modified here
         String mid = LayerJSONFormatterWMTS.getTileMatrixSetId(layer.getCapabilities(), layer.getSrs_name());
-        if(mid != null){
-            layer.setTileMatrixSetId(mid);
+        if(mid == null){
+            mid = layer.getTileMatrixSetId();
         }
-        JSONHelper.putValue(layerJson, "tileMatrixSetId", layer.getTileMatrixSetId());
+        JSONHelper.putValue(layerJson, "tileMatrixSetId", mid);
 
         // TODO: parse tileMatrixSetData for styles and set default style name from the one where isDefault = true
         String styleName = layer.getStyle();
@@ -57,11 +58,10 @@ public class LayerJSONFormatterWMTS extends LayerJSONFormatter {
                 options.remove("requestEncoding");
             } else {
                 // setup tileURL for REST layers
-                final String originalUrl = layer.getUrl();
-                layer.setUrl(urlTemplate);
-                JSONHelper.putValue(layerJson, "tileUrl", layer.getUrl(isSecure));
-                // switch back the original url in case it's used down the line
-                layer.setUrl(originalUrl);
+                final OskariLayer restLayer = new OskariLayer();
+                restLayer.setId(layer.getId());
+                restLayer.setUrl(urlTemplate);
+                JSONHelper.putValue(layerJson, "tileUrl", restLayer.getUrl(isSecure));
             }
         }
         return layerJson;
@@ -1,15 +1,78 @@
 package fi.nls.oskari.map.userlayer.domain;
 
 
+import fi.nls.oskari.util.JSONHelper;
+import org.geotools.geojson.feature.FeatureJSON;
+import org.geotools.geojson.geom.GeometryJSON;
+import org.json.JSONArray;
 import org.json.JSONObject;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.FeatureType;
 
+import java.io.File;
+import java.io.IOException;
+
 public abstract class  GeoJsonCollection {
 
+    static final int GJSON_DECIMALS = 10;
 
    private JSONObject geoJson = null;
    private String typeName = "";
    private FeatureType featureType = null;
+   private final FeatureJSON io = new FeatureJSON(new GeometryJSON(GJSON_DECIMALS));
+
+    /**
+     * Receives the features read from the import file one by one, already transformed to the target CRS.
+     * Feature type and type name have been set when the first feature is handled.
+     */
+    public interface FeatureHandler {
+        /**
+         * @param feature next feature from the import file
+         * @return false to stop reading the file
+         */
+        boolean handle(SimpleFeature feature) throws Exception;
+    }
+
+    /**
+     * Reads the import file and passes the features to the handler as they are read
+     * @param file        import file
+     * @param source_epsg source CRS (is used, if crs in not available in source data)
+     * @param target_epsg target CRS
+     * @param handler     receives the features
+     * @return null --> ok   error message --> import failed
+     */
+    public abstract String parseFeatures(File file, String source_epsg, String target_epsg, FeatureHandler handler);
+
+    /**
+     * Parses the import file to geojson features kept in memory (see getGeoJson()).
+     * Prefer parseFeatures() for large files.
+     * @param file        import file
+     * @param source_epsg source CRS (is used, if crs in not available in source data)
+     * @param target_epsg target CRS
+     * @return null --> ok   error message --> import failed
+     */
+    public String parseGeoJSON(File file, String source_epsg, String target_epsg) {
+        final JSONArray features = new JSONArray();
+        final String status = parseFeatures(file, source_epsg, target_epsg, feature -> {
+            JSONObject geojs = toGeoJSON(feature);
+            if (geojs != null) {
+                features.put(geojs);
+            }
+            return true;
+        });
+        if (status == null) {
+            setGeoJson(JSONHelper.createJSONObject("features", features));
+        }
+        return status;
+    }
+
+    /**
+     * @param feature feature to convert
+     * @return geojson feature or null if it couldn't be created
+     */
+    public JSONObject toGeoJSON(SimpleFeature feature) throws IOException {
+        return JSONHelper.createJSONObject(io.toString(feature));
+    }
 
     public JSONObject getGeoJson() {
         return geoJson;
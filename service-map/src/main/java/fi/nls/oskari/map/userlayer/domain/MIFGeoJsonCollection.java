@@ -3,21 +3,16 @@ package fi.nls.oskari.map.userlayer.domain;
 import com.vividsolutions.jts.geom.Geometry;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
 import fi.nls.oskari.map.userlayer.service.GeoJsonWorker;
-import fi.nls.oskari.util.JSONHelper;
 import org.geotools.data.DataStore;
 import org.geotools.data.ogr.OGRDataStoreFactory;
 import org.geotools.data.ogr.bridj.BridjOGRDataStoreFactory;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.simple.SimpleFeatureSource;
-import org.geotools.geojson.feature.FeatureJSON;
-import org.geotools.geojson.geom.GeometryJSON;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.referencing.CRS;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
@@ -30,21 +25,19 @@ import java.util.Map;
 
 public class MIFGeoJsonCollection extends GeoJsonCollection implements GeoJsonWorker {
 
-    static final int GJSON_DECIMALS = 10;
-    GeometryJSON gjson = new GeometryJSON(GJSON_DECIMALS);
-    final FeatureJSON io = new FeatureJSON(gjson);
     private static final Logger log = LogFactory
             .getLogger(MIFGeoJsonCollection.class);
 
     /**
-     * Parse MapInfo file set to geojson features
+     * Parse MapInfo file set to features
      * Coordinate transformation is executed, if shape .prj file is within
      * @param file .mif import file
      * @param source_epsg source CRS, if it is not found in source data
      * @param target_epsg target CRS
+     * @param handler receives the features
      * @return null --> ok   error message --> import failed
      */
-    public String parseGeoJSON(File file, String source_epsg, String target_epsg) {
+    public String parseFeatures(File file, String source_epsg, String target_epsg, FeatureHandler handler) {
         OGRDataStoreFactory factory = new BridjOGRDataStoreFactory();
 
         Map<String, String> connectionParams = new HashMap<String, String>();
@@ -59,7 +52,6 @@ public class MIFGeoJsonCollection extends GeoJsonCollection implements GeoJsonWo
         CoordinateReferenceSystem sourceCrs = null;
         CoordinateReferenceSystem targetCrs = null;
         MathTransform transform = null;
-        JSONArray features = null;
         ReferencedEnvelope bounds = null;
 
         try {
@@ -87,40 +79,39 @@ public class MIFGeoJsonCollection extends GeoJsonCollection implements GeoJsonWo
 
             // Source epsg not found in source data, use epsg given by the user
             if (sourceCrs == null) {
-                sourceCrs = CRS.decode(source_epsg, true);
+                sourceCrs = CRSCache.decode(source_epsg, true);
             }
 
             // Oskari crs
             //(oskari OL map crs)
-            targetCrs = CRS.decode(target_epsg, true);
+            targetCrs = CRSCache.decode(target_epsg, true);
 
             // TODO: better check algorithm - name is not 100% proof
             if ((sourceCrs != null)&&(!targetCrs.getName().equals(sourceCrs.getName()))) {
-                transform = CRS.findMathTransform(sourceCrs, targetCrs, true);
+                transform = CRSCache.findMathTransform(sourceCrs, targetCrs, true);
             }
 
-            features = new JSONArray();
+            setFeatureType((FeatureType)schema);
+            setTypeName(typeName);
             while (it.hasNext()) {
                 SimpleFeature feature = it.next();
                 if (transform != null) {
                     Geometry geometry = (Geometry) feature.getDefaultGeometry();
                     feature.setDefaultGeometry(JTS.transform(geometry, transform));
                 }
-                JSONObject geojs = JSONHelper.createJSONObject(io.toString(feature));
-                if (geojs != null) {
-                    features.put(geojs);
+                if (!handler.handle(feature)) {
+                    break;
                 }
             }
-            it.close();
-            setGeoJson(JSONHelper.createJSONObject("features",features));
-            setFeatureType((FeatureType)schema);
-            setTypeName(typeName);
             return null;
         } catch (Exception e) {
             log.error("Couldn't create geoJSON from the MapInfo file ", file.getName(), e);
             return "mif";
         }
         finally {
+            if (it != null) {
+                it.close();
+            }
             store.dispose();
         }
     }
@@ -3,20 +3,15 @@ package fi.nls.oskari.map.userlayer.domain;
 import com.vividsolutions.jts.geom.Geometry;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
 import fi.nls.oskari.map.userlayer.service.GeoJsonWorker;
-import fi.nls.oskari.util.JSONHelper;
 import org.apache.commons.io.IOUtils;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.shapefile.ShapefileDataStoreFactory;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
-import org.geotools.geojson.feature.FeatureJSON;
-import org.geotools.geojson.geom.GeometryJSON;
 import org.geotools.geometry.jts.JTS;
-import org.geotools.referencing.CRS;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -30,23 +25,21 @@ import java.util.Map;
 
 public class SHPGeoJsonCollection extends GeoJsonCollection implements GeoJsonWorker {
 
-    static final int GJSON_DECIMALS = 10;
     private static final Logger log = LogFactory
             .getLogger(SHPGeoJsonCollection.class);
     private static final Map<String, Charset> AVAILABLE_CHARSETS = Charset.availableCharsets(); //Returns the default charset of this Java virtual machine
-    GeometryJSON gjson = new GeometryJSON(GJSON_DECIMALS);
-    final FeatureJSON io = new FeatureJSON(gjson);
 
     /**
-     * Parse ESRI shape file set to geojson features
+     * Parse ESRI shape file set to features
      * Coordinate transformation is executed, if shape .prj file is within
      *
      * @param file        .shp import file
      * @param source_epsg source CRS (is used, if crs in not available in source data)
      * @param target_epsg target CRS
+     * @param handler     receives the features
      * @return null --> ok   error message --> import failed
      */
-    public String parseGeoJSON(File file, String source_epsg, String target_epsg) {
+    public String parseFeatures(File file, String source_epsg, String target_epsg, FeatureHandler handler) {
         ShapefileDataStore dataStore = null;
         try {
             dataStore = new ShapefileDataStore(file.toURI().toURL());
@@ -67,7 +60,7 @@ public class SHPGeoJsonCollection extends GeoJsonCollection implements GeoJsonWo
             //TODO check axis orientation
 
             //Geojson axis orientation is always  lon,lat (decode(....true)
-            CoordinateReferenceSystem target = CRS.decode(target_epsg, true);
+            CoordinateReferenceSystem target = CRSCache.decode(target_epsg, true);
 
             if (sourceCrs == null && source_epsg == null) {
                 // Unknown CRS in source data - better to stop - result could be chaos
@@ -77,35 +70,35 @@ public class SHPGeoJsonCollection extends GeoJsonCollection implements GeoJsonWo
 
             // Source epsg not found in source data, use epsg given by the user
             if (sourceCrs == null) {
-                sourceCrs = CRS.decode(source_epsg, true);
+                sourceCrs = CRSCache.decode(source_epsg, true);
             }
 
             // Source and target are identical no transform ?  --> no transform
             if (sourceCrs != null && !target.getName().equals(sourceCrs.getName())) {
-                transform = CRS.findMathTransform(sourceCrs, target, true);
+                transform = CRSCache.findMathTransform(sourceCrs, target, true);
             }
 
-            JSONArray feas = new JSONArray();
+            setFeatureType(schema);
+            setTypeName(typeName);
+
+            // features are read one at a time, the file is never in memory as a whole
             FeatureIterator iterator = collection.features();
-            while (iterator.hasNext()) {
+            try {
+                while (iterator.hasNext()) {
 
-                SimpleFeature feature = (SimpleFeature) iterator.next();
-                if (transform != null) {
-                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
-                    feature.setDefaultGeometry(JTS.transform(geometry, transform));
+                    SimpleFeature feature = (SimpleFeature) iterator.next();
+                    if (transform != null) {
+                        Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                        feature.setDefaultGeometry(JTS.transform(geometry, transform));
 
+                    }
+                    if (!handler.handle(feature)) {
+                        break;
+                    }
                 }
-                JSONObject geojs = JSONHelper.createJSONObject(io.toString(feature));
-                if (geojs != null) {
-                    feas.put(geojs);
-                }
+            } finally {
+                iterator.close();
             }
-            iterator.close();
-
-
-            setGeoJson(JSONHelper.createJSONObject("features", feas));
-            setFeatureType(schema);
-            setTypeName(typeName);
             return null;
 
         } catch (Exception e) {
@@ -1,15 +1,20 @@
 package fi.nls.oskari.map.userlayer.service;
 
+import fi.nls.oskari.map.userlayer.domain.GeoJsonCollection.FeatureHandler;
 import org.json.JSONObject;
+import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.type.FeatureType;
 
 import java.io.File;
+import java.io.IOException;
 
 public interface GeoJsonWorker {
     public JSONObject getGeoJson();
     public String getTypeName();
     public FeatureType getFeatureType();
     public String parseGeoJSON(File file, String source_epsg, String target_epsg);
+    public String parseFeatures(File file, String source_epsg, String target_epsg, FeatureHandler handler);
+    public JSONObject toGeoJSON(SimpleFeature feature) throws IOException;
 
        
 }
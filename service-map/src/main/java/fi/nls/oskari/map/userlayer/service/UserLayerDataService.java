@@ -20,6 +20,7 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.PropertyDescriptor;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -44,6 +45,76 @@ public class UserLayerDataService {
     static final int USERLAYER_BASE_LAYER_ID = PropertyUtil.getOptional(USERLAYER_BASELAYER_ID, -1);
     static final int USERLAYER_MAX_FEATURES_COUNT = PropertyUtil.getOptional(USERLAYER_MAXFEATURES_COUNT, -1);
 
+    /**
+     * Reads the import file with the worker and stores the features while reading so the features are never
+     * in memory all at once. Layer, style and data are inserted in one transaction.
+     *
+     * @param gjsWorker   parser for the import file format
+     * @param file        import file
+     * @param source_epsg source CRS if not available in the import file
+     * @param target_epsg CRS to store the features in
+     * @param user        oskari user
+     * @param fparams     user given attributes for layer
+     * @return user layer data in user_layer table
+     * @throws ServiceException with the parser error message (for example "shp" or "unknown_projection") if the
+     *                          file couldn't be read or "unable_to_store_data" if there are no features or
+     *                          storing failed
+     */
+    public UserLayer storeUserData(final GeoJsonWorker gjsWorker, final File file, final String source_epsg,
+                                   final String target_epsg, final User user, final Map<String, String> fparams)
+            throws ServiceException {
+        final UserLayer userLayer = new UserLayer();
+        final UserLayerStyle style = createStyle(fparams);
+        userLayer.setUuid(user.getUuid());
+        log.info("user data import start: ", fparams);
+
+        // features without geometry or that can't be converted to GeoJSON
+        final int[] skipped = {0};
+        final int count = userLayerService.insertUserLayer(userLayer, style, writer -> {
+            final Exception[] writeError = {null};
+            final String status = gjsWorker.parseFeatures(file, source_epsg, target_epsg, feature -> {
+                if (feature.getDefaultGeometry() == null) {
+                    skipped[0]++;
+                    return true;
+                }
+                final UserLayerData data;
+                try {
+                    data = toUserLayerData(gjsWorker.toGeoJSON(feature), user.getUuid());
+                } catch (Exception e) {
+                    log.debug(e, "Skipping feature that couldn't be converted to GeoJSON:", feature.getID());
+                    skipped[0]++;
+                    return true;
+                }
+                if (data == null) {
+                    skipped[0]++;
+                    return true;
+                }
+                try {
+                    if (userLayer.getFeatures_count() == 0) {
+                        // feature type is known now, layer row is inserted with the first data row
+                        setLayerInfo(userLayer, gjsWorker, fparams);
+                    }
+                    writer.write(data);
+                } catch (Exception e) {
+                    // parsers report their own errors as status, keep storage errors separate
+                    writeError[0] = e;
+                    return false;
+                }
+                userLayer.setFeatures_count(userLayer.getFeatures_count() + 1);
+                return USERLAYER_MAX_FEATURES_COUNT == -1 || userLayer.getFeatures_count() < USERLAYER_MAX_FEATURES_COUNT;
+            });
+            if (writeError[0] != null) {
+                throw writeError[0];
+            }
+            if (status != null) {
+                throw new ServiceException(status);
+            }
+        });
+        userLayer.setFeatures_skipped(skipped[0]);
+        log.info("stored:", count, "rows from", userLayer.getFeatures_count(), "features and skipped:", userLayer.getFeatures_skipped());
+        return userLayer;
+    }
+
     /**
      * @param gjsWorker geoJSON and featurecollection items
      * @param user      oskari user
@@ -62,24 +133,11 @@ public class UserLayerDataService {
 
         //TODO: Style insert
         try {
-            style.setId(1);  // for default, even if style should be always valued
-            //set style from json
-            if (fparams.containsKey(KEY_STYLE)) {
-                final JSONObject stylejs = JSONHelper
-                        .createJSONObject(fparams.get(KEY_STYLE));
-                style.populateFromJSON(stylejs);
-            }
+            populateStyle(style, fparams);
             //set userLayer
-            userLayer.setLayer_name(gjsWorker.getTypeName());
-            userLayer.setLayer_desc("");
-            userLayer.setLayer_source("");
-            userLayer.setFields(parseFields(gjsWorker.getFeatureType()));
+            setLayerInfo(userLayer, gjsWorker, fparams);
             userLayer.setUuid(user.getUuid());
 
-            if (fparams.containsKey(KEY_NAME)) userLayer.setLayer_name(fparams.get(KEY_NAME));
-            if (fparams.containsKey(KEY_DESC)) userLayer.setLayer_desc(fparams.get(KEY_DESC));
-            if (fparams.containsKey(KEY_SOURCE)) userLayer.setLayer_source(fparams.get(KEY_SOURCE));
-
             //get userLayerData list
             userLayerDataList = this.getUserLayerData(gjsWorker.getGeoJson(), user, userLayer);
 
@@ -97,6 +155,57 @@ public class UserLayerDataService {
     }
 
 
+    private UserLayerStyle createStyle(final Map<String, String> fparams) throws ServiceException {
+        final UserLayerStyle style = new UserLayerStyle();
+        try {
+            populateStyle(style, fparams);
+        } catch (Exception e) {
+            log.error(e, "Unable to parse user layer style");
+            throw new ServiceException ("unable_to_store_data");
+        }
+        return style;
+    }
+
+    private void populateStyle(final UserLayerStyle style, final Map<String, String> fparams) throws Exception {
+        style.setId(1);  // for default, even if style should be always valued
+        //set style from json
+        if (fparams.containsKey(KEY_STYLE)) {
+            final JSONObject stylejs = JSONHelper
+                    .createJSONObject(fparams.get(KEY_STYLE));
+            style.populateFromJSON(stylejs);
+        }
+    }
+
+    private void setLayerInfo(final UserLayer userLayer, final GeoJsonWorker gjsWorker, final Map<String, String> fparams) {
+        userLayer.setLayer_name(gjsWorker.getTypeName());
+        userLayer.setLayer_desc("");
+        userLayer.setLayer_source("");
+        userLayer.setFields(parseFields(gjsWorker.getFeatureType()));
+
+        if (fparams.containsKey(KEY_NAME)) userLayer.setLayer_name(fparams.get(KEY_NAME));
+        if (fparams.containsKey(KEY_DESC)) userLayer.setLayer_desc(fparams.get(KEY_DESC));
+        if (fparams.containsKey(KEY_SOURCE)) userLayer.setLayer_source(fparams.get(KEY_SOURCE));
+    }
+
+    /**
+     * @param geofea geojson feature
+     * @param uuid   user uuid
+     * @return data row for the feature or null if it has no geometry
+     */
+    UserLayerData toUserLayerData(final JSONObject geofea, final String uuid) {
+        if (geofea == null || !geofea.has("geometry") || geofea.optJSONObject("geometry") == null) {
+            return null;
+        }
+        // Fix fea properties  (user_layer_id, uuid, property_json, feature_id
+        final UserLayerData userLayerData = new UserLayerData();
+        userLayerData.setUuid(uuid);
+        userLayerData.setFeature_id(geofea.optString("id", ""));
+        userLayerData.setGeometry(geofea.optJSONObject("geometry").toString());
+        final JSONObject properties = geofea.optJSONObject("properties");
+        userLayerData.setProperty_json(properties != null ? properties.toString() : "{}");
+        return userLayerData;
+    }
+
     /**
      * @param geoJson import data in geojson format
      * @param user    oskari user
@@ -121,18 +230,12 @@ public class UserLayerDataService {
                     continue;
                 }
 
-                if (!geofea.has("geometry") || geofea.optJSONObject("geometry")== null) {
+                final UserLayerData userLayerData = toUserLayerData(geofea, uuid);
+                if (userLayerData == null) {
                     noGeometry++;
                     continue;
                 }
 
-                // Fix fea properties  (user_layer_id, uuid, property_json, feature_id
-                final UserLayerData userLayerData = new UserLayerData();
-                userLayerData.setUuid(uuid);
-                userLayerData.setFeature_id(geofea.optString("id", ""));
-                userLayerData.setGeometry(geofea.optJSONObject("geometry").toString());
-                userLayerData.setProperty_json(geofea.optJSONObject("properties").toString());
-
                 userLayerDataList.add(userLayerData);
 
                 count++;
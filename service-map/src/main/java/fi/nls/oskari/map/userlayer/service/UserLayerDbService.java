@@ -9,9 +9,34 @@ import fi.nls.oskari.service.ServiceException;
 import java.util.List;
 
 public abstract class UserLayerDbService extends OskariComponent {
+
+    /**
+     * Writes the data rows of a user layer being inserted
+     */
+    public interface UserLayerDataWriter {
+        void write(final UserLayerData userLayerData) throws ServiceException;
+    }
+
+    /**
+     * Produces the data rows of a user layer being inserted, for example by reading an import file.
+     * The layer and style rows are inserted just before the first data row so the user layer can still be
+     * modified (name, fields) while handling the first feature.
+     */
+    public interface UserLayerDataImport {
+        void writeData(final UserLayerDataWriter writer) throws Exception;
+    }
+
     //UserLayer related
     public abstract int insertUserLayer(final UserLayer userlayer, final UserLayerStyle userLayerStyle, final List<UserLayerData> userLayerDataList) throws ServiceException;
 
+    /**
+     * Inserts the layer, style and data rows in one transaction with data rows written in batches as the
+     * import produces them
+     * @return number of data rows inserted
+     * @throws ServiceException if no rows were inserted or the import failed
+     */
+    public abstract int insertUserLayer(final UserLayer userlayer, final UserLayerStyle userLayerStyle, final UserLayerDataImport dataImport) throws ServiceException;
+
     public abstract int updateUserLayerCols(final UserLayer userlayer);
 
     public abstract UserLayer getUserLayerById(long id);
@@ -52,33 +52,30 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
     }
 
     public int insertUserLayer(final UserLayer userLayer, final UserLayerStyle userLayerStyle, final List<UserLayerData> userLayerDataList) throws ServiceException {
+        return insertUserLayer(userLayer, userLayerStyle, writer -> {
+            for (UserLayerData userLayerData : userLayerDataList) {
+                writer.write(userLayerData);
+            }
+        });
+    }
+
+    public int insertUserLayer(final UserLayer userLayer, final UserLayerStyle userLayerStyle, final UserLayerDataImport dataImport) throws ServiceException {
         final SqlSession session = factory.openSession(ExecutorType.BATCH);
-        int count = 0;
+        final BatchWriter writer = new BatchWriter(session, userLayer, userLayerStyle);
         try {
-            final UserLayerMapper mapper = session.getMapper(UserLayerMapper.class);
-            mapper.insertUserLayerStyleRow(userLayerStyle);
+            dataImport.writeData(writer);
             session.flushStatements();
-            log.debug("got style id", userLayerStyle.getId());
-            userLayer.setStyle_id(userLayerStyle.getId());
-            mapper.insertUserLayerRow(userLayer);
-            session.flushStatements();
-            long userLayerId = userLayer.getId();
-            log.debug("got layer id", userLayerId);
-
-            for (UserLayerData userLayerData : userLayerDataList) {
-                mapper.insertUserLayerDataRow(userLayerData, userLayerId);
-                count++;
-                // Flushes batch statements and clears local session cache
-                if (count % batchSize == 0) {
-                    session.flushStatements();
-                    session.clearCache();
-                }
+            if (writer.count == 0) {
+                log.info("No features to store for user layer");
+                throw new ServiceException("unable_to_store_data");
             }
-            session.flushStatements();
-            if (count == 0) throw new ServiceException("no_features");
-            log.debug("stored:", count, "rows");
+            log.debug("stored:", writer.count, "rows");
             session.commit();
-            return count;
+            return writer.count;
+        } catch (ServiceException e) {
+            session.rollback();
+            log.info("Rolling back, user layer import failed:", e.getMessage());
+            throw e;
         } catch (Exception e) {
             session.rollback();
             log.error(e, "Rolling back, failed to insert userlayer with id:", +userLayer.getId());
@@ -88,6 +85,44 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
         }
     }
 
+    /**
+     * Inserts the layer and style rows before the first data row and flushes the data rows in batches
+     * so only one batch of rows is kept in memory
+     */
+    private class BatchWriter implements UserLayerDataWriter {
+        private final SqlSession session;
+        private final UserLayerMapper mapper;
+        private final UserLayer userLayer;
+        private final UserLayerStyle userLayerStyle;
+        private int count = 0;
+
+        BatchWriter(final SqlSession session, final UserLayer userLayer, final UserLayerStyle userLayerStyle) {
+            this.session = session;
+            this.mapper = session.getMapper(UserLayerMapper.class);
+            this.userLayer = userLayer;
+            this.userLayerStyle = userLayerStyle;
+        }
+
+        public void write(final UserLayerData userLayerData) {
+            if (count == 0) {
+                mapper.insertUserLayerStyleRow(userLayerStyle);
+                session.flushStatements();
+                log.debug("got style id", userLayerStyle.getId());
+                userLayer.setStyle_id(userLayerStyle.getId());
+                mapper.insertUserLayerRow(userLayer);
+                session.flushStatements();
+                log.debug("got layer id", userLayer.getId());
+            }
+            mapper.insertUserLayerDataRow(userLayerData, userLayer.getId());
+            count++;
+            // Flushes batch statements and clears local session cache
+            if (count % batchSize == 0) {
+                session.flushStatements();
+                session.clearCache();
+            }
+        }
+    }
+
     /**
      * update UserLayer table row field mapping
      *
@@ -2,6 +2,7 @@ package fi.nls.oskari.wfs;
 
 import com.ibatis.sqlmap.client.SqlMapClient;
 import com.ibatis.sqlmap.client.SqlMapSession;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.domain.map.wfs.WFSLayerConfiguration;
 import fi.nls.oskari.domain.map.wfs.WFSParserConfig;
 import fi.nls.oskari.domain.map.wfs.WFSSLDStyle;
@@ -82,6 +83,8 @@ public class WFSLayerConfigurationServiceIbatisImpl extends BaseIbatisService<WF
 
 
             client.commitTransaction();
+            // styles are cached on transport nodes with the layer configuration
+            JedisNearCache.publishInvalidation(WFSLayerConfiguration.KEY + id);
             return ids;
         } catch (Exception e) {
             throw new RuntimeException("Failed to insert SLD styles", e);
@@ -124,6 +127,7 @@ public class WFSLayerConfigurationServiceIbatisImpl extends BaseIbatisService<WF
             // remove wfs layer
             session.delete(getNameSpace() + ".delete", maplayer_id);
             session.commitTransaction();
+            JedisNearCache.publishInvalidation(WFSLayerConfiguration.KEY + id);
         } catch (Exception e) {
             throw new RuntimeException("Error deleting wfs layer with maplayer_id:" + Long.toString(maplayer_id), e);
         } finally {
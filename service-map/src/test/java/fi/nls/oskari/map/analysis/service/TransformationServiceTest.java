@@ -0,0 +1,203 @@
+package fi.nls.oskari.map.analysis.service;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TransformationServiceTest {
+
+    private static final Logger log = LogFactory.getLogger(TransformationServiceTest.class);
+
+    private static final int LARGE_FEATURE_COUNT = 50000;
+
+    private final TransformationService service = new TransformationService();
+
+    @Test
+    public void testFeatureMember() throws Exception {
+        final StringBuilder wps = new StringBuilder(WPS_START);
+        for (int i = 0; i < 2; i++) {
+            wps.append("<gml:featureMember>");
+            appendFeature(wps, i, "A & <B> " + i);
+            wps.append("</gml:featureMember>");
+        }
+        wps.append(WPS_END);
+
+        final List<String> fields = new ArrayList<>();
+        final String wfst = service.wpsFeatureCollectionToWfst(wps.toString(), "user-uuid", 7, fields,
+                getFieldTypes(), "the_geom", "feature");
+
+        assertEquals(Arrays.asList("t1=name", "n1=value"), fields);
+        final Document doc = parse(wfst);
+        final NodeList inserts = doc.getElementsByTagName("wfs:Insert");
+        assertEquals(2, inserts.getLength());
+        final Element data = (Element) doc.getElementsByTagName("feature:analysis_data").item(1);
+        assertEquals("A & <B> 1", text(data, "feature:t1"));
+        assertEquals("1.5", text(data, "feature:n1"));
+        assertEquals("7", text(data, "feature:analysis_id"));
+        assertEquals("user-uuid", text(data, "feature:uuid"));
+        assertEquals("Hidden fields aren't written", 0, data.getElementsByTagName("feature:t2").getLength());
+
+        final Element geometry = (Element) data.getElementsByTagName("feature:geometry").item(0);
+        assertEquals("Geometry is written first", geometry, firstElement(data));
+        final Element point = (Element) geometry.getElementsByTagName("gml:Point").item(0);
+        assertEquals("EPSG:3067", point.getAttribute("srsName"));
+        assertEquals("385001.0 6672000.0", text(point, "gml:pos"));
+    }
+
+    @Test
+    public void testFeatureMembers() throws Exception {
+        final StringBuilder wps = new StringBuilder(WPS_START);
+        wps.append("<gml:featureMembers>");
+        for (int i = 0; i < 3; i++) {
+            appendFeature(wps, i, "name " + i);
+        }
+        wps.append("</gml:featureMembers>");
+        wps.append(WPS_END);
+
+        final List<String> fields = new ArrayList<>();
+        final StringWriter out = new StringWriter();
+        final int count = service.wpsFeatureCollectionToWfst(new StringReader(wps.toString()), out, "user-uuid", 7,
+                fields, getFieldTypes(), "the_geom", "feature");
+
+        assertEquals(3, count);
+        assertEquals(Arrays.asList("t1=name", "n1=value"), fields);
+        final Document doc = parse(out.toString());
+        assertEquals(3, doc.getElementsByTagName("wfs:Insert").getLength());
+        assertEquals(3, doc.getElementsByTagName("gml:Point").getLength());
+    }
+
+    @Test
+    public void testUndeclaredPrefix() throws Exception {
+        // difference analysis features are encoded without a namespace
+        final String wps = WPS_START + "<gml:featureMember><null:feature gml:id=\"f.1\">"
+                + "<null:geometry><gml:Point><gml:pos>1 2</gml:pos></gml:Point></null:geometry>"
+                + "<null:key>abc</null:key></null:feature></gml:featureMember>" + WPS_END;
+        final List<String> fields = new ArrayList<>();
+        final String wfst = service.wpsFeatureCollectionToWfst(wps, "user-uuid", 7, fields,
+                new HashMap<String, String>(), "geometry", "null");
+        assertEquals(Collections.singletonList("t1=key"), fields);
+        final Document doc = parse(wfst);
+        assertEquals("1 2", doc.getElementsByTagName("gml:pos").item(0).getTextContent());
+    }
+
+    /**
+     * Streams a WPS response with 50k features to WFS-T and logs elapsed time and allocated bytes.
+     * Parsing the same response to a DOM (like the conversion used to) is logged for comparison.
+     */
+    @Test
+    public void testLargeFeatureSet() throws Exception {
+        final File file = File.createTempFile("wps-features", ".xml");
+        file.deleteOnExit();
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            out.write(WPS_START);
+            for (int i = 0; i < LARGE_FEATURE_COUNT; i++) {
+                final StringBuilder feature = new StringBuilder("<gml:featureMember>");
+                appendFeature(feature, i, "name " + i);
+                out.write(feature.append("</gml:featureMember>\n").toString());
+            }
+            out.write(WPS_END);
+        }
+
+        long allocated = allocatedBytes();
+        long start = System.currentTimeMillis();
+        final CountingWriter wfst = new CountingWriter();
+        final int count;
+        try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            count = service.wpsFeatureCollectionToWfst(in, wfst, "user-uuid", 7, new ArrayList<String>(),
+                    getFieldTypes(), "the_geom", "feature");
+        }
+        final long streamTime = System.currentTimeMillis() - start;
+        final long streamAllocated = allocatedBytes() - allocated;
+        assertEquals(LARGE_FEATURE_COUNT, count);
+
+        allocated = allocatedBytes();
+        start = System.currentTimeMillis();
+        final Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        assertEquals(LARGE_FEATURE_COUNT, doc.getElementsByTagName("gml:featureMember").getLength());
+        final long domTime = System.currentTimeMillis() - start;
+        final long domAllocated = allocatedBytes() - allocated;
+
+        log.info("WPS response with", count, "features,", file.length(), "bytes -> WFS-T", wfst.count, "chars");
+        log.info("Streamed to WFS-T:", streamTime, "ms, allocated:", streamAllocated, "bytes");
+        log.info("DOM parse only:", domTime, "ms, allocated:", domAllocated, "bytes");
+    }
+
+    private static final String WPS_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\""
+            + " xmlns:gml=\"http://www.opengis.net/gml\" xmlns:feature=\"http://www.oskari.org\">";
+    private static final String WPS_END = "</wfs:FeatureCollection>";
+
+    private static void appendFeature(final StringBuilder wps, final int id, final String name) {
+        wps.append("<feature:analysis_data gml:id=\"f.").append(id).append("\">");
+        wps.append("<feature:name>").append(name.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;"))
+                .append("</feature:name>");
+        wps.append("<feature:value>").append(id + 0.5).append("</feature:value>");
+        wps.append("<feature:analysis_id>123</feature:analysis_id>");
+        wps.append("<feature:the_geom><gml:Point srsName=\"EPSG:3067\"><gml:pos>")
+                .append(385000.0 + id).append(" 6672000.0</gml:pos></gml:Point></feature:the_geom>");
+        wps.append("</feature:analysis_data>");
+    }
+
+    private static Map<String, String> getFieldTypes() {
+        final Map<String, String> types = new HashMap<>();
+        types.put("name", "string");
+        types.put("value", "numeric");
+        return types;
+    }
+
+    private static Document parse(final String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    private static String text(final Element parent, final String name) {
+        return parent.getElementsByTagName(name).item(0).getTextContent();
+    }
+
+    private static Element firstElement(final Element parent) {
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                return (Element) children.item(i);
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Counts written chars without keeping them
+     */
+    private static class CountingWriter extends Writer {
+        private long count = 0;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
@@ -0,0 +1,146 @@
+package fi.nls.oskari.map.geometry;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.referencing.CRS;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import static org.junit.Assert.*;
+
+public class CRSCacheTest {
+
+    private static final Logger log = LogFactory.getLogger(CRSCacheTest.class);
+
+    private static final String EPSG_3067 = "EPSG:3067";
+    private static final String EPSG_4326 = "EPSG:4326";
+
+    @Before
+    public void setUp() {
+        CRSCache.clear();
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        final CoordinateReferenceSystem crs = CRSCache.decode(EPSG_3067, true);
+        assertSame(crs, CRSCache.decode(EPSG_3067, true));
+        assertEquals(1, CRSCache.getCRSMissCount());
+        assertEquals(1, CRSCache.getCRSHitCount());
+
+        assertTrue("Authority axis order is kept", ProjectionHelper.isFirstAxisNorth(CRSCache.decode(EPSG_4326)));
+        assertFalse(ProjectionHelper.isFirstAxisNorth(CRSCache.decode(EPSG_4326, true)));
+        assertEquals(3, CRSCache.getCRSCacheSize());
+    }
+
+    @Test(expected = FactoryException.class)
+    public void testUnknownCode() throws Exception {
+        CRSCache.decode("EPSG:999999", true);
+    }
+
+    @Test
+    public void testTransform() throws Exception {
+        final CoordinateReferenceSystem source = CRSCache.decode(EPSG_4326, true);
+        final CoordinateReferenceSystem target = CRSCache.decode(EPSG_3067, true);
+        final MathTransform transform = CRSCache.findMathTransform(source, target, true);
+        assertSame(transform, CRSCache.findMathTransform(EPSG_4326, EPSG_3067, true));
+        assertNotSame("Lenient is part of the key", transform, CRSCache.findMathTransform(source, target, false));
+        assertEquals(2, CRSCache.getTransformMissCount());
+        assertEquals(1, CRSCache.getTransformHitCount());
+
+        // CRS parsed elsewhere finds the same transform
+        assertSame(transform, CRSCache.findMathTransform(CRS.decode(EPSG_4326, true), target, true));
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        CRSCache.warmUp(EPSG_3067, EPSG_4326, "EPSG:999999");
+        assertEquals("Both axis orders of valid codes", 4, CRSCache.getCRSCacheSize());
+        assertEquals("Both directions, lenient and strict", 4, CRSCache.getTransformCacheSize());
+        final long misses = CRSCache.getCRSMissCount();
+        CRSCache.decode(EPSG_3067);
+        assertEquals(misses, CRSCache.getCRSMissCount());
+    }
+
+    /**
+     * Compares looking up the CRSs and transform on each call (as the helpers used to) to the cache
+     */
+    @Test
+    public void testTransformCost() throws Exception {
+        final int points = 2000;
+        final GeometryFactory gf = new GeometryFactory();
+        final Coordinate[] coords = new Coordinate[500];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = new Coordinate(24 + i * 0.001, 60 + i * 0.0005);
+        }
+        final Geometry line = gf.createLineString(coords);
+        final int geometries = 200;
+
+        // warm up both paths
+        for (int i = 0; i < 100; i++) {
+            uncachedPoint(25, 61);
+            cachedPoint(25, 61);
+        }
+
+        long start = System.nanoTime();
+        DirectPosition2D uncached = null;
+        for (int i = 0; i < points; i++) {
+            uncached = uncachedPoint(25 + i * 0.0001, 61);
+        }
+        final long uncachedPoint = (System.nanoTime() - start) / points;
+
+        start = System.nanoTime();
+        DirectPosition2D cached = null;
+        for (int i = 0; i < points; i++) {
+            cached = cachedPoint(25 + i * 0.0001, 61);
+        }
+        final long cachedPoint = (System.nanoTime() - start) / points;
+        assertEquals(uncached.x, cached.x, 0.001);
+        assertEquals(uncached.y, cached.y, 0.001);
+
+        start = System.nanoTime();
+        Geometry uncachedGeom = null;
+        for (int i = 0; i < geometries; i++) {
+            uncachedGeom = JTS.transform(line, CRS.findMathTransform(
+                    CRS.decode(EPSG_4326, true), CRS.decode(EPSG_3067, true), true));
+        }
+        final long uncachedGeometry = (System.nanoTime() - start) / geometries;
+
+        start = System.nanoTime();
+        Geometry cachedGeom = null;
+        for (int i = 0; i < geometries; i++) {
+            cachedGeom = JTS.transform(line, CRSCache.findMathTransform(EPSG_4326, EPSG_3067, true));
+        }
+        final long cachedGeometry = (System.nanoTime() - start) / geometries;
+        assertTrue(uncachedGeom.equalsExact(cachedGeom, 0.001));
+
+        log.info("Transform cost per point (ns) - lookup per call:", uncachedPoint, "cached:", cachedPoint);
+        log.info("Transform cost per", coords.length, "vertex geometry (ns) - lookup per call:", uncachedGeometry,
+                "cached:", cachedGeometry);
+    }
+
+    private static DirectPosition2D uncachedPoint(double x, double y) throws Exception {
+        final CoordinateReferenceSystem source = CRS.decode(EPSG_4326, true);
+        final CoordinateReferenceSystem target = CRS.decode(EPSG_3067, true);
+        final MathTransform transform = CRS.findMathTransform(source, target, false);
+        final DirectPosition2D result = new DirectPosition2D(target);
+        transform.transform(new DirectPosition2D(source, x, y), result);
+        return result;
+    }
+
+    private static DirectPosition2D cachedPoint(double x, double y) throws Exception {
+        final CoordinateReferenceSystem source = CRSCache.decode(EPSG_4326, true);
+        final CoordinateReferenceSystem target = CRSCache.decode(EPSG_3067, true);
+        final MathTransform transform = CRSCache.findMathTransform(source, target, false);
+        final DirectPosition2D result = new DirectPosition2D(target);
+        transform.transform(new DirectPosition2D(source, x, y), result);
+        return result;
+    }
+}
@@ -0,0 +1,115 @@
+package fi.nls.oskari.map.layer;
+
+import fi.nls.oskari.domain.map.InspireTheme;
+import fi.nls.oskari.domain.map.LayerGroup;
+import fi.nls.oskari.domain.map.OskariLayer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LayerCatalogTest {
+
+    private LayerCatalog catalog;
+
+    @Before
+    public void setUp() {
+        final List<Map<String, Object>> layers = new ArrayList<>();
+        layers.add(row("ID", 1, "SRS_NAME", "EPSG:3067"));
+        layers.add(row("ID", 2, "SRS_NAME", "EPSG:3067"));
+        final List<Map<String, Object>> links = new ArrayList<>();
+        links.add(row("maplayerid", 1, "themeid", 10));
+        links.add(row("maplayerid", 1, "themeid", 11));
+        final List<Map<String, Object>> projections = new ArrayList<>();
+        projections.add(row("maplayerid", 1, "name", "EPSG:3067"));
+        projections.add(row("maplayerid", 1, "name", "EPSG:4326"));
+        projections.add(row("maplayerid", 2, "name", "EPSG:3067"));
+        final LayerGroup group = new LayerGroup();
+        group.setId(5);
+        final InspireTheme theme = new InspireTheme();
+        theme.setId(10);
+        catalog = new LayerCatalog(layers, links, projections,
+                Collections.singletonList(group), Collections.singletonList(theme));
+    }
+
+    @Test
+    public void testGetLayersWithoutCrs() {
+        final List<Map<String, Object>> layers = catalog.getLayers(null);
+        assertEquals(2, layers.size());
+        assertEquals("Keys should be case insensitive", 1, layers.get(0).get("id"));
+        assertEquals("EPSG:3067", layers.get(0).get("srs_name"));
+    }
+
+    @Test
+    public void testGetLayersFiltersByCrs() {
+        final List<Map<String, Object>> layers = catalog.getLayers("EPSG:4326");
+        assertEquals("Only layer supporting the projection should be returned", 1, layers.size());
+        assertEquals(1, layers.get(0).get("id"));
+        assertEquals("srs_name should be the requested projection", "EPSG:4326", layers.get(0).get("srs_name"));
+        assertEquals("Snapshot should not be modified", "EPSG:3067", catalog.getLayers(null).get(0).get("srs_name"));
+        assertTrue(catalog.getLayers("EPSG:3857").isEmpty());
+    }
+
+    @Test
+    public void testThemeIds() {
+        assertEquals(Arrays.asList(10, 11), catalog.getThemeIds(1));
+        assertTrue(catalog.getThemeIds(2).isEmpty());
+    }
+
+    @Test
+    public void testGroupsAndThemes() {
+        assertEquals(5, catalog.getGroup(5).getId());
+        assertNull(catalog.getGroup(6));
+        assertEquals(10, catalog.getTheme(10).getId());
+        assertNull(catalog.getTheme(11));
+    }
+
+    @Test
+    public void testTreeIsBuiltOncePerCrs() {
+        final List<String> built = new ArrayList<>();
+        final List<OskariLayer> all = catalog.getTree(null, rows -> {
+            built.add("all");
+            return toLayers(rows);
+        });
+        assertEquals(2, all.size());
+        final List<OskariLayer> again = catalog.getTree(null, rows -> {
+            throw new IllegalStateException("Tree should be cached");
+        });
+        assertSame("Layers should be shared", all.get(0), again.get(0));
+        again.clear();
+        assertEquals("Returned list should be a copy", 2, catalog.getTree(null, LayerCatalogTest::toLayers).size());
+
+        final List<OskariLayer> filtered = catalog.getTree("EPSG:4326", rows -> {
+            built.add("EPSG:4326");
+            return toLayers(rows);
+        });
+        assertEquals(1, filtered.size());
+        catalog.getTree("EPSG:4326", LayerCatalogTest::toLayers);
+        assertEquals(Arrays.asList("all", "EPSG:4326"), built);
+    }
+
+    @Test
+    public void testExpiration() {
+        assertFalse(catalog.isExpired(60000));
+        assertTrue(catalog.isExpired(-1));
+    }
+
+    private static List<OskariLayer> toLayers(final List<Map<String, Object>> rows) {
+        final List<OskariLayer> layers = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            final OskariLayer layer = new OskariLayer();
+            layer.setId((Integer) row.get("id"));
+            layers.add(layer);
+        }
+        return layers;
+    }
+
+    private static Map<String, Object> row(String key1, Object value1, String key2, Object value2) {
+        final Map<String, Object> row = new HashMap<>();
+        row.put(key1, value1);
+        row.put(key2, value2);
+        return row;
+    }
+}
@@ -0,0 +1,59 @@
+package fi.nls.oskari.map.layer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.*;
+
+public class LayerCoverageCacheTest {
+
+    private static final String LAYER = "1";
+    private static final String COVERAGE = "POLYGON((20 60, 30 60, 30 70, 20 70, 20 60))";
+    private static final String EPSG_3067 = "EPSG:3067";
+
+    @Before
+    public void setUp() {
+        LayerCoverageCache.remove(LAYER);
+    }
+
+    @Test
+    public void testCached() {
+        final String transformed = LayerCoverageCache.getCoverage(LAYER, COVERAGE, EPSG_3067);
+        assertNotNull(transformed);
+        assertTrue(transformed.startsWith("POLYGON"));
+        assertSame("Second request is served from cache", transformed,
+                LayerCoverageCache.getCoverage(LAYER, new String(COVERAGE), EPSG_3067));
+    }
+
+    @Test
+    public void testCoverageChanged() {
+        final String transformed = LayerCoverageCache.getCoverage(LAYER, COVERAGE, EPSG_3067);
+        final String changed = LayerCoverageCache.getCoverage(LAYER,
+                "POLYGON((21 61, 29 61, 29 69, 21 69, 21 61))", EPSG_3067);
+        assertNotNull(changed);
+        assertNotEquals("Updated coverage is transformed again", transformed, changed);
+    }
+
+    @Test
+    public void testPrecompute() {
+        LayerCoverageCache.precompute(LAYER, COVERAGE, new LinkedHashSet<>(Arrays.asList(EPSG_3067, "EPSG:3857")));
+        final String transformed = LayerCoverageCache.getCoverage(LAYER, COVERAGE, EPSG_3067);
+        assertSame(transformed, LayerCoverageCache.getCoverage(LAYER, COVERAGE, EPSG_3067));
+
+        LayerCoverageCache.remove(LAYER);
+        final String recomputed = LayerCoverageCache.getCoverage(LAYER, COVERAGE, EPSG_3067);
+        assertNotSame(transformed, recomputed);
+        assertEquals(transformed, recomputed);
+    }
+
+    @Test
+    public void testMissingInput() {
+        assertNull(LayerCoverageCache.getCoverage(LAYER, null, EPSG_3067));
+        assertNull(LayerCoverageCache.getCoverage(LAYER, "", EPSG_3067));
+        assertNull(LayerCoverageCache.getCoverage(LAYER, COVERAGE, null));
+        assertNull(LayerCoverageCache.getCoverage(LAYER, "not wkt", EPSG_3067));
+    }
+}
@@ -0,0 +1,90 @@
+package fi.nls.oskari.map.userlayer.domain;
+
+import org.json.JSONArray;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KMLGeoJsonCollectionTest {
+
+    private static final String EPSG_4326 = "EPSG:4326";
+    private static final int PLACEMARKS = 3;
+    private static File file;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        final StringBuilder kml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document>");
+        for (int i = 0; i < PLACEMARKS; i++) {
+            kml.append("<Placemark><name>Point ").append(i).append("</name>")
+                    .append("<Point><coordinates>").append(24 + i).append(",60</coordinates></Point></Placemark>");
+        }
+        kml.append("</Document></kml>");
+        file = File.createTempFile("userlayer", ".kml");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(kml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @AfterClass
+    public static void teardown() {
+        file.delete();
+    }
+
+    @Test
+    public void testParseFeatures() {
+        final KMLGeoJsonCollection collection = new KMLGeoJsonCollection();
+        final List<SimpleFeature> features = new ArrayList<>();
+        final String status = collection.parseFeatures(file, null, EPSG_4326, feature -> {
+            assertNotNull("Feature type should be available when handling features", collection.getFeatureType());
+            features.add(feature);
+            return true;
+        });
+        assertNull(status);
+        assertEquals(PLACEMARKS, features.size());
+        assertEquals("KML_", collection.getTypeName());
+        assertNull("Features aren't collected when streaming", collection.getGeoJson());
+    }
+
+    @Test
+    public void testStopParsing() {
+        final KMLGeoJsonCollection collection = new KMLGeoJsonCollection();
+        final List<SimpleFeature> features = new ArrayList<>();
+        final String status = collection.parseFeatures(file, null, EPSG_4326, feature -> {
+            features.add(feature);
+            return false;
+        });
+        assertNull(status);
+        assertEquals("Handler returning false should stop reading", 1, features.size());
+    }
+
+    @Test
+    public void testParseGeoJSON() throws Exception {
+        final KMLGeoJsonCollection collection = new KMLGeoJsonCollection();
+        assertNull(collection.parseGeoJSON(file, null, EPSG_4326));
+        final JSONArray features = collection.getGeoJson().getJSONArray("features");
+        assertEquals(PLACEMARKS, features.length());
+        assertEquals("Point", features.getJSONObject(0).getJSONObject("geometry").getString("type"));
+    }
+
+    @Test
+    public void testInvalidFile() throws Exception {
+        final File invalid = File.createTempFile("invalid", ".kml");
+        try {
+            final KMLGeoJsonCollection collection = new KMLGeoJsonCollection();
+            assertEquals("kml", collection.parseFeatures(invalid, null, "EPSG:999999", feature -> true));
+        } finally {
+            invalid.delete();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 
@@ -70,6 +71,7 @@ public class WFSLayerPermissionsStore {
 	 */
 	public void save(String session) {
         JedisManager.setex(KEY + session, 86400,  getAsJSON());
+        JedisNearCache.publishInvalidation(KEY + session);
 	}
 
     /**
@@ -80,6 +82,7 @@ public class WFSLayerPermissionsStore {
 	@JsonIgnore
 	public static void destroy(String session) {
         JedisManager.del(KEY + session);
+        JedisNearCache.publishInvalidation(KEY + session);
 	}
 
     /**
@@ -88,6 +91,7 @@ public class WFSLayerPermissionsStore {
 	@JsonIgnore
 	public static void destroyAll() {
         JedisManager.delAll(KEY);
+        JedisNearCache.publishInvalidation(KEY + JedisNearCache.WILDCARD);
 	}
 
 	/**
@@ -0,0 +1,151 @@
+package fi.mml.portti.service.db.permissions;
+
+import fi.mml.portti.domain.permissions.Permissions;
+import fi.nls.oskari.domain.Role;
+import fi.nls.oskari.domain.User;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of granted permissions. For each resource type, permission type and user/role it keeps
+ * the set of permitted resource mappings so permission checks for layer listings don't need any SQL.
+ *
+ * The index is loaded with all permission rows and kept up to date incrementally when permissions are
+ * modified through PermissionsService. Other nodes are notified about the changes so they reload their index.
+ * Changes made directly to the database are picked up when the index is reloaded after it has expired.
+ *
+ * Modifications and reloading are serialized so a modification made while the rows are being read from the
+ * database isn't lost when the loaded index replaces the current one. Lookups don't lock.
+ */
+public class PermissionIndex {
+
+    private static final String SEPARATOR = "|";
+
+    // [resource type]|[permission type]|[external type]|[external id] -> resource mappings
+    private volatile Map<String, Set<String>> index = new ConcurrentHashMap<>();
+    private volatile long loaded = 0;
+    private final long maxAge;
+
+    /**
+     * @param maxAge milliseconds after which the index should be reloaded
+     */
+    public PermissionIndex(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * @return true if the index hasn't been loaded or has expired
+     */
+    public boolean needsReload() {
+        return loaded == 0 || System.currentTimeMillis() - loaded > maxAge;
+    }
+
+    /**
+     * Marks the index to be reloaded on next use
+     */
+    public void invalidate() {
+        loaded = 0;
+    }
+
+    /**
+     * Reloads the index if it has expired. Reading the rows and replacing the index is done while holding the
+     * same lock as add() and remove() so modifications wait for the reload and are applied to the new index.
+     * @param loader returns all permission rows, see load()
+     * @return true if the index was reloaded
+     */
+    public synchronized boolean reload(Supplier<List<Map<String, Object>>> loader) {
+        if (!needsReload()) {
+            return false;
+        }
+        load(loader.get());
+        return true;
+    }
+
+    /**
+     * Replaces the index contents with the given permission rows.
+     * @param rows maps with keys resourceType, resourceMapping, externalType, externalId and permission
+     */
+    public synchronized void load(List<Map<String, Object>> rows) {
+        final Map<String, Set<String>> newIndex = new ConcurrentHashMap<>();
+        for (Map<String, Object> row : rows) {
+            final String key = getKey(
+                    String.valueOf(row.get("resourceType")),
+                    String.valueOf(row.get("permission")),
+                    String.valueOf(row.get("externalType")),
+                    String.valueOf(row.get("externalId")));
+            newIndex.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet())
+                    .add(String.valueOf(row.get("resourceMapping")));
+        }
+        index = newIndex;
+        loaded = System.currentTimeMillis();
+    }
+
+    public synchronized void add(String resourceType, String mapping, String externalType, String externalId, String permission) {
+        index.computeIfAbsent(getKey(resourceType, permission, externalType, externalId), k -> ConcurrentHashMap.newKeySet())
+                .add(mapping);
+    }
+
+    public synchronized void remove(String resourceType, String mapping, String externalType, String externalId, String permission) {
+        final Set<String> mappings = index.get(getKey(resourceType, permission, externalType, externalId));
+        if (mappings != null) {
+            mappings.remove(mapping);
+        }
+    }
+
+    /**
+     * Removes all permissions of a resource
+     */
+    public synchronized void removeResource(String resourceType, String mapping) {
+        final String prefix = resourceType + SEPARATOR;
+        for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().remove(mapping);
+            }
+        }
+    }
+
+    /**
+     * Returns resource mappings the user has been granted the permission to either directly or through roles.
+     * @return new set that the caller may modify
+     */
+    public Set<String> getResources(String resourceType, User user, String permission) {
+        final Set<String> result = new HashSet<>();
+        addAll(result, getKey(resourceType, permission, Permissions.EXTERNAL_TYPE_USER, String.valueOf(user.getId())));
+        for (Role role : user.getRoles()) {
+            addAll(result, getKey(resourceType, permission, Permissions.EXTERNAL_TYPE_ROLE, String.valueOf(role.getId())));
+        }
+        return result;
+    }
+
+    /**
+     * Returns role permissions in the format used by getPublishPermissions() etc: [resource mapping]:[role id]
+     * @return new set that the caller may modify
+     */
+    public Set<String> getRolePermissions(String resourceType, String permission) {
+        final String prefix = getKey(resourceType, permission, Permissions.EXTERNAL_TYPE_ROLE, "");
+        final Set<String> result = new HashSet<>();
+        for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                continue;
+            }
+            final String roleId = entry.getKey().substring(prefix.length());
+            for (String mapping : entry.getValue()) {
+                result.add(mapping + ":" + roleId);
+            }
+        }
+        return result;
+    }
+
+    private void addAll(Set<String> result, String key) {
+        final Set<String> mappings = index.get(key);
+        if (mappings != null) {
+            result.addAll(mappings);
+        }
+    }
+
+    private static String getKey(String resourceType, String permission, String externalType, String externalId) {
+        return resourceType + SEPARATOR + permission + SEPARATOR + externalType + SEPARATOR + externalId;
+    }
+}
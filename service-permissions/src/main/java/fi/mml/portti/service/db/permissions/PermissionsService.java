@@ -53,6 +53,20 @@ public interface PermissionsService extends BaseService<Permissions> {
 			User user,
 			String permissionsType);
 	
+	/**
+	 * Same as getResourcesWithGrantedPermissions(String, User, String) but returns an unsorted set
+	 * that is fast for contains() checks.
+	 *
+	 * @param resourceType resource type such as map layer
+	 * @param user current user
+	 * @param permissionsType permissions type such as VIEW or PUBLISH
+	 * @return set of String objects of format namespace+resourceName
+	 */
+	public Set<String> getPermittedResources(
+			String resourceType,
+			User user,
+			String permissionsType);
+
 	/**
 	 * Return resources for which permissions have been granted to the given user or role.
 	 * 
@@ -3,6 +3,7 @@ package fi.mml.portti.service.db.permissions;
 import fi.mml.portti.domain.permissions.Permissions;
 import fi.mml.portti.domain.permissions.UniqueResourceName;
 import fi.mml.portti.domain.permissions.WFSLayerPermissionsStore;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.LogFactory;
@@ -20,6 +21,14 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 	/** Our logger */
 	private static Logger log = LogFactory.getLogger(PermissionsServiceIbatisImpl.class);
     private Set<String> DYNAMIC_PERMISSIONS;
+    // seconds after which the permission index is reloaded from the database
+    public static final String PROPERTY_INDEX_MAX_AGE = "permission.index.maxAge";
+    // shared by all service instances
+    private static volatile PermissionIndex INDEX;
+    // published when permissions change so other nodes reload their index, ends with the id of the sender node.
+    // Messages from other nodes are received when redis.nearcache.enabled=true, otherwise they are seen after maxAge
+    public static final String INDEX_INVALIDATION_KEY = "Permissions.index.";
+    private static final String NODE_KEY = INDEX_INVALIDATION_KEY + UUID.randomUUID().toString();
 
     public PermissionsServiceIbatisImpl() {
         // add any additional permissions
@@ -65,6 +74,52 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 	protected String getNameSpace() {
 		return "Permissions";
 	}
+
+    /**
+     * Returns the permission index, (re)loading it from the database if needed.
+     */
+    protected PermissionIndex getIndex() {
+        PermissionIndex index = INDEX;
+        if (index == null) {
+            synchronized (PermissionIndex.class) {
+                if (INDEX == null) {
+                    INDEX = new PermissionIndex(PropertyUtil.getOptional(PROPERTY_INDEX_MAX_AGE, 300) * 1000L);
+                    JedisNearCache.addInvalidationListener(PermissionsServiceIbatisImpl::onInvalidation);
+                }
+                index = INDEX;
+            }
+        }
+        if (index.needsReload()) {
+            final long start = System.currentTimeMillis();
+            final boolean reloaded = index.reload(() -> queryForList(getNameSpace() + ".findAllPermissions", null));
+            if (reloaded) {
+                log.debug("Loaded permissions to index in", System.currentTimeMillis() - start, "ms");
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index when another node has modified permissions
+     */
+    private static void onInvalidation(final String key) {
+        final PermissionIndex index = INDEX;
+        if (index == null || NODE_KEY.equals(key)) {
+            // own changes have already been applied to the index
+            return;
+        }
+        if (key.startsWith(INDEX_INVALIDATION_KEY) || JedisNearCache.WILDCARD.equals(key)) {
+            log.debug("Permissions modified on another node - reloading index on next use");
+            index.invalidate();
+        }
+    }
+
+    /**
+     * Notifies other nodes that permissions have been modified
+     */
+    private static void notifyPermissionsChanged() {
+        JedisNearCache.publishInvalidation(NODE_KEY);
+    }
 	
 	public void insertPermissions(
 			UniqueResourceName uniqueResourceName, String externalId, String externalIdType, String permissionsType) {
@@ -94,6 +149,9 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 
         if( permissionId == null) {
             insert(getNameSpace() + ".insertPermission", paramMap);
+            getIndex().add(uniqueResourceName.getType(), parameterResource.get("resourceMapping"),
+                    externalIdType, externalId, permissionsType);
+            notifyPermissionsChanged();
         }
 
 		WFSLayerPermissionsStore.destroyAll();
@@ -104,35 +162,21 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 			User user,
 			String permissionsType) {
 
-        // user id based permissions
-        long userId = user.getId();
-        log.debug("Getting resources with granted'", permissionsType, "' permissions to user '",
-                userId,"' for resource '", resourceType, "'");
-		List<String> userPermissions = 
-			getResourcesWithGrantedPermissions(
-				resourceType, String.valueOf(userId), Permissions.EXTERNAL_TYPE_USER, permissionsType);
-		
-		log.debug("Found", userPermissions.size(), "permissions given directly to user.");
-
-        // user role based permissions
-        final Set<String> roleIds = new HashSet<String>(user.getRoles().size());
-        for(Role role : user.getRoles()) {
-            roleIds.add("" + role.getId());
-        }
-        final Set<String> groupPermissions =
-                getResourcesWithGrantedPermissions(
-                        resourceType, roleIds, Permissions.EXTERNAL_TYPE_ROLE, permissionsType);
-		log.debug("Found", groupPermissions.size(), "permissions given to roles that user has.");
-		
-		// finally collect all together and sort
-		List<String> resourceList = new ArrayList<String>(userPermissions.size() + groupPermissions.size());
-        resourceList.addAll(userPermissions);
-        resourceList.addAll(groupPermissions);
-        // sort permissions
+		// collect direct and role based permissions and sort
+		List<String> resourceList = new ArrayList<String>(getPermittedResources(resourceType, user, permissionsType));
 		Collections.sort(resourceList);
-		
 		return resourceList;
 	}
+
+	public Set<String> getPermittedResources(
+			String resourceType,
+			User user,
+			String permissionsType) {
+		log.debug("Getting resources with granted'", permissionsType, "' permissions to user '",
+				user.getId(), "' for resource '", resourceType, "'");
+		return getIndex().getResources(resourceType, user, permissionsType);
+	}
+
     private Set<String> getResourcesWithGrantedPermissions(
             String resourceType,
             Set<String> externalId,
@@ -224,18 +268,7 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
 	}
 
     public Set<String> getPublishPermissions(String resourceType) {
-
-		Map<String, String> parameterMap = new HashMap<String, String>();
-		parameterMap.put("resourceType",resourceType);
-		List<Map<String, Object>> publishPermissions = queryForList(getNameSpace() + ".findPublishPermissions", parameterMap);
-
-		Set<String> permissions = new HashSet<String>();
-
-		for (Map<String, Object> resultMap : publishPermissions) {
-            permissions.add(resultMap.get("resourceMapping")+":"+resultMap.get("externalId") );
-		}
-
-		return permissions;
+        return getIndex().getRolePermissions(resourceType, Permissions.PERMISSION_TYPE_PUBLISH);
 	}
 
     public Set<String> getDownloadPermissions() {
@@ -243,34 +276,12 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
     }
 
     public Set<String> getDownloadPermissions(String resourceType) {
-
-        Map<String, String> parameterMap = new HashMap<String, String>();
-        parameterMap.put("resourceType",resourceType);
-        List<Map<String, Object>> downloadPermissions = queryForList(getNameSpace() + ".findDownloadPermissions", parameterMap);
-
-        Set<String> permissions = new HashSet<String>();
-
-        for (Map<String, Object> resultMap : downloadPermissions) {
-            permissions.add(resultMap.get("resourceMapping")+":"+resultMap.get("externalId") );
-        }
-
-        return permissions;
+        return getIndex().getRolePermissions(resourceType, Permissions.PERMISSION_TYPE_DOWNLOAD);
     }
 
 
     public Set<String> getEditPermissions() {
-
-        Map<String, String> parameterMap = new HashMap<String, String>();
-        parameterMap.put("resourceType",Permissions.RESOURCE_TYPE_MAP_LAYER);
-        List<Map<String, Object>> publishPermissions = queryForList(getNameSpace() + ".findEditPermissions", parameterMap);
-
-        Set<String> permissions = new HashSet<String>();
-
-        for (Map<String, Object> resultMap : publishPermissions) {
-            permissions.add(resultMap.get("resourceMapping")+":"+resultMap.get("externalId") );
-        }
-
-        return permissions;
+        return getIndex().getRolePermissions(Permissions.RESOURCE_TYPE_MAP_LAYER, Permissions.PERMISSION_TYPE_EDIT_LAYER_CONTENT);
     }
 	
 	
@@ -293,6 +304,9 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
             log.info("Deleting permission with id:", oskariPermissionId);
 
             delete(getNameSpace() + ".deletePermission",oskariPermissionId);
+            getIndex().remove(uniqueResourceName.getType(), parameterDelete.get("resourceMapping"),
+                    externalIdType, externalId, permissionsType);
+            notifyPermissionsChanged();
             // flush permissions for WFS transport
             WFSLayerPermissionsStore.destroyAll();
         }
@@ -541,6 +555,13 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
         for(Permission permission : resource.getPermissions()) {
             insertPermission(resource, permission, false);
         }
+        // update index with the new permissions
+        final PermissionIndex index = getIndex();
+        index.removeResource(res.getType(), res.getMapping());
+        for(Permission permission : resource.getPermissions()) {
+            index.add(res.getType(), res.getMapping(), permission.getExternalType(), permission.getExternalId(), permission.getType());
+        }
+        notifyPermissionsChanged();
         // return object through db query
         return findResource(resource);
     }
@@ -564,6 +585,12 @@ public class PermissionsServiceIbatisImpl extends BaseIbatisService<Permissions>
         removeResourcePermissions(resource);
         log.debug("Deleting permissions for resource:", resource);
         delete(getNameSpace() + ".deleteResource", resource.getId());
+        if(resource.getType() != null && resource.getMapping() != null) {
+            getIndex().removeResource(resource.getType(), resource.getMapping());
+        } else {
+            getIndex().invalidate();
+        }
+        notifyPermissionsChanged();
     }
 
     private Resource createResourceRow(final String type, final String mapping) {
@@ -0,0 +1,136 @@
+package fi.mml.portti.service.db.permissions;
+
+import fi.mml.portti.domain.permissions.Permissions;
+import fi.nls.oskari.domain.User;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class PermissionIndexTest {
+
+    private static final String LAYER = Permissions.RESOURCE_TYPE_MAP_LAYER;
+    private static final String VIEW = Permissions.PERMISSION_TYPE_VIEW_LAYER;
+    private static final String PUBLISH = Permissions.PERMISSION_TYPE_PUBLISH;
+    private static final String ROLE = Permissions.EXTERNAL_TYPE_ROLE;
+    private static final String USER = Permissions.EXTERNAL_TYPE_USER;
+
+    private PermissionIndex index;
+    private User user;
+
+    @Before
+    public void setUp() {
+        index = new PermissionIndex(60000);
+        index.load(Arrays.asList(
+                row("wms+url+a", ROLE, "2", VIEW),
+                row("wms+url+a", ROLE, "2", PUBLISH),
+                row("wms+url+b", USER, "5", VIEW),
+                row("wms+url+c", ROLE, "3", VIEW)));
+        user = new User();
+        user.setId(5);
+        user.addRole(2, "User");
+    }
+
+    @Test
+    public void testLookup() {
+        assertEquals(set("wms+url+a", "wms+url+b"), index.getResources(LAYER, user, VIEW));
+        assertEquals(set("wms+url+a"), index.getResources(LAYER, user, PUBLISH));
+        assertEquals(set(), index.getResources("other", user, VIEW));
+        assertEquals(set("wms+url+a:2"), index.getRolePermissions(LAYER, PUBLISH));
+        assertEquals(set("wms+url+a:2", "wms+url+c:3"), index.getRolePermissions(LAYER, VIEW));
+
+        final Set<String> resources = index.getResources(LAYER, user, VIEW);
+        resources.clear();
+        assertEquals("Returned set should be a copy", 2, index.getResources(LAYER, user, VIEW).size());
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        index.add(LAYER, "wms+url+d", ROLE, "2", VIEW);
+        assertEquals(set("wms+url+a", "wms+url+b", "wms+url+d"), index.getResources(LAYER, user, VIEW));
+
+        index.remove(LAYER, "wms+url+b", USER, "5", VIEW);
+        assertEquals(set("wms+url+a", "wms+url+d"), index.getResources(LAYER, user, VIEW));
+
+        index.removeResource(LAYER, "wms+url+a");
+        assertEquals(set("wms+url+d"), index.getResources(LAYER, user, VIEW));
+        assertEquals(set(), index.getResources(LAYER, user, PUBLISH));
+        assertEquals(set("wms+url+c:3", "wms+url+d:2"), index.getRolePermissions(LAYER, VIEW));
+    }
+
+    @Test
+    public void testReload() {
+        assertFalse(index.needsReload());
+        assertFalse("Loaded index shouldn't be reloaded", index.reload(() -> {
+            throw new IllegalStateException("Shouldn't load");
+        }));
+
+        index.invalidate();
+        assertTrue(index.needsReload());
+        assertTrue(index.reload(() -> Collections.singletonList(row("wms+url+e", ROLE, "2", VIEW))));
+        assertFalse(index.needsReload());
+        assertEquals("Reload should replace the contents", set("wms+url+e"), index.getResources(LAYER, user, VIEW));
+        assertEquals(set(), index.getRolePermissions(LAYER, PUBLISH));
+    }
+
+    @Test
+    public void testExpiredIndexNeedsReload() throws Exception {
+        final PermissionIndex expiring = new PermissionIndex(10);
+        assertTrue("Index should be loaded before use", expiring.needsReload());
+        expiring.load(Collections.<Map<String, Object>>emptyList());
+        assertFalse(expiring.needsReload());
+        Thread.sleep(50);
+        assertTrue(expiring.needsReload());
+    }
+
+    @Test
+    public void testAddDuringReloadIsKept() throws Exception {
+        index.invalidate();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // rows are read before the permission below is inserted to the database
+            final Future<Boolean> reload = executor.submit(() -> index.reload(() -> {
+                loading.countDown();
+                await(release);
+                return Collections.singletonList(row("wms+url+a", ROLE, "2", VIEW));
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            final Future<?> add = executor.submit(() -> index.add(LAYER, "wms+url+new", ROLE, "2", VIEW));
+            Thread.sleep(100);
+            assertFalse("Add should wait for the reload", add.isDone());
+            release.countDown();
+            assertTrue(reload.get(5, TimeUnit.SECONDS));
+            add.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(set("wms+url+a", "wms+url+new"), index.getResources(LAYER, user, VIEW));
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, Object> row(String mapping, String externalType, String externalId, String permission) {
+        final Map<String, Object> row = new HashMap<>();
+        row.put("resourceType", LAYER);
+        row.put("resourceMapping", mapping);
+        row.put("externalType", externalType);
+        row.put("externalId", externalId);
+        row.put("permission", permission);
+        return row;
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
@@ -19,6 +19,7 @@ public class ChannelSearchResult  implements Serializable {
 	private boolean available;
 	private boolean truncated;
 	private boolean queryFailed;
+	private boolean timedOut;
 
 	private List<SearchResultItem> searchResultItems = new ArrayList<SearchResultItem>();
 	private String searchMethod;
@@ -35,6 +36,17 @@ public class ChannelSearchResult  implements Serializable {
 		this.queryFailed = queryFailed;
 	}
 
+	/**
+	 * @return true if the channel didn't respond in time and the results are missing
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	public void setTimedOut(boolean timedOut) {
+		this.timedOut = timedOut;
+	}
+
 	public String getChannelId() {
 		return channelId;
 	}
@@ -84,6 +96,24 @@ public class ChannelSearchResult  implements Serializable {
 		searchResultItems.add(rsi);
 	}
 
+	/**
+	 * Returns a copy of the result with copies of the result items
+	 * @return copy of the result
+	 */
+	public ChannelSearchResult copy() {
+		final ChannelSearchResult copy = new ChannelSearchResult();
+		copy.channelId = channelId;
+		copy.available = available;
+		copy.truncated = truncated;
+		copy.queryFailed = queryFailed;
+		copy.timedOut = timedOut;
+		copy.searchMethod = searchMethod;
+		for(SearchResultItem item : searchResultItems) {
+			copy.searchResultItems.add(item.copy());
+		}
+		return copy;
+	}
+
 	public void setException(Exception e) {
 		// TODO Auto-generated method stub
 		
@@ -41,6 +41,18 @@ public class Query implements Serializable {
 		return new ChannelSearchResult();
 	}
 
+	/**
+	 * @return true if some of the channels didn't respond in time
+	 */
+	public boolean isIncomplete() {
+		for(ChannelSearchResult csr: channelSearchResults) {
+			if (csr.isTimedOut()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public List<SearchResultItem> getSortedResults(int count) {
 
 		List<SearchResultItem> items = new ArrayList<>();
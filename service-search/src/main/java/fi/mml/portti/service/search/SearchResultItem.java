@@ -13,7 +13,7 @@ import java.util.*;
 /**
  * Search result item.
  */
-public class SearchResultItem implements Comparable<SearchResultItem>, Serializable {
+public class SearchResultItem implements Comparable<SearchResultItem>, Serializable, Cloneable {
     // JSON keys (see toJSON())
     public static final String KEY_ID = "id";
     public static final String KEY_NAME = "name";
@@ -81,6 +81,24 @@ public class SearchResultItem implements Comparable<SearchResultItem>, Serializa
         }
     }
 
+    /**
+     * Returns a copy of the item that can be modified without affecting this one.
+     * Custom field values are shared between the copies.
+     * @return copy of the item
+     */
+    public SearchResultItem copy() {
+        try {
+            final SearchResultItem copy = (SearchResultItem) super.clone();
+            if(uuid != null) {
+                copy.uuid = new ArrayList<>(uuid);
+            }
+            copy.properties = new HashMap<>(properties);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Get value for a custom result field
      * @param key
@@ -1,6 +1,8 @@
 package fi.mml.portti.service.search;
 
+import com.codahale.metrics.Timer;
 import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.control.ActionControl;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
@@ -14,6 +16,8 @@ import org.json.JSONObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Oskari
 public class SearchServiceImpl extends SearchService implements SearchChannelChangeListener {
@@ -24,6 +28,19 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
     /** Available channels */
     private volatile Map<String, SearchableChannel> availableChannels = null;
 
+    // search.parallel=false searches the channels one at a time
+    public static final String PROPERTY_PARALLEL = "search.parallel";
+    // deadline in milliseconds for the whole search
+    public static final String PROPERTY_TIMEOUT = "search.timeout";
+    // default timeout in milliseconds per channel, can be overridden with search.channel.[channel id].timeout
+    public static final String PROPERTY_CHANNEL_TIMEOUT = "search.channel.timeout";
+    public static final String PROPERTY_THREADS = "search.threads";
+    public static final String PROPERTY_QUEUE = "search.queue";
+    private static final int DEFAULT_TIMEOUT = 15000;
+    private static final String METRICS_PREFIX = "Oskari.Search.channel.";
+
+    private static volatile ExecutorService executor;
+
     /**
      * Inits channels
      */
@@ -158,11 +175,11 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         final Query query = new Query();
         query.setSearchCriteria(searchCriteria);
 
+        final List<SearchableChannel> channels = new ArrayList<>();
         for (String channelId : searchCriteria.getChannels()) {
             if (!availableChannels.containsKey(channelId)) {
                 continue;
             }
-            long timeStart = System.currentTimeMillis();
             SearchableChannel channel = availableChannels.get(channelId);
             User user = searchCriteria.getUser();
             if(!channel.hasPermission(user)) {
@@ -175,18 +192,15 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
                 LOG.debug("Skipping ", channel.getId(), "- criteria not valid");
                 continue;
             }
-            ChannelSearchResult result = handleChannelSearch(searchCriteria, channel);
-            int numResults = -1;
-            if(result != null) {
-                LOG.debug("Result", result);
-                result.setChannelId(channel.getId());
-                query.addChannelSearchResult(result);
-                numResults = result.getNumberOfResults();
+            channels.add(channel);
+        }
+
+        if (channels.size() < 2 || !PropertyUtil.getOptional(PROPERTY_PARALLEL, true)) {
+            for (SearchableChannel channel : channels) {
+                addResult(query, channel, timedChannelSearch(searchCriteria, channel));
             }
-            long timeEnd = System.currentTimeMillis();
-            LOG.debug("Search query to", channel.getId(),
-                    "took", (timeEnd - timeStart), "ms",
-                    "- got", numResults, "results");
+        } else {
+            searchConcurrently(searchCriteria, channels, query);
         }
 
         long fullQueryEndTime = System.currentTimeMillis();
@@ -246,6 +260,128 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         return jsonObject;
     }
 
+    /**
+     * Runs the channel searches on the shared executor. Waits for each channel until its own timeout or
+     * the global deadline passes. Channels that don't respond in time are canceled and added to the query
+     * as timed out results so the rest of the results can be returned. Channels that can't be queued
+     * because the executor is saturated are added as failed results without searching them.
+     */
+    private void searchConcurrently(final SearchCriteria sc, final List<SearchableChannel> channels, final Query query) {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + PropertyUtil.getOptional(PROPERTY_TIMEOUT, DEFAULT_TIMEOUT);
+        final ExecutorService pool = getExecutor();
+        final List<Future<ChannelSearchResult>> futures = new ArrayList<>(channels.size());
+        for (final SearchableChannel channel : channels) {
+            try {
+                futures.add(pool.submit(() -> timedChannelSearch(sc, channel)));
+            } catch (RejectedExecutionException e) {
+                // all search threads are busy and the queue is full
+                futures.add(null);
+            }
+        }
+        for (int i = 0; i < channels.size(); ++i) {
+            final SearchableChannel channel = channels.get(i);
+            final Future<ChannelSearchResult> future = futures.get(i);
+            if (future == null) {
+                LOG.warn("Search query to", channel.getId(), "skipped - search queue is full");
+                ActionControl.getMetrics().counter(METRICS_PREFIX + channel.getId() + ".rejected").inc();
+                final ChannelSearchResult result = new ChannelSearchResult();
+                result.setQueryFailed(true);
+                addResult(query, channel, result);
+                continue;
+            }
+            final long channelDeadline = Math.min(deadline, start + getChannelTimeout(channel.getId()));
+            ChannelSearchResult result;
+            try {
+                result = future.get(Math.max(0, channelDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                LOG.warn("Search query to", channel.getId(), "timed out after",
+                        (System.currentTimeMillis() - start), "ms");
+                ActionControl.getMetrics().counter(METRICS_PREFIX + channel.getId() + ".timeout").inc();
+                result = new ChannelSearchResult();
+                result.setQueryFailed(true);
+                result.setTimedOut(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<ChannelSearchResult> f : futures) {
+                    if (f != null) {
+                        f.cancel(true);
+                    }
+                }
+                return;
+            } catch (ExecutionException e) {
+                // handleChannelSearch() catches exceptions so this shouldn't happen
+                LOG.error(e.getCause(), "Search query to", channel.getId(), "failed!");
+                result = new ChannelSearchResult();
+                result.setQueryFailed(true);
+            }
+            addResult(query, channel, result);
+        }
+    }
+
+    /**
+     * Runs the channel search and records the latency to ActionControl metrics
+     */
+    private ChannelSearchResult timedChannelSearch(final SearchCriteria sc, final SearchableChannel channel) {
+        final Timer.Context timer = ActionControl.getMetrics().timer(METRICS_PREFIX + channel.getId()).time();
+        final long timeStart = System.currentTimeMillis();
+        final ChannelSearchResult result = handleChannelSearch(sc, channel);
+        final long timeEnd = System.currentTimeMillis();
+        timer.stop();
+        LOG.debug("Search query to", channel.getId(),
+                "took", (timeEnd - timeStart), "ms",
+                "- got", result == null ? -1 : result.getNumberOfResults(), "results");
+        return result;
+    }
+
+    private void addResult(final Query query, final SearchableChannel channel, final ChannelSearchResult result) {
+        if(result == null) {
+            return;
+        }
+        LOG.debug("Result", result);
+        result.setChannelId(channel.getId());
+        query.addChannelSearchResult(result);
+    }
+
+    private long getChannelTimeout(final String channelId) {
+        final int timeout = PropertyUtil.getOptional(PROPERTY_CHANNEL_TIMEOUT, DEFAULT_TIMEOUT);
+        return PropertyUtil.getOptional("search.channel." + channelId + ".timeout", timeout);
+    }
+
+    private static ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (SearchServiceImpl.class) {
+                if (executor == null) {
+                    final int threads = PropertyUtil.getOptional(PROPERTY_THREADS, 10);
+                    final AtomicInteger count = new AtomicInteger();
+                    // when the queue is full channels are skipped instead of blocking the request thread
+                    executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(PropertyUtil.getOptional(PROPERTY_QUEUE, 100)),
+                            r -> {
+                                Thread t = new Thread(r, "search-channel-" + count.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            },
+                            new ThreadPoolExecutor.AbortPolicy());
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the search threads. A new executor is created with current properties on the next search.
+     */
+    public static void shutdown() {
+        synchronized (SearchServiceImpl.class) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+    }
+
     /**
      * Handles actual channel search and catches exceptions
      *
@@ -256,6 +392,16 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
     private ChannelSearchResult handleChannelSearch(
             SearchCriteria sc, SearchableChannel channel)
     {
+        // opt-in result cache for identical queries
+        final SearchChannel cachingChannel = channel instanceof SearchChannel &&
+                ((SearchChannel) channel).isResultCacheEnabled() ? (SearchChannel) channel : null;
+        if(cachingChannel != null) {
+            final ChannelSearchResult cached = cachingChannel.getCachedResult(sc);
+            if(cached != null) {
+                LOG.debug("Using cached result for channel", channel.getId());
+                return cached;
+            }
+        }
         try {
             final ChannelSearchResult result;
             if(sc.isReverseGeocode() && channel.getCapabilities().canGeocode()) {
@@ -271,6 +417,9 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
             for(SearchResultItem item : items) {
                 channel.calculateCommonFields(item);
             }
+            if(cachingChannel != null) {
+                cachingChannel.setCachedResult(sc, result);
+            }
             return result;
         } catch (Exception e) {
             LOG.error(e, "Search query to", channel.getId(), "failed! Searchstring was '", sc.getSearchString(), "'");
@@ -18,6 +18,7 @@ public class SearchWorker {
     public static final String KEY_LOCATIONS = "locations";
     public static final String KEY_METHODS = "methods";
     public static final String KEY_HAS_MORE = "hasMore";
+    public static final String KEY_INCOMPLETE = "incomplete";
 
 
     public static final String ERR_EMPTY = "cannot_be_empty";
@@ -95,6 +96,10 @@ public class SearchWorker {
             methodArray.put(JSONHelper.createJSONObject(channelId, query.findResult(channelId).getSearchMethod()));
         }
         JSONHelper.putValue(result, KEY_METHODS, methodArray);
+        if(query.isIncomplete()) {
+            // some channels timed out, results are partial
+            JSONHelper.putValue(result, KEY_INCOMPLETE, true);
+        }
         return result;
     }
 }
@@ -4,6 +4,8 @@ import fi.mml.portti.service.search.ChannelSearchResult;
 import fi.mml.portti.service.search.IllegalSearchCriteriaException;
 import fi.mml.portti.service.search.SearchCriteria;
 import fi.mml.portti.service.search.SearchResultItem;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
@@ -24,6 +26,7 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
 
 
     private static Logger log = LogFactory.getLogger(SearchChannel.class);
+    public static final String RESULT_CACHE_PREFIX = "SearchChannel.results.";
     private Map<String, Double> mapScalesForType = new HashMap<String, Double>();
     private double defaultScale = -1;
     private Map<String, Double> ranksForType = new HashMap<>();
@@ -31,6 +34,12 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
     // store encountered types here to only log about possible configs for new types
     private Set<String> types = new HashSet<String>();
     private int maxCount = 100;
+    // result caching is opt-in per channel with search.channel.[id].cache.ttl=[seconds]
+    private int resultCacheTTL = 0;
+    private int emptyResultCacheTTL = 0;
+    private double resultCacheGrid = 0;
+    private Cache<ChannelSearchResult> resultCache;
+    private Cache<ChannelSearchResult> emptyResultCache;
 
     public String getId() {
         return getName();
@@ -42,7 +51,113 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
         initTypeMap("rank", ranksForType);
         maxCount = PropertyUtil.getOptional("search.channel." + getName() + ".maxFeatures",
                 PropertyUtil.getOptional("search.max.results", maxCount));
+        initResultCache();
     }
+
+    private void initResultCache() {
+        resultCacheTTL = PropertyUtil.getOptional("search.channel." + getName() + ".cache.ttl", 0);
+        // empty results are cached with a separate TTL, defaults to same as results
+        emptyResultCacheTTL = PropertyUtil.getOptional("search.channel." + getName() + ".cache.ttl.empty", resultCacheTTL);
+        // reverse geocoding coordinates are rounded to this grid for the cache key, 0 = exact coordinates
+        resultCacheGrid = PropertyUtil.getOptional("search.channel." + getName() + ".cache.grid", 0d);
+        if(resultCacheTTL <= 0) {
+            return;
+        }
+        if(!isCacheable()) {
+            log.warn("Search channel", getId(), "has results that depend on the user - results will not be cached");
+            return;
+        }
+        resultCache = CacheManager.getCache(RESULT_CACHE_PREFIX + getId());
+        resultCache.setExpiration(resultCacheTTL * 1000L);
+        if(emptyResultCacheTTL > 0) {
+            emptyResultCache = CacheManager.getCache(RESULT_CACHE_PREFIX + getId() + ".empty");
+            emptyResultCache.setExpiration(emptyResultCacheTTL * 1000L);
+        }
+    }
+
+    /**
+     * Channels that return different results depending on the user (for example by checking permissions in
+     * hasPermission() or filtering results per user) should override this to return false so results are
+     * never shared between users even if caching is configured.
+     * @return true if results for identical criteria can be cached and shared between users
+     */
+    public boolean isCacheable() {
+        return true;
+    }
+
+    /**
+     * @return true if results for identical queries are cached
+     */
+    public boolean isResultCacheEnabled() {
+        return resultCache != null;
+    }
+
+    /**
+     * Returns a copy of a previously cached result for identical criteria.
+     * @param criteria search criteria
+     * @return cached result or null if not cached or caching is disabled for the channel
+     */
+    public ChannelSearchResult getCachedResult(SearchCriteria criteria) {
+        if(!isResultCacheEnabled()) {
+            return null;
+        }
+        final String key = getResultCacheKey(criteria, resultCacheGrid);
+        ChannelSearchResult result = resultCache.get(key);
+        if(result == null && emptyResultCache != null) {
+            result = emptyResultCache.get(key);
+        }
+        // callers modify the results (channel id, coordinate transforms) so the cached one is never returned
+        return result == null ? null : result.copy();
+    }
+
+    /**
+     * Caches the result for the criteria. Failed queries are not cached and empty results are cached
+     * with search.channel.[id].cache.ttl.empty.
+     * @param criteria search criteria
+     * @param result result for the criteria
+     */
+    public void setCachedResult(SearchCriteria criteria, ChannelSearchResult result) {
+        if(!isResultCacheEnabled() || result == null || result.isQueryFailed() || result.isTimedOut()) {
+            return;
+        }
+        final String key = getResultCacheKey(criteria, resultCacheGrid);
+        if(result.getNumberOfResults() > 0) {
+            resultCache.put(key, result.copy());
+        } else if(emptyResultCache != null) {
+            emptyResultCache.put(key, result.copy());
+        }
+    }
+
+    /**
+     * Builds a key from the criteria that affect results. The search string is normalized
+     * (trimmed, lower case, whitespace collapsed) and reverse geocoding coordinates are rounded to the grid.
+     */
+    protected static String getResultCacheKey(SearchCriteria criteria, double grid) {
+        final StringBuilder key = new StringBuilder();
+        if(criteria.isReverseGeocode()) {
+            key.append("xy:")
+                    .append(roundToGrid(criteria.getLon(), grid)).append(',')
+                    .append(roundToGrid(criteria.getLat(), grid));
+        } else {
+            final String searchString = criteria.getSearchString() == null ? "" : criteria.getSearchString();
+            key.append("q:").append(searchString.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT));
+        }
+        key.append('|').append(criteria.getLocale())
+                .append('|').append(criteria.getSRS())
+                .append('|').append(criteria.getMaxResults())
+                .append('|').append(criteria.getFromDate() == null ? "" : criteria.getFromDate().getTime())
+                .append('|').append(criteria.getToDate() == null ? "" : criteria.getToDate().getTime())
+                .append('|').append(new TreeMap<>(criteria.getParams()));
+        return key.toString();
+    }
+
+    private static double roundToGrid(double value, double grid) {
+        if(grid <= 0) {
+            return value;
+        }
+        return Math.round(value / grid) * grid;
+    }
+
     public int getMaxResults() {
         return maxCount;
     }
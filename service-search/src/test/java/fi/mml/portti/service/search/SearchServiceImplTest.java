@@ -0,0 +1,247 @@
+package fi.mml.portti.service.search;
+
+import fi.nls.oskari.domain.User;
+import fi.nls.oskari.search.channel.SearchChannel;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SearchServiceImplTest {
+
+    private SearchServiceImpl service;
+
+    @Before
+    public void setUp() {
+        service = new SearchServiceImpl();
+    }
+
+    @After
+    public void tearDown() {
+        SearchServiceImpl.shutdown();
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testChannelsAreSearchedConcurrently() throws Exception {
+        // each channel waits until all of them have started so a serial search would time out
+        final CountDownLatch started = new CountDownLatch(3);
+        final SearchCriteria sc = createCriteria();
+        for (String id : new String[] {"A", "B", "C"}) {
+            addChannel(sc, new TestChannel(id) {
+                protected void search() throws Exception {
+                    started.countDown();
+                    if (!started.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Channels weren't searched concurrently");
+                    }
+                }
+            });
+        }
+        final Query query = service.doSearch(sc);
+
+        assertEquals(3, query.getResults().size());
+        for (String id : new String[] {"A", "B", "C"}) {
+            final ChannelSearchResult result = query.findResult(id);
+            assertFalse("Channel " + id + " should succeed", result.isQueryFailed());
+            assertEquals(1, result.getNumberOfResults());
+        }
+        assertFalse(query.isIncomplete());
+    }
+
+    @Test
+    public void testSerialSearch() throws Exception {
+        PropertyUtil.addProperty(SearchServiceImpl.PROPERTY_PARALLEL, "false", true);
+        final SearchCriteria sc = createCriteria();
+        final TestChannel a = addChannel(sc, new TestChannel("A"));
+        final TestChannel b = addChannel(sc, new TestChannel("B"));
+        final Query query = service.doSearch(sc);
+
+        assertEquals(2, query.getResults().size());
+        assertEquals("A", query.getResults().get(0).getChannelId());
+        assertEquals("B", query.getResults().get(1).getChannelId());
+        assertEquals(1, a.calls.get());
+        assertEquals(1, b.calls.get());
+    }
+
+    @Test
+    public void testSlowChannelTimesOut() throws Exception {
+        PropertyUtil.addProperty("search.channel.SLOW.timeout", "200", true);
+        final SearchCriteria sc = createCriteria();
+        addChannel(sc, new TestChannel("SLOW") {
+            protected void search() throws Exception {
+                Thread.sleep(10000);
+            }
+        });
+        addChannel(sc, new TestChannel("FAST"));
+
+        final long start = System.currentTimeMillis();
+        final Query query = service.doSearch(sc);
+        assertTrue("Search shouldn't wait for the slow channel", System.currentTimeMillis() - start < 5000);
+
+        final ChannelSearchResult slow = query.findResult("SLOW");
+        assertTrue(slow.isTimedOut());
+        assertTrue(slow.isQueryFailed());
+        assertEquals(0, slow.getNumberOfResults());
+        final ChannelSearchResult fast = query.findResult("FAST");
+        assertFalse(fast.isTimedOut());
+        assertEquals(1, fast.getNumberOfResults());
+        assertTrue(query.isIncomplete());
+    }
+
+    @Test
+    public void testGlobalTimeout() throws Exception {
+        PropertyUtil.addProperty(SearchServiceImpl.PROPERTY_TIMEOUT, "200", true);
+        final SearchCriteria sc = createCriteria();
+        for (String id : new String[] {"A", "B"}) {
+            addChannel(sc, new TestChannel(id) {
+                protected void search() throws Exception {
+                    Thread.sleep(10000);
+                }
+            });
+        }
+        final long start = System.currentTimeMillis();
+        final Query query = service.doSearch(sc);
+        assertTrue("Search should end at the deadline", System.currentTimeMillis() - start < 5000);
+        assertTrue(query.findResult("A").isTimedOut());
+        assertTrue(query.findResult("B").isTimedOut());
+    }
+
+    @Test
+    public void testPartialFailure() throws Exception {
+        final SearchCriteria sc = createCriteria();
+        addChannel(sc, new TestChannel("BROKEN") {
+            protected void search() throws Exception {
+                throw new RuntimeException("Service unavailable");
+            }
+        });
+        addChannel(sc, new TestChannel("OK"));
+        final Query query = service.doSearch(sc);
+
+        assertEquals(2, query.getResults().size());
+        final ChannelSearchResult broken = query.findResult("BROKEN");
+        assertTrue(broken.isQueryFailed());
+        assertFalse("Failure isn't a timeout", broken.isTimedOut());
+        final ChannelSearchResult ok = query.findResult("OK");
+        assertFalse(ok.isQueryFailed());
+        assertEquals(1, ok.getNumberOfResults());
+        assertFalse(query.isIncomplete());
+    }
+
+    @Test
+    public void testChannelsAreSkippedWhenQueueIsFull() throws Exception {
+        PropertyUtil.addProperty(SearchServiceImpl.PROPERTY_THREADS, "1", true);
+        PropertyUtil.addProperty(SearchServiceImpl.PROPERTY_QUEUE, "1", true);
+        final SearchCriteria sc = createCriteria();
+        final CountDownLatch release = new CountDownLatch(1);
+        final TestChannel running = addChannel(sc, new TestChannel("RUNNING") {
+            protected void search() throws Exception {
+                release.await(200, TimeUnit.MILLISECONDS);
+            }
+        });
+        final TestChannel queued = addChannel(sc, new TestChannel("QUEUED"));
+        final TestChannel rejected = addChannel(sc, new TestChannel("REJECTED"));
+        final Query query = service.doSearch(sc);
+
+        assertEquals(3, query.getResults().size());
+        assertEquals(1, running.calls.get());
+        assertEquals(1, queued.calls.get());
+        assertEquals("Channel should be skipped", 0, rejected.calls.get());
+        assertTrue(query.findResult("REJECTED").isQueryFailed());
+        assertFalse(query.findResult("QUEUED").isQueryFailed());
+    }
+
+    @Test
+    public void testCachedResultsAreReused() throws Exception {
+        PropertyUtil.addProperty(SearchServiceImpl.PROPERTY_PARALLEL, "false", true);
+        PropertyUtil.addProperty("search.channel.CACHED_SERVICE.cache.ttl", "60", true);
+        final TestChannel channel = new TestChannel("CACHED_SERVICE");
+        channel.init();
+
+        final SearchCriteria first = createCriteria();
+        addChannel(first, channel);
+        final ChannelSearchResult result = service.doSearch(first).findResult("CACHED_SERVICE");
+        assertEquals(1, result.getNumberOfResults());
+        result.getSearchResultItems().get(0).setTitle("Modified by caller");
+
+        final SearchCriteria second = createCriteria();
+        second.addChannel(channel.getId());
+        final ChannelSearchResult cached = service.doSearch(second).findResult("CACHED_SERVICE");
+        assertEquals("Second search should hit the cache", 1, channel.calls.get());
+        assertEquals("CACHED_SERVICE result", cached.getSearchResultItems().get(0).getTitle());
+        assertEquals("CACHED_SERVICE", cached.getChannelId());
+    }
+
+    @Test
+    public void testRestrictedChannelIsSkipped() throws Exception {
+        PropertyUtil.addProperty(SearchServiceImpl.PROPERTY_PARALLEL, "false", true);
+        final SearchCriteria sc = createCriteria();
+        final TestChannel restricted = addChannel(sc, new TestChannel("RESTRICTED_SERVICE") {
+            @Override
+            public boolean hasPermission(User user) {
+                return false;
+            }
+        });
+        final TestChannel open = addChannel(sc, new TestChannel("OPEN"));
+        final Query query = service.doSearch(sc);
+
+        assertEquals(1, query.getResults().size());
+        assertEquals("OPEN", query.getResults().get(0).getChannelId());
+        assertEquals(0, restricted.calls.get());
+        assertEquals(1, open.calls.get());
+    }
+
+    private SearchCriteria createCriteria() {
+        final SearchCriteria sc = new SearchCriteria(new User());
+        sc.setSearchString("test");
+        return sc;
+    }
+
+    private <T extends TestChannel> T addChannel(final SearchCriteria sc, final T channel) {
+        service.addChannel(channel.getId(), channel);
+        sc.addChannel(channel.getId());
+        return channel;
+    }
+
+    /**
+     * Returns one result per search after running search()
+     */
+    private static class TestChannel extends SearchChannel {
+        private final String id;
+        final AtomicInteger calls = new AtomicInteger();
+
+        TestChannel(final String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getName() {
+            return id;
+        }
+
+        protected void search() throws Exception {
+        }
+
+        @Override
+        public ChannelSearchResult doSearch(SearchCriteria criteria) {
+            calls.incrementAndGet();
+            try {
+                search();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            final ChannelSearchResult result = new ChannelSearchResult();
+            final SearchResultItem item = new SearchResultItem();
+            item.setTitle(id + " result");
+            result.addItem(item);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package fi.nls.oskari.search.channel;
+
+import fi.mml.portti.service.search.ChannelSearchResult;
+import fi.mml.portti.service.search.SearchCriteria;
+import fi.mml.portti.service.search.SearchResultItem;
+import fi.nls.oskari.domain.User;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SearchChannelTest {
+
+    @After
+    public void tearDown() {
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testCachingIsOptIn() {
+        final SearchChannel channel = createChannel("NOT_CONFIGURED", true);
+        assertFalse(channel.isResultCacheEnabled());
+        channel.setCachedResult(createCriteria("test"), createResult("Result"));
+        assertNull(channel.getCachedResult(createCriteria("test")));
+    }
+
+    @Test
+    public void testCacheMissAndHit() throws Exception {
+        PropertyUtil.addProperty("search.channel.CACHED.cache.ttl", "60", true);
+        final SearchChannel channel = createChannel("CACHED", true);
+        assertTrue(channel.isResultCacheEnabled());
+        assertNull("Should miss before the result is cached", channel.getCachedResult(createCriteria("Test  String")));
+
+        channel.setCachedResult(createCriteria("Test  String"), createResult("Result"));
+        final ChannelSearchResult cached = channel.getCachedResult(createCriteria(" test string "));
+        assertNotNull("Normalized search string should hit", cached);
+        assertEquals(1, cached.getNumberOfResults());
+        assertEquals("Result", cached.getSearchResultItems().get(0).getTitle());
+        assertNull("Different search string should miss", channel.getCachedResult(createCriteria("other")));
+    }
+
+    @Test
+    public void testFailedResultsAreNotCached() throws Exception {
+        PropertyUtil.addProperty("search.channel.FAILING.cache.ttl", "60", true);
+        final SearchChannel channel = createChannel("FAILING", true);
+        final ChannelSearchResult failed = createResult("Result");
+        failed.setQueryFailed(true);
+        channel.setCachedResult(createCriteria("test"), failed);
+        assertNull(channel.getCachedResult(createCriteria("test")));
+    }
+
+    @Test
+    public void testCachedResultsAreCopies() throws Exception {
+        PropertyUtil.addProperty("search.channel.COPIES.cache.ttl", "60", true);
+        final SearchChannel channel = createChannel("COPIES", true);
+        final ChannelSearchResult result = createResult("Result");
+        channel.setCachedResult(createCriteria("test"), result);
+        // modifying the original after caching doesn't change the cached result
+        result.getSearchResultItems().get(0).setTitle("Modified");
+        result.addItem(new SearchResultItem());
+
+        final ChannelSearchResult first = channel.getCachedResult(createCriteria("test"));
+        assertEquals(1, first.getNumberOfResults());
+        assertEquals("Result", first.getSearchResultItems().get(0).getTitle());
+        // modifying a returned result doesn't change the cached result
+        first.getSearchResultItems().get(0).setTitle("Modified");
+        first.getSearchResultItems().get(0).setLon("1");
+        first.setChannelId("other");
+
+        final ChannelSearchResult second = channel.getCachedResult(createCriteria("test"));
+        assertNotSame(first, second);
+        assertEquals("Result", second.getSearchResultItems().get(0).getTitle());
+        assertNull(second.getSearchResultItems().get(0).getLon());
+        assertNull(second.getChannelId());
+    }
+
+    @Test
+    public void testUserSpecificChannelIsNotCached() throws Exception {
+        PropertyUtil.addProperty("search.channel.RESTRICTED.cache.ttl", "60", true);
+        final SearchChannel channel = createChannel("RESTRICTED", false);
+        assertFalse(channel.isResultCacheEnabled());
+        channel.setCachedResult(createCriteria("test"), createResult("Result"));
+        assertNull(channel.getCachedResult(createCriteria("test")));
+    }
+
+    private static SearchChannel createChannel(final String id, final boolean cacheable) {
+        final SearchChannel channel = new SearchChannel() {
+            @Override
+            public String getName() {
+                return id;
+            }
+
+            @Override
+            public boolean isCacheable() {
+                return cacheable;
+            }
+        };
+        channel.init();
+        return channel;
+    }
+
+    private static SearchCriteria createCriteria(final String query) {
+        final SearchCriteria sc = new SearchCriteria(new User());
+        sc.setSearchString(query);
+        return sc;
+    }
+
+    private static ChannelSearchResult createResult(final String title) {
+        final ChannelSearchResult result = new ChannelSearchResult();
+        final SearchResultItem item = new SearchResultItem();
+        item.setTitle(title);
+        result.addItem(item);
+        return result;
+    }
+}
@@ -1,8 +1,12 @@
 package fi.nls.oskari.control.statistics.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import fi.nls.oskari.util.JSONHelper;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 /**
  * Encapsulates the allowed types for indicators.
  */
@@ -17,4 +21,23 @@ public interface IndicatorValue {
      * @throws JSONException 
      */
     public void putToJSONObject(JSONObject json, String key) throws JSONException;
+
+    /**
+     * Writes the value as a field of the object being written by the generator, same as putToJSONObject().
+     * @param gen generator with an object started
+     * @param key field name
+     * @throws IOException if writing fails
+     */
+    default void writeTo(JsonGenerator gen, String key) throws IOException {
+        final JSONObject json = new JSONObject();
+        try {
+            putToJSONObject(json, key);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        if (json.has(key)) {
+            gen.writeFieldName(key);
+            JSONHelper.writeJSON(gen, json.opt(key));
+        }
+    }
 }
@@ -1,8 +1,11 @@
 package fi.nls.oskari.control.statistics.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 public class IndicatorValueBoolean implements IndicatorValue {
     private boolean booleanValue;
     public IndicatorValueBoolean(boolean value) {
@@ -15,4 +18,8 @@ public class IndicatorValueBoolean implements IndicatorValue {
     public void putToJSONObject(JSONObject json, String key) throws JSONException {
         json.put(key, booleanValue);
     }
+    @Override
+    public void writeTo(JsonGenerator gen, String key) throws IOException {
+        gen.writeBooleanField(key, booleanValue);
+    }
 }
@@ -1,8 +1,11 @@
 package fi.nls.oskari.control.statistics.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 public class IndicatorValueFloat implements IndicatorValue {
     private Double floatValue;
     public IndicatorValueFloat(Double value) {
@@ -15,4 +18,11 @@ public class IndicatorValueFloat implements IndicatorValue {
     public void putToJSONObject(JSONObject json, String key) throws JSONException {
         json.put(key, floatValue);
     }
+    @Override
+    public void writeTo(JsonGenerator gen, String key) throws IOException {
+        // null values are left out like JSONObject.put() does
+        if (floatValue != null) {
+            gen.writeNumberField(key, floatValue);
+        }
+    }
 }
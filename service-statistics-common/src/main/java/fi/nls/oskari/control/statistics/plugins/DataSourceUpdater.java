@@ -3,6 +3,7 @@ package fi.nls.oskari.control.statistics.plugins;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.control.statistics.data.StatisticalIndicator;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
@@ -80,16 +81,14 @@ public class DataSourceUpdater implements Runnable {
         final String workCacheKey = getIndicatorListWorkKey();
         final List<StatisticalIndicator> processIndicators = new ArrayList<>();
 
-        // read work queue to Java classes
-        String json = JedisManager.popList(workCacheKey);
-        while(json != null) {
+        // read the whole work queue with one request and map to Java classes
+        for(String json : JedisManager.drainList(workCacheKey)) {
             try {
                 StatisticalIndicator indicator = MAPPER.readValue(json, StatisticalIndicator.class);
                 processIndicators.add(indicator);
             } catch (IOException ex) {
                 LOG.error(ex, "Couldn't read indicator data from work queue:", json);
             }
-            json = JedisManager.popList(workCacheKey);
         }
         return processIndicators;
     }
@@ -115,6 +114,7 @@ public class DataSourceUpdater implements Runnable {
         try {
             String result = listMapper.writeValueAsString(existingIndicators);
             JedisManager.setex(plugin.getIndicatorListKey(), JedisManager.EXPIRY_TIME_DAY * 7, result);
+            JedisNearCache.publishInvalidation(plugin.getIndicatorListKey());
         } catch (JsonProcessingException ex) {
             LOG.error(ex, "Error updating indicator list");
         }
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.plugins.db.StatisticalDatasource;
 import fi.nls.oskari.domain.User;
@@ -13,7 +14,6 @@ import fi.nls.oskari.util.JSONHelper;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +55,8 @@ public abstract class StatisticalDatasourcePlugin {
 
     private StatisticalDatasource source = null;
     private DataSourceUpdater updater = null;
+    private JedisNearCache<StatisticalIndicator> indicatorCache = null;
+    private JedisNearCache<List<StatisticalIndicator>> indicatorListCache = null;
 
     private static final Logger LOG = LogFactory.getLogger(StatisticalDatasourcePlugin.class);
     private static final ObjectMapper MAPPER = new ObjectMapper();
@@ -99,6 +101,18 @@ public abstract class StatisticalDatasourcePlugin {
      */
     public void init(StatisticalDatasource source) {
         this.source = source;
+        // hints are applied before caching so the shared indicator objects are not modified afterwards
+        indicatorCache = JedisNearCache.getNearCache(CACHE_PREFIX + source.getId() + CACHE_POSTFIX_METADATA, json -> {
+            StatisticalIndicator indicator = MAPPER.readValue(json, StatisticalIndicator.class);
+            try {
+                handleHints(indicator);
+            } catch (Exception ex) {
+                LOG.info("Problem handling hints for indicator");
+            }
+            return indicator;
+        });
+        indicatorListCache = JedisNearCache.getNearCache(CACHE_PREFIX + source.getId() + CACHE_POSTFIX_LIST,
+                json -> MAPPER.readValue(json, new TypeReference<List<StatisticalIndicator>>(){}));
     }
     public StatisticalDatasource getSource() {
         return source;
@@ -130,22 +144,16 @@ public abstract class StatisticalDatasourcePlugin {
     }
 
     public StatisticalIndicator getIndicator(User user, String indicatorId) {
-        try {
-            String json = JedisManager.get(getIndicatorMetadataKey(indicatorId));
-            StatisticalIndicator indicator = MAPPER.readValue(json, StatisticalIndicator.class);
-            if(hasPermission(indicator, user)) {
-                // sort dimensions etc
-                try {
-                    handleHints(indicator);
-                } catch (Exception ex) {
-                    LOG.info("Problem handling hints for indicator");
-                }
-                return indicator;
-            }
-            LOG.error("User doesn't have permissions to indicator ", indicatorId);
-        } catch (IOException ex) {
-            LOG.error(ex, "Couldn't read indicator data for is:", indicatorId);
+        // dimensions are sorted etc when the indicator is parsed
+        StatisticalIndicator indicator = indicatorCache.get(getIndicatorMetadataKey(indicatorId));
+        if(indicator == null) {
+            LOG.error("Couldn't read indicator data for is:", indicatorId);
+            return null;
+        }
+        if(hasPermission(indicator, user)) {
+            return indicator;
         }
+        LOG.error("User doesn't have permissions to indicator ", indicatorId);
         return null;
     }
 
@@ -194,7 +202,8 @@ public abstract class StatisticalDatasourcePlugin {
     private void saveIndicator(StatisticalIndicator indicator) {
         try {
             String json = MAPPER.writeValueAsString(indicator);
-            JedisManager.setex(getIndicatorMetadataKey(indicator.getId()), JedisManager.EXPIRY_TIME_DAY * 7, json);
+            // don't cache the given object locally as hints haven't been applied to it
+            indicatorCache.put(getIndicatorMetadataKey(indicator.getId()), JedisManager.EXPIRY_TIME_DAY * 7, json, null);
         } catch (JsonProcessingException ex) {
             LOG.error(ex, "Error updating indicator metadata");
         }
@@ -206,16 +215,10 @@ public abstract class StatisticalDatasourcePlugin {
 
     protected List<StatisticalIndicator> getProcessedIndicators() {
         final List<StatisticalIndicator> existingIndicators = new ArrayList<>();
-        final String cacheKey = getIndicatorListKey();
-        try {
-            String existingJSON = JedisManager.get(cacheKey);
-            if(existingJSON != null) {
-                List<StatisticalIndicator> list = MAPPER.readValue(existingJSON, new TypeReference<List<StatisticalIndicator>>(){});
-                existingIndicators.addAll(list);
-            }
-        } catch (IOException ex) {
-            // Don't print out the content as it might be pretty long
-            LOG.error(ex, "Couldn't read indicator data from existing list queue. Check redis with key", cacheKey);
+        // parse errors are logged by the cache
+        List<StatisticalIndicator> list = indicatorListCache.get(getIndicatorListKey());
+        if(list != null) {
+            existingIndicators.addAll(list);
         }
         return existingIndicators;
     }
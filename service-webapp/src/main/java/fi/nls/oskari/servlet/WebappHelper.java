@@ -6,6 +6,7 @@ import fi.nls.oskari.db.DatasourceHelper;
 import fi.nls.oskari.db.FlywaydbMigrator;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
 import fi.nls.oskari.scheduler.SchedulerService;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.PropertyUtil;
@@ -68,6 +69,8 @@ public class WebappHelper {
                     ConversionHelper.getInt(PropertyUtil.get(KEY_REDIS_POOL_SIZE), 30),
                     PropertyUtil.get(KEY_REDIS_HOSTNAME, "localhost"),
                     ConversionHelper.getInt(PropertyUtil.get(KEY_REDIS_PORT), 6379));
+            log.info("Decoding projections");
+            CRSCache.warmUp();
             log.info("Oskari-map context initialization done");
             log.info(STR_LOG_LINE);
         } catch (Exception ex) {
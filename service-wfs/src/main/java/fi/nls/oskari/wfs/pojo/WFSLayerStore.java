@@ -9,11 +9,12 @@ import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.domain.map.wfs.WFSLayerConfiguration;
 import fi.nls.oskari.domain.map.wfs.WFSSLDStyle;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
-import org.geotools.referencing.CRS;
+import fi.nls.oskari.map.geometry.CRSCache;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -32,6 +33,8 @@ public class WFSLayerStore extends WFSLayerConfiguration {
 
     private static final String ERROR = "error";
     public static ObjectMapper mapper = new ObjectMapper();
+    private static final JedisNearCache<WFSLayerStore> NEAR_CACHE =
+            JedisNearCache.getNearCache(WFSLayerStore.class.getName(), WFSLayerStore::setJSON);
 
     // not in JSON
     private CoordinateReferenceSystem crs;
@@ -167,7 +170,7 @@ public class WFSLayerStore extends WFSLayerConfiguration {
         if (this.crs == null) {
             try {
                 //TODO set Crs according to axis orientation
-                this.crs = CRS.decode(this.getSRSName(),true);
+                this.crs = CRSCache.decode(this.getSRSName(),true);
             } catch (FactoryException e) {
                 log.error(e, "CRS decoding failed");
             }
@@ -433,4 +436,17 @@ public class WFSLayerStore extends WFSLayerConfiguration {
     public static String getCacheNecessary(String layerId) {
         return JedisManager.getNecessary(KEY + layerId);
     }
+
+    /**
+     * Gets saved layer from node local cache or redis. The returned object is shared and
+     * should not be modified.
+     *
+     * @param layerId
+     * @param throwException throws new runtime exception if redis communication fails
+     * @return layer or null if not found
+     */
+    @JsonIgnore
+    public static WFSLayerStore getCachedLayer(String layerId, boolean throwException) {
+        return NEAR_CACHE.get(KEY + layerId, throwException);
+    }
 }
@@ -2,11 +2,11 @@ package fi.nls.oskari.image;
 
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
 import fi.nls.oskari.pojo.WFSLayerPermissionsStore;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.wfs.WFSImage;
 import fi.nls.oskari.wfs.WFSProcess;
-import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
@@ -130,16 +130,17 @@ public class ImageServlet extends HttpServlet {
         }
 
 		// get image from cache (persistant)
-		BufferedImage bufferedImage = WFSImage.getCache(layerId, style, srs, bbox, zoom);
-		if(bufferedImage == null) { // check temp cache
-			bufferedImage = WFSImage.getCache(layerId, style, srs, bbox, zoom, false);
+		byte[] byteImage = WFSImage.getCacheBytes(layerId, style, srs, bbox, zoom, true);
+		if(byteImage == null) { // check temp cache
+			byteImage = WFSImage.getCacheBytes(layerId, style, srs, bbox, zoom, false);
 		}
 		
-		if(bufferedImage != null) {
-			// send image
+		if(byteImage != null) {
+			// send image, cached images are already encoded as PNG
     		try {
+				response.setContentLength(byteImage.length);
 				OutputStream out = response.getOutputStream();
-				ImageIO.write(bufferedImage, FORMAT, out);
+				out.write(byteImage);
 				out.close();
     		} catch (Exception e) {
 	    		log.error(e, "Sending image failed");
@@ -153,7 +154,7 @@ public class ImageServlet extends HttpServlet {
             } else {
                 try {
                     // create & send image
-                    bufferedImage = WFSProcess.highlight(session, layerId, featureIds, bbox, srs, zoom, width, height);
+                    BufferedImage bufferedImage = WFSProcess.highlight(session, layerId, featureIds, bbox, srs, zoom, width, height);
                     OutputStream out = response.getOutputStream();
                     ImageIO.write(bufferedImage, FORMAT, out);
                     out.close();
@@ -188,7 +189,7 @@ public class ImageServlet extends HttpServlet {
     private CoordinateReferenceSystem getCrs(String srs) {
         CoordinateReferenceSystem crs = null;
         try {
-            crs = CRS.decode(srs, true);
+            crs = CRSCache.decode(srs, true);
         } catch (FactoryException e) {
             log.error(e, "CRS decoding failed");
         }
@@ -1,6 +1,7 @@
 package fi.nls.oskari.pojo;
 
 import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 import java.util.List;
 
@@ -17,6 +18,7 @@ public class Layer {
 	private boolean visible = true;
 	private List<String> highlightedFeatureIds = null;
     private List<List<Double>> tiles = null;
+	private String output = null;
 
 	/**
 	 * Style named "none" has special meaning:
@@ -117,6 +119,25 @@ public class Layer {
 		this.highlightedFeatureIds = highlightedFeatureIds;
 	}
 
+	/**
+	 * Gets requested output format for the layer, null for images
+	 *
+	 * @return output format
+	 */
+	@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+	public String getOutput() {
+		return output;
+	}
+
+	/**
+	 * Sets requested output format for the layer ("mvt" for vector tiles)
+	 *
+	 * @param output
+	 */
+	public void setOutput(String output) {
+		this.output = output;
+	}
+
     /**
      * Gets tiles (bounding boxes)
      *
@@ -2,9 +2,9 @@ package fi.nls.oskari.pojo;
 
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -185,7 +185,7 @@ public class Location {
     public CoordinateReferenceSystem getCrsForMap() {
         if(this.mapcrs == null) {
             try {
-                this.mapcrs = CRS.decode(this.getSrs(),true);
+                this.mapcrs = CRSCache.decode(this.getSrs(),true);
             } catch (NoSuchAuthorityCodeException e) {
                 log.warn(e, "Couldn't setup CoordinateReferenceSystem");
             } catch (FactoryException e) {
@@ -219,7 +219,7 @@ public class Location {
 		if(this.envelope == null) {
 			if(this.crs == null) {
 				try {
-					this.crs = CRS.decode(this.getSrs(), true);
+					this.crs = CRSCache.decode(this.getSrs(), true);
 				} catch (FactoryException e) {
 					log.error(e, "CRS decoding failed");
 				}
@@ -246,7 +246,7 @@ public class Location {
         if(this.envelope == null) {
             if(this.mapcrs == null) {
                 try {
-                    this.mapcrs = CRS.decode(this.getSrs(),true);
+                    this.mapcrs = CRSCache.decode(this.getSrs(),true);
                 } catch (FactoryException e) {
                     log.error(e, "CRS decoding failed");
                 }
@@ -306,7 +306,7 @@ public class Location {
 		ReferencedEnvelope envelope = null;
 
 		try {
-			targetCRS = CRS.decode(target, true);
+			targetCRS = CRSCache.decode(target, true);
 			envelope = env.transform(targetCRS, lenient);
 		} catch (TransformException e) {
 			log.error(e, "Transforming failed");
@@ -344,7 +344,7 @@ public class Location {
     public MathTransform getTransformForClient(String source, boolean lenient) {
         CoordinateReferenceSystem sourceCRS = null;
         try {
-            sourceCRS = CRS.decode(source, true);
+            sourceCRS = CRSCache.decode(source, true);
         } catch (Exception e) {
             log.error(e, "Creating transform CRSs failed");
         }
@@ -383,7 +383,7 @@ public class Location {
     public MathTransform getTransformForService(String target, boolean lenient) {
         CoordinateReferenceSystem targetCRS = null;
         try {
-            targetCRS = CRS.decode(target, true);
+            targetCRS = CRSCache.decode(target, true);
         } catch (Exception e) {
             log.error(e, "Creating transform CRSs failed");
         }
@@ -420,7 +420,7 @@ public class Location {
     @JsonIgnore
     public static MathTransform getTransform(CoordinateReferenceSystem source, CoordinateReferenceSystem target, boolean lenient) {
         try {
-            return CRS.findMathTransform(source, target, lenient);
+            return CRSCache.findMathTransform(source, target, lenient);
         } catch (Exception e) {
             log.error(e, "Transforming failed");
         }
@@ -13,6 +13,7 @@ import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.annotate.JsonSerialize;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -48,6 +49,7 @@ public class SessionStore {
 	private Tile mapSize;
 	private List<Double> mapScales;
 	private Map<String, Layer> layers;
+	private String featureEncoding; // feature payload encoding requested in init, null for rows
 	private Coordinate mapClick; // passed parameter - not saved
 	private GeoJSONFilter filter; // passed parameter - not saved
     private PropertyFilter propertyFilter; // passed parameter - not saved
@@ -189,6 +191,25 @@ public class SessionStore {
 		this.browser = browser;
 	}
 
+	/**
+	 * Gets the encoding of feature payloads requested by the client
+	 *
+	 * @return encoding or null for the default (a list of values per feature)
+	 */
+	@JsonSerialize(include = JsonSerialize.Inclusion.NON_NULL)
+	public String getFeatureEncoding() {
+		return featureEncoding;
+	}
+
+	/**
+	 * Sets the encoding of feature payloads
+	 *
+	 * @param featureEncoding
+	 */
+	public void setFeatureEncoding(String featureEncoding) {
+		this.featureEncoding = featureEncoding;
+	}
+
 	/**
 	 * Sets browser version
 	 * @deprecated Information is no longer sent from browser - keeping for compatibility reasons
@@ -421,6 +442,87 @@ public class SessionStore {
         this.geomRequest = geomRequest;
     }
 
+    /**
+	 * Clears parameters that are only valid for the request being processed (not saved to redis)
+	 * so a session kept in memory starts each request like a session read from redis.
+	 */
+	public void clearRequestParams() {
+		mapClick = null;
+		filter = null;
+		propertyFilter = null;
+		keepPrevious = false;
+		geomRequest = false;
+		for (Layer layer : layers.values()) {
+			layer.setTiles(null);
+			layer.setHighlightedFeatureIds(null);
+		}
+	}
+
+	/**
+	 * Creates a copy of the session for a job so that later requests modifying the session
+	 * don't affect jobs that are already queued or running.
+	 *
+	 * @return copy of the session
+	 */
+	@JsonIgnore
+	public SessionStore copy() {
+		SessionStore copy = new SessionStore(client);
+		copy.session = session;
+		copy.route = route;
+		copy.uuid = uuid;
+		copy.language = language;
+		copy.browser = browser;
+		copy.browserVersion = browserVersion;
+		copy.featureEncoding = featureEncoding;
+		if (location != null) {
+			copy.location = new Location(location.getSrs());
+			copy.location.setBbox(new ArrayList<Double>(location.getBbox()));
+			copy.location.setZoom(location.getZoom());
+		} else {
+			copy.location = null;
+		}
+		if (grid != null) {
+			copy.grid = new Grid();
+			copy.grid.setRows(grid.getRows());
+			copy.grid.setColumns(grid.getColumns());
+			copy.grid.setBounds(grid.getBounds() == null ? null : new ArrayList<List<Double>>(grid.getBounds()));
+		} else {
+			copy.grid = null;
+		}
+		copy.tileSize = copyTile(tileSize);
+		copy.mapSize = copyTile(mapSize);
+		copy.mapScales = mapScales == null ? null : new ArrayList<Double>(mapScales);
+		for (Map.Entry<String, Layer> entry : layers.entrySet()) {
+			Layer layer = entry.getValue();
+			Layer layerCopy = new Layer(layer.getId(), layer.getStyleName());
+			layerCopy.setVisible(layer.isVisible());
+			layerCopy.setOutput(layer.getOutput());
+			if (layer.getHighlightedFeatureIds() != null) {
+				layerCopy.setHighlightedFeatureIds(new ArrayList<String>(layer.getHighlightedFeatureIds()));
+			}
+			if (layer.getTiles() != null) {
+				layerCopy.setTiles(new ArrayList<List<Double>>(layer.getTiles()));
+			}
+			copy.layers.put(entry.getKey(), layerCopy);
+		}
+		copy.mapClick = mapClick;
+		copy.filter = filter;
+		copy.propertyFilter = propertyFilter;
+		copy.keepPrevious = keepPrevious;
+		copy.geomRequest = geomRequest;
+		return copy;
+	}
+
+	private static Tile copyTile(Tile tile) {
+		if (tile == null) {
+			return null;
+		}
+		Tile copy = new Tile();
+		copy.setWidth(tile.getWidth());
+		copy.setHeight(tile.getHeight());
+		return copy;
+	}
+
     /**
 	 * Saves into redis
 	 * 
@@ -551,6 +653,10 @@ public class SessionStore {
 				store.setBrowser(parser.getText());
 			} else if (TransportService.PARAM_BROWSER_VERSION.equals(fieldName)) {
 				store.setBrowserVersion(parser.getValueAsLong());
+			} else if (TransportService.PARAM_FEATURE_ENCODING.equals(fieldName)) {
+				if (parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+					store.setFeatureEncoding(parser.getText());
+				}
 			} else if (TransportService.PARAM_LOCATION.equals(fieldName)) {
                 if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
                     while (parser.nextToken() != JsonToken.END_OBJECT) {
@@ -670,6 +776,10 @@ public class SessionStore {
                                     layer.setStyleName(parser.getText());
                                 } else if (TransportService.PARAM_LAYER_VISIBLE.equals(valueName)) {
                                     layer.setVisible(parser.getValueAsBoolean());
+                                } else if (TransportService.PARAM_LAYER_OUTPUT.equals(valueName)) {
+                                    if (parser.getCurrentToken() != JsonToken.VALUE_NULL) {
+                                        layer.setOutput(parser.getText());
+                                    }
                                 } else {
                                     throw new IllegalStateException(
                                             "Unrecognized value in layers '"
@@ -2,7 +2,7 @@ package fi.nls.oskari.pojo;
 
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
-import org.geotools.referencing.CRS;
+import fi.nls.oskari.map.geometry.CRSCache;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import javax.measure.unit.Unit;
@@ -68,8 +68,8 @@ public class Units {
         double fromUnitFactor;
 
         try {
-            fromCrs = CRS.decode(fromSrs);
-            toCrs = CRS.decode(toSrs);
+            fromCrs = CRSCache.decode(fromSrs);
+            toCrs = CRSCache.decode(toSrs);
             fromCrsUnit = fromCrs.getCoordinateSystem().getAxis(0).getUnit();
             toCrsUnit = toCrs.getCoordinateSystem().getAxis(0).getUnit();
             fromCrsUnitString = fromCrsUnit.toString();
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.PropertyUtil;
@@ -26,6 +27,8 @@ public class WFSLayerPermissionsStore {
 	private static final ObjectMapper mapper = new ObjectMapper();
 
 	public static final String KEY = "Permission_";
+	private static final JedisNearCache<WFSLayerPermissionsStore> NEAR_CACHE =
+			JedisNearCache.getNearCache(WFSLayerPermissionsStore.class.getName(), WFSLayerPermissionsStore::setJSON);
 
 	private List<String> layerIds;
 
@@ -107,6 +110,17 @@ public class WFSLayerPermissionsStore {
 		return JedisManager.get(KEY + session);
 	}
 
+	/**
+	 * Gets saved permissions for certain session from node local cache or redis.
+	 *
+	 * @param session
+	 * @return permissions or null if not found
+	 */
+	@JsonIgnore
+	public static WFSLayerPermissionsStore getCachedPermissions(String session) {
+		return NEAR_CACHE.get(KEY + session);
+	}
+
 	/**
      * Return base wfs id, if analysis_ layer
      * @param id
@@ -17,6 +17,8 @@ public class BayeuxInitializer extends GenericServlet
 {
 	private static final long serialVersionUID = -8679423990705602245L;
 
+    private transient TransportService service;
+
     /**
      * On servlet init creates BayeuxServer and TransportService 
      * 
@@ -26,7 +28,7 @@ public class BayeuxInitializer extends GenericServlet
 	public void init() throws ServletException
     {
         BayeuxServer bayeux = (BayeuxServer)getServletContext().getAttribute(BayeuxServer.ATTRIBUTE);
-        new TransportService(bayeux);
+        service = new TransportService(bayeux);
     }
 
 	/**
@@ -46,6 +48,10 @@ public class BayeuxInitializer extends GenericServlet
      */
     @Override
     public void destroy() {
+        if (service != null) {
+            service.destroy();
+            service = null;
+        }
     	super.destroy();
     }
 }
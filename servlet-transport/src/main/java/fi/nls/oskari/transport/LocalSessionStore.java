@@ -0,0 +1,185 @@
+package fi.nls.oskari.transport;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.pojo.SessionStore;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the sessions of clients connected to this node in memory. The in-memory session is
+ * authoritative while the client is connected so requests don't need to read and parse the
+ * session from Redis. Modified sessions are written to Redis in the background, coalescing
+ * multiple modifications of a session to one write, so the session can still be picked up
+ * from Redis by another node.
+ *
+ * Callers should synchronize on the SessionStore object while modifying it.
+ *
+ * Configured with property:
+ * - transport.session.flushInterval=[ms] delay for writing modified sessions to Redis (defaults to 1000).
+ *   Zero or less writes the session on each save() like before.
+ */
+public class LocalSessionStore {
+
+    private static final Logger log = LogFactory.getLogger(LocalSessionStore.class);
+
+    public static final String PROPERTY_FLUSH_INTERVAL = "transport.session.flushInterval";
+
+    /**
+     * Storage for sessions shared between nodes
+     */
+    public interface Backend {
+        String load(String client);
+        void save(SessionStore store);
+    }
+
+    private final Map<String, SessionStore> sessions = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Backend backend;
+    private final ScheduledExecutorService flusher;
+
+    public LocalSessionStore() {
+        this(new RedisBackend(), PropertyUtil.getOptional(PROPERTY_FLUSH_INTERVAL, 1000));
+    }
+
+    LocalSessionStore(Backend backend, long flushInterval) {
+        this.backend = backend;
+        if (flushInterval > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "session-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * @return session kept on this node or null if there is none
+     */
+    public SessionStore getLocal(final String client) {
+        return sessions.get(client);
+    }
+
+    /**
+     * Returns the session kept on this node. If there is none the session is read from Redis
+     * (created on another node) or a new session is created.
+     * @throws IOException if the session in Redis can't be parsed
+     */
+    public SessionStore get(final String client) throws IOException {
+        SessionStore store = sessions.get(client);
+        if (store != null) {
+            return store;
+        }
+        final String json = backend.load(client);
+        store = json == null ? null : SessionStore.setJSON(json);
+        if (store == null) {
+            log.debug("Created a new session for user (" + client + ")");
+            store = new SessionStore(client);
+        }
+        final SessionStore existing = sessions.putIfAbsent(client, store);
+        return existing != null ? existing : store;
+    }
+
+    /**
+     * Stores the session on this node and schedules it to be written to Redis.
+     */
+    public void save(final SessionStore store) {
+        final String client = store.getClient();
+        sessions.put(client, store);
+        dirty.add(client);
+        if (flusher == null) {
+            flush(client);
+        }
+    }
+
+    /**
+     * Removes the session from this node without writing pending changes to Redis.
+     * @return removed session or null if there was none
+     */
+    public SessionStore remove(final String client) {
+        final SessionStore store = sessions.get(client);
+        if (store == null) {
+            return null;
+        }
+        // wait for a possible flush in progress so it can't write the session back after this
+        synchronized (store) {
+            sessions.remove(client, store);
+            dirty.remove(client);
+        }
+        return store;
+    }
+
+    /**
+     * Writes pending changes of the session to Redis and removes it from this node.
+     * Used when the client is no longer connected to this node but the session might be resumed elsewhere.
+     */
+    public void evict(final String client) {
+        flush(client);
+        remove(client);
+    }
+
+    /**
+     * Writes all modified sessions to Redis
+     */
+    public void flush() {
+        for (String client : dirty) {
+            flush(client);
+        }
+    }
+
+    private void flush(final String client) {
+        if (!dirty.remove(client)) {
+            return;
+        }
+        final SessionStore store = sessions.get(client);
+        if (store == null) {
+            return;
+        }
+        synchronized (store) {
+            if (sessions.get(client) != store) {
+                // removed while we were waiting
+                return;
+            }
+            try {
+                backend.save(store);
+            } catch (Exception e) {
+                log.warn(e, "Couldn't write session for client", client, "- retrying on next flush");
+                dirty.add(client);
+            }
+        }
+    }
+
+    public int getSize() {
+        return sessions.size();
+    }
+
+    /**
+     * Writes pending changes and stops the background writer
+     */
+    public void shutdown() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        flush();
+    }
+
+    static class RedisBackend implements Backend {
+        public String load(String client) {
+            return SessionStore.getCache(client);
+        }
+
+        public void save(SessionStore store) {
+            store.save();
+        }
+    }
+}
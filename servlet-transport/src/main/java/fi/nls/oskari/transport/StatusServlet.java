@@ -11,9 +11,11 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.wfs.CachingSchemaLocator;
+import fi.nls.oskari.wfs.WFSImage;
 import fi.nls.oskari.wfs.util.HttpHelper;
 import fi.nls.oskari.work.JobHelper;
 import fi.nls.oskari.work.hystrix.HystrixJobQueue;
@@ -90,14 +92,26 @@ public class StatusServlet extends HttpServlet {
     public static String getStatusMessage() {
         JSONObject metricsJSON = new JSONObject();
         JSONHelper.putValue(metricsJSON, "schema.cache.size", CachingSchemaLocator.getCacheSize());
+        JSONHelper.putValue(metricsJSON, "crs.cache.hits", CRSCache.getCRSHitCount());
+        JSONHelper.putValue(metricsJSON, "crs.cache.misses", CRSCache.getCRSMissCount());
+        JSONHelper.putValue(metricsJSON, "crs.transform.cache.hits", CRSCache.getTransformHitCount());
+        JSONHelper.putValue(metricsJSON, "crs.transform.cache.misses", CRSCache.getTransformMissCount());
         final HystrixJobQueue q = (HystrixJobQueue)TransportService.getQueue();
         JSONHelper.putValue(metricsJSON, "queue.size.current",  q.getQueueSize());
         JSONHelper.putValue(metricsJSON, "queue.size.max",  q.getMaxQueueLength());
         JSONHelper.putValue(metricsJSON, "queue.job.length.min",  q.getMinJobLength());
         JSONHelper.putValue(metricsJSON, "queue.job.length.max",  q.getMaxJobLength());
         JSONHelper.putValue(metricsJSON, "queue.job.length.avg",  q.getAvgRuntime());
+        JSONHelper.putValue(metricsJSON, "queue.job.length.p50",  q.getRuntimes().getPercentile(0.5));
+        JSONHelper.putValue(metricsJSON, "queue.job.length.p95",  q.getRuntimes().getPercentile(0.95));
+        JSONHelper.putValue(metricsJSON, "queue.job.length.p99",  q.getRuntimes().getPercentile(0.99));
+        JSONHelper.putValue(metricsJSON, "queue.job.wait.p50",  q.getWaitTimes().getPercentile(0.5));
+        JSONHelper.putValue(metricsJSON, "queue.job.wait.p95",  q.getWaitTimes().getPercentile(0.95));
+        JSONHelper.putValue(metricsJSON, "queue.job.wait.p99",  q.getWaitTimes().getPercentile(0.99));
         JSONHelper.putValue(metricsJSON, "queue.job.count",  q.getJobCount());
         JSONHelper.putValue(metricsJSON, "queue.job.count.crashed",  q.getCrashedJobCount());
+        JSONHelper.putValue(metricsJSON, "queue.job.count.superseded",  q.getSupersededJobCount());
+        JSONHelper.putValue(metricsJSON, "queue.job.count.rejected",  q.getRejectedJobCount());
         JSONHelper.putValue(metricsJSON, "queue.job.crashed.first",  q.getFirstCrashedJob());
         JSONHelper.putValue(metricsJSON, "queue.jobs",  new JSONArray(q.getQueuedJobNames()));
 
@@ -113,6 +127,14 @@ public class StatusServlet extends HttpServlet {
             log.error(e, "Error writing metrics JSON");
         }
 
+        try {
+            StringWriter w = new StringWriter();
+            writer.writeValue(w, WFSImage.getCacheMetrics());
+            JSONHelper.putValue(metricsJSON, "WFSImage", JSONHelper.createJSONObject(w.toString()));
+        } catch (Exception e) {
+            log.error(e, "Error writing metrics JSON");
+        }
+
         try {
             StringWriter w = new StringWriter();
             writer.writeValue(w, new MemoryUsageGaugeSet());
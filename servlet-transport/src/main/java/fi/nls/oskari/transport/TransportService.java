@@ -2,8 +2,10 @@ package fi.nls.oskari.transport;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.cache.JedisNearCache;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.map.geometry.CRSCache;
 import fi.nls.oskari.pojo.*;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.service.ServiceRuntimeException;
@@ -61,6 +63,7 @@ public class TransportService extends AbstractService {
 	public static final String PARAM_CLIENT = "client";
 	public static final String PARAM_BROWSER = "browser";
 	public static final String PARAM_BROWSER_VERSION = "browserVersion";
+	public static final String PARAM_FEATURE_ENCODING = "featureEncoding";
 	public static final String PARAM_LOCATION = "location";
 	public static final String PARAM_LOCATION_SRS = "srs";
 	public static final String PARAM_LOCATION_BBOX = "bbox";
@@ -75,6 +78,7 @@ public class TransportService extends AbstractService {
 	public static final String PARAM_LAYER_ID = "layerId";
     public static final String PARAM_REQUEST_ID = "reqId";
 	public static final String PARAM_LAYER_STYLE = "styleName";
+	public static final String PARAM_LAYER_OUTPUT = "output";
 	public static final String PARAM_LONGITUDE = "longitude";
 	public static final String PARAM_LATITUDE = "latitude";
 	public static final String PARAM_LAYER_VISIBLE = "visible";
@@ -111,6 +115,12 @@ public class TransportService extends AbstractService {
 	// JobQueue singleton
 	private static JobQueue jobs;
 
+    // sessions of clients connected to this node
+    private final LocalSessionStore sessions = new LocalSessionStore();
+    // drops the session from memory when the client is no longer connected to this node
+    private final ServerSession.RemoveListener sessionRemover =
+            (session, timeout) -> sessions.evict(session.getId());
+
 	/**
 	 * Constructs TransportService with BayeuxServer instance
 	 *
@@ -139,8 +149,11 @@ public class TransportService extends AbstractService {
 
         this.bayeux = bayeux;
         this.local = getServerSession();
-        //this.jobs = new JobQueue(workerCount);
-        this.jobs = new HystrixJobQueue(workerCount);
+        final int queueCapacity = PropertyUtil.getOptional("workerQueueCapacity", Integer.MAX_VALUE);
+        final JobQueue.RejectionPolicy rejectionPolicy = JobQueue.RejectionPolicy.parse(
+                PropertyUtil.getOptional("workerQueueRejectionPolicy"));
+        //this.jobs = new JobQueue(workerCount, queueCapacity, rejectionPolicy);
+        this.jobs = new HystrixJobQueue(workerCount, queueCapacity, rejectionPolicy);
 
         // init jedis
         JedisManager.connect(workerCount + 2,
@@ -148,6 +161,7 @@ public class TransportService extends AbstractService {
                 PropertyUtil.getOptional("redis.port", 6379));
 
         CachingSchemaLocator.init(); // init schemas
+        CRSCache.warmUp();
 
         addService(CHANNEL_DISCONNECT, "disconnect");
         addService(CHANNEL_INIT, "processRequest");
@@ -182,37 +196,43 @@ public class TransportService extends AbstractService {
     }
 
     /**
-     * Tries to get session from cache with given key or creates a new
+     * Releases resources shared by the jobs and writes pending session changes on undeploy
+     */
+    public void destroy() {
+        TileRenderPool.shutdown();
+        sessions.shutdown();
+        log.debug("Transport stopped");
+    }
+
+    /**
+     * Returns the session kept on this node, reads it from cache with given key or creates a new
      * SessionStore
      *
      * @param client
      * @return session object
      */
-    public SessionStore getStore(String client) {
-        String json = SessionStore.getCache(client);
-        if (json == null) {
-            log.debug("Created a new session for user (" + client + ")");
-            return new SessionStore(client);
+    public SessionStore getStore(ServerSession client) {
+        SessionStore store = sessions.getLocal(client.getId());
+        if (store != null) {
+            return store;
         }
-        SessionStore store = null;
         try {
-            store = SessionStore.setJSON(json);
+            store = sessions.get(client.getId());
         } catch (IOException e) {
-            log.error(e, "JSON parsing failed for SessionStore \n" + json);
-            throw new ServiceRuntimeException("JSON parsing failed for SessionStore - json: " + json,
+            log.error(e, "JSON parsing failed for SessionStore of client", client.getId());
+            throw new ServiceRuntimeException("JSON parsing failed for SessionStore",
                     e.getCause(), WFSExceptionHelper.ERROR_SESSIONSTORE_PARSING_FAILED);
         }
-        if (store == null) {
-            return new SessionStore(client);
-        }
+        client.addListener(sessionRemover);
         return store;
     }
 
     /**
-     * Reset session
+     * Saves session (written to redis in background) and resets client if session is not valid
      */
     private void save(SessionStore store) {
-        if (!store.save()) {
+        sessions.save(store);
+        if (!store.isValid()) {
             TransportResultProcessor.send(local, bayeux, store.getClient(), ResultProcessor.CHANNEL_RESET, "reset");
         }
     }
@@ -225,17 +245,25 @@ public class TransportService extends AbstractService {
      */
     public void disconnect(ServerSession client, Message message)
     {
-        String json = SessionStore.getCache(client.getId());
-        if(json != null) {
-            SessionStore store;
+        SessionStore localStore = sessions.remove(client.getId());
+        String json = localStore == null ? SessionStore.getCache(client.getId()) : null;
+        String permissionsKey = null;
+        if(localStore != null) {
+            permissionsKey = WFSLayerPermissionsStore.KEY + localStore.getSession();
+        } else if(json != null) {
             try {
-                store = SessionStore.setJSON(json);
-                JedisManager.del(WFSLayerPermissionsStore.KEY + store.getSession());
+                SessionStore store = SessionStore.setJSON(json);
+                permissionsKey = WFSLayerPermissionsStore.KEY + store.getSession();
             } catch (IOException e) {
                 log.error(e, "JSON parsing failed for SessionStore \n" + json);
             }
         }
-        JedisManager.del(SessionStore.KEY + client.getId());
+        if(permissionsKey != null) {
+            JedisManager.del(permissionsKey, SessionStore.KEY + client.getId());
+            JedisNearCache.publishInvalidation(permissionsKey);
+        } else {
+            JedisManager.del(SessionStore.KEY + client.getId());
+        }
         JedisManager.delAll(WFSCustomStyleStore.KEY + client.getId());
 
         // TODO: remove styles from map
@@ -271,33 +299,12 @@ public class TransportService extends AbstractService {
         String channel = message.getChannel();
         try {
             // get session
-            SessionStore store = getStore(client.getId());
+            SessionStore store = getStore(client);
             // channel processing
             log.debug("Processing request on channel:", channel, "- payload:", json);
-            if (channel.equals(CHANNEL_INIT)) {
-                processInit(client, store, json);
-            } else if (channel.equals(CHANNEL_ADD_MAP_LAYER)) {
-                addMapLayer(store, params);
-            } else if (channel.equals(CHANNEL_REMOVE_MAP_LAYER)) {
-                removeMapLayer(store, params);
-            } else if (channel.equals(CHANNEL_HIGHLIGHT_FEATURES)) {
-                highlightMapLayerFeatures(store, params);
-            } else if (channel.equals(CHANNEL_SET_LOCATION)) {
-                setLocation(store, params);
-            } else if (channel.equals(CHANNEL_SET_MAP_SIZE)) {
-                setMapSize(store, params);
-            } else if (channel.equals(CHANNEL_SET_MAP_LAYER_STYLE)) {
-                setMapLayerStyle(store, params);
-            } else if (channel.equals(CHANNEL_SET_MAP_LAYER_CUSTOM_STYLE)) {
-                setMapLayerCustomStyle(store, params);
-            } else if (channel.equals(CHANNEL_SET_MAP_CLICK)) {
-                setMapClick(store, json, params);
-            } else if (channel.equals(CHANNEL_SET_FILTER)) {
-                setFilter(store, json, params);
-            } else if (channel.equals(CHANNEL_SET_PROPERTY_FILTER)) {
-                setPropertyFilter(store, json, params);
-            } else if (channel.equals(CHANNEL_SET_MAP_LAYER_VISIBILITY)) {
-                setMapLayerVisibility(store, params);
+            synchronized (store) {
+                store.clearRequestParams();
+                processChannel(client, store, channel, json, params);
             }
         } catch (Exception e) {
             output.put("once", false);
@@ -317,6 +324,37 @@ public class TransportService extends AbstractService {
         }
     }
 
+    /**
+     * Hands the request to a channel specific method
+     */
+    private void processChannel(ServerSession client, SessionStore store, String channel,
+                                String json, Map<String, Object> params) {
+        if (channel.equals(CHANNEL_INIT)) {
+            processInit(client, store, json);
+        } else if (channel.equals(CHANNEL_ADD_MAP_LAYER)) {
+            addMapLayer(store, params);
+        } else if (channel.equals(CHANNEL_REMOVE_MAP_LAYER)) {
+            removeMapLayer(store, params);
+        } else if (channel.equals(CHANNEL_HIGHLIGHT_FEATURES)) {
+            highlightMapLayerFeatures(store, params);
+        } else if (channel.equals(CHANNEL_SET_LOCATION)) {
+            setLocation(store, params);
+        } else if (channel.equals(CHANNEL_SET_MAP_SIZE)) {
+            setMapSize(store, params);
+        } else if (channel.equals(CHANNEL_SET_MAP_LAYER_STYLE)) {
+            setMapLayerStyle(store, params);
+        } else if (channel.equals(CHANNEL_SET_MAP_LAYER_CUSTOM_STYLE)) {
+            setMapLayerCustomStyle(store, params);
+        } else if (channel.equals(CHANNEL_SET_MAP_CLICK)) {
+            setMapClick(store, json, params);
+        } else if (channel.equals(CHANNEL_SET_FILTER)) {
+            setFilter(store, json, params);
+        } else if (channel.equals(CHANNEL_SET_PROPERTY_FILTER)) {
+            setPropertyFilter(store, json, params);
+        } else if (channel.equals(CHANNEL_SET_MAP_LAYER_VISIBILITY)) {
+            setMapLayerVisibility(store, params);
+        }
+    }
 
     private long parseRequestId(final Map<String, Object> params) {
         if(params == null) {
@@ -393,6 +431,9 @@ public class TransportService extends AbstractService {
 
     	if(!store.containsLayer(layerId)) {
             Layer tmpLayer = new Layer(layerId, layerStyle);
+            if (layer.get(PARAM_LAYER_OUTPUT) instanceof String) {
+                tmpLayer.setOutput((String) layer.get(PARAM_LAYER_OUTPUT));
+            }
     		store.setLayer(layerId, tmpLayer);
         	this.save(store);
     	}
@@ -872,6 +913,8 @@ public class TransportService extends AbstractService {
             SessionStore store, String layerId, boolean refresh, boolean reqSendFeatures,
             boolean reqSendImage, boolean reqSendHighlight) {
         final WFSLayerStore layer = JobHelper.getLayerConfiguration(layerId, store.getSession(), store.getRoute());
+        // jobs get their own copy since the session is modified by later requests while the job is queued/running
+        final SessionStore snapshot = store.copy();
 
         MapLayerJobProvider provider = null;
         if(layer.getJobType() != null) {
@@ -879,11 +922,11 @@ public class TransportService extends AbstractService {
         }
         Job job = null;
         if(provider != null) {
-            job = provider.createJob(service, type, store, layer,
+            job = provider.createJob(service, type, snapshot, layer,
                     reqSendFeatures, reqSendImage, reqSendHighlight);
         }
         if(job == null) {
-            job = new WFSMapLayerJob(service, type, store, layer,
+            job = new WFSMapLayerJob(service, type, snapshot, layer,
                     reqSendFeatures, reqSendImage, reqSendHighlight);
         }
         // Wfs manual refresh layer is skipped in NORMAL case, if no refresh flag on
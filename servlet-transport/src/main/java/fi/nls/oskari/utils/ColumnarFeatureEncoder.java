@@ -0,0 +1,339 @@
+package fi.nls.oskari.utils;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKTReader;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes feature rows (lists of values in the order of the fields sent on /wfs/properties) column by column
+ * for clients that requested a compact feature encoding in init. The result is a plain Map so it is
+ * serialized by the CometD JSON context like the default payload:
+ *
+ * {
+ *   "count": number of features,
+ *   "precision": decimals kept in coordinates,
+ *   "dict": [strings that appear more than once in the payload],
+ *   "columns": [{"t": type, "v": [values]}, ...]
+ * }
+ *
+ * Column types:
+ * - "s": strings, a number refers to "dict" and a string is a value used only once
+ * - "i": integers, delta to the previous non-null value of the column
+ * - "q": coordinates multiplied by 10^precision and rounded, delta to the previous non-null value
+ * - "z": all values are null ("v" is left out)
+ * - "r": values as is
+ *
+ * Geometries are encoded as {"t": geometry type, "c": coordinates} where coordinates are quantized like
+ * "q" columns with deltas running through the whole geometry starting from 0,0. Points are [x, y], lines
+ * and rings are flat arrays [x, y, x, y, ...], polygons a list of rings and multi geometries a list of parts.
+ * Collections have a list of geometries in "g" instead of "c".
+ */
+public class ColumnarFeatureEncoder {
+
+    private static final Logger log = LogFactory.getLogger(ColumnarFeatureEncoder.class);
+
+    public static final String ENCODING_COLUMNAR = "columnar";
+    public static final String ENCODING_COLUMNAR_DEFLATE = "columnar-deflate";
+
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_PRECISION = "precision";
+    public static final String KEY_DICTIONARY = "dict";
+    public static final String KEY_COLUMNS = "columns";
+    public static final String KEY_TYPE = "t";
+    public static final String KEY_VALUES = "v";
+    public static final String KEY_COORDINATES = "c";
+    public static final String KEY_GEOMETRIES = "g";
+
+    public static final String TYPE_STRING = "s";
+    public static final String TYPE_INTEGER = "i";
+    public static final String TYPE_COORDINATE = "q";
+    public static final String TYPE_NULL = "z";
+    public static final String TYPE_RAW = "r";
+
+    // same Jackson 1.x mapper setup as the CometD JSON context
+    private static final ObjectMapper mapper = new ObjectMapper();
+    static {
+        mapper.registerModule(new GeometryJSONOutputModule());
+    }
+
+    private final int precision;
+    private final double scale;
+
+    /**
+     * @param precision number of decimals kept in coordinates
+     */
+    public ColumnarFeatureEncoder(int precision) {
+        this.precision = precision;
+        this.scale = Math.pow(10, precision);
+    }
+
+    /**
+     * @param encoding feature encoding requested by the client
+     * @return <code>true</code> if features should be sent column by column
+     */
+    public static boolean isColumnar(String encoding) {
+        return ENCODING_COLUMNAR.equals(encoding) || ENCODING_COLUMNAR_DEFLATE.equals(encoding);
+    }
+
+    /**
+     * Encodes feature rows by column
+     *
+     * @param rows              feature values, all rows have the same fields
+     * @param coordinateColumns indexes of the columns with coordinates (e.g. feature center)
+     * @return encoded features
+     */
+    public Map<String, Object> encodeFeatures(List<List<Object>> rows, int... coordinateColumns) {
+        int columnCount = 0;
+        for (List<Object> row : rows) {
+            columnCount = Math.max(columnCount, row.size());
+        }
+        final List<List<Object>> values = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            values.add(column(rows, i));
+        }
+        final Map<String, Integer> dictionary = createDictionary(values);
+        final List<Map<String, Object>> columns = new ArrayList<>(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            columns.add(encodeColumn(values.get(i), dictionary, contains(coordinateColumns, i)));
+        }
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put(KEY_COUNT, rows.size());
+        result.put(KEY_PRECISION, precision);
+        result.put(KEY_DICTIONARY, new ArrayList<>(dictionary.keySet()));
+        result.put(KEY_COLUMNS, columns);
+        return result;
+    }
+
+    /**
+     * Encodes rows of [fid, geometry] where geometry is a JTS Geometry or WKT
+     *
+     * @param rows feature ids and geometries
+     * @return encoded geometries with ids in the first column and geometries in the second
+     */
+    public Map<String, Object> encodeGeometries(List<List<Object>> rows) {
+        final List<Object> fids = column(rows, 0);
+        final List<Object> geometries = new ArrayList<>(rows.size());
+        WKTReader reader = null;
+        for (Object value : column(rows, 1)) {
+            if (value instanceof String) {
+                if (reader == null) {
+                    reader = new WKTReader();
+                }
+                try {
+                    value = reader.read((String) value);
+                } catch (ParseException e) {
+                    log.debug("Couldn't parse WKT:", e.getMessage());
+                    value = null;
+                }
+            }
+            geometries.add(value instanceof Geometry ? encodeGeometry((Geometry) value) : null);
+        }
+        final Map<String, Integer> dictionary = createDictionary(Arrays.asList(fids));
+        final List<Map<String, Object>> columns = new ArrayList<>(2);
+        columns.add(encodeColumn(fids, dictionary, false));
+        final Map<String, Object> geometryColumn = new LinkedHashMap<>();
+        geometryColumn.put(KEY_TYPE, TYPE_RAW);
+        geometryColumn.put(KEY_VALUES, geometries);
+        columns.add(geometryColumn);
+
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put(KEY_COUNT, rows.size());
+        result.put(KEY_PRECISION, precision);
+        result.put(KEY_DICTIONARY, new ArrayList<>(dictionary.keySet()));
+        result.put(KEY_COLUMNS, columns);
+        return result;
+    }
+
+    /**
+     * Serializes the encoded payload as JSON and compresses it with deflate
+     *
+     * @param encoded result of encodeFeatures() or encodeGeometries()
+     * @return compressed JSON
+     */
+    public static byte[] deflate(Map<String, Object> encoded) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            mapper.writeValue(out, encoded);
+            out.close();
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Object> column(List<List<Object>> rows, int index) {
+        final List<Object> column = new ArrayList<>(rows.size());
+        for (List<Object> row : rows) {
+            column.add(index < row.size() ? row.get(index) : null);
+        }
+        return column;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Strings used more than once in the given columns
+     */
+    private static Map<String, Integer> createDictionary(List<List<Object>> columns) {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (List<Object> column : columns) {
+            for (Object value : column) {
+                if (value instanceof String) {
+                    counts.merge((String) value, 1, Integer::sum);
+                }
+            }
+        }
+        final Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (List<Object> column : columns) {
+            for (Object value : column) {
+                if (value instanceof String && counts.get(value) > 1 && !dictionary.containsKey(value)) {
+                    dictionary.put((String) value, dictionary.size());
+                }
+            }
+        }
+        return dictionary;
+    }
+
+    private Map<String, Object> encodeColumn(List<Object> values, Map<String, Integer> dictionary, boolean coordinates) {
+        boolean allNull = true;
+        boolean strings = true;
+        boolean integers = true;
+        boolean numbers = true;
+        for (Object value : values) {
+            if (value == null) {
+                continue;
+            }
+            allNull = false;
+            strings &= value instanceof String;
+            integers &= value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte;
+            numbers &= value instanceof Number;
+        }
+        final Map<String, Object> column = new LinkedHashMap<>();
+        if (allNull) {
+            column.put(KEY_TYPE, TYPE_NULL);
+            return column;
+        }
+        final List<Object> encoded = new ArrayList<>(values.size());
+        if (strings) {
+            column.put(KEY_TYPE, TYPE_STRING);
+            for (Object value : values) {
+                final Integer index = value == null ? null : dictionary.get(value);
+                encoded.add(index != null ? index : value);
+            }
+        } else if (integers || (coordinates && numbers)) {
+            column.put(KEY_TYPE, integers ? TYPE_INTEGER : TYPE_COORDINATE);
+            long previous = 0;
+            for (Object value : values) {
+                if (value == null) {
+                    encoded.add(null);
+                    continue;
+                }
+                final long current = integers ? ((Number) value).longValue() : quantize(((Number) value).doubleValue());
+                encoded.add(current - previous);
+                previous = current;
+            }
+        } else {
+            column.put(KEY_TYPE, TYPE_RAW);
+            encoded.addAll(values);
+        }
+        column.put(KEY_VALUES, encoded);
+        return column;
+    }
+
+    private long quantize(double value) {
+        return Math.round(value * scale);
+    }
+
+    /**
+     * Keeps track of the previous position within a geometry
+     */
+    private class Cursor {
+        long x = 0;
+        long y = 0;
+
+        void add(List<Long> coords, Coordinate c) {
+            final long qx = quantize(c.x);
+            final long qy = quantize(c.y);
+            coords.add(qx - x);
+            coords.add(qy - y);
+            x = qx;
+            y = qy;
+        }
+
+        List<Long> path(Coordinate[] coordinates) {
+            final List<Long> coords = new ArrayList<>(coordinates.length * 2);
+            for (Coordinate c : coordinates) {
+                add(coords, c);
+            }
+            return coords;
+        }
+    }
+
+    Map<String, Object> encodeGeometry(Geometry geometry) {
+        final Map<String, Object> result = new LinkedHashMap<>();
+        result.put(KEY_TYPE, geometry.getGeometryType());
+        final Cursor cursor = new Cursor();
+        if (geometry instanceof Point || geometry instanceof LineString || geometry instanceof Polygon) {
+            result.put(KEY_COORDINATES, encodePart(geometry, cursor));
+        } else if (GeometryCollection.class.equals(geometry.getClass())) {
+            final List<Object> geometries = new ArrayList<>(geometry.getNumGeometries());
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                geometries.add(encodeGeometry(geometry.getGeometryN(i)));
+            }
+            result.put(KEY_GEOMETRIES, geometries);
+        } else {
+            // MultiPoint, MultiLineString and MultiPolygon
+            final List<Object> parts = new ArrayList<>(geometry.getNumGeometries());
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                parts.add(encodePart(geometry.getGeometryN(i), cursor));
+            }
+            result.put(KEY_COORDINATES, parts);
+        }
+        return result;
+    }
+
+    private Object encodePart(Geometry part, Cursor cursor) {
+        if (part instanceof Polygon) {
+            final Polygon polygon = (Polygon) part;
+            final List<Object> rings = new ArrayList<>(polygon.getNumInteriorRing() + 1);
+            rings.add(cursor.path(polygon.getExteriorRing().getCoordinates()));
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                rings.add(cursor.path(polygon.getInteriorRingN(i).getCoordinates()));
+            }
+            return rings;
+        }
+        if (part.isEmpty()) {
+            return Arrays.asList();
+        }
+        return cursor.path(part.getCoordinates());
+    }
+}
@@ -0,0 +1,105 @@
+package fi.nls.oskari.wfs;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-memory spatial index (STRtree) for the features of a single response so that drawing a tile or
+ * picking the features on screen only visits the features near the area instead of all of them.
+ *
+ * Features are returned in the order of the original collection so rendering order doesn't change.
+ * Features without a geometry are not indexed as they can't intersect any area.
+ * The index is built in the constructor and is safe to query from multiple threads after that.
+ */
+public class FeatureIndex {
+
+    private final FeatureCollection<SimpleFeatureType, SimpleFeature> source;
+    private final SimpleFeatureType schema;
+    private final List<SimpleFeature> features;
+    private final STRtree tree = new STRtree();
+
+    /**
+     * @param collection features to index
+     * @param geometryProperty name of the geometry property (namespace prefix is ignored),
+     *                         default geometry is used if null or the feature doesn't have the property
+     */
+    public FeatureIndex(FeatureCollection<SimpleFeatureType, SimpleFeature> collection, String geometryProperty) {
+        this.source = collection;
+        this.schema = collection.getSchema();
+        this.features = new ArrayList<>(collection.size());
+        final String property = geometryProperty == null ? null : geometryProperty.replaceAll("^[^:]*:", "");
+        final FeatureIterator<SimpleFeature> it = collection.features();
+        try {
+            while (it.hasNext()) {
+                final SimpleFeature feature = it.next();
+                final Envelope envelope = getEnvelope(feature, property);
+                final int position = features.size();
+                features.add(feature);
+                if (envelope != null) {
+                    tree.insert(envelope, position);
+                }
+            }
+        } finally {
+            it.close();
+        }
+        // build now so concurrent queries don't race to build the tree
+        tree.build();
+    }
+
+    private static Envelope getEnvelope(SimpleFeature feature, String property) {
+        Object geom = property == null ? null : feature.getAttribute(property);
+        if (!(geom instanceof Geometry)) {
+            geom = feature.getDefaultGeometry();
+        }
+        if (!(geom instanceof Geometry)) {
+            return null;
+        }
+        final Envelope envelope = ((Geometry) geom).getEnvelopeInternal();
+        return envelope.isNull() ? null : envelope;
+    }
+
+    /**
+     * @return true if this index was built for the collection
+     */
+    public boolean isIndexOf(FeatureCollection<SimpleFeatureType, SimpleFeature> collection) {
+        return source == collection;
+    }
+
+    /**
+     * @return features whose geometry envelope intersects the area in original order
+     */
+    public List<SimpleFeature> query(Envelope area) {
+        final List<Integer> positions = new ArrayList<>();
+        tree.query(area, item -> positions.add((Integer) item));
+        Collections.sort(positions);
+        final List<SimpleFeature> result = new ArrayList<>(positions.size());
+        for (Integer position : positions) {
+            result.add(features.get(position));
+        }
+        return result;
+    }
+
+    /**
+     * @return collection of the features whose geometry envelope intersects the area
+     */
+    public FeatureCollection<SimpleFeatureType, SimpleFeature> getFeatures(Envelope area) {
+        return new ListFeatureCollection(schema, query(area));
+    }
+
+    /**
+     * @return number of features in the indexed collection
+     */
+    public int size() {
+        return features.size();
+    }
+}
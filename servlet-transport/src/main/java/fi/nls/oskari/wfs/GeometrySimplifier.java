@@ -0,0 +1,182 @@
+package fi.nls.oskari.wfs;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Lineal;
+import com.vividsolutions.jts.geom.Polygonal;
+import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.precision.GeometryPrecisionReducer;
+import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.pojo.SessionStore;
+import fi.nls.oskari.pojo.Tile;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.wfs.pojo.WFSLayerStore;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.referencing.CRS;
+import org.json.JSONObject;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.List;
+
+/**
+ * Simplifies line and polygon geometries to the resolution of the map before they are drawn or sent to
+ * the client. Geometries are simplified with a topology preserving simplifier using a tolerance relative
+ * to the size of a pixel at the current zoom level and the coordinates are then snapped to the pixel grid.
+ * Points are kept as is.
+ *
+ * Enabled by default, can be configured with properties:
+ * - transport.simplify=false to disable for all layers
+ * - transport.simplify.tolerance=[pixels] tolerance in pixels (defaults to 0.5)
+ *
+ * Layers can override these in attributes with "simplify": false or "simplify": [tolerance in pixels].
+ */
+public class GeometrySimplifier {
+
+    private static final Logger log = LogFactory.getLogger(GeometrySimplifier.class);
+
+    public static final String LAYER_ATTRIBUTE = "simplify";
+
+    private static final boolean ENABLED = PropertyUtil.getOptional("transport.simplify", true);
+    private static final double TOLERANCE = PropertyUtil.getOptional("transport.simplify.tolerance", 0.5d);
+
+    // OGC standardized rendering pixel size used for scale denominators
+    private static final double PIXEL_SIZE_M = 0.00028;
+    private static final double METERS_PER_DEGREE = 6378137 * Math.PI / 180;
+
+    private final double resolution;
+    private final double tolerance;
+    private final GeometryPrecisionReducer reducer;
+
+    /**
+     * @param resolution size of a pixel in map units
+     * @param pixels     tolerance in pixels
+     */
+    public GeometrySimplifier(double resolution, double pixels) {
+        this.resolution = resolution;
+        this.tolerance = resolution * pixels;
+        this.reducer = new GeometryPrecisionReducer(new PrecisionModel(1 / resolution));
+    }
+
+    /**
+     * Creates a simplifier for the current map view of the session
+     *
+     * @param layer   layer configuration (attributes may override the defaults)
+     * @param session session with the map location
+     * @return simplifier or null if simplification is disabled for the layer or resolution is unknown
+     */
+    public static GeometrySimplifier create(WFSLayerStore layer, SessionStore session) {
+        final double pixels = getTolerance(layer == null ? null : layer.getAttributes());
+        if (pixels <= 0) {
+            return null;
+        }
+        final double resolution = getResolution(session);
+        if (resolution <= 0) {
+            return null;
+        }
+        return new GeometrySimplifier(resolution, pixels);
+    }
+
+    /**
+     * Tolerance in pixels for the layer, 0 if disabled
+     */
+    static double getTolerance(JSONObject attributes) {
+        final Object value = attributes == null ? null : attributes.opt(LAYER_ATTRIBUTE);
+        if (value instanceof Boolean) {
+            return (Boolean) value ? TOLERANCE : 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return ENABLED ? TOLERANCE : 0;
+    }
+
+    /**
+     * Size of a pixel in map units based on the tile grid. Scale of the zoom level is used if the session
+     * doesn't have a grid.
+     *
+     * @param session
+     * @return resolution or -1 if it can't be resolved
+     */
+    public static double getResolution(SessionStore session) {
+        final Tile tileSize = session.getTileSize();
+        final List<List<Double>> bounds = session.getGrid() == null ? null : session.getGrid().getBounds();
+        if (tileSize != null && tileSize.getWidth() > 0 && bounds != null && !bounds.isEmpty()) {
+            final List<Double> tile = bounds.get(0);
+            return (tile.get(2) - tile.get(0)) / tileSize.getWidth();
+        }
+        final List<Double> scales = session.getMapScales();
+        final int zoom = (int) session.getLocation().getZoom();
+        if (scales == null || zoom < 0 || zoom >= scales.size()) {
+            return -1;
+        }
+        double resolution = scales.get(zoom) * PIXEL_SIZE_M;
+        try {
+            if (CRS.getProjectedCRS(session.getLocation().getCrs()) == null) {
+                resolution /= METERS_PER_DEGREE;
+            }
+        } catch (Exception e) {
+            log.debug("Couldn't check units of", session.getLocation().getSrs());
+        }
+        return resolution;
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Simplifies a geometry and snaps it to the pixel grid. Geometries that would collapse when snapped
+     * are only simplified so small features stay visible.
+     *
+     * @param geometry
+     * @return simplified geometry
+     */
+    public Geometry simplify(Geometry geometry) {
+        if (!(geometry instanceof Lineal || geometry instanceof Polygonal) || geometry.isEmpty()) {
+            return geometry;
+        }
+        try {
+            final Geometry simplified = TopologyPreservingSimplifier.simplify(geometry, tolerance);
+            final Geometry snapped = reducer.reduce(simplified);
+            if (snapped.isEmpty()) {
+                return simplified;
+            }
+            return snapped;
+        } catch (RuntimeException e) {
+            log.debug("Simplifying geometry failed:", e.getMessage());
+            return geometry;
+        }
+    }
+
+    /**
+     * Simplifies geometry attributes of the features in place
+     *
+     * @param features
+     */
+    public void simplify(FeatureCollection<SimpleFeatureType, SimpleFeature> features) {
+        if (features == null) {
+            return;
+        }
+        final FeatureIterator<SimpleFeature> it = features.features();
+        try {
+            while (it.hasNext()) {
+                final SimpleFeature feature = it.next();
+                for (int i = 0; i < feature.getAttributeCount(); i++) {
+                    final Object value = feature.getAttribute(i);
+                    if (value instanceof Geometry) {
+                        feature.setAttribute(i, simplify((Geometry) value));
+                    }
+                }
+            }
+        } finally {
+            it.close();
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package fi.nls.oskari.wfs;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Encodes the features of a tile as a Mapbox Vector Tile (version 2.1) so the client can render and
+ * hit-test them itself. Geometries are clipped to the tile with a buffer and quantized to the tile extent.
+ * Attribute keys and values are stored once per tile and referenced from the features.
+ * Only the given properties are stored as attributes, all non-geometry attributes if not given.
+ * Feature id is stored as "__fid" attribute since WFS ids aren't numeric. The numeric suffix of
+ * the id (e.g. 123 for "buildings.123") is also used as the MVT feature id.
+ *
+ * Configured with properties:
+ * - transport.mvt.extent=[n] tile extent in integer coordinates (defaults to 4096)
+ * - transport.mvt.buffer=[n] buffer around the tile in extent units (defaults to 64)
+ */
+public class VectorTileEncoder {
+
+    private static final Logger log = LogFactory.getLogger(VectorTileEncoder.class);
+
+    public static final String FORMAT = "mvt";
+    // used instead of style name in cache keys since vector tiles don't depend on the style
+    public static final String CACHE_STYLE = "__mvt";
+    public static final String ATTRIBUTE_FID = "__fid";
+
+    public static final int EXTENT = PropertyUtil.getOptional("transport.mvt.extent", 4096);
+    public static final int BUFFER = PropertyUtil.getOptional("transport.mvt.buffer", 64);
+
+    private static final int VERSION = 2;
+
+    private static final int GEOM_POINT = 1;
+    private static final int GEOM_LINESTRING = 2;
+    private static final int GEOM_POLYGON = 3;
+
+    private static final int CMD_MOVE_TO = 1;
+    private static final int CMD_LINE_TO = 2;
+    private static final int CMD_CLOSE_PATH = 7;
+
+    private static final Pattern NUMERIC_SUFFIX = Pattern.compile("(\\d{1,18})$");
+
+    private final int extent;
+    private final int buffer;
+    private final GeometryFactory gf = new GeometryFactory();
+
+    public VectorTileEncoder() {
+        this(EXTENT, BUFFER);
+    }
+
+    public VectorTileEncoder(int extent, int buffer) {
+        this.extent = extent;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Vector tiles don't depend on the style, but the encoded attributes depend on the selected
+     * feature params of the language.
+     *
+     * @param language language of the session
+     * @return name used instead of the style name in tile cache keys
+     */
+    public static String getCacheStyle(String language) {
+        if(language == null) {
+            return CACHE_STYLE;
+        }
+        return CACHE_STYLE + "_" + language;
+    }
+
+    /**
+     * Encodes the features as a tile with one layer
+     *
+     * @param layerName        name of the layer in the tile
+     * @param bounds           tile bounds [minx, miny, maxx, maxy] in the CRS of the features
+     * @param features         features to encode, features outside the tile and buffer are skipped
+     * @param geometryProperty name of the geometry property (namespace prefix is ignored),
+     *                         default geometry is used if null or the feature doesn't have the property
+     * @return tile
+     */
+    public byte[] encode(String layerName, List<Double> bounds,
+                         FeatureCollection<SimpleFeatureType, SimpleFeature> features,
+                         String geometryProperty) {
+        return encode(layerName, bounds, features, geometryProperty, null);
+    }
+
+    /**
+     * Encodes the features as a tile with one layer
+     *
+     * @param layerName        name of the layer in the tile
+     * @param bounds           tile bounds [minx, miny, maxx, maxy] in the CRS of the features
+     * @param features         features to encode, features outside the tile and buffer are skipped
+     * @param geometryProperty name of the geometry property (namespace prefix is ignored),
+     *                         default geometry is used if null or the feature doesn't have the property
+     * @param properties       names of the properties to include as attributes, all if null
+     * @return tile
+     */
+    public byte[] encode(String layerName, List<Double> bounds,
+                         FeatureCollection<SimpleFeatureType, SimpleFeature> features,
+                         String geometryProperty, Collection<String> properties) {
+        final TileLayer layer = new TileLayer(bounds, properties == null ? null : new HashSet<>(properties));
+        if (features != null) {
+            final String property = geometryProperty == null ? null : geometryProperty.replaceAll("^[^:]*:", "");
+            final FeatureIterator<SimpleFeature> it = features.features();
+            try {
+                while (it.hasNext()) {
+                    layer.add(it.next(), property);
+                }
+            } finally {
+                it.close();
+            }
+        }
+        final ProtobufWriter tile = new ProtobufWriter();
+        tile.writeMessage(3, layer.encode(layerName));
+        return tile.toByteArray();
+    }
+
+    /**
+     * Area of features included in the tile
+     *
+     * @param bounds tile bounds [minx, miny, maxx, maxy]
+     * @return tile bounds with the buffer
+     */
+    public Envelope getEnvelope(List<Double> bounds) {
+        final double bufferX = (bounds.get(2) - bounds.get(0)) * buffer / extent;
+        final double bufferY = (bounds.get(3) - bounds.get(1)) * buffer / extent;
+        return new Envelope(bounds.get(0) - bufferX, bounds.get(2) + bufferX,
+                bounds.get(1) - bufferY, bounds.get(3) + bufferY);
+    }
+
+    public int getExtent() {
+        return extent;
+    }
+
+    /**
+     * Features, keys and values of one layer in a tile
+     */
+    private class TileLayer {
+        final double minX;
+        final double maxY;
+        final double scaleX;
+        final double scaleY;
+        final Envelope clip;
+        final Map<String, Integer> keys = new LinkedHashMap<>();
+        final Map<Object, Integer> values = new LinkedHashMap<>();
+        final List<byte[]> features = new ArrayList<>();
+        // null if all properties are included
+        final Set<String> properties;
+
+        TileLayer(List<Double> bounds, Set<String> properties) {
+            this.properties = properties;
+            minX = bounds.get(0);
+            maxY = bounds.get(3);
+            final double width = bounds.get(2) - bounds.get(0);
+            final double height = bounds.get(3) - bounds.get(1);
+            scaleX = extent / width;
+            scaleY = extent / height;
+            clip = getEnvelope(bounds);
+        }
+
+        void add(SimpleFeature feature, String geometryProperty) {
+            Object value = geometryProperty == null ? null : feature.getAttribute(geometryProperty);
+            if (!(value instanceof Geometry)) {
+                value = feature.getDefaultGeometry();
+            }
+            if (!(value instanceof Geometry)) {
+                return;
+            }
+            final Geometry geometry = clip((Geometry) value);
+            if (geometry == null) {
+                return;
+            }
+            // clipping may produce a collection of different types
+            final List<Point> points = new ArrayList<>();
+            final List<LineString> lines = new ArrayList<>();
+            final List<Polygon> polygons = new ArrayList<>();
+            split(geometry, points, lines, polygons);
+            if (points.isEmpty() && lines.isEmpty() && polygons.isEmpty()) {
+                return;
+            }
+            final List<Integer> tags = tags(feature);
+            final Long id = getId(feature.getID());
+            if (!points.isEmpty()) {
+                addFeature(id, tags, GEOM_POINT, encodePoints(points));
+            }
+            if (!lines.isEmpty()) {
+                addFeature(id, tags, GEOM_LINESTRING, encodeLines(lines));
+            }
+            if (!polygons.isEmpty()) {
+                addFeature(id, tags, GEOM_POLYGON, encodePolygons(polygons));
+            }
+        }
+
+        private Geometry clip(Geometry geometry) {
+            final Envelope envelope = geometry.getEnvelopeInternal();
+            if (geometry.isEmpty() || !clip.intersects(envelope)) {
+                return null;
+            }
+            if (clip.contains(envelope)) {
+                return geometry;
+            }
+            try {
+                return geometry.intersection(gf.toGeometry(clip));
+            } catch (RuntimeException e) {
+                // invalid geometries can't always be clipped, the client clips them when drawing
+                log.debug("Clipping failed:", e.getMessage());
+                return geometry;
+            }
+        }
+
+        private void addFeature(Long id, List<Integer> tags, int type, List<Integer> geometry) {
+            if (geometry.isEmpty()) {
+                return;
+            }
+            final ProtobufWriter out = new ProtobufWriter();
+            if (id != null) {
+                out.writeVarint(1, id);
+            }
+            out.writePacked(2, tags);
+            out.writeVarint(3, type);
+            out.writePacked(4, geometry);
+            features.add(out.toByteArray());
+        }
+
+        private List<Integer> tags(SimpleFeature feature) {
+            final List<Integer> tags = new ArrayList<>();
+            addTag(tags, ATTRIBUTE_FID, feature.getID());
+            for (AttributeDescriptor descriptor : feature.getFeatureType().getAttributeDescriptors()) {
+                if (!isIncluded(descriptor)) {
+                    continue;
+                }
+                final Object value = feature.getAttribute(descriptor.getLocalName());
+                if (value == null || value instanceof Geometry) {
+                    continue;
+                }
+                addTag(tags, descriptor.getLocalName(), value);
+            }
+            return tags;
+        }
+
+        private boolean isIncluded(AttributeDescriptor descriptor) {
+            return properties == null || properties.contains(descriptor.getLocalName()) ||
+                    properties.contains(descriptor.getName().toString());
+        }
+
+        private void addTag(List<Integer> tags, String key, Object value) {
+            if (value == null) {
+                return;
+            }
+            if (!(value instanceof Number || value instanceof Boolean || value instanceof String)) {
+                value = value.toString();
+            }
+            Integer keyIndex = keys.get(key);
+            if (keyIndex == null) {
+                keyIndex = keys.size();
+                keys.put(key, keyIndex);
+            }
+            Integer valueIndex = values.get(value);
+            if (valueIndex == null) {
+                valueIndex = values.size();
+                values.put(value, valueIndex);
+            }
+            tags.add(keyIndex);
+            tags.add(valueIndex);
+        }
+
+        private int x(Coordinate c) {
+            return (int) Math.round((c.x - minX) * scaleX);
+        }
+
+        private int y(Coordinate c) {
+            // tile y axis points down
+            return (int) Math.round((maxY - c.y) * scaleY);
+        }
+
+        private List<Integer> encodePoints(List<Point> points) {
+            final Cursor cursor = new Cursor();
+            final List<Integer> params = new ArrayList<>();
+            for (Point point : points) {
+                cursor.moveTo(params, x(point.getCoordinate()), y(point.getCoordinate()));
+            }
+            final List<Integer> geometry = new ArrayList<>(params.size() + 1);
+            geometry.add(command(CMD_MOVE_TO, points.size()));
+            geometry.addAll(params);
+            return geometry;
+        }
+
+        private List<Integer> encodeLines(List<LineString> lines) {
+            final Cursor cursor = new Cursor();
+            final List<Integer> geometry = new ArrayList<>();
+            for (LineString line : lines) {
+                final int[][] coords = quantize(line.getCoordinates(), false);
+                if (coords.length < 2) {
+                    continue;
+                }
+                cursor.path(geometry, coords, false);
+            }
+            return geometry;
+        }
+
+        private List<Integer> encodePolygons(List<Polygon> polygons) {
+            final Cursor cursor = new Cursor();
+            final List<Integer> geometry = new ArrayList<>();
+            for (Polygon polygon : polygons) {
+                final int[][] exterior = ring(polygon.getExteriorRing(), true);
+                if (exterior == null) {
+                    continue;
+                }
+                cursor.path(geometry, exterior, true);
+                for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                    final int[][] interior = ring(polygon.getInteriorRingN(i), false);
+                    if (interior != null) {
+                        cursor.path(geometry, interior, true);
+                    }
+                }
+            }
+            return geometry;
+        }
+
+        /**
+         * Quantized ring without the closing point. Exterior rings have positive area in tile
+         * coordinates (clockwise on screen) and interior rings negative as required by the spec.
+         */
+        private int[][] ring(LineString ring, boolean exterior) {
+            final int[][] coords = quantize(ring.getCoordinates(), true);
+            if (coords.length < 3) {
+                return null;
+            }
+            long area = 0;
+            for (int i = 0; i < coords.length; i++) {
+                final int[] a = coords[i];
+                final int[] b = coords[(i + 1) % coords.length];
+                area += (long) a[0] * b[1] - (long) b[0] * a[1];
+            }
+            if (area == 0) {
+                return null;
+            }
+            if ((area > 0) != exterior) {
+                for (int i = 0, j = coords.length - 1; i < j; i++, j--) {
+                    final int[] tmp = coords[i];
+                    coords[i] = coords[j];
+                    coords[j] = tmp;
+                }
+            }
+            return coords;
+        }
+
+        private int[][] quantize(Coordinate[] coordinates, boolean ring) {
+            final List<int[]> result = new ArrayList<>(coordinates.length);
+            int[] previous = null;
+            for (Coordinate c : coordinates) {
+                final int[] point = {x(c), y(c)};
+                if (previous != null && previous[0] == point[0] && previous[1] == point[1]) {
+                    continue;
+                }
+                result.add(point);
+                previous = point;
+            }
+            if (ring && result.size() > 1) {
+                final int[] first = result.get(0);
+                final int[] last = result.get(result.size() - 1);
+                if (first[0] == last[0] && first[1] == last[1]) {
+                    result.remove(result.size() - 1);
+                }
+            }
+            return result.toArray(new int[result.size()][]);
+        }
+
+        byte[] encode(String name) {
+            final ProtobufWriter out = new ProtobufWriter();
+            out.writeVarint(15, VERSION);
+            out.writeString(1, name);
+            for (byte[] feature : features) {
+                out.writeMessage(2, feature);
+            }
+            for (String key : keys.keySet()) {
+                out.writeString(3, key);
+            }
+            for (Object value : values.keySet()) {
+                out.writeMessage(4, encodeValue(value));
+            }
+            out.writeVarint(5, extent);
+            return out.toByteArray();
+        }
+    }
+
+    private static void split(Geometry geometry, List<Point> points, List<LineString> lines, List<Polygon> polygons) {
+        if (geometry instanceof Point) {
+            points.add((Point) geometry);
+        } else if (geometry instanceof LineString) {
+            lines.add((LineString) geometry);
+        } else if (geometry instanceof Polygon) {
+            polygons.add((Polygon) geometry);
+        } else {
+            // Multi* and GeometryCollection
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                final Geometry part = geometry.getGeometryN(i);
+                if (part != geometry && !part.isEmpty()) {
+                    split(part, points, lines, polygons);
+                }
+            }
+        }
+    }
+
+    private static byte[] encodeValue(Object value) {
+        final ProtobufWriter out = new ProtobufWriter();
+        if (value instanceof String) {
+            out.writeString(1, (String) value);
+        } else if (value instanceof Boolean) {
+            out.writeVarint(7, (Boolean) value ? 1 : 0);
+        } else if (isIntegral(value)) {
+            out.writeVarint(6, zigZag(((Number) value).longValue()));
+        } else if (value instanceof Number) {
+            // decimals like BigDecimal from numeric columns would be truncated as integers
+            out.writeDouble(3, ((Number) value).doubleValue());
+        } else {
+            out.writeString(1, value.toString());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return true if the value is an integer that fits in a long
+     */
+    private static boolean isIntegral(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return true;
+        }
+        if (value instanceof BigInteger) {
+            return ((BigInteger) value).bitLength() < 64;
+        }
+        if (value instanceof BigDecimal) {
+            final BigDecimal decimal = (BigDecimal) value;
+            return decimal.signum() == 0 || (decimal.stripTrailingZeros().scale() <= 0
+                    && decimal.toBigInteger().bitLength() < 64);
+        }
+        return false;
+    }
+
+    static Long getId(String fid) {
+        if (fid == null) {
+            return null;
+        }
+        final Matcher m = NUMERIC_SUFFIX.matcher(fid);
+        return m.find() ? Long.valueOf(m.group(1)) : null;
+    }
+
+    private static int command(int id, int count) {
+        return (id & 0x7) | (count << 3);
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    /**
+     * Geometry commands are relative to the previous position within the feature
+     */
+    private static class Cursor {
+        int x = 0;
+        int y = 0;
+
+        void moveTo(List<Integer> params, int toX, int toY) {
+            params.add((int) zigZag(toX - x));
+            params.add((int) zigZag(toY - y));
+            x = toX;
+            y = toY;
+        }
+
+        void path(List<Integer> geometry, int[][] coords, boolean close) {
+            geometry.add(command(CMD_MOVE_TO, 1));
+            moveTo(geometry, coords[0][0], coords[0][1]);
+            geometry.add(command(CMD_LINE_TO, coords.length - 1));
+            for (int i = 1; i < coords.length; i++) {
+                moveTo(geometry, coords[i][0], coords[i][1]);
+            }
+            if (close) {
+                geometry.add(command(CMD_CLOSE_PATH, 1));
+            }
+        }
+    }
+
+    /**
+     * Minimal protocol buffers writer for the fields used in vector tiles
+     */
+    private static class ProtobufWriter {
+        private static final int WIRE_VARINT = 0;
+        private static final int WIRE_FIXED64 = 1;
+        private static final int WIRE_LENGTH = 2;
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeVarint(int field, long value) {
+            tag(field, WIRE_VARINT);
+            varint(value);
+        }
+
+        void writeDouble(int field, double value) {
+            tag(field, WIRE_FIXED64);
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 0; i < 8; i++) {
+                out.write((int) (bits >>> (8 * i)) & 0xFF);
+            }
+        }
+
+        void writeString(int field, String value) {
+            writeMessage(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeMessage(int field, byte[] bytes) {
+            tag(field, WIRE_LENGTH);
+            varint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        void writePacked(int field, List<Integer> values) {
+            if (values.isEmpty()) {
+                return;
+            }
+            final ProtobufWriter packed = new ProtobufWriter();
+            for (Integer value : values) {
+                packed.varint(value & 0xFFFFFFFFL);
+            }
+            writeMessage(field, packed.toByteArray());
+        }
+
+        private void tag(int field, int wireType) {
+            varint((field << 3) | wireType);
+        }
+
+        private void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package fi.nls.oskari.wfs;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.vividsolutions.jts.geom.Envelope;
 import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.domain.map.wfs.WFSSLDStyle;
 import fi.nls.oskari.log.LogFactory;
@@ -8,8 +12,10 @@ import fi.nls.oskari.pojo.Location;
 import fi.nls.oskari.pojo.Tile;
 import fi.nls.oskari.pojo.WFSCustomStyleStore;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
@@ -18,12 +24,7 @@ import org.geotools.map.MapContent;
 import org.geotools.map.MapViewport;
 import org.geotools.renderer.GTRenderer;
 import org.geotools.renderer.lite.StreamingRenderer;
-import org.geotools.sld.SLDConfiguration;
-import org.geotools.styling.SLD;
 import org.geotools.styling.Style;
-import org.geotools.styling.StyledLayerDescriptor;
-import org.geotools.xml.Configuration;
-import org.geotools.xml.Parser;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -34,7 +35,13 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Image drawing for WFS layers 
@@ -53,6 +60,7 @@ public class WFSImage {
 
     public static final String STYLE_DEFAULT = "default";
     public static final String STYLE_HIGHLIGHT = "highlight";
+    private static final String STYLE_SELECTION = "selection";
 
     public static final String DEFAULT_SLD = "sld_default.xml";
     public static final String HIGHLIGHT_SLD = "sld_highlight.xml";
@@ -60,6 +68,20 @@ public class WFSImage {
 
     public static final String GEOM_TYPE_PLACEHOLDER = "wfsGeometryType";
 
+    // margin in pixels around a buffered tile for symbols and labels of features just outside the tile
+    public static final String PROPERTY_FEATURE_MARGIN = "transport.render.featureMargin";
+    private static final int FEATURE_MARGIN = PropertyUtil.getOptional(PROPERTY_FEATURE_MARGIN, 64);
+
+    private static final String TEMP_SUFFIX = "_temp";
+    private static final int CACHE_EXPIRATION = 86400;
+    private static final MetricRegistry CACHE_METRICS = new MetricRegistry();
+    private static final Timer CACHE_GET_TIMER = CACHE_METRICS.timer(MetricRegistry.name(WFSImage.class, "cache.get"));
+    private static final Meter CACHE_HITS = CACHE_METRICS.meter(MetricRegistry.name(WFSImage.class, "cache.hit"));
+    private static final Meter CACHE_MISSES = CACHE_METRICS.meter(MetricRegistry.name(WFSImage.class, "cache.miss"));
+
+    // SLD templates read from classpath
+    private static final Map<String, String> RESOURCE_SLDS = new ConcurrentHashMap<>();
+
     private Style style;
 
     private Location location; // location of the tile (modified if not map)
@@ -77,6 +99,21 @@ public class WFSImage {
     protected WFSImage() {
 
     }
+
+    /**
+     * Returns a new image sharing the parsed style and buffer configuration of this one.
+     * draw() keeps state in the instance so a copy is needed for each thread drawing concurrently.
+     *
+     * @return copy for drawing
+     */
+    public WFSImage copy() {
+        WFSImage copy = new WFSImage();
+        copy.style = this.style;
+        copy.bufferSize = this.bufferSize;
+        copy.customStyle = this.customStyle;
+        copy.isHighlight = this.isHighlight;
+        return copy;
+    }
     /**
      * Constructor for image of certain layer and style
      *
@@ -159,30 +196,81 @@ public class WFSImage {
                                          Double[] bbox,
                                          long zoom,
                                          boolean persistent) {
-        if(layerId == null ||
-                styleName == null ||
-                srs == null ||
-                bbox.length != 4) {
-            log.error("Cache key couldn't be created");
-            return null;
-        }
+        return bytesToImage(getCacheBytes(layerId, styleName, srs, bbox, zoom, persistent));
+    }
 
+    /**
+     * Gets the encoded PNG image from cache. Use this instead of getCache() when the image is only passed on
+     * to avoid decoding and re-encoding it.
+     *
+     * @param layerId
+     * @param styleName
+     * @param srs
+     * @param bbox
+     * @param zoom
+     * @param persistent
+     * @return PNG bytes or null if not found in cache
+     */
+    public static byte[] getCacheBytes(String layerId,
+                                       String styleName,
+                                       String srs,
+                                       Double[] bbox,
+                                       long zoom,
+                                       boolean persistent) {
         // no persistent cache for custom styles
-        if(styleName.startsWith(PREFIX_CUSTOM_STYLE) && persistent) {
+        if(styleName != null && styleName.startsWith(PREFIX_CUSTOM_STYLE) && persistent) {
             return null;
         }
-
-        String sBbox = bbox[0] + "-" + bbox[1] + "-" + bbox[2]+ "-" + bbox[3];
-        String sKey = KEY + layerId + "_" + styleName + "_"  + srs + "_" + sBbox + "_" + zoom;
-        if(!persistent) {
-            sKey = sKey + "_temp";
+        String sKey = getCacheKey(layerId, styleName, srs, bbox, zoom, persistent);
+        if(sKey == null) {
+            return null;
         }
+        final Timer.Context timer = CACHE_GET_TIMER.time();
+        byte[] bytes = JedisManager.get(sKey.getBytes());
+        timer.stop();
+        (bytes != null ? CACHE_HITS : CACHE_MISSES).mark();
+        return bytes;
+    }
 
-        byte[] key = sKey.getBytes();
-        byte[] bytes = JedisManager.get(key);
-        if(bytes != null)
-            return bytesToImage(bytes);
-        return null;
+    /**
+     * Gets multiple encoded PNG images from persistent cache with one request
+     *
+     * @param layerId
+     * @param styleName
+     * @param srs
+     * @param bboxes
+     * @param zoom
+     * @return PNG bytes in the same order as bboxes, null for images not found in cache
+     */
+    public static List<byte[]> getCacheBytes(String layerId,
+                                             String styleName,
+                                             String srs,
+                                             List<Double[]> bboxes,
+                                             long zoom) {
+        final List<byte[]> keys = new ArrayList<>(bboxes.size());
+        // no persistent cache for custom styles
+        if(styleName == null || !styleName.startsWith(PREFIX_CUSTOM_STYLE)) {
+            for(Double[] bbox : bboxes) {
+                String sKey = getCacheKey(layerId, styleName, srs, bbox, zoom, true);
+                if(sKey == null) {
+                    break;
+                }
+                keys.add(sKey.getBytes());
+            }
+        }
+        if(keys.isEmpty() || keys.size() != bboxes.size()) {
+            return new ArrayList<>(Collections.nCopies(bboxes.size(), (byte[]) null));
+        }
+        final Timer.Context timer = CACHE_GET_TIMER.time();
+        List<byte[]> values = JedisManager.mget(keys.toArray(new byte[keys.size()][]));
+        timer.stop();
+        final List<byte[]> images = new ArrayList<>(bboxes.size());
+        for(int i = 0; i < bboxes.size(); ++i) {
+            byte[] bytes = i < values.size() ? values.get(i) : null;
+            (bytes != null ? CACHE_HITS : CACHE_MISSES).mark();
+            images.add(bytes);
+        }
+        return images;
     }
 
     /**
@@ -202,12 +290,73 @@ public class WFSImage {
                                 Double[] bbox,
                                 long zoom,
                                 boolean persistent) {
+        String sKey = getCacheKey(layerId, styleName, srs, bbox, zoom, persistent);
+        if(sKey == null) {
+            return;
+        }
+        byte[] byteImage = imageToBytes(bufferedImage);
+        JedisManager.setex(sKey.getBytes(), CACHE_EXPIRATION, byteImage);
+    }
+
+    /**
+     * Sets multiple images to cache with one request
+     *
+     * @param images cache key (see getCacheKey()) -> image
+     */
+    public static void setCache(Map<String, BufferedImage> images) {
+        if(images.isEmpty()) {
+            return;
+        }
+        final Map<String, byte[]> encoded = new LinkedHashMap<>(images.size());
+        for(Map.Entry<String, BufferedImage> entry : images.entrySet()) {
+            encoded.put(entry.getKey(), imageToBytes(entry.getValue()));
+        }
+        setCacheBytes(encoded);
+    }
+
+    /**
+     * Sets multiple already encoded PNG images to cache with one request
+     *
+     * @param images cache key (see getCacheKey()) -> PNG bytes
+     */
+    public static void setCacheBytes(Map<String, byte[]> images) {
+        if(images.isEmpty()) {
+            return;
+        }
+        final List<byte[]> keys = new ArrayList<>(images.size());
+        final List<byte[]> values = new ArrayList<>(images.size());
+        for(Map.Entry<String, byte[]> entry : images.entrySet()) {
+            keys.add(entry.getKey().getBytes());
+            values.add(entry.getValue());
+        }
+        JedisManager.msetex(keys, values, CACHE_EXPIRATION);
+    }
+
+    /**
+     * Creates the cache key for an image. The key starts with KEY + layerId + "_" so all images of a layer can
+     * be removed with a prefix. The rest of the parameters are hashed to keep the key short.
+     *
+     * @param layerId
+     * @param styleName
+     * @param srs
+     * @param bbox
+     * @param zoom
+     * @param persistent
+     * @return key or null if parameters are missing
+     */
+    public static String getCacheKey(String layerId,
+                                     String styleName,
+                                     String srs,
+                                     Double[] bbox,
+                                     long zoom,
+                                     boolean persistent) {
         if(layerId == null ||
                 styleName == null ||
                 srs == null ||
+                bbox == null ||
                 bbox.length != 4) {
             log.error("Cache key couldn't be created");
-            return;
+            return null;
         }
 
         // no persistent cache for custom styles
@@ -215,16 +364,28 @@ public class WFSImage {
             persistent = false;
         }
 
-        byte[] byteImage = imageToBytes(bufferedImage);
-        String sBbox = bbox[0] + "-" + bbox[1] + "-" + bbox[2]+ "-" + bbox[3];
-        String sKey = KEY + layerId + "_" + styleName + "_" + srs + "_" + sBbox + "_" + zoom;
+        StringBuilder params = new StringBuilder(128)
+                .append(styleName).append('|')
+                .append(srs).append('|')
+                .append(bbox[0]).append('|')
+                .append(bbox[1]).append('|')
+                .append(bbox[2]).append('|')
+                .append(bbox[3]).append('|')
+                .append(zoom);
+        // 96 bits of SHA-1 as 16 url safe characters
+        byte[] hash = Arrays.copyOf(DigestUtils.sha1(params.toString()), 12);
+        String sKey = KEY + layerId + "_" + Base64.encodeBase64URLSafeString(hash);
         if(!persistent) {
-            sKey = sKey + "_temp";
+            sKey = sKey + TEMP_SUFFIX;
         }
+        return sKey;
+    }
 
-        byte[] key = sKey.getBytes();
-
-        JedisManager.setex(key, 86400, byteImage);
+    /**
+     * Metrics for the image cache: hit/miss rates and Redis read latency
+     */
+    public static MetricRegistry getCacheMetrics() {
+        return CACHE_METRICS;
     }
 
     /**
@@ -350,6 +511,23 @@ public class WFSImage {
         return this.draw();
     }
 
+    /**
+     * Returns the area in map units where features can affect the image of a tile: the tile enlarged
+     * with the tile buffer and a margin for symbols and labels of features just outside it.
+     *
+     * @param tile
+     * @param bounds
+     * @return envelope
+     */
+    public Envelope getFeatureEnvelope(Tile tile, List<Double> bounds) {
+        final double width = bounds.get(2) - bounds.get(0);
+        final double height = bounds.get(3) - bounds.get(1);
+        final double marginX = width / 2 * bufferSize + width / tile.getWidth() * FEATURE_MARGIN;
+        final double marginY = height / 2 * bufferSize + height / tile.getHeight() * FEATURE_MARGIN;
+        return new Envelope(bounds.get(0) - marginX, bounds.get(2) + marginX,
+                bounds.get(1) - marginY, bounds.get(3) + marginY);
+    }
+
     /**
      * Creates a image of the WFS layer's data
      *
@@ -439,7 +617,7 @@ public class WFSImage {
     }
 
     /**
-     * Creates SLD style
+     * Returns SLD style from the shared style registry
      *
      * @param layer
      * @param styleName
@@ -447,15 +625,18 @@ public class WFSImage {
      */
     protected Style getSLDStyle(WFSLayerStore layer, String styleName) {
         log.debug("Trying to get style with name:", styleName);
+        final WFSStyleRegistry registry = WFSStyleRegistry.getInstance();
+        final String layerId = layer.getLayerId();
+        final String geomType = layer.getGMLGeometryPropertyNoNamespace();
         // try to find with name
-        Style style = createSLDStyle(layer.getSLDStyle(styleName));
+        Style style = getSLDStyle(layerId, styleName, geomType, layer.getSLDStyle(styleName));
         if(style == null) {
             // if not found, use selection style for highlight or try default
             if(STYLE_HIGHLIGHT.equals(styleName)) {
-                style = createSLDStyle(layer.getSelectionSLDStyle());
+                style = registry.getStyle(layerId, STYLE_SELECTION, geomType, layer.getSelectionSLDStyle());
             }
             else {
-                style = createSLDStyle(layer.getDefaultSLDStyle());
+                style = getSLDStyle(layerId, STYLE_DEFAULT, geomType, layer.getDefaultSLDStyle());
             }
         }
 
@@ -465,12 +646,12 @@ public class WFSImage {
             if(STYLE_HIGHLIGHT.equals(styleName)) {
                 //style = createDefaultHighlightSLDStyle(layer.getGMLGeometryProperty());
                 // TODO: check if we really always want to use without namespace
-                style = createDefaultHighlightSLDStyle(layer.getGMLGeometryPropertyNoNamespace());
+                style = createDefaultHighlightSLDStyle(geomType);
             }
             else {
                 // style = createSLDStyle(WFSImage.class.getResourceAsStream(DEFAULT_SLD)); // getClass() (non-static)
                 // TODO: check if we really always want to use without namespace
-                style = createDefaultSLDStyle(layer.getGMLGeometryPropertyNoNamespace());
+                style = createDefaultSLDStyle(geomType);
             }
         }
         if(style == null) {
@@ -481,12 +662,15 @@ public class WFSImage {
         return style;
     }
 
-    private Style createSLDStyle(WFSSLDStyle style) {
+    private Style getSLDStyle(String layerId, String styleName, String geomType, WFSSLDStyle style) {
         if(style == null) {
             return null;
         }
-        return createSLDStyle(style.getSLDStyle());
+        // key with the name of the configured style so unknown style names requested by clients share the fallback
+        final String name = style.getName() != null ? style.getName() : styleName;
+        return WFSStyleRegistry.getInstance().getStyle(layerId, name, geomType, style.getSLDStyle());
     }
+
 	/**
 	 * Parses SLD style from a String (XML)
 	 * 
@@ -498,32 +682,13 @@ public class WFSImage {
             log.info("Trying to create style from <null> String!");
             return null;
         }
-        final Style style = createSLDStyle(new ByteArrayInputStream(xml.getBytes()));
+        final Style style = WFSStyleRegistry.parse(xml);
         if(style == null) {
             log.warn("Couldn't create style from XML:", xml);
         }
 		return style;
 	}	
 
-    /**
-     * Parses SLD style from an InputStream (XML)
-     *
-     * @param xml
-     * @return sld
-     */
-    private Style createSLDStyle(InputStream xml) {
-        Configuration config = new SLDConfiguration();
-        Parser parser = new Parser(config);
-        StyledLayerDescriptor sld = null;
-        try {
-            sld = (StyledLayerDescriptor) parser.parse(xml);
-        } catch (Exception e) {
-            log.error(e, "Failed to create SLD Style");
-            return null;
-        }
-        return SLD.styles(sld)[0];
-    }
-
     /**
      * Creates own sld style by replacing
      *
@@ -549,16 +714,7 @@ public class WFSImage {
      */
     public Style createDefaultHighlightSLDStyle(String geom_type) {
         log.debug("Creating default highlight SLD for:", geom_type);
-        InputStream resource = WFSImage.class.getResourceAsStream(HIGHLIGHT_SLD);
-        try {
-            String xml = IOHelper.readString(resource, "ISO-8859-1");
-            xml = xml.replaceAll(GEOM_TYPE_PLACEHOLDER, geom_type);
-            return createSLDStyle(xml);
-        } catch(Exception e) {
-            log.error(e, "Failed to get Default highlight SLD Style - geom type ", geom_type);
-            log.error(resource);
-        }
-        return null;
+        return createResourceSLDStyle(HIGHLIGHT_SLD, STYLE_HIGHLIGHT, geom_type);
     }
 
     /**
@@ -567,15 +723,21 @@ public class WFSImage {
      * @return sld
      */
     public Style createDefaultSLDStyle(String geom_type) {
-        log.debug("Creating default highlight SLD for:", geom_type);
-        InputStream resource = WFSImage.class.getResourceAsStream(DEFAULT_SLD);
+        log.debug("Creating default SLD for:", geom_type);
+        return createResourceSLDStyle(DEFAULT_SLD, STYLE_DEFAULT, geom_type);
+    }
+
+    private Style createResourceSLDStyle(String resource, String styleName, String geom_type) {
         try {
-            String xml = IOHelper.readString(resource, "ISO-8859-1");
+            String xml = RESOURCE_SLDS.get(resource);
+            if(xml == null) {
+                xml = IOHelper.readString(WFSImage.class.getResourceAsStream(resource), "ISO-8859-1");
+                RESOURCE_SLDS.put(resource, xml);
+            }
             xml = xml.replaceAll(GEOM_TYPE_PLACEHOLDER, geom_type);
-            return createSLDStyle(xml);
+            return WFSStyleRegistry.getInstance().getStyle(WFSStyleRegistry.RESOURCE_LAYER, styleName, geom_type, xml);
         } catch(Exception e) {
-            log.error(e, "Failed to get Default SLD Style - geom type ", geom_type);
-            log.error(resource);
+            log.error(e, "Failed to get SLD Style", resource, "- geom type ", geom_type);
         }
         return null;
     }
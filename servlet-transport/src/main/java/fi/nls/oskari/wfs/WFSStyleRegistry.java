@@ -0,0 +1,163 @@
+package fi.nls.oskari.wfs;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import fi.nls.oskari.cache.JedisNearCache;
+import fi.nls.oskari.domain.map.wfs.WFSLayerConfiguration;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.geotools.sld.SLDConfiguration;
+import org.geotools.styling.SLD;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.xml.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Shares parsed SLD styles between WFSImages so the same SLD isn't parsed for each job.
+ * Styles are keyed by layer id, style name and geometry type and stored with the SLD they were parsed from.
+ * If the SLD for a key changes (layer configuration in Redis was updated) the style is parsed again.
+ *
+ * Styles of a layer are dropped when the layer configuration is invalidated with
+ * JedisNearCache.publishInvalidation(WFSLayerConfiguration.KEY + layerId) on any node.
+ *
+ * The returned styles are shared and must not be modified.
+ */
+public class WFSStyleRegistry {
+
+    private static final Logger log = LogFactory.getLogger(WFSStyleRegistry.class);
+
+    // layer id for styles created from classpath resources
+    public static final String RESOURCE_LAYER = "resource";
+    private static final String SEPARATOR = "|";
+
+    private static final WFSStyleRegistry INSTANCE = new WFSStyleRegistry(WFSStyleRegistry::parse);
+    static {
+        JedisNearCache.addInvalidationListener(INSTANCE::onInvalidation);
+    }
+
+    /**
+     * Parsed style with the SLD it was parsed from. Style is null if the SLD couldn't be parsed.
+     */
+    private static class Entry {
+        private final String xml;
+        private final Style style;
+
+        private Entry(String xml, Style style) {
+            this.xml = xml;
+            this.style = style;
+        }
+    }
+
+    private final Map<String, Entry> styles = new ConcurrentHashMap<>();
+    private final Function<String, Style> parser;
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Timer parseTimer = metrics.timer(MetricRegistry.name(WFSStyleRegistry.class, "style.parse"));
+    private final Meter hits = metrics.meter(MetricRegistry.name(WFSStyleRegistry.class, "style.hit"));
+    private final Meter misses = metrics.meter(MetricRegistry.name(WFSStyleRegistry.class, "style.miss"));
+
+    WFSStyleRegistry(Function<String, Style> parser) {
+        this.parser = parser;
+    }
+
+    public static WFSStyleRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the parsed style for the SLD, parsing it only if it hasn't been parsed for the key before.
+     *
+     * @param layerId layer id or RESOURCE_LAYER for default styles
+     * @param styleName name of the style
+     * @param geomType geometry property name used by the style
+     * @param xml SLD
+     * @return style or null if xml is null or can't be parsed
+     */
+    public Style getStyle(final String layerId, final String styleName, final String geomType, final String xml) {
+        if (xml == null) {
+            return null;
+        }
+        final String key = layerId + SEPARATOR + styleName + SEPARATOR + geomType;
+        final Entry cached = styles.get(key);
+        if (cached != null && xml.equals(cached.xml)) {
+            hits.mark();
+            return cached.style;
+        }
+        misses.mark();
+        final Style style;
+        final Timer.Context timer = parseTimer.time();
+        try {
+            style = parser.apply(xml);
+        } finally {
+            timer.stop();
+        }
+        if (style == null) {
+            log.warn("Couldn't create style from XML:", xml);
+        }
+        // failures are stored as well so the same broken SLD isn't parsed again and again
+        styles.put(key, new Entry(xml, style));
+        return style;
+    }
+
+    /**
+     * Drops the styles of the layer
+     */
+    public void invalidate(final String layerId) {
+        final String prefix = layerId + SEPARATOR;
+        styles.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    public void invalidateAll() {
+        styles.clear();
+    }
+
+    public int getSize() {
+        return styles.size();
+    }
+
+    /**
+     * @return parse time and hit/miss metrics
+     */
+    public MetricSet getMetrics() {
+        return metrics;
+    }
+
+    void onInvalidation(final String key) {
+        if (JedisNearCache.WILDCARD.equals(key)) {
+            invalidateAll();
+            return;
+        }
+        if (!key.startsWith(WFSLayerConfiguration.KEY)) {
+            return;
+        }
+        final String layerId = key.substring(WFSLayerConfiguration.KEY.length());
+        if (layerId.endsWith(JedisNearCache.WILDCARD)) {
+            invalidateAll();
+        } else {
+            invalidate(layerId);
+        }
+    }
+
+    /**
+     * Parses SLD style from a String (XML)
+     *
+     * @param xml
+     * @return first style of the SLD or null if parsing failed
+     */
+    static Style parse(final String xml) {
+        final Parser parser = new Parser(new SLDConfiguration());
+        try {
+            final StyledLayerDescriptor sld = (StyledLayerDescriptor) parser.parse(new ByteArrayInputStream(xml.getBytes()));
+            return SLD.styles(sld)[0];
+        } catch (Exception e) {
+            log.error(e, "Failed to create SLD Style");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package fi.nls.oskari.work;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.vividsolutions.jts.geom.Geometry;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.transport.TransportJobException;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.wfs.WFSExceptionHelper;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Collapses identical concurrent WFS backend requests (e.g. many users opening the default view) to one
+ * request: the first job makes the request and parses the response while the others wait for its result.
+ * Parsed features are also kept for a short time so requests arriving right after get them without
+ * a backend request. Requests that must see the latest data (manual refresh, user editable layers)
+ * skip the cache and are only collapsed with identical requests in progress.
+ *
+ * The key is built from the layer id, service URL and the request payload so SRS, bbox and filters are
+ * all part of it. The response of the service doesn't depend on the user beyond that since layer
+ * permissions are checked before the job is run and service credentials are layer specific.
+ * Jobs modify the features (axis swap, transforms) so each caller gets its own copy.
+ *
+ * Configured with properties:
+ * - transport.features.collapse=false to disable collapsing and caching (defaults to true)
+ * - transport.features.cache.ttl=[ms] time to keep parsed features (defaults to 5000, 0 to only collapse
+ *   concurrent requests)
+ * - transport.features.cache.limit=[n] max number of parsed responses kept (defaults to 100)
+ */
+public class FeatureRequestCollapser {
+
+    private static final Logger log = LogFactory.getLogger(FeatureRequestCollapser.class);
+
+    public static final String PROPERTY_ENABLED = "transport.features.collapse";
+    public static final String PROPERTY_TTL = "transport.features.cache.ttl";
+    public static final String PROPERTY_LIMIT = "transport.features.cache.limit";
+    public static final String CACHE_NAME = "transport.features";
+
+    private static final FeatureRequestCollapser INSTANCE = new FeatureRequestCollapser(
+            PropertyUtil.getOptional(PROPERTY_ENABLED, true),
+            createCache(PropertyUtil.getOptional(PROPERTY_TTL, 5000), PropertyUtil.getOptional(PROPERTY_LIMIT, 100)),
+            FeatureRequestCollapser::copy);
+
+    /**
+     * Makes the backend request and parses the response
+     */
+    public interface Fetch {
+        FeatureCollection<SimpleFeatureType, SimpleFeature> fetch();
+    }
+
+    private final boolean enabled;
+    // null if parsed features are not kept after the request completes
+    private final Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache;
+    private final Function<FeatureCollection<SimpleFeatureType, SimpleFeature>,
+            FeatureCollection<SimpleFeatureType, SimpleFeature>> copier;
+    private final Map<String, CompletableFuture<FeatureCollection<SimpleFeatureType, SimpleFeature>>> inFlight =
+            new ConcurrentHashMap<>();
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Meter requests = metrics.meter(MetricRegistry.name(FeatureRequestCollapser.class, "requests"));
+    private final Meter fetched = metrics.meter(MetricRegistry.name(FeatureRequestCollapser.class, "fetched"));
+    private final Meter collapsed = metrics.meter(MetricRegistry.name(FeatureRequestCollapser.class, "collapsed"));
+    private final Meter cached = metrics.meter(MetricRegistry.name(FeatureRequestCollapser.class, "cached"));
+
+    FeatureRequestCollapser(boolean enabled,
+                            Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache,
+                            Function<FeatureCollection<SimpleFeatureType, SimpleFeature>,
+                                    FeatureCollection<SimpleFeatureType, SimpleFeature>> copier) {
+        this.enabled = enabled;
+        this.cache = cache;
+        this.copier = copier;
+        // share of requests that didn't need a backend request of their own
+        metrics.register(MetricRegistry.name(FeatureRequestCollapser.class, "collapse.ratio"), (Gauge<Double>) () -> {
+            final long total = requests.getCount();
+            return total == 0 ? 0d : (double) (collapsed.getCount() + cached.getCount()) / total;
+        });
+    }
+
+    private static Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> createCache(int ttl, int limit) {
+        if (ttl <= 0) {
+            return null;
+        }
+        final Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache = CacheManager.getCache(CACHE_NAME);
+        cache.setExpiration(ttl);
+        cache.setLimit(limit);
+        return cache;
+    }
+
+    public static FeatureRequestCollapser getInstance() {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return key for the backend request
+     */
+    public static String getKey(final String layerId, final String url, final String payload) {
+        return layerId + "_" + DigestUtils.sha1Hex(url + "\n" + payload);
+    }
+
+    /**
+     * Returns features for the request identified by key. If the same request is already in progress
+     * its result is used, otherwise the request is made with fetch.
+     *
+     * @return copy of the parsed features that the caller can modify
+     * @throws TransportJobException (or other runtime exception) thrown by fetch, also to the waiting callers
+     */
+    public FeatureCollection<SimpleFeatureType, SimpleFeature> get(final String key, final Fetch fetch) {
+        return get(key, fetch, true);
+    }
+
+    /**
+     * Returns features for the request identified by key. If the same request is already in progress
+     * its result is used, otherwise the request is made with fetch.
+     *
+     * @param useCache false to skip the cached features and not cache the result
+     * @return copy of the parsed features that the caller can modify
+     * @throws TransportJobException (or other runtime exception) thrown by fetch, also to the waiting callers
+     */
+    public FeatureCollection<SimpleFeatureType, SimpleFeature> get(final String key, final Fetch fetch,
+                                                                   final boolean useCache) {
+        if (!enabled) {
+            return fetch.fetch();
+        }
+        requests.mark();
+        final Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache = useCache ? this.cache : null;
+        FeatureCollection<SimpleFeatureType, SimpleFeature> features = cache == null ? null : cache.get(key);
+        if (features != null) {
+            cached.mark();
+            return copier.apply(features);
+        }
+        final CompletableFuture<FeatureCollection<SimpleFeatureType, SimpleFeature>> request = new CompletableFuture<>();
+        final CompletableFuture<FeatureCollection<SimpleFeatureType, SimpleFeature>> existing = inFlight.putIfAbsent(key, request);
+        if (existing != null) {
+            collapsed.mark();
+            log.debug("Waiting for identical request in progress", key);
+            return copyOf(await(existing));
+        }
+        fetched.mark();
+        try {
+            features = fetch.fetch();
+            if (cache != null && features != null) {
+                cache.put(key, features);
+            }
+            request.complete(features);
+        } catch (RuntimeException e) {
+            request.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, request);
+        }
+        return copyOf(features);
+    }
+
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> copyOf(FeatureCollection<SimpleFeatureType, SimpleFeature> features) {
+        return features == null ? null : copier.apply(features);
+    }
+
+    private static FeatureCollection<SimpleFeatureType, SimpleFeature> await(
+            final CompletableFuture<FeatureCollection<SimpleFeatureType, SimpleFeature>> request) {
+        try {
+            return request.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransportJobException("Interrupted while waiting for features",
+                    WFSExceptionHelper.ERROR_GETFEATURE_POSTREQUEST_FAILED);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TransportJobException("Request failed", e.getCause(),
+                    WFSExceptionHelper.ERROR_GETFEATURE_POSTREQUEST_FAILED);
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return request, collapse and cache hit metrics
+     */
+    public MetricSet getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Copies the features and their geometries so modifying the copy doesn't affect the original
+     */
+    static FeatureCollection<SimpleFeatureType, SimpleFeature> copy(
+            final FeatureCollection<SimpleFeatureType, SimpleFeature> features) {
+        final List<SimpleFeature> copies = new ArrayList<>(features.size());
+        final FeatureIterator<SimpleFeature> it = features.features();
+        try {
+            while (it.hasNext()) {
+                final SimpleFeature copy = SimpleFeatureBuilder.copy(it.next());
+                for (int i = 0; i < copy.getAttributeCount(); i++) {
+                    final Object value = copy.getAttribute(i);
+                    if (value instanceof Geometry) {
+                        copy.setAttribute(i, ((Geometry) value).clone());
+                    }
+                }
+                copies.add(copy);
+            }
+        } finally {
+            it.close();
+        }
+        return new ListFeatureCollection(features.getSchema(), copies);
+    }
+}
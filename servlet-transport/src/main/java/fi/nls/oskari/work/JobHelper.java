@@ -97,14 +97,14 @@ public class JobHelper {
      *         otherwise.
      */
     public static boolean hasPermission(String layerId, String sessionId, String route) {
-        String json = WFSLayerPermissionsStore.getCache(sessionId);
-        boolean fromCache = json != null;
-        if(!fromCache) {
-            log.warn(getAPIUrl() + PERMISSIONS_API);
-            json = HttpHelper.getRequest(getAPIUrl() + PERMISSIONS_API, getCookiesValue(sessionId, route));
-            if(json == null) {
-                return false;
-            }
+        WFSLayerPermissionsStore cached = WFSLayerPermissionsStore.getCachedPermissions(sessionId);
+        if(cached != null) {
+            return cached.isPermission(layerId);
+        }
+        log.warn(getAPIUrl() + PERMISSIONS_API);
+        String json = HttpHelper.getRequest(getAPIUrl() + PERMISSIONS_API, getCookiesValue(sessionId, route));
+        if(json == null) {
+            return false;
         }
         try {
             WFSLayerPermissionsStore permissions = WFSLayerPermissionsStore.setJSON(json);
@@ -126,19 +126,19 @@ public class JobHelper {
      * @return layer
      */
     public static WFSLayerStore getLayerConfiguration(String layerId, String sessionId, String route) {
-        String json = WFSLayerStore.getCache(layerId);
-        boolean fromCache = json != null;
-        if(!fromCache) {
-            final String apiUrl = getAPIUrl() + LAYER_CONFIGURATION_API + layerId;
-            log.debug("Fetching layer data from", apiUrl);
-            // NOTE: result is not handled as request triggers Redis write
-            HttpHelper.getRequest(apiUrl, getCookiesValue(sessionId, route));
-            // that we read here
-            json = WFSLayerStore.getCacheNecessary(layerId);
-            if(json == null) {
-                log.error("Couldn't find JSON for WFSLayerStore with id:", layerId, " - API url:", apiUrl);
-                return null;
-            }
+        WFSLayerStore cached = WFSLayerStore.getCachedLayer(layerId, false);
+        if(cached != null) {
+            return cached;
+        }
+        final String apiUrl = getAPIUrl() + LAYER_CONFIGURATION_API + layerId;
+        log.debug("Fetching layer data from", apiUrl);
+        // NOTE: result is not handled as request triggers Redis write
+        HttpHelper.getRequest(apiUrl, getCookiesValue(sessionId, route));
+        // that we read here
+        String json = WFSLayerStore.getCacheNecessary(layerId);
+        if(json == null) {
+            log.error("Couldn't find JSON for WFSLayerStore with id:", layerId, " - API url:", apiUrl);
+            return null;
         }
         try {
             return WFSLayerStore.setJSON(json);
@@ -1,22 +1,32 @@
 package fi.nls.oskari.work;
 
+import com.vividsolutions.jts.geom.Geometry;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.pojo.*;
 import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.transport.TransportJobException;
+import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.utils.ColumnarFeatureEncoder;
+import fi.nls.oskari.wfs.FeatureIndex;
+import fi.nls.oskari.wfs.GeometrySimplifier;
+import fi.nls.oskari.wfs.VectorTileEncoder;
 import fi.nls.oskari.wfs.WFSExceptionHelper;
 import fi.nls.oskari.wfs.WFSImage;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import fi.nls.oskari.worker.AbstractJob;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.Property;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.referencing.operation.MathTransform;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Job for WFS Map Layer
@@ -64,6 +74,9 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
     public static final String OUTPUT_IMAGE_URL = "url";
     public static final String OUTPUT_IMAGE_DATA = "data";
     public static final String OUTPUT_BOUNDARY_TILE = "boundaryTile";
+    public static final String OUTPUT_TILE_FORMAT = "format";
+    public static final String OUTPUT_TILE_EXTENT = "extent";
+    public static final String OUTPUT_ENCODING = "encoding";
 
     public static final String BROWSER_MSIE = "msie";
 
@@ -90,12 +103,20 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
     protected MathTransform transformClient;
     protected JobType type;
     protected FeatureCollection<SimpleFeatureType, SimpleFeature> features;
+    protected FeatureIndex featureIndex;
     protected List<String> processedFIDs = new ArrayList<String>();
     protected List<List<Object>> featureValuesList;
     protected List<List<Object>> geomValuesList;
 
     protected WFSImage image = null;
 
+    // features waiting to be sent in one message when the client requested columnar encoding
+    protected List<List<Object>> pendingFeatures = new ArrayList<List<Object>>();
+    private ColumnarFeatureEncoder columnarEncoder;
+    private static final int COLUMNAR_BATCH_SIZE = PropertyUtil.getOptional("transport.features.columnar.batch", 100);
+    private static final int COLUMNAR_PRECISION = PropertyUtil.getOptional("transport.features.columnar.precision", 2);
+    private static final int COLUMNAR_PRECISION_DEGREES = PropertyUtil.getOptional("transport.features.columnar.precision.degrees", 7);
+
     public static final int FE_READ_TIMEOUT_MS = PropertyUtil.getOptional("oskari.wfs.read.timeout", 30000);
 
 
@@ -212,6 +233,7 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             log.debug("[fe] Cancelled");
             return STATUS_CANCELED;
         }
+        flushFeatures();
         log.debug("[fe] " + PROCESS_ENDED + " " + getKey());
         return "success";
     }
@@ -257,6 +279,28 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             this.session.getLocation().setEnlargedEnvelope(grid.get(0));
         }
 
+        if (isVectorOutput()) {
+            return runVectorTileJob(grid);
+        }
+
+        if (TileRenderPool.isEnabled() && !this.layer.isTileRequest() && this.sendImage) {
+            return runParallelNormalJob(grid);
+        }
+
+        // read cached images for all needed tiles with one request
+        final Map<List<Double>, byte[]> cachedImages = getImageCache(grid);
+        // new images are written to cache with one request after the tiles have been handled
+        final Map<String, byte[]> imagesToCache = new LinkedHashMap<>();
+        try {
+            return runNormalJob(grid, cachedImages, imagesToCache);
+        } finally {
+            WFSImage.setCacheBytes(imagesToCache);
+        }
+    }
+
+    private boolean runNormalJob(List<List<Double>> grid,
+                                 Map<List<Double>, byte[]> cachedImages,
+                                 Map<String, byte[]> imagesToCache) {
         boolean first = true;
         int index = 0;
         for(List<Double> bounds : grid) {
@@ -292,11 +336,11 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             if (isThisTileNeeded) {
                 Double[] bbox = bounds.toArray(new Double[4]);
 
-                // get from cache
-                BufferedImage bufferedImage = getImageCache(bbox);
+                // get from cache, cached images are sent as is without decoding
+                byte[] byteImage = cachedImages.get(bounds);
                 boolean isboundaryTile = this.session.getGrid().isBoundsOnBoundary2(this.session.getLocation(), bbox);
 
-                if(bufferedImage == null) {
+                if(byteImage == null) {
                     if(this.image == null) {
                         this.image = createResponseImage();
                         // Style check
@@ -307,10 +351,16 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
                             this.sendCommonErrorResponse(output, true);
                         }
                     }
-                    bufferedImage = this.image.draw(this.session.getTileSize(),
+                    // with one request for the whole grid only draw the features near the tile
+                    FeatureCollection<SimpleFeatureType, SimpleFeature> tileFeatures = this.features;
+                    if(!this.layer.isTileRequest() && this.features != null) {
+                        tileFeatures = getFeatureIndex().getFeatures(
+                                this.image.getFeatureEnvelope(this.session.getTileSize(), bounds));
+                    }
+                    BufferedImage bufferedImage = this.image.draw(this.session.getTileSize(),
                             this.session.getLocation(),
                             bounds,
-                            this.features);
+                            tileFeatures);
                     if(bufferedImage == null) {
                         // Break tile loop, if one tile fails
                         throw new TransportJobException("Tile image parsing failed for features",
@@ -324,11 +374,18 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
                     }
 
                     // save to cache
-                    setImageCache(bufferedImage, cacheStyleName, bbox, !isboundaryTile);
+                    String cacheKey = WFSImage.getCacheKey(this.layerId, cacheStyleName,
+                            this.session.getLocation().getSrs(), bbox,
+                            this.session.getLocation().getZoom(), !isboundaryTile);
+                    // encoded once for both sending and caching
+                    byteImage = WFSImage.imageToBytes(bufferedImage);
+                    if(cacheKey != null) {
+                        imagesToCache.put(cacheKey, byteImage);
+                    }
                 }
 
                 String url = createImageURL(this.session.getLayers().get(this.layerId).getStyleName(), bbox);
-                this.sendWFSImage(url, bufferedImage, bbox, true, isboundaryTile);
+                this.sendWFSImage(url, byteImage, bbox, true, isboundaryTile);
             } else {
                 log.debug("Tile not needed?", bounds);
             }
@@ -343,6 +400,213 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         return true;
     }
 
+    /**
+     * Checks if the client requested vector tiles for the layer instead of images. Layers can also
+     * be configured to default to vector tiles with "output": "mvt" in the layer attributes.
+     *
+     * @return <code>true</code> if features are sent as Mapbox Vector Tiles
+     */
+    protected boolean isVectorOutput() {
+        String output = this.sessionLayer == null ? null : this.sessionLayer.getOutput();
+        if (output == null) {
+            output = JSONHelper.getStringFromJSON(this.layer.getAttributes(), "output", null);
+        }
+        return VectorTileEncoder.FORMAT.equals(output);
+    }
+
+    /**
+     * Encodes the features of each tile as a Mapbox Vector Tile instead of drawing them. Vector tiles
+     * don't depend on the style so they are cached once for all styles of the layer per language.
+     *
+     * @param grid tile bounds
+     * @return false if the job was canceled
+     */
+    private boolean runVectorTileJob(List<List<Double>> grid) {
+        final Location location = this.session.getLocation();
+        final VectorTileEncoder encoder = new VectorTileEncoder();
+        // encoded properties depend on the language
+        final String cacheStyle = VectorTileEncoder.getCacheStyle(this.session.getLanguage());
+        final Map<List<Double>, byte[]> cachedTiles = getImageCache(grid, cacheStyle);
+        final Map<String, byte[]> tilesToCache = new LinkedHashMap<>();
+        boolean first = true;
+        try {
+            for(List<Double> bounds : grid) {
+                if (!goNext()) {
+                    return false;
+                }
+                final byte[] cached = cachedTiles.get(bounds);
+                // make a request per tile
+                if(this.layer.isTileRequest()) {
+                    if(!this.normalHandlers(bounds, first)) {
+                        continue;
+                    }
+                }
+                if (!goNext()) {
+                    return false;
+                }
+                if (this.sendImage && this.sessionLayer.isTile(bounds)) {
+                    Double[] bbox = bounds.toArray(new Double[4]);
+                    boolean isboundaryTile = this.session.getGrid().isBoundsOnBoundary2(location, bbox);
+                    byte[] tile = cached;
+                    if(tile == null) {
+                        FeatureCollection<SimpleFeatureType, SimpleFeature> tileFeatures = this.features;
+                        if(!this.layer.isTileRequest() && this.features != null) {
+                            tileFeatures = getFeatureIndex().getFeatures(encoder.getEnvelope(bounds));
+                        }
+                        tile = encoder.encode(this.layerId, bounds, tileFeatures, this.layer.getGMLGeometryProperty(),
+                                getVectorTileProperties());
+                        String cacheKey = WFSImage.getCacheKey(this.layerId, cacheStyle,
+                                location.getSrs(), bbox, location.getZoom(), !isboundaryTile);
+                        if(cacheKey != null) {
+                            tilesToCache.put(cacheKey, tile);
+                        }
+                    }
+                    this.sendWFSVectorTile(tile, bbox, encoder.getExtent(), isboundaryTile);
+                } else {
+                    log.debug("Vector tile not needed", bounds);
+                }
+                if (first) {
+                    first = false;
+                    // keep the next tiles
+                    this.session.setKeepPrevious(true);
+                }
+            }
+            return true;
+        } finally {
+            WFSImage.setCacheBytes(tilesToCache);
+        }
+    }
+
+    /**
+     * Renders the tiles of the grid in parallel on the shared TileRenderPool. Tiles found in cache are
+     * sent first and rendered tiles are sent as they are completed. Tiles nearest to the center of the map
+     * are rendered first. Only used when the features are requested once for the whole grid.
+     *
+     * @param grid tile bounds
+     * @return false if the job was canceled
+     */
+    private boolean runParallelNormalJob(List<List<Double>> grid) {
+        final Location location = this.session.getLocation();
+        final List<List<Double>> needed = new ArrayList<>();
+        for(List<Double> bounds : grid) {
+            if (this.sessionLayer.isTile(bounds)) {
+                needed.add(bounds);
+            }
+        }
+        final double centerX = (location.getLeft() + location.getRight()) / 2;
+        final double centerY = (location.getBottom() + location.getTop()) / 2;
+        needed.sort(Comparator.comparingDouble(bounds -> {
+            double x = (bounds.get(0) + bounds.get(2)) / 2 - centerX;
+            double y = (bounds.get(1) + bounds.get(3)) / 2 - centerY;
+            return x * x + y * y;
+        }));
+
+        final Map<List<Double>, byte[]> cachedImages = getImageCache(needed);
+        final List<List<Double>> missing = new ArrayList<>();
+        for(List<Double> bounds : needed) {
+            if (!goNext()) {
+                return false;
+            }
+            byte[] cached = cachedImages.get(bounds);
+            if(cached == null) {
+                missing.add(bounds);
+                continue;
+            }
+            sendTile(bounds, cached);
+        }
+        if(missing.isEmpty()) {
+            // keep the next tiles
+            this.session.setKeepPrevious(true);
+            return true;
+        }
+
+        if(this.image == null) {
+            this.image = createResponseImage();
+            // Style check
+            if(this.image.getStyle() == null) {
+                Map<String, Object> output = this.createCommonWarningResponse(
+                        "SDL style parsing failed for the layer (custon or default)",
+                        WFSExceptionHelper.WARNING_SLDSTYLE_PARSING_FAILED);
+                this.sendCommonErrorResponse(output, true);
+            }
+        }
+        String cacheStyleName = this.sessionLayer.getStyleName();
+        if (cacheStyleName.startsWith(WFSImage.PREFIX_CUSTOM_STYLE)) {
+            cacheStyleName += "_" + this.session.getSession();
+        }
+
+        // built before rendering so the render threads share it
+        final FeatureIndex index = this.features == null ? null : getFeatureIndex();
+        final CompletionService<Map.Entry<List<Double>, byte[]>> completion =
+                new ExecutorCompletionService<>(TileRenderPool.getExecutor());
+        final List<Future<Map.Entry<List<Double>, byte[]>>> futures = new ArrayList<>(missing.size());
+        final Map<String, byte[]> imagesToCache = new LinkedHashMap<>();
+        try {
+            for(final List<Double> bounds : missing) {
+                final WFSImage renderer = this.image.copy();
+                futures.add(completion.submit(() -> {
+                    Tile tileSize = this.session.getTileSize();
+                    BufferedImage rendered = renderer.draw(tileSize, location, bounds, index == null ? null :
+                            index.getFeatures(renderer.getFeatureEnvelope(tileSize, bounds)));
+                    byte[] png = rendered == null ? null : WFSImage.imageToBytes(rendered);
+                    return new AbstractMap.SimpleImmutableEntry<>(bounds, png);
+                }));
+            }
+            for(int remaining = futures.size(); remaining > 0;) {
+                if (!goNext()) {
+                    return false;
+                }
+                Future<Map.Entry<List<Double>, byte[]>> done = completion.poll(100, TimeUnit.MILLISECONDS);
+                if(done == null) {
+                    continue;
+                }
+                remaining--;
+                Map.Entry<List<Double>, byte[]> tile = done.get();
+                if(tile.getValue() == null) {
+                    // Break tile loop, if one tile fails
+                    throw new TransportJobException("Tile image parsing failed for features",
+                            WFSExceptionHelper.ERROR_WFS_IMAGE_PARSING_FAILED);
+                }
+                Double[] bbox = tile.getKey().toArray(new Double[4]);
+                boolean isboundaryTile = this.session.getGrid().isBoundsOnBoundary2(location, bbox);
+                String cacheKey = WFSImage.getCacheKey(this.layerId, cacheStyleName,
+                        location.getSrs(), bbox, location.getZoom(), !isboundaryTile);
+                if(cacheKey != null) {
+                    imagesToCache.put(cacheKey, tile.getValue());
+                }
+                sendTile(tile.getKey(), tile.getValue());
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TransportJobException("Tile image parsing failed for features", e.getCause(),
+                    WFSExceptionHelper.ERROR_WFS_IMAGE_PARSING_FAILED);
+        } finally {
+            for(Future<Map.Entry<List<Double>, byte[]>> future : futures) {
+                future.cancel(true);
+            }
+            WFSImage.setCacheBytes(imagesToCache);
+        }
+    }
+
+    /**
+     * Sends an encoded tile image. The first tile sent uses the sessions keepPrevious flag, the rest keep the
+     * previous tiles.
+     */
+    private void sendTile(List<Double> bounds, byte[] png) {
+        Double[] bbox = bounds.toArray(new Double[4]);
+        boolean isboundaryTile = this.session.getGrid().isBoundsOnBoundary2(this.session.getLocation(), bbox);
+        String url = createImageURL(this.sessionLayer.getStyleName(), bbox);
+        this.sendWFSImage(url, png, bbox, true, isboundaryTile);
+        // keep the next tiles
+        this.session.setKeepPrevious(true);
+    }
+
     public boolean runHighlightJob() {
         if(!this.sendHighlight) {
             // highlight job with a flag for not sending images, what is going on in here?
@@ -359,6 +623,15 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         if(this.session.isGeomRequest()){
             this.sendWFSFeatureGeometries(this.geomValuesList, ResultProcessor.CHANNEL_FEATURE_GEOMETRIES);
         }
+        if(isVectorOutput()) {
+            // the whole map as one tile, highlighted features aren't cached
+            final VectorTileEncoder encoder = new VectorTileEncoder();
+            final Location location = this.session.getLocation();
+            byte[] tile = encoder.encode(this.layerId, location.getBbox(), this.features,
+                    this.layer.getGMLGeometryProperty(), getVectorTileProperties());
+            this.sendWFSVectorTile(tile, location.getBboxArray(), encoder.getExtent(), false);
+            return true;
+        }
         log.debug("highlight image handling", this.features.size());
         // IMAGE HANDLING
         log.debug("sending");
@@ -449,6 +722,76 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
     }
 
 
+    /**
+     * Returns array of property names that will be sent in response
+     * @return
+     */
+    protected List<String> getPropertiesToInclude() {
+
+        final List<String> selectedProperties = layer.getSelectedFeatureParams(session.getLanguage());
+        if(selectedProperties != null && selectedProperties.size() != 0) {
+            log.debug("Using selected properties:", selectedProperties);
+            return selectedProperties;
+        }
+
+        if(this.features != null && this.features.features().hasNext()) {
+            final List<String> propertyNames = new ArrayList<String>();
+            final Collection<Property> featureProperties = this.features.features().next().getProperties();
+            for (Property prop : featureProperties) {
+                final String field = prop.getName().toString();
+                if (this.excludedProperties.contains(field)) {
+                    continue;
+                }
+                // don't add geometry
+                if (!this.layer.getGMLGeometryProperty().equals(field)) {
+                    propertyNames.add(field);
+                }
+            }
+            log.debug("Using all non-geometry feature properties:", propertyNames);
+            return propertyNames;
+        }
+        else {
+            log.warn("Tried to determine properties by there's no features!");
+        }
+        return Collections.EMPTY_LIST;
+    }
+    /**
+     * @return properties of the features that are sent in vector tiles, same as with the properties channel
+     */
+    private List<String> getVectorTileProperties() {
+        if(this.features == null || this.features.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return getPropertiesToInclude();
+    }
+
+    /**
+     * Returns spatial index for the features of the current response. The index is built on first use
+     * and rebuilt when the features change.
+     *
+     * @return index
+     */
+    protected FeatureIndex getFeatureIndex() {
+        if(this.featureIndex == null || !this.featureIndex.isIndexOf(this.features)) {
+            this.featureIndex = new FeatureIndex(this.features, this.layer.getGMLGeometryProperty());
+        }
+        return this.featureIndex;
+    }
+
+    /**
+     * Creates the simplifier for geometries of features that are drawn or highlighted at the current
+     * zoom level. Map click and filter results are not simplified since they are used for
+     * analysis and selections.
+     *
+     * @return simplifier or null if geometries should be kept as is
+     */
+    protected GeometrySimplifier createGeometrySimplifier() {
+        if(this.type != JobType.NORMAL && this.type != JobType.HIGHLIGHT) {
+            return null;
+        }
+        return GeometrySimplifier.create(this.layer, this.session);
+    }
+
     /**
      * Wrapper for normal type job's handlers
      */
@@ -470,6 +813,7 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         if(!goNext()) {
             return false;
         }
+        flushFeatures();
         return true;
     }
 
@@ -643,12 +987,100 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             log.warn("Failed to send feature");
             return;
         }
+        if(isColumnar()) {
+            this.pendingFeatures.add(values);
+            if(this.pendingFeatures.size() >= COLUMNAR_BATCH_SIZE) {
+                flushFeatures();
+            }
+            return;
+        }
         Map<String, Object> output = new HashMap<String, Object>();
         output.put(OUTPUT_LAYER_ID, this.layerId);
         output.put(OUTPUT_FEATURE, values);
 
         this.service.addResults(this.session.getClient(), ResultProcessor.CHANNEL_FEATURE, output);
     }
+    /**
+     * Sends the features collected by sendWFSFeature() in one message when the client requested
+     * columnar encoding.
+     */
+    protected void flushFeatures() {
+        if(this.pendingFeatures.isEmpty()) {
+            return;
+        }
+        final List<List<Object>> features = this.pendingFeatures;
+        this.pendingFeatures = new ArrayList<List<Object>>();
+
+        Map<String, Object> output = new HashMap<String, Object>();
+        output.put(OUTPUT_LAYER_ID, this.layerId);
+        putEncoded(output, OUTPUT_FEATURES, encodeFeatures(features));
+
+        log.debug("Sending", features.size(), "features");
+        this.service.addResults(this.session.getClient(), ResultProcessor.CHANNEL_FEATURE, output);
+    }
+
+    /**
+     * Checks if the client requested feature payloads encoded by column
+     *
+     * @return <code>true</code> if features are sent with ColumnarFeatureEncoder
+     */
+    protected boolean isColumnar() {
+        return ColumnarFeatureEncoder.isColumnar(this.session.getFeatureEncoding());
+    }
+
+    /**
+     * Value used for the geometry in rows sent with sendWFSFeatureGeometries(). Geometries are encoded
+     * as WKT unless the client requested columnar encoding that has its own geometry encoding.
+     *
+     * @param geometry
+     * @return geometry or WKT
+     */
+    protected Object getGeometryValue(Geometry geometry) {
+        if(geometry == null || isColumnar()) {
+            return geometry;
+        }
+        return geometry.toText();
+    }
+
+    private ColumnarFeatureEncoder getColumnarEncoder() {
+        if(this.columnarEncoder == null) {
+            int precision = COLUMNAR_PRECISION;
+            try {
+                if(CRS.getProjectedCRS(this.session.getLocation().getCrs()) == null) {
+                    precision = COLUMNAR_PRECISION_DEGREES;
+                }
+            } catch (Exception e) {
+                log.debug("Couldn't check units of", this.session.getLocation().getSrs());
+            }
+            this.columnarEncoder = new ColumnarFeatureEncoder(precision);
+        }
+        return this.columnarEncoder;
+    }
+
+    private Map<String, Object> encodeFeatures(List<List<Object>> features) {
+        // rows end with the feature center (__centerX, __centerY)
+        final int size = features.get(0).size();
+        return getColumnarEncoder().encodeFeatures(features, size - 2, size - 1);
+    }
+
+    /**
+     * Adds a columnar payload to the output, compressed if requested by the client
+     */
+    private void putEncoded(Map<String, Object> output, String key, Map<String, Object> encoded) {
+        final String encoding = this.session.getFeatureEncoding();
+        output.put(OUTPUT_ENCODING, encoding);
+        if(ColumnarFeatureEncoder.ENCODING_COLUMNAR_DEFLATE.equals(encoding)) {
+            try {
+                output.put(key, WFSImage.bytesToBase64(ColumnarFeatureEncoder.deflate(encoded)));
+                return;
+            } catch (IOException e) {
+                log.warn(e, "Compressing features failed, sending uncompressed");
+                output.put(OUTPUT_ENCODING, ColumnarFeatureEncoder.ENCODING_COLUMNAR);
+            }
+        }
+        output.put(key, encoded);
+    }
+
     /**
      * Sends list of features
      * 
@@ -665,7 +1097,11 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
 
         Map<String, Object> output = new HashMap<String, Object>();
         output.put(OUTPUT_LAYER_ID, this.layerId);
-        output.put(OUTPUT_FEATURES, features);
+        if (isColumnar()) {
+            putEncoded(output, OUTPUT_FEATURES, encodeFeatures(features));
+        } else {
+            output.put(OUTPUT_FEATURES, features);
+        }
         if (channel.equals(ResultProcessor.CHANNEL_MAP_CLICK) || channel.equals(ResultProcessor.CHANNEL_FILTER)) {
             output.put(OUTPUT_KEEP_PREVIOUS, this.session.isKeepPrevious());
         }
@@ -687,6 +1123,23 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
             log.warn("Failed to send image");
             return;
         }
+        sendWFSImage(url, WFSImage.imageToBytes(bufferedImage), bbox, isTiled, isboundaryTile);
+    }
+
+    /**
+     * Sends an already encoded PNG image
+     *
+     * @param url
+     * @param byteImage PNG bytes
+     * @param bbox
+     * @param isTiled
+     * @param isboundaryTile
+     */
+    protected void sendWFSImage(String url, byte[] byteImage, Double[] bbox, boolean isTiled, boolean isboundaryTile) {
+        if(byteImage == null) {
+            log.warn("Failed to send image");
+            return;
+        }
 
         Map<String, Object> output = new HashMap<String, Object>();
         output.put(OUTPUT_LAYER_ID, this.layerId);
@@ -708,13 +1161,39 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         output.put(OUTPUT_IMAGE_HEIGHT, tileSize.getHeight());
         output.put(OUTPUT_IMAGE_URL, url);
 
-        byte[] byteImage = WFSImage.imageToBytes(bufferedImage);
         String base64Image = WFSImage.bytesToBase64(byteImage);
         output.put(OUTPUT_IMAGE_DATA, base64Image);
 
         this.service.addResults(this.session.getClient(), ResultProcessor.CHANNEL_IMAGE, output);
     }
 
+    /**
+     * Sends an encoded Mapbox Vector Tile. Uses the same fields as images so the client can
+     * handle tiles of both formats the same way.
+     *
+     * @param tile tile bytes
+     * @param bbox tile bounds
+     * @param extent tile extent in integer coordinates
+     * @param isboundaryTile
+     */
+    protected void sendWFSVectorTile(byte[] tile, Double[] bbox, int extent, boolean isboundaryTile) {
+        Map<String, Object> output = new HashMap<String, Object>();
+        output.put(OUTPUT_LAYER_ID, this.layerId);
+
+        Location location = this.session.getLocation();
+        output.put(OUTPUT_IMAGE_SRS, location.getSrs());
+        output.put(OUTPUT_IMAGE_BBOX, bbox);
+        output.put(OUTPUT_IMAGE_ZOOM, location.getZoom());
+        output.put(OUTPUT_IMAGE_TYPE, this.type.toString()); // "normal" | "highlight"
+        output.put(OUTPUT_KEEP_PREVIOUS, this.session.isKeepPrevious());
+        output.put(OUTPUT_BOUNDARY_TILE, isboundaryTile);
+        output.put(OUTPUT_TILE_FORMAT, VectorTileEncoder.FORMAT);
+        output.put(OUTPUT_TILE_EXTENT, extent);
+        output.put(OUTPUT_IMAGE_DATA, WFSImage.bytesToBase64(tile));
+
+        this.service.addResults(this.session.getClient(), ResultProcessor.CHANNEL_VECTOR_TILE, output);
+    }
+
     /**
      * Sends list of feature geometries
      *
@@ -728,7 +1207,11 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         }
         Map<String, Object> output = new HashMap<String, Object>();
         output.put(OUTPUT_LAYER_ID, this.layerId);
-        output.put(OUTPUT_GEOMETRIES, geometries);
+        if (isColumnar()) {
+            putEncoded(output, OUTPUT_GEOMETRIES, getColumnarEncoder().encodeGeometries(geometries));
+        } else {
+            output.put(OUTPUT_GEOMETRIES, geometries);
+        }
         output.put(OUTPUT_KEEP_PREVIOUS, this.session.isKeepPrevious());
 
         log.debug("Sending", geometries.size(), "geometries");
@@ -757,6 +1240,53 @@ public abstract class OWSMapLayerJob extends AbstractJob<String> {
         );
     }
 
+    /**
+     * Gets encoded images from cache for tiles that are needed with one request
+     *
+     * @param grid tile bounds
+     * @return tile bounds -> PNG bytes for tiles found in cache
+     */
+    protected Map<List<Double>, byte[]> getImageCache(List<List<Double>> grid) {
+        return getImageCache(grid, this.session.getLayers().get(this.layerId).getStyleName());
+    }
+
+    /**
+     * Gets cached tiles of the given style for tiles that are needed with one request
+     *
+     * @param grid tile bounds
+     * @param styleName style used in the cache key
+     * @return tile bounds -> cached bytes for tiles found in cache
+     */
+    protected Map<List<Double>, byte[]> getImageCache(List<List<Double>> grid, String styleName) {
+        final Map<List<Double>, byte[]> result = new HashMap<>();
+        if(!this.sendImage) {
+            return result;
+        }
+        final List<List<Double>> needed = new ArrayList<>();
+        final List<Double[]> bboxes = new ArrayList<>();
+        for(List<Double> bounds : grid) {
+            if(this.sessionLayer.isTile(bounds)) {
+                needed.add(bounds);
+                bboxes.add(bounds.toArray(new Double[4]));
+            }
+        }
+        if(needed.isEmpty()) {
+            return result;
+        }
+        final List<byte[]> images = WFSImage.getCacheBytes(
+                this.layerId,
+                styleName,
+                this.session.getLocation().getSrs(),
+                bboxes,
+                this.session.getLocation().getZoom());
+        for(int i = 0; i < needed.size(); ++i) {
+            if(images.get(i) != null) {
+                result.put(needed.get(i), images.get(i));
+            }
+        }
+        return result;
+    }
+
     /**
      * Sets image to cache
      *
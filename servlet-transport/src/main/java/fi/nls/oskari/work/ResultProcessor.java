@@ -8,6 +8,7 @@ public interface ResultProcessor {
 
     public static final String CHANNEL_ERROR = "/error";
     public static final String CHANNEL_IMAGE = "/wfs/image";
+    public static final String CHANNEL_VECTOR_TILE = "/wfs/vectorTile";
     public static final String CHANNEL_PROPERTIES = "/wfs/properties";
     public static final String CHANNEL_FEATURE = "/wfs/feature";
     public static final String CHANNEL_MAP_CLICK = "/wfs/mapClick";
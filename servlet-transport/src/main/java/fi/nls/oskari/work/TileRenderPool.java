@@ -0,0 +1,67 @@
+package fi.nls.oskari.work;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared, bounded thread pool for rendering and encoding tile images in parallel.
+ *
+ * Configured with properties:
+ * - transport.render.parallel=true to render the tiles of a map layer job in parallel (defaults to false)
+ * - transport.render.threads=[n] number of render threads (defaults to number of processors)
+ * - transport.render.queue=[n] max number of queued tiles before the job thread renders tiles itself (defaults to 200)
+ */
+public class TileRenderPool {
+
+    private static final Logger log = LogFactory.getLogger(TileRenderPool.class);
+
+    public static final String PROPERTY_ENABLED = "transport.render.parallel";
+    public static final String PROPERTY_THREADS = "transport.render.threads";
+    public static final String PROPERTY_QUEUE = "transport.render.queue";
+
+    private static volatile ExecutorService executor;
+
+    private TileRenderPool() {}
+
+    public static boolean isEnabled() {
+        return PropertyUtil.getOptional(PROPERTY_ENABLED, false);
+    }
+
+    public static ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (TileRenderPool.class) {
+                if (executor == null) {
+                    executor = createExecutor();
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static ExecutorService createExecutor() {
+        final int threads = PropertyUtil.getOptional(PROPERTY_THREADS, Runtime.getRuntime().availableProcessors());
+        final int queueSize = PropertyUtil.getOptional(PROPERTY_QUEUE, 200);
+        log.info("Creating tile render pool with", threads, "threads and queue size", queueSize);
+        final AtomicInteger count = new AtomicInteger();
+        // when the queue is full the job thread renders the tile itself which slows down job creation
+        return new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "tile-render-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public static void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
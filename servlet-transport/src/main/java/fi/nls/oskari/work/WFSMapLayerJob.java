@@ -4,21 +4,25 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.Point;
 import fi.nls.oskari.map.geometry.ProjectionHelper;
+import fi.nls.oskari.pojo.Location;
 import fi.nls.oskari.pojo.SessionStore;
 import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.transport.TransportJobException;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.wfs.GeometrySimplifier;
 import fi.nls.oskari.wfs.WFSCommunicator;
 import fi.nls.oskari.wfs.WFSExceptionHelper;
 import fi.nls.oskari.wfs.WFSFilter;
 import fi.nls.oskari.wfs.WFSParser;
 import fi.nls.oskari.wfs.pojo.WFSLayerStore;
 import fi.nls.oskari.wfs.util.HttpHelper;
+import fi.nls.oskari.wfs.extension.AnalysisFilter;
+import fi.nls.oskari.wfs.extension.MyPlacesFilter;
+import fi.nls.oskari.wfs.extension.UserLayerFilter;
 import fi.nls.oskari.wfs.extension.UserLayerProcessor;
 import fi.nls.oskari.wfs.LayerProcessor;
 import org.geotools.feature.FeatureCollection;
-import org.geotools.feature.FeatureIterator;
-import org.opengis.feature.Property;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.filter.Filter;
@@ -79,24 +83,37 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
     public RequestResponse request(JobType type, WFSLayerStore layer,
             SessionStore session, List<Double> bounds,
             MathTransform transformService) {
-        BufferedReader response = null;
         if (layer.getTemplateType() == null) { // default
             String payload = WFSCommunicator.createRequestPayload(type, layer,
                     session, bounds, transformService);
-            log.debug("...WFS / Request data "+ layer.getURL() + "\n" + payload + "\n");
-            try {
-                response = HttpHelper.postRequestReader(layer.getURL(), "",
-                        payload, layer.getUsername(), layer.getPassword(), true);
-            }
-            catch (ServiceRuntimeException e){
-                throw new TransportJobException(e.getMessage(),
-                        e.getCause(),
-                        WFSExceptionHelper.ERROR_GETFEATURE_POSTREQUEST_FAILED);
-            }
-        } else {
-            log.debug(
-                    "Failed to make a request because of undefined layer type "+
-                    layer.getTemplateType());
+            return request(layer, payload);
+        }
+        log.debug(
+                "Failed to make a request because of undefined layer type "+
+                layer.getTemplateType());
+
+        return new WFSRequestResponse();
+    }
+
+    /**
+     * Posts the request payload to the service
+     * Throws TransportJobException, if post request response fails
+     *
+     * @param layer
+     * @param payload
+     * @return response
+     */
+    private RequestResponse request(WFSLayerStore layer, String payload) {
+        log.debug("...WFS / Request data "+ layer.getURL() + "\n" + payload + "\n");
+        BufferedReader response;
+        try {
+            response = HttpHelper.postRequestReader(layer.getURL(), "",
+                    payload, layer.getUsername(), layer.getPassword(), true);
+        }
+        catch (ServiceRuntimeException e){
+            throw new TransportJobException(e.getMessage(),
+                    e.getCause(),
+                    WFSExceptionHelper.ERROR_GETFEATURE_POSTREQUEST_FAILED);
         }
 
         WFSRequestResponse requestResponse = new WFSRequestResponse();
@@ -151,62 +168,104 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
 	 */
     protected boolean requestHandler(List<Double> bounds) {
 
-        // make a request
-        RequestResponse response = request(type, layer, session, bounds, transformService);
-        boolean success = false;
+        // make a request and parse response, throws an exception on failure
+        this.features = fetchFeatures(bounds);
+        final Map<String, Object> output = createCommonResponse();
+        if(features == null || features.isEmpty()) {
+            log.debug("Empty result for", this.layerId, "type:", type);
+            output.put(OUTPUT_FEATURE, "empty");
+            log.debug(PROCESS_ENDED, getKey());
+            if(this.type == JobType.MAP_CLICK) {
+                output.put(OUTPUT_KEEP_PREVIOUS, this.session.isKeepPrevious());
+                this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_MAP_CLICK, output);
+                return false;
+            } else if(this.type == JobType.GEOJSON  || this.type == JobType.PROPERTY_FILTER) {
+                output.put(OUTPUT_KEEP_PREVIOUS, this.session.isKeepPrevious());
+                this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_FILTER, output);
+                return false;
+            }
+            this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_FEATURE, output);
+            return false;
+        }
+        // Swap XY in feature geometry, if reverseXY setup in layer attributes
+        if(layer.isReverseXY(session.getLocation().getSrs())){
+            ProjectionHelper.swapGeometryXY(this.features);
+        }
 
-        try {
-            // request failed
-            if(response == null) {
-                log.warn("Request failed for layer: ",layer.getLayerName(), "id: ", layer.getLayerId());
-                throw new TransportJobException("Request failed for layer: " + layer.getLayerName() + "id: " + layer.getLayerId(),
-                        WFSExceptionHelper.ERROR_GETFEATURE_POSTREQUEST_FAILED);
+        if(this.features.size() == layer.getMaxFeatures()) {
+            log.debug("Max feature result", this.layerId);
+            output.put(OUTPUT_FEATURE, "max");
+            this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_FEATURE, output);
+        }
 
-            }
+        log.debug("Features count", this.features.size());
+        return true;
+    }
 
-            // parse response, throws an exception on failure
-            this.features = response(layer, response);
-            final Map<String, Object> output = createCommonResponse();
-            if(features == null || features.isEmpty()) {
-                log.debug("Empty result for", this.layerId, "type:", type);
-                output.put(OUTPUT_FEATURE, "empty");
-                log.debug(PROCESS_ENDED, getKey());
-                if(this.type == JobType.MAP_CLICK) {
-                    output.put(OUTPUT_KEEP_PREVIOUS, this.session.isKeepPrevious());
-                    this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_MAP_CLICK, output);
-                    return false;
-                } else if(this.type == JobType.GEOJSON  || this.type == JobType.PROPERTY_FILTER) {
-                    output.put(OUTPUT_KEEP_PREVIOUS, this.session.isKeepPrevious());
-                    this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_FILTER, output);
-                    return false;
-                }
-                this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_FEATURE, output);
-                return false;
-            }
-            // Swap XY in feature geometry, if reverseXY setup in layer attributes
-            if(layer.isReverseXY(session.getLocation().getSrs())){
-                ProjectionHelper.swapGeometryXY(this.features);
-            }
+    /**
+     * Makes the request and parses the response to features. Identical concurrent requests of all sessions
+     * share one backend request (see FeatureRequestCollapser). Recently parsed features are reused
+     * unless the layer is refreshed manually or can be edited by users.
+     *
+     * @param bounds
+     * @return features that the job can modify
+     */
+    protected FeatureCollection<SimpleFeatureType, SimpleFeature> fetchFeatures(final List<Double> bounds) {
+        // geometries are simplified once after parsing, only if they are in the map projection
+        final GeometrySimplifier simplifier = this.transformClient == null ? createGeometrySimplifier() : null;
+        final FeatureRequestCollapser collapser = FeatureRequestCollapser.getInstance();
+        if(!collapser.isEnabled() || layer.getTemplateType() != null) {
+            return simplify(parseResponse(request(type, layer, session, bounds, transformService)), simplifier);
+        }
+        final String payload = WFSCommunicator.createRequestPayload(type, layer,
+                session, bounds, transformService);
+        String key = FeatureRequestCollapser.getKey(layer.getLayerId(), layer.getURL(), payload);
+        if(simplifier != null) {
+            // simplified features are shared with the requests of the same resolution
+            key += "_" + simplifier.getTolerance();
+        }
+        return collapser.get(key, () -> simplify(parseResponse(request(layer, payload)), simplifier),
+                !needsLatestFeatures());
+    }
 
-            if(this.features.size() == layer.getMaxFeatures()) {
-                log.debug("Max feature result", this.layerId);
-                output.put(OUTPUT_FEATURE, "max");
-                this.service.addResults(session.getClient(), ResultProcessor.CHANNEL_FEATURE, output);
-            }
+    /**
+     * @return true if features shouldn't be reused from earlier requests
+     */
+    private boolean needsLatestFeatures() {
+        if(layer.getAttributes().has(JobHelper.PARAM_MANUAL_REFRESH)) {
+            // the layer is only loaded when the user asks for a refresh
+            return true;
+        }
+        final String id = layer.getLayerId();
+        return id.startsWith(MyPlacesFilter.MY_PLACES_PREFIX) ||
+                id.startsWith(AnalysisFilter.ANALYSIS_PREFIX) ||
+                id.startsWith(UserLayerFilter.USERLAYER_PREFIX);
+    }
 
-            success = true;
-            log.debug("Features count", this.features.size());
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> simplify(
+            FeatureCollection<SimpleFeatureType, SimpleFeature> features, GeometrySimplifier simplifier) {
+        if(simplifier != null) {
+            simplifier.simplify(features);
+        }
+        return features;
+    }
+
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> parseResponse(RequestResponse response) {
+        // request failed
+        if(response == null) {
+            log.warn("Request failed for layer: ",layer.getLayerName(), "id: ", layer.getLayerId());
+            throw new TransportJobException("Request failed for layer: " + layer.getLayerName() + "id: " + layer.getLayerId(),
+                    WFSExceptionHelper.ERROR_GETFEATURE_POSTREQUEST_FAILED);
+        }
+        try {
+            return response(layer, response);
         } finally {
-            if( response != null ) {
-                try {
-                    response.flush();
-                } catch( java.io.IOException e) {
-                    success = false;
-                }
+            try {
+                response.flush();
+            } catch( java.io.IOException e) {
+                log.debug(e, "Failed to close response");
             }
         }
-
-        return success;
     }
 
     /**
@@ -222,39 +281,6 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
         this.sendWFSProperties(selectedProperties, this.layer.getFeatureParamsLocales(this.session.getLanguage()));
     }
 
-    /**
-     * Returns array of property names that will be sent in response
-     * @return
-     */
-    private List<String> getPropertiesToInclude() {
-
-        final List<String> selectedProperties = layer.getSelectedFeatureParams(session.getLanguage());
-        if(selectedProperties != null && selectedProperties.size() != 0) {
-            log.debug("Using selected properties:", selectedProperties);
-            return selectedProperties;
-        }
-
-        if(this.features.features().hasNext()) {
-            final List<String> propertyNames = new ArrayList<String>();
-            final Collection<Property> featureProperties = this.features.features().next().getProperties();
-            for (Property prop : featureProperties) {
-                final String field = prop.getName().toString();
-                if (this.excludedProperties.contains(field)) {
-                    continue;
-                }
-                // don't add geometry
-                if (!this.layer.getGMLGeometryProperty().equals(field)) {
-                    propertyNames.add(field);
-                }
-            }
-            log.debug("Using all non-geometry feature properties:", propertyNames);
-            return propertyNames;
-        }
-        else {
-            log.warn("Tried to determine properties by there's no features!");
-        }
-        return Collections.EMPTY_LIST;
-    }
     /**
      * Parses features values
      */
@@ -269,8 +295,10 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
 
         }
 
-        // send feature info
-        FeatureIterator<SimpleFeature> featuresIter =  this.features.features();
+        // send feature info, only features near the screen are checked with the filter
+        final Location location = this.session.getLocation();
+        final ReferencedEnvelope screen = location.getTransformEnvelope(location.getEnvelope(), location.getSrs(), true);
+        Iterator<SimpleFeature> featuresIter = getFeatureIndex().query(screen).iterator();
 
         this.featureValuesList = new ArrayList<List<Object>>();
         this.geomValuesList = new ArrayList<List<Object>>();
@@ -310,7 +338,7 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
                 List<Object> gvalues = new ArrayList<Object>();
                 gvalues.add(fid);
                 if( geometry != null ) {
-                gvalues.add(geometry.toText()); //feature.getAttribute(this.layer.getGMLGeometryProperty()));
+                gvalues.add(getGeometryValue(geometry)); //feature.getAttribute(this.layer.getGMLGeometryProperty()));
                 } else {
                     log.debug("Feature geometry parsing failed", fid);
                     gvalues.add(null);
@@ -350,6 +378,11 @@ public class WFSMapLayerJob extends OWSMapLayerJob {
             }
         }
 
+        if(this.transformClient != null) {
+            // geometries were transformed, index them again if needed
+            this.featureIndex = null;
+        }
+
         if(geometryParingFailures){
             Map<String, Object> output = this.createCommonWarningResponse(
                     "Geometry parsing of some features failed (unknown geometry property or transformation error",
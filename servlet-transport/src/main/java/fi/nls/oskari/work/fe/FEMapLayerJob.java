@@ -8,8 +8,8 @@ import fi.nls.oskari.fe.engine.FeatureEngine;
 import fi.nls.oskari.fe.input.XMLInputProcessor;
 import fi.nls.oskari.fe.input.format.gml.StaxGMLInputProcessor;
 import fi.nls.oskari.fe.iri.Resource;
-import fi.nls.oskari.fe.output.OutputProcessor;
 import fi.nls.oskari.fi.rysp.generic.WFS11_path_parse_worker;
+import fi.nls.oskari.map.geometry.CRSCache;
 import fi.nls.oskari.map.geometry.ProjectionHelper;
 import fi.nls.oskari.pojo.GeoJSONFilter;
 import fi.nls.oskari.pojo.SessionStore;
@@ -17,6 +17,7 @@ import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.transport.TransportJobException;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.wfs.WFSExceptionHelper;
 import fi.nls.oskari.wfs.WFSFilter;
 import fi.nls.oskari.wfs.WFSImage;
@@ -50,7 +51,6 @@ import org.apache.http.protocol.BasicHttpContext;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
-import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
 import org.json.JSONObject;
 import org.opengis.feature.simple.SimpleFeature;
@@ -78,6 +78,12 @@ import java.util.Map;
 
 public class FEMapLayerJob extends OWSMapLayerJob {
 
+    // features waiting between the parser and the output, 0 parses on the job thread without sending features during parsing
+    public static final int STREAM_QUEUE_SIZE = PropertyUtil.getOptional("transport.fe.stream.queue", 100);
+    public static final int STREAM_BATCH_SIZE = PropertyUtil.getOptional("transport.fe.stream.batch", 50);
+
+    private boolean propertiesSent = false;
+
     final ArrayList<String> selectedProperties = new ArrayList<String>();
 
     final Map<Resource, Integer> selectedPropertiesIndex = new HashMap<Resource, Integer>();
@@ -156,7 +162,7 @@ public class FEMapLayerJob extends OWSMapLayerJob {
                 List<Object> gvalues = new ArrayList<Object>();
                 gvalues.add(fid);
                 if (geometry != null) {
-                    gvalues.add(geometry.toText());
+                    gvalues.add(getGeometryValue(geometry));
                 } else {
                     log.debug("Feature geometry parsing failed", fid);
                     gvalues.add(null);
@@ -174,6 +180,10 @@ public class FEMapLayerJob extends OWSMapLayerJob {
     }
 
     protected void propertiesHandler() {
+        if (propertiesSent) {
+            return;
+        }
+        propertiesSent = true;
         this.sendWFSProperties(selectedProperties,
                 this.layer.getFeatureParamsLocales(this.session.getLanguage()));
     }
@@ -259,7 +269,7 @@ public class FEMapLayerJob extends OWSMapLayerJob {
         try {
             /* CRS */
             //Axis order is x=lon y=lat for each projection in a OL Map
-            final CoordinateReferenceSystem crs = CRS.decode(session
+            final CoordinateReferenceSystem crs = CRSCache.decode(session
                     .getLocation().getSrs(), true);
 
             final MathTransform transform = this.session.getLocation()
@@ -268,9 +278,16 @@ public class FEMapLayerJob extends OWSMapLayerJob {
             /* FeatureEngine InputProcessor */
             final XMLInputProcessor inputProcessor = new StaxGMLInputProcessor();
 
-            final OutputProcessor outputProcessor = new FEOutputProcessor(
+            final FEOutputProcessor outputProcessor = new FEOutputProcessor(
                     resultsList, responseCollections, crs, requestResponse,
                     selectedProperties, selectedPropertiesIndex, transform, geomProp);
+            outputProcessor.setGeometrySimplifier(createGeometrySimplifier());
+
+            if (isStreamed(type, layer, parseConfig)) {
+                log.debug("[fe] sending features while parsing");
+                engine.setQueueSize(STREAM_QUEUE_SIZE);
+                outputProcessor.setBatchHandler(this::sendFeatureBatch, STREAM_BATCH_SIZE);
+            }
 
             /* Backend HTTP URI info */
             FEUrl backendUrlInfo = getBackendURL(urlTemplate);
@@ -428,6 +445,29 @@ public class FEMapLayerJob extends OWSMapLayerJob {
         return requestResponse;
     }
 
+    /**
+     * Features of normal jobs are sent to the client while the response is parsed. Parse configs merge
+     * and equalize the properties after parsing so they need the whole response. With tiled requests
+     * properties are sent only once for the first tile so those are sent after the request as before.
+     */
+    private boolean isStreamed(final JobType type, final WFSLayerStore layer, final JSONObject parseConfig) {
+        return STREAM_QUEUE_SIZE > 0 && type == JobType.NORMAL && parseConfig == null && !layer.isTileRequest();
+    }
+
+    /**
+     * Sends features parsed so far, properties are sent first so the client knows the fields
+     */
+    private void sendFeatureBatch(List<List<Object>> batch) {
+        if (!goNext()) {
+            return;
+        }
+        propertiesHandler();
+        for (List<Object> feature : batch) {
+            this.sendWFSFeature(feature);
+        }
+        flushFeatures();
+    }
+
     private FeatureEngine getFeatureEngine(String recipePath)
             throws InstantiationException, IllegalAccessException,
             ClassNotFoundException {
@@ -7,6 +7,7 @@ import fi.nls.oskari.fe.schema.XSDDatatype;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.wfs.GeometrySimplifier;
 import org.apache.commons.lang3.tuple.Pair;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -28,6 +29,13 @@ public class FEOutputProcessor implements OutputProcessor {
     protected static final Logger log = LogFactory
             .getLogger(FEOutputProcessor.class);
 
+    /**
+     * Receives property values of the parsed features while the response is still being parsed
+     */
+    public interface FeatureBatchHandler {
+        void features(List<List<Object>> batch);
+    }
+
     final Map<Resource, SimpleFeatureBuilder> responseBuilders = new HashMap<Resource, SimpleFeatureBuilder>();
     final Map<Resource, List<SimpleFeature>> responseFeatures = new HashMap<Resource, List<SimpleFeature>>();
     final ArrayList<List<Object>> list;
@@ -44,6 +52,11 @@ public class FEOutputProcessor implements OutputProcessor {
     final MathTransform transform;
     final String geomProp;
 
+    private FeatureBatchHandler batchHandler;
+    private int batchSize;
+    private List<List<Object>> batch;
+    private GeometrySimplifier simplifier;
+
     public FEOutputProcessor(final ArrayList<List<Object>> list,
             final Map<Resource, SimpleFeatureCollection> responseCollections,
             CoordinateReferenceSystem crs, FERequestResponse requestResponse,
@@ -61,6 +74,49 @@ public class FEOutputProcessor implements OutputProcessor {
         this.geomProp = geomProp;
     }
 
+    /**
+     * Passes property values to handler in batches instead of collecting them to the list. Can't be
+     * used with recipes that merge or equalize properties after parsing since the values have already
+     * been passed on.
+     *
+     * @param handler   receives the batches
+     * @param batchSize number of features in a batch
+     */
+    public void setBatchHandler(FeatureBatchHandler handler, int batchSize) {
+        this.batchHandler = handler;
+        this.batchSize = Math.max(batchSize, 1);
+        this.batch = new ArrayList<List<Object>>(this.batchSize);
+    }
+
+    /**
+     * Simplifies geometries after they have been transformed to the map projection
+     *
+     * @param simplifier simplifier or null to keep the geometries as parsed
+     */
+    public void setGeometrySimplifier(GeometrySimplifier simplifier) {
+        this.simplifier = simplifier;
+    }
+
+    private void addFeature(List<Object> props) {
+        if (batchHandler == null) {
+            list.add(props);
+            return;
+        }
+        batch.add(props);
+        if (batch.size() >= batchSize) {
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        if (batchHandler == null || batch.isEmpty()) {
+            return;
+        }
+        List<List<Object>> features = batch;
+        batch = new ArrayList<List<Object>>(batchSize);
+        batchHandler.features(features);
+    }
+
     public void begin() throws IOException {
         /* Setup MAP */
 
@@ -73,6 +129,7 @@ public class FEOutputProcessor implements OutputProcessor {
 
     @Override
     public void end() throws IOException {
+        flushBatch();
 
         for (Resource type : responseFeatures.keySet()) {
             List<SimpleFeature> sfc = getAndSetListSimpleFeature(type);
@@ -208,6 +265,9 @@ public class FEOutputProcessor implements OutputProcessor {
 
                 throw new IOException(e);
             }
+            if (simplifier != null) {
+                geom = simplifier.simplify(geom);
+            }
 
             sfb.add(geom);
             // Add other properties
@@ -262,7 +322,7 @@ public class FEOutputProcessor implements OutputProcessor {
                 props.set(keyIndex, pair.getValue());
             }
 
-            list.add(props);
+            addFeature(props);
         }
     }
 
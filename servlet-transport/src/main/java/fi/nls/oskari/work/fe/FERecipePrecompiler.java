@@ -0,0 +1,45 @@
+package fi.nls.oskari.work.fe;
+
+import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.fe.engine.FEEngineManager;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.OskariComponent;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiles the Groovy parser recipes of the feature engine in the background on startup so the first
+ * requests to ELF/INSPIRE layers don't wait for the compilation. Recipes bundled with the feature engine
+ * under fi/nls/oskari are compiled, additional recipes can be listed in transport.fe.recipes.precompile.paths.
+ * Set transport.fe.recipes.precompile=false to compile on first use instead.
+ */
+@Oskari("fe-recipe-precompiler")
+public class FERecipePrecompiler extends OskariComponent {
+
+    private static final Logger log = LogFactory.getLogger(FERecipePrecompiler.class);
+
+    private static final String RECIPE_ROOT = "fi/nls/oskari";
+
+    public void init() {
+        if (!PropertyUtil.getOptional("transport.fe.recipes.precompile", true)) {
+            return;
+        }
+        Thread thread = new Thread(this::precompile, "fe-recipe-precompiler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void precompile() {
+        final long start = System.currentTimeMillis();
+        final Set<String> recipes = new LinkedHashSet<>(FEEngineManager.findRecipes(RECIPE_ROOT));
+        recipes.addAll(Arrays.asList(PropertyUtil.getCommaSeparatedList("transport.fe.recipes.precompile.paths")));
+        final Map<String, Long> timings = FEEngineManager.precompile(recipes);
+        log.info("Feature engine recipes ready for", timings.size(), "layer parsers,",
+                System.currentTimeMillis() - start, "ms after startup");
+    }
+}
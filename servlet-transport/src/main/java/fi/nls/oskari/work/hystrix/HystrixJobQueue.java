@@ -10,6 +10,8 @@ import com.netflix.hystrix.strategy.HystrixPlugins;
 import com.netflix.hystrix.strategy.executionhook.HystrixCommandExecutionHook;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.wfs.WFSStyleRegistry;
+import fi.nls.oskari.work.FeatureRequestCollapser;
 import fi.nls.oskari.work.OWSMapLayerJob;
 import fi.nls.oskari.work.hystrix.metrics.AvgJobLengthGauge;
 import fi.nls.oskari.work.hystrix.metrics.MaxJobLengthGauge;
@@ -21,20 +23,34 @@ import fi.nls.oskari.worker.JobQueue;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Adds support for Hystrix commands, defaults to internal threading solution for non-Hystrix jobs
+ * Adds support for Hystrix commands, defaults to internal threading solution for non-Hystrix jobs.
+ *
+ * Map layer jobs are run as Hystrix commands and don't go through the JobQueue workers. The Hystrix thread pool
+ * bounds them (oskari.transport.job.pool.size/limit) and rejected or timed out jobs end in the fallback that
+ * notifies the client. Adding a job terminates the job with the same key so the replaced job exits on its first
+ * goNext() check. Queueing them in JobQueue as well would add a second queue with its own capacity in front of
+ * the Hystrix pool, so workerQueueCapacity and the rejection policy only apply to the other jobs.
  */
 public class HystrixJobQueue extends JobQueue {
     private static final Logger LOG = LogFactory.getLogger(HystrixJobQueue.class);
     private Map<String, Job<String>> commandsMapping = new ConcurrentHashMap<String, Job<String>>(100);
     private MetricRegistry metrics = new MetricRegistry();
 
-    private long mapMaxSize = 0;
+    private final AtomicLong mapMaxSize = new AtomicLong();
     private Map<String, TimingGauge> customMetrics = new ConcurrentHashMap<String, TimingGauge>();
 
     public HystrixJobQueue(int nWorkers) {
-        super(nWorkers);
+        this(nWorkers, Integer.MAX_VALUE, RejectionPolicy.DISCARD_OLDEST);
+    }
+
+    public HystrixJobQueue(int nWorkers, int capacity, RejectionPolicy rejectionPolicy) {
+        super(nWorkers, capacity, rejectionPolicy);
+        // style parsing and request collapsing statistics are shared by all jobs
+        metrics.registerAll(WFSStyleRegistry.getInstance().getMetrics());
+        metrics.registerAll(FeatureRequestCollapser.getInstance().getMetrics());
 
         HystrixPlugins.getInstance().registerCommandExecutionHook(new HystrixCommandExecutionHook() {
             /**
@@ -163,7 +179,7 @@ public class HystrixJobQueue extends JobQueue {
     }
 
     public long getMaxQueueLength() {
-        return super.getMaxQueueLength() + mapMaxSize;
+        return super.getMaxQueueLength() + mapMaxSize.get();
     }
 
     public List<String> getQueuedJobNames() {
@@ -172,7 +188,7 @@ public class HystrixJobQueue extends JobQueue {
         return names;
     }
     /**
-     * Custom handling for HystrixJobs, call super on other type of jobs
+     * Map layer jobs are queued as Hystrix commands (see class comment), other jobs are added to JobQueue
      * @param job
      */
     public void add(Job job) {
@@ -191,9 +207,7 @@ public class HystrixJobQueue extends JobQueue {
             hJob.queue();
             commandsMapping.put(job.getKey(), job);
             // track max size of the map
-            if(mapMaxSize < commandsMapping.size()) {
-                mapMaxSize = commandsMapping.size();
-            }
+            mapMaxSize.accumulateAndGet(commandsMapping.size(), Math::max);
         }
         else {
             super.add(job);
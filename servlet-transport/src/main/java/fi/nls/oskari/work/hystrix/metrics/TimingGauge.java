@@ -1,44 +1,35 @@
 package fi.nls.oskari.work.hystrix.metrics;
 
+import fi.nls.oskari.worker.LatencyHistogram;
+
 /**
  * Created by SMAKINEN on 19.3.2015.
  */
 public class TimingGauge {
 
-    protected long maxJobLength = 0;
-    protected long minJobLength = Long.MAX_VALUE;
-    protected long jobCount = 0;
-    protected long avgRuntime = 0;
+    private final LatencyHistogram runtimes = new LatencyHistogram();
 
     public void setupTimingStatistics(long runTimeMS) {
-        jobCount++;
-        if(runTimeMS > maxJobLength) {
-            maxJobLength = runTimeMS;
-        }
-        if(runTimeMS < minJobLength) {
-            minJobLength = runTimeMS;
-        }
-        if(avgRuntime == 0) {
-            avgRuntime = runTimeMS;
-        }
-        else {
-            avgRuntime = ((avgRuntime * (jobCount -1)) + runTimeMS) / jobCount;
-        }
+        runtimes.update(runTimeMS);
     }
 
     public long getMaxJobLength() {
-        return maxJobLength;
+        return runtimes.getMax();
     }
 
     public long getMinJobLength() {
-        return minJobLength;
+        return runtimes.getMin();
     }
 
     public long getJobCount() {
-        return jobCount;
+        return runtimes.getCount();
     }
 
     public long getAvgRuntime() {
-        return avgRuntime;
+        return runtimes.getMean();
+    }
+
+    public LatencyHistogram getRuntimes() {
+        return runtimes;
     }
 }
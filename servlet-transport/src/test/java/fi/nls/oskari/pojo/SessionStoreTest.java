@@ -6,7 +6,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 
-import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.*;
 import static org.junit.Assume.assumeTrue;
 
 public class SessionStoreTest {
@@ -25,6 +25,61 @@ public class SessionStoreTest {
                         JSONHelper.createJSONObject(jsonResult)));
     }
 
+    @Test
+    public void testCopyIsIndependent() throws IOException {
+        final SessionStore store = SessionStore.setJSON(JSON);
+        store.getLayers().get("216").setTiles(store.getGrid().getBounds());
+        store.setKeepPrevious(true);
+        final SessionStore copy = store.copy();
+        assertEquals(store.getAsJSON(), copy.getAsJSON());
+        assertTrue(copy.isKeepPrevious());
+        assertEquals(24, copy.getLayers().get("216").getTiles().size());
+
+        store.getLocation().getBbox().set(0, 0d);
+        store.getLayers().get("216").setVisible(false);
+        store.getMapScales().clear();
+        assertEquals("Copy should not change with the original", 509058.0, copy.getLocation().getLeft(), 0);
+        assertTrue(copy.getLayers().get("216").isVisible());
+        assertEquals(13, copy.getMapScales().size());
+    }
+
+    @Test
+    public void testLayerOutput() throws IOException {
+        final SessionStore store = SessionStore.setJSON(JSON);
+        assertNull(store.getLayers().get("216").getOutput());
+        assertFalse("Output should be left out when not set", store.getAsJSON().contains("\"output\""));
+
+        store.getLayers().get("216").setOutput("mvt");
+        final SessionStore parsed = SessionStore.setJSON(store.getAsJSON());
+        assertEquals("mvt", parsed.getLayers().get("216").getOutput());
+        assertEquals("mvt", parsed.copy().getLayers().get("216").getOutput());
+    }
+
+    @Test
+    public void testFeatureEncoding() throws IOException {
+        final SessionStore store = SessionStore.setJSON(JSON);
+        assertNull(store.getFeatureEncoding());
+        assertFalse(store.getAsJSON().contains("\"featureEncoding\""));
+
+        store.setFeatureEncoding("columnar");
+        final SessionStore parsed = SessionStore.setJSON(store.getAsJSON());
+        assertEquals("columnar", parsed.getFeatureEncoding());
+        assertEquals("columnar", parsed.copy().getFeatureEncoding());
+    }
+
+    @Test
+    public void testClearRequestParams() throws IOException {
+        final SessionStore store = SessionStore.setJSON(JSON);
+        store.getLayers().get("216").setTiles(store.getGrid().getBounds());
+        store.setKeepPrevious(true);
+        store.setGeomRequest(true);
+        store.clearRequestParams();
+        assertFalse(store.isKeepPrevious());
+        assertFalse(store.isGeomRequest());
+        assertNull(store.getLayers().get("216").getTiles());
+        assertEquals("Saved params should be kept", 1, store.getLayers().size());
+    }
+
     @Test(expected = IOException.class)
     public void testJSONIOException() throws IOException {
         SessionStore.setJSON(JSON_FAIL);
@@ -0,0 +1,82 @@
+package fi.nls.oskari.transport;
+
+import fi.nls.oskari.pojo.SessionStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LocalSessionStoreTest {
+
+    @Test
+    public void testChangesAreCoalesced() throws Exception {
+        final CountingBackend backend = new CountingBackend();
+        // long interval so only the explicit flush() writes
+        final LocalSessionStore sessions = new LocalSessionStore(backend, 60000);
+        final SessionStore store = sessions.get("client");
+        assertSame("Session should be kept in memory", store, sessions.get("client"));
+        assertEquals("Session should be read from backend once", 1, backend.loads);
+
+        sessions.save(store);
+        sessions.save(store);
+        sessions.save(store);
+        assertTrue("Nothing should be written before flush", backend.saved.isEmpty());
+        sessions.flush();
+        assertEquals("Modifications should be written once", 1, backend.saved.size());
+        sessions.flush();
+        assertEquals("Unmodified session should not be written", 1, backend.saved.size());
+        sessions.shutdown();
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        final CountingBackend backend = new CountingBackend();
+        final LocalSessionStore sessions = new LocalSessionStore(backend, 0);
+        final SessionStore store = sessions.get("client");
+        sessions.save(store);
+        sessions.save(store);
+        assertEquals("Each save should be written without flush interval", 2, backend.saved.size());
+    }
+
+    @Test
+    public void testRemovedSessionIsNotWritten() throws Exception {
+        final CountingBackend backend = new CountingBackend();
+        final LocalSessionStore sessions = new LocalSessionStore(backend, 60000);
+        final SessionStore store = sessions.get("client");
+        sessions.save(store);
+        assertSame(store, sessions.remove("client"));
+        sessions.flush();
+        assertTrue("Removed session should not be written", backend.saved.isEmpty());
+        assertNull(sessions.getLocal("client"));
+        assertEquals(0, sessions.getSize());
+        sessions.shutdown();
+    }
+
+    @Test
+    public void testEvictWritesPendingChanges() throws Exception {
+        final CountingBackend backend = new CountingBackend();
+        final LocalSessionStore sessions = new LocalSessionStore(backend, 60000);
+        final SessionStore store = sessions.get("client");
+        sessions.save(store);
+        sessions.evict("client");
+        assertEquals("Pending changes should be written on evict", 1, backend.saved.size());
+        assertNull(sessions.getLocal("client"));
+        sessions.shutdown();
+    }
+
+    static class CountingBackend implements LocalSessionStore.Backend {
+        int loads = 0;
+        final List<SessionStore> saved = new ArrayList<>();
+
+        public String load(String client) {
+            loads++;
+            return null;
+        }
+
+        public void save(SessionStore store) {
+            saved.add(store);
+        }
+    }
+}
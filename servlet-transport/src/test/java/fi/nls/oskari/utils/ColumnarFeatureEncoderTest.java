@@ -0,0 +1,137 @@
+package fi.nls.oskari.utils;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ColumnarFeatureEncoderTest {
+
+    private static final Logger log = LogFactory.getLogger(ColumnarFeatureEncoderTest.class);
+
+    private final GeometryFactory gf = new GeometryFactory();
+    private final ColumnarFeatureEncoder encoder = new ColumnarFeatureEncoder(2);
+
+    private static List<Object> row(Object... values) {
+        return new ArrayList<Object>(Arrays.asList(values));
+    }
+
+    private static List<List<Object>> sample(int count) {
+        final String[] types = {"residential", "commercial", "industrial"};
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (int i = 0; i < count; i++) {
+            rows.add(row("buildings." + (1000 + i), types[i % types.length], "Street " + i, 1950 + i % 60,
+                    i % 7 == 0 ? null : "Helsinki", 385000.123456 + i * 10.5, 6672000.654321 + i * 3.25));
+        }
+        return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> column(Map<String, Object> encoded, int index) {
+        return ((List<Map<String, Object>>) encoded.get(ColumnarFeatureEncoder.KEY_COLUMNS)).get(index);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> values(Map<String, Object> column) {
+        return (List<Object>) column.get(ColumnarFeatureEncoder.KEY_VALUES);
+    }
+
+    @Test
+    public void testColumns() {
+        final List<List<Object>> rows = sample(4);
+        rows.get(1).set(3, null);
+        final Map<String, Object> encoded = encoder.encodeFeatures(rows, 5, 6);
+
+        assertEquals(4, encoded.get(ColumnarFeatureEncoder.KEY_COUNT));
+        assertEquals("Only repeated strings are in the dictionary",
+                Arrays.asList("residential", "Helsinki"), encoded.get(ColumnarFeatureEncoder.KEY_DICTIONARY));
+
+        assertEquals(ColumnarFeatureEncoder.TYPE_STRING, column(encoded, 0).get(ColumnarFeatureEncoder.KEY_TYPE));
+        assertEquals("buildings.1000", values(column(encoded, 0)).get(0));
+        assertEquals(Arrays.asList(0, "commercial", "industrial", 0), values(column(encoded, 1)));
+
+        assertEquals(ColumnarFeatureEncoder.TYPE_INTEGER, column(encoded, 3).get(ColumnarFeatureEncoder.KEY_TYPE));
+        assertEquals("Deltas skip nulls", Arrays.asList(1950L, null, 2L, 1L), values(column(encoded, 3)));
+        assertEquals(Arrays.asList(null, 1, 1, 1), values(column(encoded, 4)));
+
+        assertEquals(ColumnarFeatureEncoder.TYPE_COORDINATE, column(encoded, 5).get(ColumnarFeatureEncoder.KEY_TYPE));
+        assertEquals(Arrays.asList(38500012L, 1050L, 1050L, 1050L), values(column(encoded, 5)));
+        assertEquals(Arrays.asList(667200065L, 325L, 325L, 325L), values(column(encoded, 6)));
+    }
+
+    @Test
+    public void testNullAndRawColumns() {
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        rows.add(row("a", null, 1.5));
+        rows.add(row("b", null, "text"));
+        final Map<String, Object> encoded = encoder.encodeFeatures(rows);
+        assertEquals(ColumnarFeatureEncoder.TYPE_NULL, column(encoded, 1).get(ColumnarFeatureEncoder.KEY_TYPE));
+        assertNull(values(column(encoded, 1)));
+        assertEquals(ColumnarFeatureEncoder.TYPE_RAW, column(encoded, 2).get(ColumnarFeatureEncoder.KEY_TYPE));
+        assertEquals(Arrays.asList(1.5, "text"), values(column(encoded, 2)));
+    }
+
+    @Test
+    public void testGeometries() {
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        rows.add(row("f.1", gf.createLineString(new Coordinate[] {
+                new Coordinate(100.001, 200.002), new Coordinate(101.001, 199.002)})));
+        rows.add(row("f.2", "POLYGON ((0 0, 1 0, 1 1, 0 0))"));
+        rows.add(row("f.3", null));
+        final Map<String, Object> encoded = encoder.encodeGeometries(rows);
+
+        final List<Object> geometries = values(column(encoded, 1));
+        final Map<?, ?> line = (Map<?, ?>) geometries.get(0);
+        assertEquals("LineString", line.get(ColumnarFeatureEncoder.KEY_TYPE));
+        assertEquals(Arrays.asList(10000L, 20000L, 100L, -100L), line.get(ColumnarFeatureEncoder.KEY_COORDINATES));
+
+        final Map<?, ?> polygon = (Map<?, ?>) geometries.get(1);
+        assertEquals("Polygon", polygon.get(ColumnarFeatureEncoder.KEY_TYPE));
+        assertEquals(Arrays.asList(Arrays.asList(0L, 0L, 100L, 0L, 0L, 100L, -100L, -100L)),
+                polygon.get(ColumnarFeatureEncoder.KEY_COORDINATES));
+        assertNull(geometries.get(2));
+        assertEquals(Arrays.asList("f.1", "f.2", "f.3"), values(column(encoded, 0)));
+    }
+
+    @Test
+    public void testPayloadSize() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new GeometryJSONOutputModule());
+        final int count = 1000;
+        final List<List<Object>> rows = sample(count);
+
+        // warm up
+        for (int i = 0; i < 10; i++) {
+            mapper.writeValueAsBytes(rows);
+            ColumnarFeatureEncoder.deflate(encoder.encodeFeatures(rows, 5, 6));
+        }
+
+        long start = System.nanoTime();
+        final int rowBytes = mapper.writeValueAsBytes(rows).length;
+        final long rowTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final int columnarBytes = mapper.writeValueAsBytes(encoder.encodeFeatures(rows, 5, 6)).length;
+        final long columnarTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final int deflatedBytes = ColumnarFeatureEncoder.deflate(encoder.encodeFeatures(rows, 5, 6)).length;
+        final long deflatedTime = System.nanoTime() - start;
+
+        log.info("Bytes per feature - rows:", rowBytes / count, "columnar:", columnarBytes / count,
+                "deflated:", deflatedBytes / count);
+        log.info("Serialization us - rows:", rowTime / 1000, "columnar:", columnarTime / 1000,
+                "deflated:", deflatedTime / 1000);
+        assertTrue(columnarBytes < rowBytes);
+        assertTrue(deflatedBytes < columnarBytes);
+    }
+}
@@ -0,0 +1,92 @@
+package fi.nls.oskari.wfs;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Point;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FeatureIndexTest {
+
+    private final GeometryFactory gf = new GeometryFactory();
+    private DefaultFeatureCollection features;
+
+    @Before
+    public void setUp() {
+        final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("geom", Point.class);
+        typeBuilder.add("name", String.class);
+        final SimpleFeatureType type = typeBuilder.buildFeatureType();
+        final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+
+        features = new DefaultFeatureCollection("test", type);
+        // grid of 10x10 points, ids in insertion order
+        for (int i = 0; i < 100; i++) {
+            builder.add(gf.createPoint(new Coordinate(i % 10, i / 10)));
+            builder.add("feature " + i);
+            features.add(builder.buildFeature("f" + String.format("%03d", i)));
+        }
+        builder.add(null);
+        builder.add("no geometry");
+        features.add(builder.buildFeature("nogeom"));
+    }
+
+    @Test
+    public void testQuery() {
+        final FeatureIndex index = new FeatureIndex(features, "ns:geom");
+        assertEquals(101, index.size());
+        final List<SimpleFeature> result = index.query(new Envelope(0.5, 2.5, 0.5, 1.5));
+        assertEquals("Only features in the area should be returned", 2, result.size());
+        assertEquals("f011", result.get(0).getID());
+        assertEquals("f012", result.get(1).getID());
+        assertTrue(index.query(new Envelope(20, 30, 20, 30)).isEmpty());
+    }
+
+    @Test
+    public void testOriginalOrderIsKept() {
+        final FeatureIndex index = new FeatureIndex(features, null);
+        final List<SimpleFeature> result = index.query(new Envelope(-1, 10, -1, 10));
+        assertEquals("Features without geometry shouldn't be returned", 100, result.size());
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i - 1).getID().compareTo(result.get(i).getID()) < 0);
+        }
+    }
+
+    @Test
+    public void testPrefixWithUnderscore() {
+        final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("location", Point.class);
+        typeBuilder.add("area", Point.class);
+        final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(typeBuilder.buildFeatureType());
+        final DefaultFeatureCollection collection = new DefaultFeatureCollection("test", builder.getFeatureType());
+        builder.add(gf.createPoint(new Coordinate(0, 0)));
+        builder.add(gf.createPoint(new Coordinate(5, 5)));
+        collection.add(builder.buildFeature("f1"));
+
+        final FeatureIndex index = new FeatureIndex(collection, "my_ns:area");
+        assertEquals("Named geometry should be indexed", 1, index.query(new Envelope(4, 6, 4, 6)).size());
+        assertTrue(index.query(new Envelope(-1, 1, -1, 1)).isEmpty());
+    }
+
+    @Test
+    public void testGetFeatures() {
+        final FeatureIndex index = new FeatureIndex(features, "geom");
+        assertTrue(index.isIndexOf(features));
+        final FeatureCollection<SimpleFeatureType, SimpleFeature> tile = index.getFeatures(new Envelope(0, 4.5, 0, 4.5));
+        assertEquals(25, tile.size());
+        assertEquals(features.getSchema(), tile.getSchema());
+    }
+}
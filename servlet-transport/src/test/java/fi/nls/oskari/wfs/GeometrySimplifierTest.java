@@ -0,0 +1,59 @@
+package fi.nls.oskari.wfs;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GeometrySimplifierTest {
+
+    private final GeometryFactory gf = new GeometryFactory();
+    // 10 map units per pixel, tolerance of 5 map units
+    private final GeometrySimplifier simplifier = new GeometrySimplifier(10, 0.5);
+
+    @Test
+    public void testLineIsSimplified() {
+        final Coordinate[] coords = new Coordinate[101];
+        for (int i = 0; i < coords.length; i++) {
+            coords[i] = new Coordinate(i * 10, i % 2 == 0 ? 0 : 1);
+        }
+        final Geometry result = simplifier.simplify(gf.createLineString(coords));
+        assertEquals(2, result.getNumPoints());
+        assertEquals(new Coordinate(1000, 0), result.getCoordinates()[1]);
+    }
+
+    @Test
+    public void testCoordinatesAreSnapped() {
+        final Geometry result = simplifier.simplify(gf.createLineString(new Coordinate[] {
+                new Coordinate(1.2, 3.4), new Coordinate(501.7, 498.2)}));
+        assertEquals(new Coordinate(0, 0), result.getCoordinates()[0]);
+        assertEquals(new Coordinate(500, 500), result.getCoordinates()[1]);
+    }
+
+    @Test
+    public void testSmallPolygonIsKept() {
+        final Geometry polygon = gf.createPolygon(new Coordinate[] {
+                new Coordinate(1, 1), new Coordinate(3, 1), new Coordinate(3, 3),
+                new Coordinate(1, 3), new Coordinate(1, 1)});
+        final Geometry result = simplifier.simplify(polygon);
+        assertFalse(result.isEmpty());
+    }
+
+    @Test
+    public void testPointIsUnchanged() {
+        final Geometry point = gf.createPoint(new Coordinate(1.234, 5.678));
+        assertSame(point, simplifier.simplify(point));
+    }
+
+    @Test
+    public void testLayerTolerance() throws Exception {
+        assertEquals(0, GeometrySimplifier.getTolerance(new JSONObject("{\"simplify\": false}")), 0);
+        assertEquals(2, GeometrySimplifier.getTolerance(new JSONObject("{\"simplify\": 2}")), 0);
+        assertEquals(0.5, GeometrySimplifier.getTolerance(new JSONObject("{\"simplify\": true}")), 0);
+        assertEquals(0.5, GeometrySimplifier.getTolerance(null), 0);
+        assertEquals(2.5, new GeometrySimplifier(5, 0.5).getTolerance(), 0);
+    }
+}
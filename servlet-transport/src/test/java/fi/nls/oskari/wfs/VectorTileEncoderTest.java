@@ -0,0 +1,262 @@
+package fi.nls.oskari.wfs;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VectorTileEncoderTest {
+
+    private static final List<Double> BOUNDS = Arrays.asList(0d, 0d, 100d, 100d);
+
+    private final GeometryFactory gf = new GeometryFactory();
+    private final VectorTileEncoder encoder = new VectorTileEncoder(100, 10);
+    private SimpleFeatureBuilder builder;
+    private DefaultFeatureCollection features;
+
+    @Before
+    public void setUp() {
+        final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("geom", Geometry.class);
+        typeBuilder.add("name", String.class);
+        typeBuilder.add("count", Integer.class);
+        final SimpleFeatureType type = typeBuilder.buildFeatureType();
+        builder = new SimpleFeatureBuilder(type);
+        features = new DefaultFeatureCollection("test", type);
+    }
+
+    private void add(String id, Geometry geom, String name, Integer count) {
+        builder.add(geom);
+        builder.add(name);
+        builder.add(count);
+        features.add(builder.buildFeature(id));
+    }
+
+    private Geometry square(double minX, double minY, double maxX, double maxY) {
+        return gf.createPolygon(new Coordinate[] {
+                new Coordinate(minX, minY), new Coordinate(maxX, minY), new Coordinate(maxX, maxY),
+                new Coordinate(minX, maxY), new Coordinate(minX, minY)});
+    }
+
+    @Test
+    public void testPoint() {
+        add("test.12", gf.createPoint(new Coordinate(25, 75)), "a", 3);
+        final Map<Integer, List<Object>> layer = layer(encoder.encode("layer", BOUNDS, features, "ns:geom"));
+
+        assertEquals("layer", string(layer, 1));
+        assertEquals(2L, layer.get(15).get(0));
+        assertEquals(100L, layer.get(5).get(0));
+        assertEquals(Arrays.asList("__fid", "name", "count"), strings(layer.get(3)));
+
+        final Map<Integer, List<Object>> feature = parse((byte[]) layer.get(2).get(0));
+        assertEquals(12L, feature.get(1).get(0));
+        assertEquals(1L, feature.get(3).get(0));
+        // MoveTo(1), y axis points down
+        assertEquals(Arrays.asList(9L, zigZag(25), zigZag(25)), packed(feature.get(4).get(0)));
+        assertEquals(Arrays.asList(0L, 0L, 1L, 1L, 2L, 2L), packed(feature.get(2).get(0)));
+    }
+
+    @Test
+    public void testPolygonIsClippedAndClockwise() {
+        // counter-clockwise in map coordinates and extends beyond the buffer
+        add("test.1", square(50, 50, 200, 200), "a", 1);
+        final Map<Integer, List<Object>> layer = layer(encoder.encode("layer", BOUNDS, features, "geom"));
+        final Map<Integer, List<Object>> feature = parse((byte[]) layer.get(2).get(0));
+        assertEquals(3L, feature.get(3).get(0));
+
+        final List<Long> geometry = packed(feature.get(4).get(0));
+        assertEquals(9L, (long) geometry.get(0));
+        assertEquals("LineTo with 3 points", 2L | (3 << 3), (long) geometry.get(3));
+        assertEquals("ClosePath", 15L, (long) geometry.get(geometry.size() - 1));
+
+        final List<int[]> ring = ring(geometry);
+        long area = 0;
+        for (int i = 0; i < ring.size(); i++) {
+            int[] a = ring.get(i);
+            int[] b = ring.get((i + 1) % ring.size());
+            area += (long) a[0] * b[1] - (long) b[0] * a[1];
+            assertTrue("Clipped to the buffer", a[0] >= -10 && a[0] <= 110 && a[1] >= -10 && a[1] <= 110);
+        }
+        assertTrue("Exterior ring should have positive area", area > 0);
+    }
+
+    @Test
+    public void testValuesAreShared() {
+        add("test.1", gf.createPoint(new Coordinate(10, 10)), "same", 1);
+        add("test.2", gf.createPoint(new Coordinate(20, 20)), "same", 1);
+        add("test.3", gf.createPoint(new Coordinate(300, 300)), "outside", 2);
+        add("nogeom", null, "none", 3);
+        final Map<Integer, List<Object>> layer = layer(encoder.encode("layer", BOUNDS, features, "geom"));
+        assertEquals("Features outside the tile should be skipped", 2, layer.get(2).size());
+        // two fids, "same" and 1
+        assertEquals(4, layer.get(4).size());
+        assertNull("Id isn't set without numeric suffix", VectorTileEncoder.getId("nogeom"));
+    }
+
+    @Test
+    public void testOnlyGivenPropertiesAreIncluded() {
+        add("test.1", gf.createPoint(new Coordinate(10, 10)), "a", 1);
+        final Map<Integer, List<Object>> layer = layer(encoder.encode("layer", BOUNDS, features, "geom",
+                Arrays.asList("count", "missing")));
+        assertEquals(Arrays.asList("__fid", "count"), strings(layer.get(3)));
+        final Map<Integer, List<Object>> feature = parse((byte[]) layer.get(2).get(0));
+        assertEquals(Arrays.asList(0L, 0L, 1L, 1L), packed(feature.get(2).get(0)));
+
+        final Map<Integer, List<Object>> fidOnly = layer(encoder.encode("layer", BOUNDS, features, "geom",
+                new ArrayList<String>()));
+        assertEquals(Arrays.asList("__fid"), strings(fidOnly.get(3)));
+    }
+
+    @Test
+    public void testDecimalsAreNotTruncated() {
+        final SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+        typeBuilder.setName("test");
+        typeBuilder.add("geom", Geometry.class);
+        typeBuilder.add("area", BigDecimal.class);
+        final SimpleFeatureType type = typeBuilder.buildFeatureType();
+        final SimpleFeatureBuilder decimalBuilder = new SimpleFeatureBuilder(type);
+        final DefaultFeatureCollection decimals = new DefaultFeatureCollection("test", type);
+        decimalBuilder.add(gf.createPoint(new Coordinate(10, 10)));
+        decimalBuilder.add(new BigDecimal("12.75"));
+        decimals.add(decimalBuilder.buildFeature("test.1"));
+        decimalBuilder.add(gf.createPoint(new Coordinate(20, 20)));
+        decimalBuilder.add(new BigDecimal("3.00"));
+        decimals.add(decimalBuilder.buildFeature("test.2"));
+
+        final Map<Integer, List<Object>> layer = layer(encoder.encode("layer", BOUNDS, decimals, "geom"));
+        // values in order: fid 1, 12.75, fid 2, 3
+        final Map<Integer, List<Object>> decimal = parse((byte[]) layer.get(4).get(1));
+        assertNull("Decimal shouldn't be encoded as an integer", decimal.get(6));
+        assertEquals(12.75, ByteBuffer.wrap((byte[]) decimal.get(3).get(0)).order(ByteOrder.LITTLE_ENDIAN).getDouble(), 0);
+        final Map<Integer, List<Object>> integral = parse((byte[]) layer.get(4).get(3));
+        assertEquals(zigZag(3), integral.get(6).get(0));
+    }
+
+    @Test
+    public void testCacheStyleDependsOnLanguage() {
+        assertEquals(VectorTileEncoder.getCacheStyle("fi"), VectorTileEncoder.getCacheStyle("fi"));
+        assertNotEquals(VectorTileEncoder.getCacheStyle("fi"), VectorTileEncoder.getCacheStyle("en"));
+        assertEquals(VectorTileEncoder.CACHE_STYLE, VectorTileEncoder.getCacheStyle(null));
+    }
+
+    @Test
+    public void testEmptyTile() {
+        final Map<Integer, List<Object>> layer = layer(encoder.encode("layer", BOUNDS, null, null));
+        assertNull(layer.get(2));
+        assertEquals("layer", string(layer, 1));
+    }
+
+    private static long zigZag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static List<int[]> ring(List<Long> geometry) {
+        final List<int[]> points = new ArrayList<>();
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < geometry.size(); ) {
+            final long command = geometry.get(i++);
+            final int count = (int) (command >> 3);
+            if ((command & 7) == 7) {
+                continue;
+            }
+            for (int j = 0; j < count; j++) {
+                x += decodeZigZag(geometry.get(i++));
+                y += decodeZigZag(geometry.get(i++));
+                points.add(new int[] {x, y});
+            }
+        }
+        return points;
+    }
+
+    private static int decodeZigZag(long n) {
+        return (int) ((n >>> 1) ^ -(n & 1));
+    }
+
+    private static Map<Integer, List<Object>> layer(byte[] tile) {
+        return parse((byte[]) parse(tile).get(3).get(0));
+    }
+
+    private static String string(Map<Integer, List<Object>> message, int field) {
+        return new String((byte[]) message.get(field).get(0), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> strings(List<Object> values) {
+        final List<String> result = new ArrayList<>();
+        for (Object value : values) {
+            result.add(new String((byte[]) value, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    private static List<Long> packed(Object bytes) {
+        final byte[] data = (byte[]) bytes;
+        final List<Long> result = new ArrayList<>();
+        final int[] pos = {0};
+        while (pos[0] < data.length) {
+            result.add(varint(data, pos));
+        }
+        return result;
+    }
+
+    private static long varint(byte[] data, int[] pos) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Reads protobuf message fields, varints as Long, length delimited fields as byte[]
+     */
+    private static Map<Integer, List<Object>> parse(byte[] data) {
+        final Map<Integer, List<Object>> fields = new HashMap<>();
+        final int[] pos = {0};
+        while (pos[0] < data.length) {
+            final long tag = varint(data, pos);
+            final int field = (int) (tag >> 3);
+            final Object value;
+            switch ((int) (tag & 7)) {
+                case 0:
+                    value = varint(data, pos);
+                    break;
+                case 1:
+                    value = Arrays.copyOfRange(data, pos[0], pos[0] + 8);
+                    pos[0] += 8;
+                    break;
+                case 2:
+                    final int length = (int) varint(data, pos);
+                    value = Arrays.copyOfRange(data, pos[0], pos[0] + length);
+                    pos[0] += length;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected wire type " + tag);
+            }
+            fields.computeIfAbsent(field, k -> new ArrayList<>()).add(value);
+        }
+        return fields;
+    }
+}
@@ -20,6 +20,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
@@ -140,6 +142,23 @@ public class WFSImageTest {
 		assertTrue("Should get same image data", Arrays.equals(byteTileImage, byteCachedImage));
 	}
 
+    @Test
+    public void testCacheKey() {
+        Double[] bbox = new Double[] { 508928.0, 6859776.0, 509952.0, 6860800.0 };
+        String key = WFSImage.getCacheKey("216", "default", "EPSG:3067", bbox, 8, true);
+        assertTrue("Key should start with layer prefix", key.startsWith(WFSImage.KEY + "216_"));
+        assertEquals("Key should be compact", (WFSImage.KEY + "216_").length() + 16, key.length());
+        assertEquals("Same parameters should give same key",
+                key, WFSImage.getCacheKey("216", "default", "EPSG:3067", bbox.clone(), 8, true));
+        assertNotEquals("Zoom should change the key",
+                key, WFSImage.getCacheKey("216", "default", "EPSG:3067", bbox, 9, true));
+        assertEquals("Temp key should differ only by suffix",
+                key + "_temp", WFSImage.getCacheKey("216", "default", "EPSG:3067", bbox, 8, false));
+        assertEquals("Custom styles should not be cached persistently",
+                WFSImage.getCacheKey("216", WFSImage.PREFIX_CUSTOM_STYLE, "EPSG:3067", bbox, 8, false),
+                WFSImage.getCacheKey("216", WFSImage.PREFIX_CUSTOM_STYLE, "EPSG:3067", bbox, 8, true));
+    }
+
     @Test
     public void testCustomTile() {
         // check that we have redis connectivity (redis server running)
@@ -0,0 +1,69 @@
+package fi.nls.oskari.wfs;
+
+import fi.nls.oskari.cache.JedisNearCache;
+import fi.nls.oskari.domain.map.wfs.WFSLayerConfiguration;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class WFSStyleRegistryTest {
+
+    private final StyleFactory factory = CommonFactoryFinder.getStyleFactory();
+    private final AtomicInteger parseCount = new AtomicInteger();
+    private WFSStyleRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new WFSStyleRegistry(xml -> {
+            parseCount.incrementAndGet();
+            return xml.contains("broken") ? null : factory.createStyle();
+        });
+    }
+
+    @Test
+    public void testStyleIsParsedOnce() {
+        final Style style = registry.getStyle("1", "default", "geom", "<sld/>");
+        assertNotNull(style);
+        assertSame("Parsed style should be shared", style, registry.getStyle("1", "default", "geom", "<sld/>"));
+        assertEquals(1, parseCount.get());
+        assertNotSame("Geometry type should be part of the key", style, registry.getStyle("1", "default", "other", "<sld/>"));
+        assertEquals(2, parseCount.get());
+    }
+
+    @Test
+    public void testChangedSLDIsParsedAgain() {
+        final Style style = registry.getStyle("1", "default", "geom", "<sld/>");
+        assertNotSame(style, registry.getStyle("1", "default", "geom", "<sld version=\"2\"/>"));
+        assertEquals(2, parseCount.get());
+        assertEquals(1, registry.getSize());
+    }
+
+    @Test
+    public void testFailuresAreCached() {
+        assertNull(registry.getStyle("1", "default", "geom", "broken"));
+        assertNull(registry.getStyle("1", "default", "geom", "broken"));
+        assertEquals(1, parseCount.get());
+        assertNull("Missing SLD should not be parsed", registry.getStyle("1", "default", "geom", null));
+        assertEquals(1, parseCount.get());
+    }
+
+    @Test
+    public void testInvalidation() {
+        registry.getStyle("1", "default", "geom", "<sld/>");
+        registry.getStyle("10", "default", "geom", "<sld/>");
+        registry.onInvalidation("WFSImage_1");
+        assertEquals("Unrelated keys should be ignored", 2, registry.getSize());
+        registry.onInvalidation(WFSLayerConfiguration.KEY + "1");
+        assertEquals("Only styles of layer 1 should be removed", 1, registry.getSize());
+        registry.getStyle("10", "default", "geom", "<sld/>");
+        assertEquals(2, parseCount.get());
+        registry.onInvalidation(JedisNearCache.WILDCARD);
+        assertEquals(0, registry.getSize());
+    }
+}
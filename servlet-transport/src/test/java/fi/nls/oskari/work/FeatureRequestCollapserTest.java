@@ -0,0 +1,137 @@
+package fi.nls.oskari.work;
+
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.transport.TransportJobException;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.FeatureCollection;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class FeatureRequestCollapserTest {
+
+    private final AtomicInteger fetchCount = new AtomicInteger();
+    private final AtomicInteger copyCount = new AtomicInteger();
+
+    private FeatureRequestCollapser createCollapser(Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache) {
+        return new FeatureRequestCollapser(true, cache, features -> {
+            copyCount.incrementAndGet();
+            return features;
+        });
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCollapsed() throws Exception {
+        final FeatureRequestCollapser collapser = createCollapser(null);
+        final DefaultFeatureCollection result = new DefaultFeatureCollection();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<FeatureCollection<SimpleFeatureType, SimpleFeature>> first = executor.submit(() ->
+                    collapser.get("key", () -> {
+                        fetchCount.incrementAndGet();
+                        started.countDown();
+                        await(release);
+                        return result;
+                    }));
+            started.await(5, TimeUnit.SECONDS);
+            final Future<FeatureCollection<SimpleFeatureType, SimpleFeature>> second = executor.submit(() ->
+                    collapser.get("key", () -> {
+                        fetchCount.incrementAndGet();
+                        return new DefaultFeatureCollection();
+                    }));
+            // wait until the second request is waiting for the first
+            final long timeout = System.currentTimeMillis() + 5000;
+            while (getCount(collapser, "collapsed") == 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            assertSame(result, first.get(5, TimeUnit.SECONDS));
+            assertSame(result, second.get(5, TimeUnit.SECONDS));
+            assertEquals("Backend should be requested once", 1, fetchCount.get());
+            assertEquals("Each caller should get a copy", 2, copyCount.get());
+            assertEquals(0, collapser.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResultsAreCached() {
+        final Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache = new Cache<>();
+        final FeatureRequestCollapser collapser = createCollapser(cache);
+        final DefaultFeatureCollection result = new DefaultFeatureCollection();
+        collapser.get("key", () -> {
+            fetchCount.incrementAndGet();
+            return result;
+        });
+        assertSame(result, collapser.get("key", () -> {
+            fetchCount.incrementAndGet();
+            return new DefaultFeatureCollection();
+        }));
+        assertEquals(1, fetchCount.get());
+        collapser.get("other", () -> {
+            fetchCount.incrementAndGet();
+            return result;
+        });
+        assertEquals("Different key should make a new request", 2, fetchCount.get());
+    }
+
+    @Test
+    public void testCacheCanBeSkipped() {
+        final Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache = new Cache<>();
+        final FeatureRequestCollapser collapser = createCollapser(cache);
+        final DefaultFeatureCollection cached = new DefaultFeatureCollection();
+        collapser.get("key", () -> cached);
+        final DefaultFeatureCollection latest = new DefaultFeatureCollection();
+        assertSame("Cached features shouldn't be used", latest, collapser.get("key", () -> latest, false));
+        assertSame("Result shouldn't replace cached features", cached, collapser.get("key", () -> {
+            fetchCount.incrementAndGet();
+            return new DefaultFeatureCollection();
+        }));
+        assertEquals(0, fetchCount.get());
+    }
+
+    @Test
+    public void testFailureIsNotCached() {
+        final Cache<FeatureCollection<SimpleFeatureType, SimpleFeature>> cache = new Cache<>();
+        final FeatureRequestCollapser collapser = createCollapser(cache);
+        try {
+            collapser.get("key", () -> {
+                throw new TransportJobException("failed");
+            });
+            fail("Exception should be thrown");
+        } catch (TransportJobException expected) {
+        }
+        assertEquals(0, collapser.getInFlightCount());
+        final DefaultFeatureCollection result = new DefaultFeatureCollection();
+        assertSame(result, collapser.get("key", () -> result));
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals(FeatureRequestCollapser.getKey("1", "http://test", "<GetFeature/>"),
+                FeatureRequestCollapser.getKey("1", "http://test", "<GetFeature/>"));
+        assertNotEquals(FeatureRequestCollapser.getKey("1", "http://test", "<GetFeature/>"),
+                FeatureRequestCollapser.getKey("1", "http://test", "<GetFeature srsName=\"EPSG:4326\"/>"));
+    }
+
+    private static long getCount(FeatureRequestCollapser collapser, String meter) {
+        return ((com.codahale.metrics.Meter) collapser.getMetrics().getMetrics()
+                .get(FeatureRequestCollapser.class.getName() + "." + meter)).getCount();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
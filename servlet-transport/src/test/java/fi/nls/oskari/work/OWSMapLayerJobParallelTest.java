@@ -0,0 +1,153 @@
+package fi.nls.oskari.work;
+
+import com.vividsolutions.jts.geom.Geometry;
+import fi.nls.oskari.pojo.SessionStore;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.wfs.WFSParser;
+import fi.nls.oskari.wfs.pojo.WFSLayerStore;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.jts.WKTReader2;
+import org.junit.After;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class OWSMapLayerJobParallelTest {
+
+    private static String sessionJSON = "{\"client\":\"test\",\"session\":\"49E8CFEF9A310C76438952F8FCD9FF2D\",\"language\":\"fi\",\"browser\":\"mozilla\",\"browserVersion\":20,\"location\":{\"srs\":\"EPSG:3067\",\"bbox\":[509058.0,6858054.0,513578.0,6860174.0],\"zoom\":8},\"grid\":{\"rows\":4,\"columns\":6,\"bounds\":[[508928.0,6859776.0,509952.0,6860800.0],[509952.0,6859776.0,510976.0,6860800.0],[510976.0,6859776.0,512000.0,6860800.0],[512000.0,6859776.0,513024.0,6860800.0],[513024.0,6859776.0,514048.0,6860800.0],[514048.0,6859776.0,515072.0,6860800.0],[508928.0,6858752.0,509952.0,6859776.0],[509952.0,6858752.0,510976.0,6859776.0],[510976.0,6858752.0,512000.0,6859776.0],[512000.0,6858752.0,513024.0,6859776.0],[513024.0,6858752.0,514048.0,6859776.0],[514048.0,6858752.0,515072.0,6859776.0],[508928.0,6857728.0,509952.0,6858752.0],[509952.0,6857728.0,510976.0,6858752.0],[510976.0,6857728.0,512000.0,6858752.0],[512000.0,6857728.0,513024.0,6858752.0],[513024.0,6857728.0,514048.0,6858752.0],[514048.0,6857728.0,515072.0,6858752.0],[508928.0,6856704.0,509952.0,6857728.0],[509952.0,6856704.0,510976.0,6857728.0],[510976.0,6856704.0,512000.0,6857728.0],[512000.0,6856704.0,513024.0,6857728.0],[513024.0,6856704.0,514048.0,6857728.0],[514048.0,6856704.0,515072.0,6857728.0]]},\"tileSize\":{\"width\":256,\"height\":256},\"mapSize\":{\"width\":1130,\"height\":530},\"mapScales\":[5669294.4,2834647.2,1417323.6,566929.44,283464.72,141732.36,56692.944,28346.472,11338.5888,5669.2944,2834.6472,1417.3236,708.6618],\"layers\":{\"216\":{\"id\":216,\"styleName\":\"default\",\"visible\":true}}}";
+    private static String layerJSON = "{\"layerId\":216,\"username\":\"\",\"password\":\"\",\"maxFeatures\":100,\"featureNamespace\":\"pkartta\",\"featureNamespaceURI\":\"www.pkartta.fi\",\"featureElement\":\"toimipaikat\",\"featureType\":\"\",\"selectedFeatureParams\":[],\"featureParamsLocales\":{},\"geometryType\":\"2d\",\"getMapTiles\":true,\"getFeatureInfo\":false,\"tileRequest\":false,\"minScale\":50000.0,\"maxScale\":1.0,\"templateName\":null,\"templateDescription\":null,\"templateType\":null,\"requestTemplate\":null,\"responseTemplate\":null,\"selectionSLDStyle\":null,\"styles\":{\"default\":{\"id\":\"1\",\"name\":\"default\",\"SLDStyle\":\"<?xml version=\\\"1.0\\\" encoding=\\\"ISO-8859-1\\\"?><StyledLayerDescriptor version=\\\"1.0.0\\\" xmlns=\\\"http://www.opengis.net/sld\\\" xmlns:ogc=\\\"http://www.opengis.net/ogc\\\" xmlns:xlink=\\\"http://www.w3.org/1999/xlink\\\" xmlns:xsi=\\\"http://www.w3.org/2001/XMLSchema-instance\\\" xsi:schemaLocation=\\\"http://www.opengis.net/sld http://schemas.opengis.net/sld/1.0.0/StyledLayerDescriptor.xsd\\\"><NamedLayer><Name>Palvelupisteet</Name><UserStyle><Title>Palvelupisteiden tyyli</Title><FeatureTypeStyle><Rule><Title>Piste</Title><PointSymbolizer><Graphic><Mark><WellKnownName>circle</WellKnownName><Fill><CssParameter name=\\\"fill\\\">#FFFFFF</CssParameter></Fill><Stroke><CssParameter name=\\\"stroke\\\">#000000</CssParameter><CssParameter name=\\\"stroke-width\\\">2</CssParameter></Stroke></Mark><Size>12</Size></Graphic></PointSymbolizer></Rule></FeatureTypeStyle></UserStyle></NamedLayer></StyledLayerDescriptor>\"}},\"URL\":\"http://kartta.suomi.fi/geoserver/wfs\",\"GMLGeometryProperty\":\"shape\",\"SRSName\":\"EPSG:3067\",\"GMLVersion\":\"3.1.1\",\"WFSVersion\":\"1.1.0\",\"WMSLayerId\":null}";
+
+    @After
+    public void tearDown() {
+        PropertyUtil.clearProperties();
+        TileRenderPool.shutdown();
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws Exception {
+        final List<Map<String, Object>> serial = runJob(false);
+        // one render thread completes tiles in the order they are submitted
+        PropertyUtil.addProperty(TileRenderPool.PROPERTY_THREADS, "1", true);
+        final List<Map<String, Object>> parallel = runJob(true);
+
+        assertEquals("Every tile should be sent once", 24, serial.size());
+        assertEquals("Every tile should be sent once", serial.size(), parallel.size());
+        final Map<List<Double>, Object> serialImages = getImages(serial);
+        final Map<List<Double>, Object> parallelImages = getImages(parallel);
+        assertEquals(serialImages.keySet(), parallelImages.keySet());
+        for (Map.Entry<List<Double>, Object> tile : serialImages.entrySet()) {
+            assertEquals("Tile " + tile.getKey() + " should render the same",
+                    tile.getValue(), parallelImages.get(tile.getKey()));
+        }
+
+        final SessionStore session = SessionStore.setJSON(sessionJSON);
+        final double centerX = (session.getLocation().getLeft() + session.getLocation().getRight()) / 2;
+        final double centerY = (session.getLocation().getBottom() + session.getLocation().getTop()) / 2;
+        double previous = -1;
+        for (Map<String, Object> tile : parallel) {
+            final double distance = getDistance((Double[]) tile.get(OWSMapLayerJob.OUTPUT_IMAGE_BBOX), centerX, centerY);
+            assertTrue("Tiles near the center should be sent first", distance >= previous);
+            previous = distance;
+        }
+        assertEquals(false, parallel.get(0).get(OWSMapLayerJob.OUTPUT_KEEP_PREVIOUS));
+        assertEquals(false, serial.get(0).get(OWSMapLayerJob.OUTPUT_KEEP_PREVIOUS));
+        for (int i = 1; i < parallel.size(); i++) {
+            assertEquals("Tiles after the first should keep previous",
+                    true, parallel.get(i).get(OWSMapLayerJob.OUTPUT_KEEP_PREVIOUS));
+            assertEquals(true, serial.get(i).get(OWSMapLayerJob.OUTPUT_KEEP_PREVIOUS));
+        }
+    }
+
+    private List<Map<String, Object>> runJob(final boolean parallel) throws Exception {
+        PropertyUtil.addProperty(TileRenderPool.PROPERTY_ENABLED, Boolean.toString(parallel), true);
+        final SessionStore session = SessionStore.setJSON(sessionJSON);
+        final WFSLayerStore layer = WFSLayerStore.setJSON(layerJSON);
+        session.getLayers().get(layer.getLayerId()).setTiles(session.getGrid().getBounds());
+        session.setKeepPrevious(false);
+
+        final List<Map<String, Object>> images = new ArrayList<>();
+        final ResultProcessor results = (client, channel, data) -> {
+            if (ResultProcessor.CHANNEL_IMAGE.equals(channel)) {
+                images.add((Map<String, Object>) data);
+            }
+        };
+        final TestJob job = new TestJob(results, session, layer, createFeatures());
+        assertEquals("success", job.run());
+        return images;
+    }
+
+    private static Map<List<Double>, Object> getImages(final List<Map<String, Object>> tiles) {
+        final Map<List<Double>, Object> images = new HashMap<>();
+        for (Map<String, Object> tile : tiles) {
+            images.put(Arrays.asList((Double[]) tile.get(OWSMapLayerJob.OUTPUT_IMAGE_BBOX)),
+                    tile.get(OWSMapLayerJob.OUTPUT_IMAGE_DATA));
+        }
+        return images;
+    }
+
+    private static double getDistance(final Double[] bbox, final double centerX, final double centerY) {
+        final double x = (bbox[0] + bbox[2]) / 2 - centerX;
+        final double y = (bbox[1] + bbox[3]) / 2 - centerY;
+        return x * x + y * y;
+    }
+
+    private static FeatureCollection<SimpleFeatureType, SimpleFeature> createFeatures() throws Exception {
+        final WKTReader2 wkt = new WKTReader2();
+        final List<List<Object>> values = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final Geometry geom = wkt.read("POINT(" + (509000 + i * 300) + " " + (6856800 + i * 200) + ")");
+            values.add(Arrays.<Object>asList("Place" + i, i, geom));
+        }
+        return WFSParser.dataToSimpleFeatures("location:String,symbol:Integer,shape:Point", values);
+    }
+
+    /**
+     * Job with static features and no image cache
+     */
+    private static class TestJob extends OWSMapLayerJob {
+
+        private final FeatureCollection<SimpleFeatureType, SimpleFeature> result;
+
+        TestJob(ResultProcessor service, SessionStore store, WFSLayerStore layer,
+                FeatureCollection<SimpleFeatureType, SimpleFeature> result) {
+            super(service, JobType.NORMAL, store, layer);
+            this.result = result;
+        }
+
+        @Override
+        protected boolean requestHandler(List<Double> bounds) {
+            this.features = result;
+            return true;
+        }
+
+        @Override
+        protected void propertiesHandler() {
+        }
+
+        @Override
+        protected void featuresHandler() {
+        }
+
+        @Override
+        protected Map<List<Double>, byte[]> getImageCache(List<List<Double>> grid, String styleName) {
+            return new HashMap<>();
+        }
+
+        @Override
+        public RequestResponse request(JobType type, WFSLayerStore layer, SessionStore session,
+                                       List<Double> bounds, MathTransform transformService) {
+            return null;
+        }
+
+        @Override
+        public FeatureCollection<SimpleFeatureType, SimpleFeature> response(WFSLayerStore layer,
+                                                                            RequestResponse response) {
+            return null;
+        }
+    }
+}